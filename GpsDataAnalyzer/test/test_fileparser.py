@@ -2,6 +2,9 @@
 import unittest
 from unittest.mock import patch
 
+import math
+import xml.etree.ElementTree as ET
+
 from datetime import datetime
 from datetime import timezone
 
@@ -115,6 +118,42 @@ class FileParserTest(unittest.TestCase):
                                      start_time=datetime(2020,7,7,18,45,47,5000,tzinfo=timezone.utc),
                                      end_time=datetime(2020,7,7,19,8,1,318000,tzinfo=timezone.utc)), xml_gpsdataset.gps_meta_data)
 
+    def test_parse_xml_trkpts_encoded_by_capturer(self):
+        """testfile_encoder.xml is the exact output of the capturer GpxTrackEncoder, see
+        GpxTrackEncoderUnitTest, so both sides fail if the encoding changes"""
+        root = ET.parse('GpsDataAnalyzer/test/testfile_encoder.xml').getroot()
+
+        gps_data_list = self.fileparser.parse_xml_trkpts(root)
+
+        self.assertEqual(3, len(gps_data_list))
+        # the coordinates keep 9 decimals and the meters 4, without E notation
+        self.assertAlmostEqual(37.42199833333333, gps_data_list[0].latitude, places=9)
+        self.assertAlmostEqual(-122.08405750000001, gps_data_list[0].longitude, places=9)
+        self.assertAlmostEqual(12345678.9, gps_data_list[0].altitude, places=4)
+        self.assertAlmostEqual(1.0E-4, gps_data_list[0].speed, places=4)
+        self.assertEqual(datetime(2020,7,12,0,2,36,tzinfo=timezone.utc), gps_data_list[0].time)
+        self.assertEqual(8, gps_data_list[0].satellites)
+        self.assertEqual(36.156, gps_data_list[0].first_signal)
+        self.assertEqual(20.375, gps_data_list[0].forth_signal)
+        self.assertEqual(29.916, gps_data_list[0].average_signal)
+        # the optional altitude and satellites are left out, a missing speed is written as 0.0
+        self.assertAlmostEqual(-1.0E-10, gps_data_list[1].latitude, places=9)
+        self.assertAlmostEqual(179.9999999999, gps_data_list[1].longitude, places=9)
+        self.assertIsNone(gps_data_list[1].altitude)
+        self.assertEqual(0.0, gps_data_list[1].speed)
+        self.assertEqual(0, gps_data_list[1].satellites)
+        self.assertEqual(datetime(2020,7,12,0,2,37,tzinfo=timezone.utc), gps_data_list[1].time)
+        self.assertAlmostEqual(-89.123456789, gps_data_list[2].latitude, places=9)
+        self.assertEqual(0.5, gps_data_list[2].longitude)
+        self.assertTrue(math.isnan(gps_data_list[2].speed))
+        self.assertEqual(GpsMetaData(device='sampleDevice',
+                                     identifier='sampleId',
+                                     manufacturer='sampleManufacturer',
+                                     model='sampleModel',
+                                     start_time=datetime(2020,7,12,0,2,35,tzinfo=timezone.utc),
+                                     end_time=datetime(2020,7,12,0,2,39,tzinfo=timezone.utc)),
+                         self.fileparser.parse_xml_metadata(root))
+
     def test_parse_invalid_file_return_none(self):
         none_gpsdataset = self.fileparser.parse_file('wrongfilename.')
         self.assertIsNone(none_gpsdataset)
@@ -0,0 +1,141 @@
+package com.google.sharedlibrary.benchmark;
+
+import static org.junit.Assert.assertTrue;
+
+import android.location.Location;
+import android.os.Bundle;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.sharedlibrary.gpxfile.GpxTrackEncoder;
+import com.google.sharedlibrary.gpxfile.TrackPoint;
+import com.google.sharedlibrary.model.SatelliteSignalData;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Serialization of one track point to the UTF-8 bytes of its gpx element, by the {@link
+ * GpxTrackEncoder} and by the SimpleDateFormat and StringBuilder path it replaced.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GpxTrackEncoderBenchmark {
+  @Rule public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+  private TrackPoint trackPoint;
+
+  @Before
+  public void setUp() {
+    Location location = new Location("gps");
+    // 2020-07-12T00:02:36.000Z
+    location.setTime(1594512156000L);
+    location.setLatitude(37.42199833333333);
+    location.setLongitude(-122.08405750000001);
+    location.setAltitude(5.0);
+    location.setSpeed(0.16f);
+    location.setAccuracy(3.216f);
+    location.setElapsedRealtimeNanos(86400000000000L);
+    Bundle extras = new Bundle();
+    extras.putInt("satellites", 8);
+    location.setExtras(extras);
+    trackPoint = new TrackPoint();
+    trackPoint.set(location, new SatelliteSignalData());
+  }
+
+  @Test
+  public void encodeWithGpxTrackEncoder() {
+    GpxTrackEncoder encoder = new GpxTrackEncoder(UtcTimestampEncoder.ISO_8601);
+    long bytes = 0;
+    BenchmarkState state = benchmarkRule.getState();
+    while (state.keepRunning()) {
+      bytes += encoder.encode(trackPoint);
+    }
+    assertTrue(bytes > 0);
+  }
+
+  @Test
+  public void encodeWithStringBuilder() {
+    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+    dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    long bytes = 0;
+    BenchmarkState state = benchmarkRule.getState();
+    while (state.keepRunning()) {
+      String xml = getTrackPointXml(trackPoint, dateFormat.format(trackPoint.getTime()));
+      bytes += xml.getBytes(StandardCharsets.UTF_8).length;
+    }
+    assertTrue(bytes > 0);
+  }
+
+  /** The StringBuilder serialization GpxWriteHandler used before GpxTrackEncoder */
+  private static String getTrackPointXml(TrackPoint trackPoint, String formattedTime) {
+    StringBuilder trackPointXml = new StringBuilder();
+
+    trackPointXml
+        .append("<trkpt lat=\"")
+        .append(trackPoint.getLatitude())
+        .append("\" lon=\"")
+        .append(trackPoint.getLongitude())
+        .append("\">");
+
+    if (trackPoint.hasAltitude()) {
+      trackPointXml.append("<ele>").append(trackPoint.getAltitude()).append("</ele>");
+    }
+
+    trackPointXml.append("<time>").append(formattedTime).append("</time>");
+
+    trackPointXml
+        .append("<speed>")
+        .append(trackPoint.hasSpeed() ? trackPoint.getSpeed() : "0.0")
+        .append("</speed>");
+
+    trackPointXml
+        .append("<accuracy>")
+        .append(trackPoint.hasAccuracy() ? trackPoint.getAccuracy() : "0.0")
+        .append("</accuracy>");
+
+    trackPointXml.append("<src>").append(trackPoint.getProvider()).append("</src>");
+
+    if (trackPoint.hasSatellites()) {
+      trackPointXml.append("<sat>").append(trackPoint.getSatellites()).append("</sat>");
+    }
+
+    trackPointXml.append("<signal01>").append(trackPoint.getFirstSignal()).append("</signal01>");
+    trackPointXml.append("<signal02>").append(trackPoint.getSecondSignal()).append("</signal02>");
+    trackPointXml.append("<signal03>").append(trackPoint.getThirdSignal()).append("</signal03>");
+    trackPointXml.append("<signal04>").append(trackPoint.getForthSignal()).append("</signal04>");
+    trackPointXml.append("<average>").append(trackPoint.getAverageSignal()).append("</average>");
+
+    if (trackPoint.getElapsedRealtimeNanos() > 0) {
+      trackPointXml
+          .append("<elapsedRealtimeNanos>")
+          .append(trackPoint.getElapsedRealtimeNanos())
+          .append("</elapsedRealtimeNanos>");
+    }
+    if (trackPoint.getReceivedRealtimeNanos() > 0) {
+      trackPointXml
+          .append("<receivedRealtimeNanos>")
+          .append(trackPoint.getReceivedRealtimeNanos())
+          .append("</receivedRealtimeNanos>");
+    }
+    if (trackPoint.hasClockSample()) {
+      trackPointXml
+          .append("<wallClockMillis>")
+          .append(trackPoint.getWallTimeMillis())
+          .append("</wallClockMillis>");
+    }
+
+    trackPointXml.append("</trkpt>\n");
+
+    return trackPointXml.toString();
+  }
+}
@@ -0,0 +1,238 @@
+package com.google.sharedlibrary.gpxfile;
+
+import com.google.sharedlibrary.gpxfile.CaptureLatency.Stage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Output stream used by the GpxFileWriter thread. Track points are accumulated in one buffer and
+ * committed together to the underlying stream according to a {@link FlushPolicy}, so each fix does
+ * not become its own write. The stream is only written from the writer thread, the counters may be
+ * read from any thread.
+ */
+public class BatchedOutputStream extends OutputStream {
+  // the buffered points measured when the flush policy has no point threshold or a larger one
+  static final int MAX_MEASURED_POINTS = 256;
+  private OutputStream out;
+  private final FlushPolicy flushPolicy;
+  private final byte[] buffer;
+  private int count;
+  private long writtenBytes;
+
+  private int pendingPoints;
+  private long lastFlushNanos;
+
+  private volatile long flushCount;
+  private volatile long flushedPoints;
+  private volatile long flushedBytes;
+  private long flushedBytesAtLastFlush;
+
+  private CaptureLatency latency;
+  // the fix and write times of the pending points, sized from the flush policy
+  private long[] pendingFixNanos;
+  private long[] pendingWrittenNanos;
+  private int pendingTimes;
+
+  /**
+   * Constructor to create a BatchedOutputStream
+   *
+   * @param out the underlying stream, usually the gpx file
+   * @param size the size of the buffer
+   * @param flushPolicy the policy deciding when buffered points are committed
+   */
+  public BatchedOutputStream(OutputStream out, int size, FlushPolicy flushPolicy) {
+    this.out = out;
+    this.buffer = new byte[size];
+    this.flushPolicy = flushPolicy;
+    this.lastFlushNanos = System.nanoTime();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (count >= buffer.length) {
+      writeBuffer();
+    }
+    buffer[count++] = (byte) b;
+    writtenBytes++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    writtenBytes += len;
+    if (len >= buffer.length) {
+      // the data does not fit the buffer, write it through directly
+      writeBuffer();
+      out.write(b, off, len);
+      flushedBytes += len;
+      return;
+    }
+    if (len > buffer.length - count) {
+      writeBuffer();
+    }
+    System.arraycopy(b, off, buffer, count, len);
+    count += len;
+  }
+
+  /**
+   * Mark the end of a track point and commit the buffered points if the flush policy says so
+   *
+   * @throws IOException if the buffered points could not be written
+   */
+  public void endRecord() throws IOException {
+    pendingPoints++;
+    long millisSinceLastFlush = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastFlushNanos);
+    if (flushPolicy.shouldFlush(pendingPoints, millisSinceLastFlush)) {
+      flush();
+    }
+  }
+
+  /**
+   * Mark the end of a track point with its times, the flush latency and the end to end latency of
+   * the point are recorded once it is committed. Only the first {@link #MAX_MEASURED_POINTS} points
+   * of a batch are measured when the flush policy lets more points wait.
+   *
+   * @param fixRealtimeNanos the elapsed realtime of the fix, 0 if unknown
+   * @param writtenRealtimeNanos the elapsed realtime when the point was written to this stream
+   * @throws IOException if the buffered points could not be written
+   */
+  public void endRecord(long fixRealtimeNanos, long writtenRealtimeNanos) throws IOException {
+    if (latency != null && pendingTimes < pendingFixNanos.length) {
+      pendingFixNanos[pendingTimes] = fixRealtimeNanos;
+      pendingWrittenNanos[pendingTimes] = writtenRealtimeNanos;
+      pendingTimes++;
+    }
+    endRecord();
+  }
+
+  /**
+   * Get the time left before the buffered points are due to be committed by the interval of the
+   * flush policy. The interval is only checked when a point ends, a timer flushes the stream once
+   * it elapses so the points are not left in the buffer when the fixes stop.
+   *
+   * @return the time left in nanoseconds, 0 if the points are due, -1 if no point is buffered or
+   *     the policy has no interval
+   */
+  public long getNanosUntilIntervalFlush() {
+    long maxIntervalMillis = flushPolicy.getMaxIntervalMillis();
+    if (pendingPoints == 0 || maxIntervalMillis == 0) {
+      return -1;
+    }
+    long dueNanos = lastFlushNanos + TimeUnit.MILLISECONDS.toNanos(maxIntervalMillis);
+    return Math.max(0, dueNanos - System.nanoTime());
+  }
+
+  /** Commit all the buffered data to the underlying stream, used as an explicit barrier */
+  @Override
+  public void flush() throws IOException {
+    writeBuffer();
+    out.flush();
+    if (pendingTimes > 0) {
+      recordLatency();
+    }
+
+    // a barrier with nothing to commit is not a flush of the stats
+    if (flushedBytes != flushedBytesAtLastFlush) {
+      flushCount++;
+      flushedBytesAtLastFlush = flushedBytes;
+    }
+    flushedPoints += pendingPoints;
+    pendingPoints = 0;
+    lastFlushNanos = System.nanoTime();
+  }
+
+  /**
+   * Commit the buffered data, close the underlying stream and go on writing to the next one, used
+   * to roll the capture session over to a new file
+   *
+   * @param next the new underlying stream
+   * @throws IOException if the buffered data could not be committed or the stream closed
+   */
+  public void switchTo(OutputStream next) throws IOException {
+    try {
+      flush();
+      out.close();
+    } finally {
+      out = next;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Record the latencies of the points committed by a flush */
+  private void recordLatency() {
+    long now = CaptureLatency.now();
+    for (int i = 0; i < pendingTimes; i++) {
+      latency.record(Stage.FLUSH, now - pendingWrittenNanos[i]);
+      if (pendingFixNanos[i] > 0) {
+        latency.record(Stage.END_TO_END, now - pendingFixNanos[i]);
+      }
+    }
+    pendingTimes = 0;
+  }
+
+  /**
+   * Set the latency the committed points are recorded into, called before the first point
+   *
+   * @param latency the latency of the capture session, null to not record it
+   */
+  public void setCaptureLatency(CaptureLatency latency) {
+    this.latency = latency;
+    if (latency != null && pendingFixNanos == null) {
+      int maxPoints = flushPolicy.getMaxPoints();
+      int measuredPoints =
+          maxPoints > 0 ? Math.min(maxPoints, MAX_MEASURED_POINTS) : MAX_MEASURED_POINTS;
+      pendingFixNanos = new long[measuredPoints];
+      pendingWrittenNanos = new long[measuredPoints];
+    }
+  }
+
+  /** Write the buffer to the underlying stream without flushing it */
+  private void writeBuffer() throws IOException {
+    if (count > 0) {
+      out.write(buffer, 0, count);
+      flushedBytes += count;
+      count = 0;
+    }
+  }
+
+  /** @return the number of bytes written to the stream, including the buffered ones */
+  public long getWrittenBytes() {
+    return writtenBytes;
+  }
+
+  /** @return the number of flushes that committed bytes to the underlying stream */
+  public long getFlushCount() {
+    return flushCount;
+  }
+
+  /** @return the number of points committed to the underlying stream */
+  public long getFlushedPoints() {
+    return flushedPoints;
+  }
+
+  /** @return the number of bytes written to the underlying stream */
+  public long getFlushedBytes() {
+    return flushedBytes;
+  }
+
+  /** @return the average number of points committed per flush */
+  public double getPointsPerFlush() {
+    long flushes = flushCount;
+    return flushes == 0 ? 0 : (double) flushedPoints / flushes;
+  }
+
+  /** @return the average number of bytes committed per flush */
+  public double getBytesPerFlush() {
+    long flushes = flushCount;
+    return flushes == 0 ? 0 : (double) flushedBytes / flushes;
+  }
+}
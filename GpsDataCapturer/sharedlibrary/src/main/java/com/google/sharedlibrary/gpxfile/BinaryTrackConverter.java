@@ -0,0 +1,386 @@
+package com.google.sharedlibrary.gpxfile;
+
+import android.util.Log;
+
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Converts a session written by the {@link BinaryTrackEncoder} or the {@link ColumnarTrackEncoder}
+ * back to a gpx file.
+ */
+public class BinaryTrackConverter {
+  private static final String TAG = "BinaryTrackConverter";
+  private static final int FIXED_HEADER_SIZE = 20;
+
+  private final DataInputStream input;
+  private final OutputStream outputStream;
+  private final GpxTrackEncoder encoder = new GpxTrackEncoder(UtcTimestampEncoder.ISO_8601);
+  private final TrackPoint trackPoint = new TrackPoint();
+  private long endTimeMillis;
+  private int trackPoints;
+
+  private BinaryTrackConverter(InputStream inputStream, OutputStream outputStream) {
+    this.input = new DataInputStream(inputStream);
+    this.outputStream = outputStream;
+  }
+
+  /**
+   * Convert a binary session file to a gpx file. A session which was not stopped properly is
+   * converted up to its last complete record and gets the time of its last track point as end time.
+   *
+   * @param binaryFile the binary session file to read
+   * @param gpxFile the gpx file to write
+   * @return the number of track points converted
+   * @throws IOException if the file is not a binary session or could not be converted
+   */
+  public static int convertToGpx(File binaryFile, File gpxFile) throws IOException {
+    try (InputStream inputStream = new BufferedInputStream(new FileInputStream(binaryFile));
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(gpxFile))) {
+      return convertToGpx(inputStream, outputStream);
+    }
+  }
+
+  /**
+   * Convert a binary session stream to gpx
+   *
+   * @param inputStream the binary session
+   * @param outputStream the stream to write the gpx to
+   * @return the number of track points converted
+   * @throws IOException if the stream is not a binary session or could not be converted
+   */
+  public static int convertToGpx(InputStream inputStream, OutputStream outputStream)
+      throws IOException {
+    return new BinaryTrackConverter(inputStream, outputStream).convert();
+  }
+
+  private int convert() throws IOException {
+    ByteBuffer header = readFully(input, FIXED_HEADER_SIZE);
+    byte[] magic = new byte[BinaryTrackEncoder.MAGIC.length];
+    header.get(magic);
+    boolean isColumnar = Arrays.equals(magic, ColumnarTrackEncoder.MAGIC);
+    if (!isColumnar && !Arrays.equals(magic, BinaryTrackEncoder.MAGIC)) {
+      throw new IOException("Not a binary track file.");
+    }
+    int version = header.getShort() & 0xffff;
+    if (version > (isColumnar ? ColumnarTrackEncoder.VERSION : BinaryTrackEncoder.VERSION)) {
+      throw new IOException("Unsupported binary track version " + version + ".");
+    }
+    int layoutSize = header.getShort() & 0xffff;
+    long startTimeMillis = header.getLong();
+    DeviceMetadata metadata =
+        new DeviceMetadata(
+            header.getInt(),
+            readString(input),
+            readString(input),
+            readString(input),
+            readString(input));
+
+    int length = encoder.encodeHeader(startTimeMillis, metadata);
+    outputStream.write(encoder.getBuffer(), 0, length);
+    endTimeMillis = startTimeMillis;
+    boolean isComplete =
+        isColumnar ? convertBlocks(layoutSize, version) : convertRecords(layoutSize);
+    if (!isComplete) {
+      Log.w(TAG, "The binary track has no footer, converted up to its last complete record.");
+    }
+    length = encoder.encodeFooter(endTimeMillis);
+    outputStream.write(encoder.getBuffer(), 0, length);
+    return trackPoints;
+  }
+
+  /**
+   * Convert the fixed-width records of the {@link BinaryTrackEncoder}
+   *
+   * @return true if the end record is found
+   */
+  private boolean convertRecords(int recordSize) throws IOException {
+    // newer versions may only append fields to the records
+    if (recordSize < BinaryTrackEncoder.RECORD_SIZE_V1) {
+      throw new IOException("Invalid binary track record size " + recordSize + ".");
+    }
+    ByteBuffer record = ByteBuffer.allocate(recordSize).order(ByteOrder.LITTLE_ENDIAN);
+    while (readRecord(input, record.array())) {
+      int type = record.get(0);
+      if (type == BinaryTrackEncoder.TYPE_POINT) {
+        readTrackPoint(record, trackPoint);
+        writeTrackPoint();
+      } else if (type == BinaryTrackEncoder.TYPE_END) {
+        endTimeMillis = record.getLong(4);
+        return true;
+      } else {
+        throw new IOException("Unknown binary track record type " + type + ".");
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Convert the blocks of the {@link ColumnarTrackEncoder}
+   *
+   * @return true if the end record is found
+   */
+  private boolean convertBlocks(int blockSize, int version) throws IOException {
+    long[] times = new long[blockSize];
+    long[] elapsedRealtimes = new long[blockSize];
+    long[] receiptDelays = new long[blockSize];
+    long[] clockOffsets = new long[blockSize];
+    int[][] columns = new int[ColumnarTrackEncoder.INT_COLUMNS][blockSize];
+    byte[] type = new byte[1];
+    while (readRecord(input, type)) {
+      if (type[0] == ColumnarTrackEncoder.TYPE_END) {
+        byte[] end = new byte[ColumnarTrackEncoder.END_SIZE - 1];
+        if (!readRecord(input, end)) {
+          return false;
+        }
+        endTimeMillis = ByteBuffer.wrap(end).order(ByteOrder.LITTLE_ENDIAN).getLong();
+        return true;
+      } else if (type[0] != ColumnarTrackEncoder.TYPE_BLOCK) {
+        throw new IOException("Unknown columnar track record type " + type[0] + ".");
+      }
+
+      byte[] blockHeader = new byte[ColumnarTrackEncoder.BLOCK_HEADER_SIZE - 1];
+      if (!readRecord(input, blockHeader)) {
+        return false;
+      }
+      ByteBuffer header = ByteBuffer.wrap(blockHeader).order(ByteOrder.LITTLE_ENDIAN);
+      int points = header.getShort(0) & 0xffff;
+      if (points > blockSize) {
+        throw new IOException("Invalid columnar track block of " + points + " points.");
+      }
+      byte[] block = new byte[header.getInt(ColumnarTrackEncoder.BLOCK_HEADER_SIZE - 5)];
+      if (!readRecord(input, block)) {
+        return false;
+      }
+
+      ByteBuffer columnsBuffer = ByteBuffer.wrap(block);
+      getDeltaOfDelta(columnsBuffer, times, points);
+      getDeltaOfDelta(columnsBuffer, columns[ColumnarTrackEncoder.LATITUDE], points);
+      getDeltaOfDelta(columnsBuffer, columns[ColumnarTrackEncoder.LONGITUDE], points);
+      for (int column = ColumnarTrackEncoder.ALTITUDE;
+          column < ColumnarTrackEncoder.INT_COLUMNS;
+          column++) {
+        getDelta(columnsBuffer, columns[column], points);
+      }
+      // the monotonic timestamps are appended by version 2
+      if (version >= 2) {
+        getDeltaOfDelta(columnsBuffer, elapsedRealtimes, points);
+        getValues(columnsBuffer, receiptDelays, points);
+        getValues(columnsBuffer, clockOffsets, points);
+      }
+      for (int i = 0; i < points; i++) {
+        readTrackPoint(times[i], columns, i, trackPoint);
+        readRealtimes(elapsedRealtimes[i], receiptDelays[i], clockOffsets[i], trackPoint);
+        writeTrackPoint();
+      }
+    }
+    return false;
+  }
+
+  private void writeTrackPoint() throws IOException {
+    int length = encoder.encode(trackPoint);
+    outputStream.write(encoder.getBuffer(), 0, length);
+    endTimeMillis = trackPoint.getTime();
+    trackPoints++;
+  }
+
+  /** Copy the fields of the point of a columnar block into the track point */
+  private static void readTrackPoint(long time, int[][] columns, int i, TrackPoint trackPoint) {
+    int flags = columns[ColumnarTrackEncoder.FLAGS][i];
+    int providerCode = columns[ColumnarTrackEncoder.PROVIDER][i];
+
+    trackPoint.time = time;
+    trackPoint.latitude =
+        columns[ColumnarTrackEncoder.LATITUDE][i] / BinaryTrackEncoder.DEGREE_SCALE;
+    trackPoint.longitude =
+        columns[ColumnarTrackEncoder.LONGITUDE][i] / BinaryTrackEncoder.DEGREE_SCALE;
+    trackPoint.hasAltitude = (flags & BinaryTrackEncoder.FLAG_ALTITUDE) != 0;
+    trackPoint.altitude =
+        columns[ColumnarTrackEncoder.ALTITUDE][i] / ColumnarTrackEncoder.METER_SCALE;
+    trackPoint.hasSpeed = (flags & BinaryTrackEncoder.FLAG_SPEED) != 0;
+    trackPoint.speed =
+        (float) (columns[ColumnarTrackEncoder.SPEED][i] / ColumnarTrackEncoder.METER_SCALE);
+    trackPoint.hasAccuracy = (flags & BinaryTrackEncoder.FLAG_ACCURACY) != 0;
+    trackPoint.accuracy =
+        (float) (columns[ColumnarTrackEncoder.ACCURACY][i] / ColumnarTrackEncoder.METER_SCALE);
+    trackPoint.provider = getProvider(providerCode);
+    trackPoint.hasSatellites = (flags & BinaryTrackEncoder.FLAG_SATELLITES) != 0;
+    trackPoint.satellites = columns[ColumnarTrackEncoder.SATELLITES][i];
+    trackPoint.hasClockSample = (flags & BinaryTrackEncoder.FLAG_CLOCK_SAMPLE) != 0;
+    trackPoint.firstSignal = getSignal(columns, ColumnarTrackEncoder.FIRST_SIGNAL, i);
+    trackPoint.secondSignal = getSignal(columns, ColumnarTrackEncoder.FIRST_SIGNAL + 1, i);
+    trackPoint.thirdSignal = getSignal(columns, ColumnarTrackEncoder.FIRST_SIGNAL + 2, i);
+    trackPoint.forthSignal = getSignal(columns, ColumnarTrackEncoder.FIRST_SIGNAL + 3, i);
+    setAverageSignal(trackPoint);
+  }
+
+  /**
+   * Copy the monotonic timestamps of the point of a columnar block into the track point, after its
+   * other fields
+   */
+  private static void readRealtimes(
+      long elapsedRealtimeNanos, long receiptDelay, long clockOffset, TrackPoint trackPoint) {
+    trackPoint.elapsedRealtimeNanos = elapsedRealtimeNanos;
+    trackPoint.receivedRealtimeNanos = elapsedRealtimeNanos + receiptDelay;
+    trackPoint.wallTimeMillis =
+        trackPoint.hasClockSample
+            ? clockOffset + ColumnarTrackEncoder.getMillis(trackPoint.receivedRealtimeNanos)
+            : 0;
+  }
+
+  private static float getSignal(int[][] columns, int column, int i) {
+    return (float) (columns[column][i] / ColumnarTrackEncoder.SIGNAL_SCALE);
+  }
+
+  private static void getDeltaOfDelta(ByteBuffer buffer, long[] values, int points)
+      throws IOException {
+    long previous = 0;
+    long previousDelta = 0;
+    for (int i = 0; i < points; i++) {
+      long delta = previousDelta + ColumnarTrackEncoder.unZigZag(getVarint(buffer));
+      values[i] = previous + delta;
+      previous = values[i];
+      previousDelta = delta;
+    }
+  }
+
+  private static void getDeltaOfDelta(ByteBuffer buffer, int[] values, int points)
+      throws IOException {
+    long previous = 0;
+    long previousDelta = 0;
+    for (int i = 0; i < points; i++) {
+      long delta = previousDelta + ColumnarTrackEncoder.unZigZag(getVarint(buffer));
+      values[i] = (int) (previous + delta);
+      previous = values[i];
+      previousDelta = delta;
+    }
+  }
+
+  private static void getDelta(ByteBuffer buffer, int[] values, int points) throws IOException {
+    long previous = 0;
+    for (int i = 0; i < points; i++) {
+      values[i] = (int) (previous + ColumnarTrackEncoder.unZigZag(getVarint(buffer)));
+      previous = values[i];
+    }
+  }
+
+  private static void getValues(ByteBuffer buffer, long[] values, int points) throws IOException {
+    for (int i = 0; i < points; i++) {
+      values[i] = ColumnarTrackEncoder.unZigZag(getVarint(buffer));
+    }
+  }
+
+  private static long getVarint(ByteBuffer buffer) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (!buffer.hasRemaining()) {
+        throw new IOException("Truncated columnar track block.");
+      }
+      byte b = buffer.get();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Invalid varint in columnar track block.");
+  }
+
+  /** Copy the fields of a track point record into the track point */
+  static void readTrackPoint(ByteBuffer record, TrackPoint trackPoint) {
+    int flags = record.get(1);
+    int providerCode = record.get(3) & 0xff;
+
+    trackPoint.time = record.getLong(4);
+    trackPoint.latitude = record.getInt(12) / BinaryTrackEncoder.DEGREE_SCALE;
+    trackPoint.longitude = record.getInt(16) / BinaryTrackEncoder.DEGREE_SCALE;
+    trackPoint.hasAltitude = (flags & BinaryTrackEncoder.FLAG_ALTITUDE) != 0;
+    trackPoint.altitude = record.getFloat(20);
+    trackPoint.hasSpeed = (flags & BinaryTrackEncoder.FLAG_SPEED) != 0;
+    trackPoint.speed = record.getFloat(24);
+    trackPoint.hasAccuracy = (flags & BinaryTrackEncoder.FLAG_ACCURACY) != 0;
+    trackPoint.accuracy = record.getFloat(28);
+    trackPoint.provider = getProvider(providerCode);
+    trackPoint.hasSatellites = (flags & BinaryTrackEncoder.FLAG_SATELLITES) != 0;
+    trackPoint.satellites = record.get(2) & 0xff;
+    trackPoint.firstSignal = record.getFloat(32);
+    trackPoint.secondSignal = record.getFloat(36);
+    trackPoint.thirdSignal = record.getFloat(40);
+    trackPoint.forthSignal = record.getFloat(44);
+    setAverageSignal(trackPoint);
+
+    // version 1 records end before the monotonic timestamps
+    boolean hasRealtimes = record.limit() >= BinaryTrackEncoder.RECORD_SIZE;
+    trackPoint.elapsedRealtimeNanos = hasRealtimes ? record.getLong(48) : 0;
+    trackPoint.receivedRealtimeNanos = hasRealtimes ? record.getLong(56) : 0;
+    trackPoint.hasClockSample = hasRealtimes && (flags & BinaryTrackEncoder.FLAG_CLOCK_SAMPLE) != 0;
+    trackPoint.wallTimeMillis = trackPoint.hasClockSample ? record.getLong(64) : 0;
+  }
+
+  /** @return the provider of the code, null if it is unknown */
+  private static String getProvider(int providerCode) {
+    return providerCode >= 0 && providerCode < BinaryTrackEncoder.PROVIDERS.length
+        ? BinaryTrackEncoder.PROVIDERS[providerCode]
+        : null;
+  }
+
+  /**
+   * Compute the average signal the same way as SatelliteSignalData does, over the signals present.
+   * A fix with fewer satellites has its missing signals stored as 0.
+   */
+  private static void setAverageSignal(TrackPoint trackPoint) {
+    int count =
+        countSignal(trackPoint.firstSignal)
+            + countSignal(trackPoint.secondSignal)
+            + countSignal(trackPoint.thirdSignal)
+            + countSignal(trackPoint.forthSignal);
+    trackPoint.averageSignal =
+        count == 0
+            ? 0.0f
+            : (trackPoint.firstSignal
+                    + trackPoint.secondSignal
+                    + trackPoint.thirdSignal
+                    + trackPoint.forthSignal)
+                / count;
+  }
+
+  private static int countSignal(float signal) {
+    return signal != 0 ? 1 : 0;
+  }
+
+  /** @return true if a complete record is read, false at the end of the stream */
+  private static boolean readRecord(DataInputStream input, byte[] record) throws IOException {
+    try {
+      input.readFully(record);
+      return true;
+    } catch (EOFException e) {
+      return false;
+    }
+  }
+
+  private static ByteBuffer readFully(DataInputStream input, int size) throws IOException {
+    byte[] bytes = new byte[size];
+    input.readFully(bytes);
+    return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static String readString(DataInputStream input) throws IOException {
+    int length = readFully(input, 2).getShort() & 0xffff;
+    byte[] bytes = new byte[length];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
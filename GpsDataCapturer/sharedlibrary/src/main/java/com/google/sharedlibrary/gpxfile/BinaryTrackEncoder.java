@@ -0,0 +1,177 @@
+package com.google.sharedlibrary.gpxfile;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encoder of the compact binary session format, a track point takes 72 bytes instead of about 400
+ * bytes of gpx xml.
+ *
+ * <p>All the numbers are little-endian. The file starts with a versioned header:
+ *
+ * <pre>
+ *   magic "WTRK" | u16 version | u16 record size | i64 start time millis | i32 version code
+ *   | device, id, manufacturer, model as u16 length + UTF-8 bytes
+ * </pre>
+ *
+ * followed by fixed-width records of {@link #RECORD_SIZE} bytes:
+ *
+ * <pre>
+ *    0 u8 type | 1 u8 flags | 2 u8 satellites | 3 u8 provider | 4 i64 time millis
+ *   12 i32 latitude * 1e7 | 16 i32 longitude * 1e7 | 20 f32 altitude | 24 f32 speed
+ *   28 f32 accuracy | 32 f32 signal01 .. signal04 | 48 i64 elapsed realtime nanos
+ *   56 i64 received realtime nanos | 64 i64 wall clock millis of the clock sample
+ * </pre>
+ *
+ * Version 1 records end at offset 48, without the monotonic timestamps.
+ *
+ * The footer is a record of type {@link #TYPE_END} carrying the end time at offset 4. A file
+ * without it was not stopped properly and can still be read up to its last complete record. Use
+ * {@link BinaryTrackConverter} to convert a binary session to gpx.
+ */
+public class BinaryTrackEncoder implements TrackEncoder {
+  static final byte[] MAGIC = {'W', 'T', 'R', 'K'};
+  static final int VERSION = 2;
+  static final int RECORD_SIZE = 72;
+  /** Size of the version 1 records, without the monotonic timestamps */
+  static final int RECORD_SIZE_V1 = 48;
+
+  static final int TYPE_POINT = 1;
+  static final int TYPE_END = 2;
+
+  static final int FLAG_ALTITUDE = 1;
+  static final int FLAG_SPEED = 1 << 1;
+  static final int FLAG_ACCURACY = 1 << 2;
+  static final int FLAG_SATELLITES = 1 << 3;
+  static final int FLAG_CLOCK_SAMPLE = 1 << 4;
+
+  /** Scale of latitude and longitude stored as ints, 1e-7 degree is about 1 cm */
+  static final double DEGREE_SCALE = 1e7;
+
+  /** Providers stored as a code, 0 for a null or unknown provider */
+  static final String[] PROVIDERS = {null, "gps", "network", "passive", "fused"};
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY).order(ByteOrder.LITTLE_ENDIAN);
+
+  @Override
+  public int encodeHeader(long startTimeMillis, DeviceMetadata metadata) {
+    buffer = putHeader(buffer, MAGIC, VERSION, RECORD_SIZE, startTimeMillis, metadata);
+    return buffer.position();
+  }
+
+  @Override
+  public int encode(TrackPoint trackPoint) {
+    int flags = 0;
+    if (trackPoint.hasAltitude()) {
+      flags |= FLAG_ALTITUDE;
+    }
+    if (trackPoint.hasSpeed()) {
+      flags |= FLAG_SPEED;
+    }
+    if (trackPoint.hasAccuracy()) {
+      flags |= FLAG_ACCURACY;
+    }
+    if (trackPoint.hasSatellites()) {
+      flags |= FLAG_SATELLITES;
+    }
+    if (trackPoint.hasClockSample()) {
+      flags |= FLAG_CLOCK_SAMPLE;
+    }
+
+    buffer.clear();
+    buffer.put((byte) TYPE_POINT);
+    buffer.put((byte) flags);
+    buffer.put((byte) Math.min(Math.max(trackPoint.getSatellites(), 0), 255));
+    buffer.put((byte) getProviderCode(trackPoint.getProvider()));
+    buffer.putLong(trackPoint.getTime());
+    buffer.putInt((int) Math.round(trackPoint.getLatitude() * DEGREE_SCALE));
+    buffer.putInt((int) Math.round(trackPoint.getLongitude() * DEGREE_SCALE));
+    buffer.putFloat((float) trackPoint.getAltitude());
+    buffer.putFloat(trackPoint.getSpeed());
+    buffer.putFloat(trackPoint.getAccuracy());
+    buffer.putFloat(trackPoint.getFirstSignal());
+    buffer.putFloat(trackPoint.getSecondSignal());
+    buffer.putFloat(trackPoint.getThirdSignal());
+    buffer.putFloat(trackPoint.getForthSignal());
+    buffer.putLong(trackPoint.getElapsedRealtimeNanos());
+    buffer.putLong(trackPoint.getReceivedRealtimeNanos());
+    buffer.putLong(trackPoint.getWallTimeMillis());
+    return RECORD_SIZE;
+  }
+
+  @Override
+  public int encodeFooter(long endTimeMillis) {
+    Arrays.fill(buffer.array(), 0, RECORD_SIZE, (byte) 0);
+    buffer.put(0, (byte) TYPE_END);
+    buffer.putLong(4, endTimeMillis);
+    return RECORD_SIZE;
+  }
+
+  @Override
+  public byte[] getBuffer() {
+    return buffer.array();
+  }
+
+  /**
+   * Encode the versioned header shared by the binary formats from the start of the buffer
+   *
+   * @param buffer the little-endian buffer to encode the header into
+   * @param magic the magic bytes of the format
+   * @param version the version of the format
+   * @param layoutSize the record size or block size of the format
+   * @param startTimeMillis time the capture started
+   * @param metadata the device that captured the session
+   * @return the buffer holding the header, a larger one if the header did not fit
+   */
+  static ByteBuffer putHeader(
+      ByteBuffer buffer,
+      byte[] magic,
+      int version,
+      int layoutSize,
+      long startTimeMillis,
+      DeviceMetadata metadata) {
+    byte[][] strings = {
+      utf8(metadata.getDevice()),
+      utf8(metadata.getId()),
+      utf8(metadata.getManufacturer()),
+      utf8(metadata.getModel())
+    };
+    int size = magic.length + 2 + 2 + 8 + 4;
+    for (byte[] string : strings) {
+      size += 2 + string.length;
+    }
+    if (size > buffer.capacity()) {
+      buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    buffer.clear();
+    buffer.put(magic);
+    buffer.putShort((short) version);
+    buffer.putShort((short) layoutSize);
+    buffer.putLong(startTimeMillis);
+    buffer.putInt(metadata.getVersionCode());
+    for (byte[] string : strings) {
+      buffer.putShort((short) string.length);
+      buffer.put(string);
+    }
+    return buffer;
+  }
+
+  /** @return the code of the provider, 0 if it is null or unknown */
+  static int getProviderCode(String provider) {
+    for (int code = 1; code < PROVIDERS.length; code++) {
+      if (PROVIDERS[code].equals(provider)) {
+        return code;
+      }
+    }
+    return 0;
+  }
+
+  private static byte[] utf8(String text) {
+    return (text == null ? "" : text).getBytes(StandardCharsets.UTF_8);
+  }
+}
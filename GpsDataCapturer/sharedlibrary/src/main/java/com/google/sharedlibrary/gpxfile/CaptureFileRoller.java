@@ -0,0 +1,216 @@
+package com.google.sharedlibrary.gpxfile;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rolls a capture session over to a new part file when a {@link RollingPolicy} threshold is
+ * crossed. The roll happens on the writer thread right after a track point is written: the part
+ * gets its footer and is closed, the manifest gets its line, and the next part is opened with its
+ * own header, so no track point is dropped or written twice.
+ *
+ * <p>The first part is the capture file itself, part i is named after it with "_i" before its
+ * extension. Once the session is rolled over, the manifest next to the first part lists the
+ * completed parts in order, one "name\tpoints" line per part. A session that fits in a single file
+ * has no manifest.
+ */
+public class CaptureFileRoller {
+  private static final String TAG = "CaptureFileRoller";
+  public static final String MANIFEST_FILE_EXTENSION = ".manifest";
+
+  private final File firstPart;
+  private final RollingPolicy rollingPolicy;
+  private final TrackEncoder encoder;
+  private final BatchedOutputStream outputStream;
+  private final boolean isCompressed;
+  private final int bufferSize;
+  private final DeviceMetadata metadata;
+  private volatile int partIndex;
+  private long partStartMillis;
+  private long partStartBytes;
+  private int partPoints;
+
+  /**
+   * Constructor to create a CaptureFileRoller
+   *
+   * @param firstPart the capture file, written through the output stream
+   * @param rollingPolicy the policy deciding when the session is rolled over
+   * @param encoder the encoder of the writer thread
+   * @param outputStream the stream of the writer thread
+   * @param isCompressed whether the parts are written as gzip streams
+   * @param bufferSize the size of the gzip buffer of the parts
+   */
+  public CaptureFileRoller(
+      File firstPart,
+      RollingPolicy rollingPolicy,
+      TrackEncoder encoder,
+      BatchedOutputStream outputStream,
+      boolean isCompressed,
+      int bufferSize) {
+    this.firstPart = firstPart;
+    this.rollingPolicy = rollingPolicy;
+    this.encoder = encoder;
+    this.outputStream = outputStream;
+    this.isCompressed = isCompressed;
+    this.bufferSize = bufferSize;
+    this.metadata = DeviceMetadata.fromBuild();
+    this.partStartMillis = System.currentTimeMillis();
+  }
+
+  /**
+   * @param firstPart the capture file of the session
+   * @param index the index of the part
+   * @return the file of the part
+   */
+  public static File getPartFile(File firstPart, int index) {
+    if (index == 0) {
+      return firstPart;
+    }
+    String name = firstPart.getName();
+    int extensionStart = name.indexOf('.');
+    if (extensionStart < 0) {
+      extensionStart = name.length();
+    }
+    return new File(
+        firstPart.getParentFile(),
+        name.substring(0, extensionStart) + "_" + index + name.substring(extensionStart));
+  }
+
+  /**
+   * @param firstPart the capture file of the session
+   * @return the manifest of the session
+   */
+  public static File getManifestFile(File firstPart) {
+    return new File(firstPart.getPath() + MANIFEST_FILE_EXTENSION);
+  }
+
+  /**
+   * Read the completed parts listed in the manifest
+   *
+   * @param manifestFile the manifest of the session
+   * @return the "name\tpoints" lines of the parts in order
+   * @throws IOException if the manifest could not be read
+   */
+  public static List<String> readManifest(File manifestFile) throws IOException {
+    List<String> parts = new ArrayList<>();
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(new FileInputStream(manifestFile), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.isEmpty()) {
+          parts.add(line);
+        }
+      }
+    }
+    return parts;
+  }
+
+  /**
+   * Append a completed part to the manifest
+   *
+   * @param manifestFile the manifest of the session
+   * @param part the completed part
+   * @param trackPoints the number of track points written to the part
+   * @throws IOException if the manifest could not be written
+   */
+  static void appendManifest(File manifestFile, File part, int trackPoints) throws IOException {
+    appendManifest(manifestFile, part, trackPoints, true);
+  }
+
+  private static void appendManifest(File manifestFile, File part, int trackPoints, boolean append)
+      throws IOException {
+    try (OutputStream manifest = new FileOutputStream(manifestFile, append)) {
+      manifest.write((part.getName() + "\t" + trackPoints + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Open the stream of a part file
+   *
+   * @param part the part file
+   * @param append whether to append to the file
+   * @param isCompressed whether the part is written as a gzip stream
+   * @param bufferSize the size of the gzip buffer
+   * @return the stream of the part
+   * @throws IOException if the part could not be opened
+   */
+  static OutputStream openPart(File part, boolean append, boolean isCompressed, int bufferSize)
+      throws IOException {
+    OutputStream fileStream = new FileOutputStream(part, append);
+    if (isCompressed) {
+      // one deflate stream per part, each commit of the flush policy is a sync flush point so
+      // everything committed can be decompressed even if the session never finishes
+      fileStream = new GZIPOutputStream(fileStream, bufferSize, true);
+    }
+    return fileStream;
+  }
+
+  /** @return the part being written */
+  public File getCurrentPart() {
+    return getPartFile(firstPart, partIndex);
+  }
+
+  /** @return the number of parts of the session so far */
+  public int getPartCount() {
+    return partIndex + 1;
+  }
+
+  /**
+   * Account for a track point written to the current part and roll the session over if the
+   * rolling policy says so
+   *
+   * @throws IOException if the session could not be rolled over
+   */
+  public void onTrackPointWritten() throws IOException {
+    partPoints++;
+    long now = System.currentTimeMillis();
+    long partBytes = outputStream.getWrittenBytes() - partStartBytes;
+    if (rollingPolicy.shouldRoll(partBytes, now - partStartMillis)) {
+      roll(now);
+    }
+  }
+
+  /** Close the current part with its footer and open the next one with its header */
+  private void roll(long now) throws IOException {
+    File completedPart = getPartFile(firstPart, partIndex);
+    File nextPart = getPartFile(firstPart, partIndex + 1);
+    Log.i(TAG, "Rolling the capture session over to " + nextPart.getName());
+
+    int footerLength = encoder.encodeFooter(now);
+    outputStream.write(encoder.getBuffer(), 0, footerLength);
+    outputStream.switchTo(openPart(nextPart, false, isCompressed, bufferSize));
+    // the first roll creates the manifest
+    appendManifest(getManifestFile(firstPart), completedPart, partPoints, partIndex > 0);
+
+    partIndex++;
+    partStartMillis = now;
+    partPoints = 0;
+    partStartBytes = outputStream.getWrittenBytes();
+    int headerLength = encoder.encodeHeader(now, metadata);
+    outputStream.write(encoder.getBuffer(), 0, headerLength);
+  }
+
+  /**
+   * Append the last part to the manifest once its stream is closed with the footer, if the session
+   * was rolled over
+   *
+   * @throws IOException if the manifest could not be written
+   */
+  public void close() throws IOException {
+    if (partIndex > 0) {
+      appendManifest(getManifestFile(firstPart), getPartFile(firstPart, partIndex), partPoints);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package com.google.sharedlibrary.gpxfile;
+
+import com.google.sharedlibrary.gpxfile.GpxFileWriter.OutputFormat;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Sequential scan of a capture file left over by a crash, to find where its last complete track
+ * point ends. Only the framing of the output format is read: the gpx file is searched for the end
+ * of its header and of each track point, binary records and columnar blocks are skipped by their
+ * size, so no xml is parsed and no track point is decoded. A compressed file is scanned through its
+ * decompressed stream, up to its last complete deflate block.
+ */
+class CaptureFileScanner {
+  private static final int BUFFER_SIZE = 8192;
+  private static final byte[] GPX_HEADER_END = "<trkseg>\n".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] GPX_TRACK_POINT_END =
+      "</trkpt>\n".getBytes(StandardCharsets.US_ASCII);
+  // magic, version, layout size, start time and version code, before the metadata strings
+  private static final int BINARY_HEADER_SIZE = 4 + 2 + 2 + 8 + 4;
+  private static final int METADATA_STRINGS = 4;
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private long position;
+  private long headerEnd = -1;
+  private long recordsEnd;
+  private int trackPoints;
+
+  /**
+   * Scan a capture file up to its last complete track point
+   *
+   * @param captureFile the capture file, it may be missing or empty
+   * @param outputFormat the format of the capture file
+   * @param isCompressed whether the capture file is compressed
+   * @return the scan of the file
+   * @throws IOException if the file could not be read
+   */
+  static CaptureFileScanner scan(File captureFile, OutputFormat outputFormat, boolean isCompressed)
+      throws IOException {
+    CaptureFileScanner scanner = new CaptureFileScanner();
+    if (!captureFile.exists()) {
+      return scanner;
+    }
+    InputStream input = new BufferedInputStream(new FileInputStream(captureFile), BUFFER_SIZE);
+    try {
+      if (isCompressed) {
+        input = new GZIPInputStream(input, BUFFER_SIZE);
+      }
+      switch (outputFormat) {
+        case BINARY:
+          scanner.scanRecords(input);
+          break;
+        case COLUMNAR:
+          scanner.scanBlocks(input);
+          break;
+        default:
+          scanner.scanGpx(input);
+      }
+    } catch (EOFException | ZipException e) {
+      // the file ends in the middle of a record or of a deflate block, what was read before it is
+      // complete
+    } finally {
+      input.close();
+    }
+    return scanner;
+  }
+
+  /**
+   * Copy the decompressed content of a compressed capture file up to the end of its last complete
+   * track point
+   *
+   * @param captureFile the compressed capture file
+   * @param length the number of decompressed bytes to copy
+   * @param outputStream the stream the content is copied to
+   * @throws IOException if the file could not be read
+   */
+  static void copyDecompressed(File captureFile, long length, OutputStream outputStream)
+      throws IOException {
+    try (InputStream input = new GZIPInputStream(new FileInputStream(captureFile), BUFFER_SIZE)) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      long remaining = length;
+      while (remaining > 0) {
+        int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (read < 0) {
+          throw new EOFException("The capture file ends before its last track point.");
+        }
+        outputStream.write(buffer, 0, read);
+        remaining -= read;
+      }
+    }
+  }
+
+  /** Search the end of the header, then the end of each track point */
+  private void scanGpx(InputStream source) throws IOException {
+    byte[] pattern = GPX_HEADER_END;
+    int matched = 0;
+    int read;
+    while ((read = source.read(buffer)) > 0) {
+      for (int i = 0; i < read; i++) {
+        position++;
+        // the first byte of both patterns does not occur again in them
+        if (buffer[i] == pattern[matched]) {
+          matched++;
+        } else {
+          matched = buffer[i] == pattern[0] ? 1 : 0;
+        }
+        if (matched == pattern.length) {
+          matched = 0;
+          if (headerEnd < 0) {
+            headerEnd = position;
+            pattern = GPX_TRACK_POINT_END;
+          } else {
+            trackPoints++;
+          }
+          recordsEnd = position;
+        }
+      }
+    }
+  }
+
+  /** Skip the header, then the fixed-width records of the track points */
+  private void scanRecords(InputStream source) throws IOException {
+    byte[] record = new byte[skipHeader(source)];
+    while (true) {
+      readFully(source, record, 0, record.length);
+      if (record[0] != BinaryTrackEncoder.TYPE_POINT) {
+        return;
+      }
+      trackPoints++;
+      recordsEnd = position;
+    }
+  }
+
+  /** Skip the header, then each block by the length of its columns */
+  private void scanBlocks(InputStream source) throws IOException {
+    skipHeader(source);
+    byte[] blockHeader = new byte[ColumnarTrackEncoder.BLOCK_HEADER_SIZE];
+    while (true) {
+      readFully(source, blockHeader, 0, 1);
+      if (blockHeader[0] != ColumnarTrackEncoder.TYPE_BLOCK) {
+        return;
+      }
+      readFully(source, blockHeader, 1, blockHeader.length - 1);
+      skipFully(source, getShort(blockHeader, 35) | getShort(blockHeader, 37) << 16);
+      trackPoints += getShort(blockHeader, 1);
+      recordsEnd = position;
+    }
+  }
+
+  /** @return the layout size of the binary or columnar header */
+  private int skipHeader(InputStream source) throws IOException {
+    byte[] header = new byte[BINARY_HEADER_SIZE];
+    readFully(source, header, 0, header.length);
+    int layoutSize = getShort(header, 6);
+    for (int i = 0; i < METADATA_STRINGS; i++) {
+      readFully(source, header, 0, 2);
+      skipFully(source, getShort(header, 0));
+    }
+    headerEnd = position;
+    recordsEnd = position;
+    return layoutSize;
+  }
+
+  private void readFully(InputStream source, byte[] bytes, int offset, int length)
+      throws IOException {
+    while (length > 0) {
+      int read = source.read(bytes, offset, length);
+      if (read < 0) {
+        throw new EOFException();
+      }
+      position += read;
+      offset += read;
+      length -= read;
+    }
+  }
+
+  private void skipFully(InputStream source, int length) throws IOException {
+    while (length > 0) {
+      int chunk = Math.min(length, buffer.length);
+      readFully(source, buffer, 0, chunk);
+      length -= chunk;
+    }
+  }
+
+  /** @return the little-endian unsigned short at the offset */
+  private static int getShort(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+  }
+
+  /** @return true if the whole header of the file was written */
+  boolean hasHeader() {
+    return headerEnd >= 0;
+  }
+
+  /** @return the offset, in the decompressed stream, right after the last complete track point */
+  long getRecordsEnd() {
+    return recordsEnd;
+  }
+
+  /** @return the number of complete track points in the file */
+  int getTrackPoints() {
+    return trackPoints;
+  }
+}
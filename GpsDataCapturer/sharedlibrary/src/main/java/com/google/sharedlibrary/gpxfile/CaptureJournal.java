@@ -0,0 +1,588 @@
+package com.google.sharedlibrary.gpxfile;
+
+import android.util.Log;
+
+import com.google.sharedlibrary.gpxfile.GpxFileWriter.OutputFormat;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Write-ahead journal of a capture session. Each accepted track point is appended to the journal
+ * next to the capture file when it is handed off to the writer thread, so the points still queued
+ * at a crash are not lost, and the journal is deleted once the capture file is closed with its
+ * footer.
+ *
+ * <p>Every record is framed by its little-endian length and CRC32. The first record holds the
+ * output format and the header of the session. A track point record is the point encoded by the
+ * {@link BinaryTrackEncoder} followed by its sequence number. A track point dropped from the ring
+ * buffer after it was journaled gets a drop record holding only its sequence number, and so does a
+ * rejected track point, so the journal keeps matching the capture file. A record is written with a
+ * single write call, so it survives the process being killed as soon as it is appended.
+ *
+ * <p>A journal left over by a crash is recovered by {@link #recover(File)}. The capture file is
+ * scanned sequentially up to its last complete track point by a {@link CaptureFileScanner} and cut
+ * there, the track points of the journal past it are appended and the file gets its footer. The
+ * written track points are kept as they are, only the ones still queued at the crash are encoded
+ * from the journal, with the precision of its binary records. Recovery is idempotent, if it is
+ * interrupted the journal is still there to recover from.
+ *
+ * <p>The capture files of a rolling session are listed in its manifest once they are complete, so
+ * only the part after them is recovered, past the records of the completed parts.
+ *
+ * <p>The capture writers put the journal in preallocated segment files through a {@link
+ * MappedSegmentOutputStream} by default, so appending a record is a store into mapped memory. Zero
+ * padding at the end of a segment marks the end of its records. A single journal file written with
+ * a write call per record is the durability-first alternative.
+ */
+public class CaptureJournal {
+  private static final String TAG = "CaptureJournal";
+  public static final String JOURNAL_FILE_EXTENSION = ".journal";
+  private static final String RECOVERING_FILE_EXTENSION = ".recovering";
+  static final byte[] MAGIC = {'W', 'J', 'N', 'L'};
+  static final int VERSION = 2;
+  static final int FRAME_HEADER_SIZE = 8;
+  // the binary record of the track point and its sequence number, version 1 had no sequence
+  static final int POINT_RECORD_SIZE = BinaryTrackEncoder.RECORD_SIZE + 8;
+  static final int DROP_RECORD_SIZE = 8;
+  private static final int MAX_RECORD_SIZE = 64 * 1024;
+  private static final int BUFFER_SIZE = 8192;
+  private static final int END_OF_PART = -1;
+  private static final int TORN_RECORD = -2;
+  private static final Pattern SEGMENT_NAME =
+      Pattern.compile(".*" + Pattern.quote(JOURNAL_FILE_EXTENSION) + "\\.\\d{4}");
+
+  private final File journalFile;
+  private final int segmentSize;
+  private final BinaryTrackEncoder encoder = new BinaryTrackEncoder();
+  private final CRC32 crc = new CRC32();
+  private final byte[] payload = new byte[POINT_RECORD_SIZE];
+  private final ByteBuffer payloadBuffer = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+  private final byte[] frame = new byte[FRAME_HEADER_SIZE + POINT_RECORD_SIZE];
+  private OutputStream outputStream;
+  private long nextSequence;
+
+  public CaptureJournal(File captureFile) {
+    this(captureFile, 0);
+  }
+
+  /**
+   * @param captureFile the capture file of the session
+   * @param segmentSize the size of the memory-mapped segment files of the journal, 0 to write the
+   *     journal as a single file
+   */
+  public CaptureJournal(File captureFile, int segmentSize) {
+    this.journalFile = getJournalFile(captureFile);
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * @param captureFile the capture file of the session
+   * @return the journal file of the capture file
+   */
+  public static File getJournalFile(File captureFile) {
+    return new File(captureFile.getPath() + JOURNAL_FILE_EXTENSION);
+  }
+
+  /**
+   * Create the journal and write the session header
+   *
+   * @param outputFormat the format of the capture file
+   * @param isCompressed whether the capture file is compressed
+   * @param startTimeMillis time the capture started
+   * @param metadata the device that captured the session
+   * @throws IOException if the journal could not be created
+   */
+  public synchronized void open(
+      OutputFormat outputFormat,
+      boolean isCompressed,
+      long startTimeMillis,
+      DeviceMetadata metadata)
+      throws IOException {
+    ByteBuffer sessionHeader =
+        BinaryTrackEncoder.putHeader(
+            ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN),
+            MAGIC,
+            VERSION,
+            BinaryTrackEncoder.RECORD_SIZE,
+            startTimeMillis,
+            metadata);
+    ByteBuffer header = ByteBuffer.allocate(2 + sessionHeader.position());
+    header.put((byte) outputFormat.ordinal());
+    header.put((byte) (isCompressed ? 1 : 0));
+    header.put(sessionHeader.array(), 0, sessionHeader.position());
+
+    outputStream =
+        segmentSize > 0
+            ? new MappedSegmentOutputStream(journalFile, segmentSize)
+            : new FileOutputStream(journalFile, false);
+    byte[] record = new byte[FRAME_HEADER_SIZE + header.position()];
+    int length = frame(header.array(), header.position(), record);
+    outputStream.write(record, 0, length);
+  }
+
+  /**
+   * Append a track point to the journal
+   *
+   * @param trackPoint the accepted track point
+   * @return the sequence number of the track point in the journal
+   */
+  public synchronized long append(TrackPoint trackPoint) {
+    long sequence = nextSequence++;
+    if (outputStream == null) {
+      return sequence;
+    }
+    System.arraycopy(encoder.getBuffer(), 0, payload, 0, encoder.encode(trackPoint));
+    payloadBuffer.putLong(BinaryTrackEncoder.RECORD_SIZE, sequence);
+    write(POINT_RECORD_SIZE);
+    return sequence;
+  }
+
+  /**
+   * Mark a journaled track point as dropped, it is not recovered
+   *
+   * @param sequence the sequence number returned when the track point was appended
+   */
+  public synchronized void appendDropped(long sequence) {
+    if (outputStream == null) {
+      return;
+    }
+    payloadBuffer.putLong(0, sequence);
+    write(DROP_RECORD_SIZE);
+  }
+
+  /** Record a track point rejected before it was journaled, it takes a sequence number */
+  public synchronized void appendRejected() {
+    appendDropped(nextSequence++);
+  }
+
+  private void write(int length) {
+    try {
+      outputStream.write(frame, 0, frame(payload, length, frame));
+    } catch (IOException e) {
+      Log.e(TAG, "Could not append the record to the journal.", e);
+    }
+  }
+
+  /**
+   * Close the journal, it is kept until {@link #delete()} is called. The last segment of a mapped
+   * journal is trimmed to its records.
+   */
+  public synchronized void close() {
+    if (outputStream == null) {
+      return;
+    }
+    try {
+      outputStream.close();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not close the journal.", e);
+    }
+    outputStream = null;
+  }
+
+  /** Delete the journal once the capture file is complete */
+  public void delete() {
+    close();
+    deleteParts(journalFile);
+  }
+
+  /**
+   * @param journalFile the journal of a session
+   * @return the files the journal is written to, either the journal file or its segments in order
+   */
+  static List<File> getJournalParts(File journalFile) {
+    List<File> parts = new ArrayList<>();
+    if (journalFile.exists()) {
+      parts.add(journalFile);
+    }
+    File segment;
+    while ((segment = MappedSegmentOutputStream.getSegmentFile(journalFile, parts.size()))
+        .exists()) {
+      parts.add(segment);
+    }
+    return parts;
+  }
+
+  private static void deleteParts(File journalFile) {
+    for (File part : getJournalParts(journalFile)) {
+      if (!part.delete()) {
+        Log.e(TAG, "Could not delete the journal " + part.getName());
+      }
+    }
+  }
+
+  /** Copy the payload into the record after its length and CRC32 */
+  private int frame(byte[] payload, int length, byte[] record) {
+    crc.reset();
+    crc.update(payload, 0, length);
+    ByteBuffer frameHeader = ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN);
+    frameHeader.putInt(0, length);
+    frameHeader.putInt(4, (int) crc.getValue());
+    System.arraycopy(payload, 0, record, FRAME_HEADER_SIZE, length);
+    return FRAME_HEADER_SIZE + length;
+  }
+
+  /**
+   * Recover the sessions whose journal is left in the folder, which were not stopped properly
+   *
+   * @param folder the folder of the capture files
+   * @return the number of sessions recovered
+   */
+  public static int recover(File folder) {
+    return recover(folder, Collections.emptySet());
+  }
+
+  /**
+   * Recover the sessions whose journal is left in the folder, except the sessions being captured
+   *
+   * @param folder the folder of the capture files
+   * @param openCaptureFiles the capture files opened since the last crash, their journal is live
+   * @return the number of sessions recovered
+   */
+  public static int recover(File folder, Set<File> openCaptureFiles) {
+    File[] files = folder.listFiles();
+    if (files == null) {
+      return 0;
+    }
+
+    // a mapped journal is named after its first segment
+    Set<File> journalFiles = new TreeSet<>();
+    for (File file : files) {
+      String name = file.getName();
+      if (name.endsWith(JOURNAL_FILE_EXTENSION)) {
+        journalFiles.add(file);
+      } else if (SEGMENT_NAME.matcher(name).matches()) {
+        journalFiles.add(new File(folder, name.substring(0, name.lastIndexOf('.'))));
+      }
+    }
+
+    int recoveredSessions = 0;
+    for (File journalFile : journalFiles) {
+      if (openCaptureFiles.contains(getCaptureFile(journalFile))) {
+        continue;
+      }
+      try {
+        if (recoverSession(journalFile)) {
+          recoveredSessions++;
+        }
+      } catch (IOException e) {
+        Log.e(TAG, "Could not recover the journal " + journalFile.getName(), e);
+      }
+    }
+    return recoveredSessions;
+  }
+
+  private static File getCaptureFile(File journalFile) {
+    String journalPath = journalFile.getPath();
+    return new File(
+        journalPath.substring(0, journalPath.length() - JOURNAL_FILE_EXTENSION.length()));
+  }
+
+  /**
+   * Complete the capture file with the track points of the journal past its last complete one,
+   * up to the last valid record of the journal
+   *
+   * @param journalFile the journal left over by a crash, the first segment of a mapped journal is
+   *     named after it
+   * @return true if the capture file is recovered, false if the journal has no session header
+   * @throws IOException if the journal could not be read or the capture file written
+   */
+  static boolean recoverSession(File journalFile) throws IOException {
+    File firstPart = getCaptureFile(journalFile);
+
+    // the parts listed in the manifest of a rolled over session are complete, the journal records
+    // of their track points are skipped and the part after them is recovered
+    File manifestFile = CaptureFileRoller.getManifestFile(firstPart);
+    boolean isRolledOver = manifestFile.exists();
+    int completedParts = 0;
+    long completedPoints = 0;
+    if (isRolledOver) {
+      for (String part : CaptureFileRoller.readManifest(manifestFile)) {
+        completedParts++;
+        completedPoints += Long.parseLong(part.substring(part.lastIndexOf('\t') + 1));
+      }
+    }
+    File captureFile = CaptureFileRoller.getPartFile(firstPart, completedParts);
+    Log.w(TAG, "Recovering the capture file " + captureFile.getName());
+
+    // the first pass reads the session header and the track points dropped after they were
+    // journaled
+    List<File> parts = getJournalParts(journalFile);
+    SessionHeader session = null;
+    Set<Long> droppedSequences = new HashSet<>();
+    try (RecordReader reader = new RecordReader(parts)) {
+      ByteBuffer record;
+      while ((record = reader.next()) != null) {
+        if (session == null) {
+          session = new SessionHeader(record);
+        } else if (record.remaining() == DROP_RECORD_SIZE) {
+          droppedSequences.add(record.getLong(0));
+        }
+      }
+    }
+    if (session == null) {
+      deleteParts(journalFile);
+      Log.w(TAG, "The journal " + journalFile.getName() + " has no session header.");
+      return false;
+    }
+
+    // the complete track points of the capture file are kept, the second pass appends the ones
+    // past them
+    CaptureFileScanner scan =
+        CaptureFileScanner.scan(captureFile, session.outputFormat, session.isCompressed);
+    long writtenPoints = completedPoints + scan.getTrackPoints();
+    TrackEncoder encoder = session.outputFormat.newEncoder(UtcTimestampEncoder.ISO_8601);
+    File recoveringFile = new File(captureFile.getPath() + RECOVERING_FILE_EXTENSION);
+    boolean needsHeader = !scan.hasHeader();
+    long partStartMillis = session.startTimeMillis;
+    long endTimeMillis = -1;
+    int recoveredPoints = 0;
+    OutputStream outputStream =
+        openRecoveredFile(captureFile, recoveringFile, scan, session.isCompressed);
+    try (RecordReader reader = new RecordReader(parts)) {
+      TrackPoint trackPoint = new TrackPoint();
+      long journaledPoints = 0;
+      reader.next(); // the session header
+      ByteBuffer record;
+      while ((record = reader.next()) != null) {
+        if (record.remaining() == DROP_RECORD_SIZE
+            || (record.remaining() == POINT_RECORD_SIZE
+                && droppedSequences.contains(record.getLong(BinaryTrackEncoder.RECORD_SIZE)))) {
+          continue;
+        }
+        BinaryTrackConverter.readTrackPoint(record, trackPoint);
+        journaledPoints++;
+        if (journaledPoints <= completedPoints) {
+          // the part being recovered starts where the last completed one ended
+          partStartMillis = trackPoint.getTime();
+          continue;
+        }
+        if (journaledPoints > writtenPoints) {
+          if (needsHeader) {
+            writeHeader(encoder, partStartMillis, session.metadata, outputStream);
+            needsHeader = false;
+          }
+          outputStream.write(encoder.getBuffer(), 0, encoder.encode(trackPoint));
+          recoveredPoints++;
+        }
+        endTimeMillis = trackPoint.getTime();
+      }
+
+      if (needsHeader) {
+        writeHeader(encoder, partStartMillis, session.metadata, outputStream);
+      }
+      int footerLength = encoder.encodeFooter(endTimeMillis < 0 ? partStartMillis : endTimeMillis);
+      outputStream.write(encoder.getBuffer(), 0, footerLength);
+    } finally {
+      outputStream.close();
+    }
+
+    if (session.isCompressed && !recoveringFile.renameTo(captureFile)) {
+      throw new IOException("Could not replace " + captureFile.getName() + " once recovered.");
+    }
+    if (isRolledOver) {
+      CaptureFileRoller.appendManifest(
+          manifestFile, captureFile, scan.getTrackPoints() + recoveredPoints);
+    }
+    deleteParts(journalFile);
+    Log.i(
+        TAG,
+        "Kept "
+            + scan.getTrackPoints()
+            + " and recovered "
+            + recoveredPoints
+            + " track points of "
+            + captureFile.getName());
+    return true;
+  }
+
+  /**
+   * Open the capture file to append the recovered track points after its last complete one
+   *
+   * @param captureFile the capture file being recovered
+   * @param recoveringFile the file a compressed capture file is rewritten to
+   * @param scan the scan of the capture file
+   * @param isCompressed whether the capture file is compressed
+   * @return the stream of the recovered file
+   * @throws IOException if the file could not be opened
+   */
+  private static OutputStream openRecoveredFile(
+      File captureFile, File recoveringFile, CaptureFileScanner scan, boolean isCompressed)
+      throws IOException {
+    long validLength = scan.hasHeader() ? scan.getRecordsEnd() : 0;
+    if (!isCompressed) {
+      try (RandomAccessFile file = new RandomAccessFile(captureFile, "rw")) {
+        file.setLength(validLength);
+      }
+      return new BufferedOutputStream(new FileOutputStream(captureFile, true), BUFFER_SIZE);
+    }
+
+    // a deflate stream can not be cut, its content up to the last complete track point is copied
+    // to a new compressed file which replaces the capture file once complete
+    OutputStream outputStream =
+        new BufferedOutputStream(
+            new GZIPOutputStream(new FileOutputStream(recoveringFile, false), BUFFER_SIZE),
+            BUFFER_SIZE);
+    try {
+      if (validLength > 0) {
+        CaptureFileScanner.copyDecompressed(captureFile, validLength, outputStream);
+      }
+    } catch (IOException e) {
+      outputStream.close();
+      throw e;
+    }
+    return outputStream;
+  }
+
+  private static void writeHeader(
+      TrackEncoder encoder, long startTimeMillis, DeviceMetadata metadata, OutputStream output)
+      throws IOException {
+    int headerLength = encoder.encodeHeader(startTimeMillis, metadata);
+    output.write(encoder.getBuffer(), 0, headerLength);
+  }
+
+  /** The session header, the first record of the journal */
+  private static class SessionHeader {
+    final OutputFormat outputFormat;
+    final boolean isCompressed;
+    final long startTimeMillis;
+    final DeviceMetadata metadata;
+
+    SessionHeader(ByteBuffer record) throws IOException {
+      int formatOrdinal = record.get();
+      if (formatOrdinal < 0 || formatOrdinal >= OutputFormat.values().length) {
+        throw new IOException("Unknown output format " + formatOrdinal + " in the journal.");
+      }
+      outputFormat = OutputFormat.values()[formatOrdinal];
+      isCompressed = record.get() != 0;
+      byte[] magic = new byte[MAGIC.length];
+      record.get(magic);
+      if (!Arrays.equals(magic, MAGIC)) {
+        throw new IOException("Not a capture journal.");
+      }
+      record.getShort(); // version
+      record.getShort(); // record size
+      startTimeMillis = record.getLong();
+      metadata =
+          new DeviceMetadata(
+              record.getInt(),
+              getString(record),
+              getString(record),
+              getString(record),
+              getString(record));
+    }
+  }
+
+  /** Reads the valid records of the parts of a journal in order, up to the first torn one */
+  private static class RecordReader implements Closeable {
+    private final List<File> parts;
+    private final CRC32 crc = new CRC32();
+    private final byte[] frameHeader = new byte[FRAME_HEADER_SIZE];
+    private final byte[] payload = new byte[MAX_RECORD_SIZE];
+    private int partIndex;
+    private DataInputStream input;
+    private long validLength;
+    private boolean isTorn;
+
+    RecordReader(List<File> parts) {
+      this.parts = parts;
+    }
+
+    /** @return the payload of the next valid record, null after the last one */
+    ByteBuffer next() throws IOException {
+      while (!isTorn && partIndex < parts.size()) {
+        if (input == null) {
+          input =
+              new DataInputStream(
+                  new BufferedInputStream(new FileInputStream(parts.get(partIndex)), BUFFER_SIZE));
+          validLength = 0;
+        }
+        int length = readRecord(input, frameHeader, payload, crc);
+        if (length >= 0) {
+          validLength += FRAME_HEADER_SIZE + length;
+          return ByteBuffer.wrap(payload, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (length == TORN_RECORD) {
+          isTorn = true;
+          Log.w(
+              TAG,
+              "Dropped the torn records after byte "
+                  + validLength
+                  + " of "
+                  + parts.get(partIndex).getName());
+        }
+        close();
+        partIndex++;
+      }
+      return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (input != null) {
+        input.close();
+        input = null;
+      }
+    }
+  }
+
+  /**
+   * @return the length of the payload of the next valid record, {@link #END_OF_PART} at the end of
+   *     the file or of the records of a zero padded segment, {@link #TORN_RECORD} if the next record
+   *     is incomplete or corrupted
+   */
+  private static int readRecord(
+      DataInputStream input, byte[] frameHeader, byte[] payload, CRC32 crc) throws IOException {
+    int firstByte = input.read();
+    if (firstByte < 0) {
+      return END_OF_PART;
+    }
+    try {
+      frameHeader[0] = (byte) firstByte;
+      input.readFully(frameHeader, 1, FRAME_HEADER_SIZE - 1);
+      ByteBuffer header = ByteBuffer.wrap(frameHeader).order(ByteOrder.LITTLE_ENDIAN);
+      int length = header.getInt(0);
+      if (length == 0) {
+        return END_OF_PART;
+      }
+      if (length < 0 || length > MAX_RECORD_SIZE) {
+        return TORN_RECORD;
+      }
+      input.readFully(payload, 0, length);
+      crc.reset();
+      crc.update(payload, 0, length);
+      return (int) crc.getValue() == header.getInt(4) ? length : TORN_RECORD;
+    } catch (EOFException e) {
+      return TORN_RECORD;
+    }
+  }
+
+  private static String getString(ByteBuffer record) {
+    byte[] bytes = new byte[record.getShort() & 0xffff];
+    record.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
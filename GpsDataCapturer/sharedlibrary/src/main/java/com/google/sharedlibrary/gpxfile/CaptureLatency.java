@@ -0,0 +1,108 @@
+package com.google.sharedlibrary.gpxfile;
+
+import android.os.SystemClock;
+
+import com.google.sharedlibrary.utils.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Latencies of the track points of a capture session from the fix to the capture file, one {@link
+ * LatencyHistogram} per {@link Stage}. Every stage is stamped with the elapsed realtime, the
+ * monotonic clock the providers stamp their fixes with, so the stages add up to the age of a fix
+ * once it is in the file.
+ *
+ * <p>The capture writers of a session share one instance and record into it from their threads.
+ */
+public class CaptureLatency {
+  /** The stages of a track point, in the order it goes through them */
+  public enum Stage {
+    /** From the fix to its delivery to the location listener */
+    DELIVERY("delivery"),
+    /** From the location listener through the pipeline into the ring buffer of the writer */
+    ENQUEUE("enqueue"),
+    /** Waiting in the ring buffer for the writer thread */
+    QUEUE("queue"),
+    /** Encoding in the output format */
+    SERIALIZATION("serialization"),
+    /** Writing into the buffer of the file, or through it when it is full */
+    WRITE("write"),
+    /** Waiting in the buffer until it is committed to the file by the flush policy */
+    FLUSH("flush"),
+    /** From the fix to its commit to the file */
+    END_TO_END("end_to_end");
+
+    // values() copies the array on each call
+    private static final Stage[] STAGES = values();
+    private final String key;
+
+    Stage(String key) {
+      this.key = key;
+    }
+
+    /** @return the name of the stage in the session file */
+    public String getKey() {
+      return key;
+    }
+  }
+
+  private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.STAGES.length];
+
+  public CaptureLatency() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new LatencyHistogram();
+    }
+  }
+
+  /** @return the current elapsed realtime in nanoseconds, the clock of all the stages */
+  public static long now() {
+    return SystemClock.elapsedRealtimeNanos();
+  }
+
+  /**
+   * Record the latency of a track point in a stage
+   *
+   * @param stage the stage
+   * @param nanos the time the track point spent in the stage in nanoseconds
+   */
+  public void record(Stage stage, long nanos) {
+    histograms[stage.ordinal()].record(nanos);
+  }
+
+  /**
+   * @param stage the stage
+   * @return the histogram of the latencies of the stage
+   */
+  public LatencyHistogram getHistogram(Stage stage) {
+    return histograms[stage.ordinal()];
+  }
+
+  /**
+   * Write the histograms as key=value lines: the count, mean, percentiles and max of each stage in
+   * microseconds, then the counts of its buckets
+   *
+   * @param writer the writer of the session file
+   * @throws IOException if the lines could not be written
+   */
+  public void writeTo(Writer writer) throws IOException {
+    for (Stage stage : Stage.STAGES) {
+      LatencyHistogram histogram = getHistogram(stage);
+      String prefix = "latency." + stage.getKey();
+      writer.write(prefix + ".count=" + histogram.getCount() + "\n");
+      writer.write(prefix + ".mean_us=" + (long) histogram.getMeanNanos() / 1000 + "\n");
+      writer.write(prefix + ".p50_us=" + histogram.getPercentileNanos(50) / 1000 + "\n");
+      writer.write(prefix + ".p90_us=" + histogram.getPercentileNanos(90) / 1000 + "\n");
+      writer.write(prefix + ".p99_us=" + histogram.getPercentileNanos(99) / 1000 + "\n");
+      writer.write(prefix + ".max_us=" + histogram.getMaxNanos() / 1000 + "\n");
+      StringBuilder buckets = new StringBuilder();
+      for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+        if (bucket > 0) {
+          buckets.append(',');
+        }
+        buckets.append(histogram.getBucketCount(bucket));
+      }
+      writer.write(prefix + ".buckets=" + buckets + "\n");
+    }
+  }
+}
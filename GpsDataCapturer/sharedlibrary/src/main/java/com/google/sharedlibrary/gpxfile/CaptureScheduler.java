@@ -0,0 +1,241 @@
+package com.google.sharedlibrary.gpxfile;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scheduler running the I/O of all the capture writers on a fixed number of threads, so the thread
+ * count stays the same however many sessions or outputs are open. Each writer submits its tasks to
+ * its own {@link Lane}: the tasks of a lane run one at a time in submission order, and the lanes
+ * with pending tasks take turns on the threads. A lane runs at most {@link #BATCH_SIZE} tasks
+ * before it goes back to the end of the queue, so a busy writer can not starve the other ones.
+ *
+ * <p>Delayed tasks, like the flush of buffered records once the interval of a {@link FlushPolicy}
+ * elapsed, wait on a single timer thread and are then queued to their lane.
+ */
+public class CaptureScheduler {
+  private static final String TAG = "CaptureScheduler";
+  public static final int DEFAULT_THREADS = 2;
+  static final int BATCH_SIZE = 16;
+
+  private final ThreadPoolExecutor executor;
+  private final ScheduledThreadPoolExecutor timer;
+
+  /**
+   * Constructor to create a CaptureScheduler, its threads are started on demand
+   *
+   * @param threads the number of I/O threads shared by the lanes
+   */
+  public CaptureScheduler(int threads) {
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory =
+        runnable -> new Thread(runnable, "capture-io-" + threadCount.incrementAndGet());
+    executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            threadFactory);
+    timer = new ScheduledThreadPoolExecutor(1, runnable -> new Thread(runnable, "capture-timer"));
+    timer.setRemoveOnCancelPolicy(true);
+    timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  /**
+   * Create a lane for a writer
+   *
+   * @param capacity the number of pending tasks above which the producer waits for the lane
+   * @return the new lane
+   */
+  public Lane newLane(int capacity) {
+    return new Lane(capacity);
+  }
+
+  /** @return the number of I/O threads started so far */
+  public int getThreadCount() {
+    return executor.getPoolSize();
+  }
+
+  /**
+   * Stop the I/O threads once the lanes already scheduled have run, no lane runs after that. The
+   * delayed tasks not due yet are dropped.
+   */
+  public void shutdown() {
+    timer.shutdown();
+    executor.shutdown();
+  }
+
+  /**
+   * Wait for the I/O threads to stop after {@link #shutdown()}
+   *
+   * @param timeout the maximum time to wait
+   * @param unit the unit of the timeout
+   * @return true if the threads stopped, false if the timeout elapsed first
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+
+  /** Serial executor of one writer, its tasks never run concurrently and keep their order */
+  public class Lane implements Executor {
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final int capacity;
+    private final Runnable batch = this::runBatch;
+    private boolean isScheduled;
+    private boolean isShutdown;
+
+    private Lane(int capacity) {
+      this.capacity = capacity;
+    }
+
+    /**
+     * Queue a task of the writer, the producer waits while the lane is full so header, footer and
+     * flush tasks are never dropped. A task queued after {@link #shutdown()} is discarded, and
+     * cancelled if it is a {@link Future}.
+     *
+     * @param task the task to run on an I/O thread
+     */
+    @Override
+    public synchronized void execute(Runnable task) {
+      try {
+        while (!isShutdown && tasks.size() >= capacity) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        Log.e(TAG, "Interrupted while waiting for the writer lane.", e);
+        discard(task);
+        return;
+      }
+      if (isShutdown) {
+        Log.e(TAG, "Writer lane is shut down, the task is discarded.");
+        discard(task);
+        return;
+      }
+      tasks.add(task);
+      if (!isScheduled) {
+        schedule();
+      }
+    }
+
+    /**
+     * Queue a task of the writer once a delay elapsed. The task is dropped if the lane is shut down
+     * by then. The timer thread is shared by all the lanes, so it never waits for a full lane: the
+     * task is queued past the capacity of the lane, unless it is already queued and not run yet.
+     *
+     * @param task the task to run on an I/O thread
+     * @param delay the delay before the task is queued
+     * @param unit the unit of the delay
+     * @return the pending delayed task, to cancel it
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+      return timer.schedule(() -> executeIfRunning(task), delay, unit);
+    }
+
+    /**
+     * Queue a delayed task without waiting, unless the lane is shut down, which is expected once a
+     * writer closed. A delayed task still waiting in the lane is not queued twice.
+     */
+    private synchronized void executeIfRunning(Runnable task) {
+      if (isShutdown || tasks.contains(task)) {
+        return;
+      }
+      tasks.add(task);
+      if (!isScheduled) {
+        schedule();
+      }
+    }
+
+    /** Reject the tasks queued from now on, the pending ones still run */
+    public synchronized void shutdown() {
+      isShutdown = true;
+      notifyAll();
+    }
+
+    /**
+     * Wait for the pending tasks of the lane to run
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return true if the lane is idle, false if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit)
+        throws InterruptedException {
+      long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+      while (isScheduled) {
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        if (remainingNanos <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+      }
+      return true;
+    }
+
+    /** Put the lane at the end of the queue of the I/O threads */
+    private void schedule() {
+      try {
+        executor.execute(batch);
+        isScheduled = true;
+      } catch (RejectedExecutionException e) {
+        Log.e(TAG, "Capture scheduler is shut down, the pending tasks are discarded.");
+        while (!tasks.isEmpty()) {
+          discard(tasks.poll());
+        }
+        isScheduled = false;
+        notifyAll();
+      }
+    }
+
+    /** Run a batch of tasks, then yield the I/O thread to the other lanes */
+    private void runBatch() {
+      for (int i = 0; i < BATCH_SIZE; i++) {
+        Runnable task;
+        synchronized (this) {
+          task = tasks.poll();
+          if (task == null) {
+            isScheduled = false;
+            notifyAll();
+            return;
+          }
+          // a slot is free for a waiting producer
+          notifyAll();
+        }
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          Log.e(TAG, "A writer task failed.", e);
+        }
+      }
+      synchronized (this) {
+        if (tasks.isEmpty()) {
+          isScheduled = false;
+          notifyAll();
+        } else {
+          schedule();
+        }
+      }
+    }
+
+    private void discard(Runnable task) {
+      if (task instanceof Future) {
+        ((Future<?>) task).cancel(false);
+      }
+    }
+  }
+}
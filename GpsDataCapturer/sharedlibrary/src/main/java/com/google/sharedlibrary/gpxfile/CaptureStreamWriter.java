@@ -0,0 +1,298 @@
+package com.google.sharedlibrary.gpxfile;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class of the writers of the high-rate streams of a capture session, next to its gpx file.
+ * The records are encoded by the subclass on the callback thread straight into a preallocated
+ * block, and the blocks are written by the capture I/O threads in a single write each, once full
+ * or when the {@link FlushPolicy} says so, a timer hands a block over once the interval of the
+ * policy elapsed even if no record follows. The blocks are recycled once written, nothing is
+ * allocated per record. When all the blocks are waiting for the storage, the new records are
+ * dropped instead of blocking the callback thread.
+ *
+ * <p>A subclass encodes a record between {@link #beginRecord(int, long)} and {@link
+ * #endRecord(long)}, holding the lock of the writer.
+ */
+public abstract class CaptureStreamWriter {
+  private static final String TAG = "CaptureStreamWriter";
+  private static final int BLOCK_COUNT = 4;
+  // every block can be in flight, plus the header, the flush timer and the close tasks
+  private static final int QUEUE_CAPACITY = BLOCK_COUNT + 3;
+
+  /** Default policy, a block is written once full or after 1 second */
+  public static final FlushPolicy DEFAULT_FLUSH_POLICY = new FlushPolicy(0, 1000);
+
+  private final File file;
+  private final int blockSize;
+  private final CaptureScheduler ownScheduler;
+  private final CaptureScheduler.Lane lane;
+  private final ArrayBlockingQueue<Block> freeBlocks = new ArrayBlockingQueue<>(BLOCK_COUNT);
+  private final AtomicLong writtenRecords = new AtomicLong();
+  private final AtomicLong droppedRecords = new AtomicLong();
+  private FlushPolicy flushPolicy = DEFAULT_FLUSH_POLICY;
+  private FileOutputStream outputStream;
+  private Block block;
+  private int blockRecords;
+  private long blockStartMillis;
+  private long blockSequence;
+  private long timedBlockSequence;
+  private ScheduledFuture<?> flushTimer;
+  private final Runnable flushTimerTask = this::flushOnTimer;
+  private boolean isOpen;
+
+  /**
+   * Constructor to create a CaptureStreamWriter
+   *
+   * @param file the file of the stream
+   * @param scheduler the I/O scheduler shared by the capture writers, null to give the writer its
+   *     own thread, which is stopped when the writer is closed
+   * @param blockSize the size of the blocks, the largest record that can be written
+   */
+  protected CaptureStreamWriter(File file, CaptureScheduler scheduler, int blockSize) {
+    this.file = file;
+    this.blockSize = blockSize;
+    this.ownScheduler = scheduler == null ? new CaptureScheduler(1) : null;
+    this.lane = (scheduler == null ? ownScheduler : scheduler).newLane(QUEUE_CAPACITY);
+  }
+
+  /**
+   * Set the policy deciding when a block is written before it is full, the number of points of the
+   * policy counts records. It takes effect for the next block.
+   *
+   * @param flushPolicy the flush policy
+   */
+  public synchronized void setFlushPolicy(FlushPolicy flushPolicy) {
+    this.flushPolicy = flushPolicy;
+  }
+
+  /**
+   * Open the file and queue its header
+   *
+   * @throws IOException if the file could not be opened
+   */
+  public synchronized void openFile() throws IOException {
+    outputStream = new FileOutputStream(file);
+    freeBlocks.clear();
+    for (int i = 0; i < BLOCK_COUNT; i++) {
+      freeBlocks.add(new Block());
+    }
+
+    final FileOutputStream stream = outputStream;
+    final ByteBuffer header = encodeHeader(System.currentTimeMillis());
+    if (header != null) {
+      submit(
+          () -> {
+            stream.write(header.array(), 0, header.position());
+            return null;
+          });
+    }
+    isOpen = true;
+  }
+
+  /**
+   * Encode the header of the file, called once when the file is opened
+   *
+   * @param startTimeMillis time the capture started
+   * @return the buffer holding the header up to its position, null if the format has no header
+   */
+  protected abstract ByteBuffer encodeHeader(long startTimeMillis);
+
+  /**
+   * Encode the footer of the file, called once when the file is closed
+   *
+   * @param endTimeMillis time the capture stopped
+   * @return the buffer holding the footer up to its position, null if the format has no footer
+   */
+  protected abstract ByteBuffer encodeFooter(long endTimeMillis);
+
+  /**
+   * Get the buffer to encode a record into, a record never spans two blocks
+   *
+   * @param size the size of the record, at most the block size
+   * @param nowMillis the elapsed realtime of the record
+   * @return the little-endian buffer with at least size bytes remaining, null if the file is not
+   *     open or the record is dropped
+   */
+  protected final ByteBuffer beginRecord(int size, long nowMillis) {
+    if (!isOpen) {
+      return null;
+    }
+    if (size > blockSize) {
+      droppedRecords.incrementAndGet();
+      return null;
+    }
+    if (block != null && block.buffer.remaining() < size) {
+      writeBlock();
+    }
+    if (block == null) {
+      block = freeBlocks.poll();
+      if (block == null) {
+        droppedRecords.incrementAndGet();
+        return null;
+      }
+      blockRecords = 0;
+      blockStartMillis = nowMillis;
+      blockSequence++;
+      if (flushTimer == null && flushPolicy.getMaxIntervalMillis() > 0) {
+        scheduleFlushTimer(flushPolicy.getMaxIntervalMillis());
+      }
+    }
+    return block.buffer;
+  }
+
+  /**
+   * Complete the record encoded after {@link #beginRecord(int, long)}, and hand the block over to
+   * the I/O thread if the flush policy says so
+   *
+   * @param nowMillis the elapsed realtime of the record
+   */
+  protected final void endRecord(long nowMillis) {
+    blockRecords++;
+    writtenRecords.incrementAndGet();
+    if (flushPolicy.shouldFlush(blockRecords, nowMillis - blockStartMillis)) {
+      writeBlock();
+    }
+  }
+
+  /**
+   * Hand the current block over once the interval of the flush policy elapsed, the records are not
+   * left in the block when the callbacks stop. Only one timer is pending at a time, for the block
+   * current when it is scheduled.
+   *
+   * @param delayMillis the time left before the block is due
+   */
+  private void scheduleFlushTimer(long delayMillis) {
+    timedBlockSequence = blockSequence;
+    flushTimer = lane.schedule(flushTimerTask, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Hand the timed block over, or time the current block if the timed one was already handed over
+   * by a record
+   */
+  private synchronized void flushOnTimer() {
+    flushTimer = null;
+    if (!isOpen || block == null || flushPolicy.getMaxIntervalMillis() == 0) {
+      return;
+    }
+    if (blockSequence == timedBlockSequence) {
+      writeBlock();
+    } else {
+      long blockAgeMillis = SystemClock.elapsedRealtime() - blockStartMillis;
+      scheduleFlushTimer(Math.max(0, flushPolicy.getMaxIntervalMillis() - blockAgeMillis));
+    }
+  }
+
+  /** Hand the current block over to the I/O thread */
+  private void writeBlock() {
+    lane.execute(block);
+    block = null;
+  }
+
+  /**
+   * Queue the current block, the footer and the close of the file. No record is written any more.
+   *
+   * @return completes once the file is closed and synced to the storage device
+   */
+  public synchronized Future<Void> closeFile() {
+    if (!isOpen) {
+      return CompletableFuture.completedFuture(null);
+    }
+    isOpen = false;
+    if (flushTimer != null) {
+      flushTimer.cancel(false);
+      flushTimer = null;
+    }
+    if (block != null) {
+      writeBlock();
+    }
+
+    final FileOutputStream stream = outputStream;
+    final ByteBuffer footer = encodeFooter(System.currentTimeMillis());
+    return submit(
+        () -> {
+          try (FileOutputStream fileStream = stream) {
+            if (footer != null) {
+              fileStream.write(footer.array(), 0, footer.position());
+            }
+            fileStream.getFD().sync();
+          } catch (IOException e) {
+            Log.e(TAG, "Could not close " + file.getName() + ".", e);
+            throw e;
+          }
+          return null;
+        });
+  }
+
+  /**
+   * Close the file and shut the writer lane down once all the queued blocks are written
+   *
+   * @param timeout the maximum time to wait for the writer lane
+   * @param unit the unit of the timeout
+   * @return true if the file is complete, false if the timeout elapsed first
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+    closeFile();
+    lane.shutdown();
+    boolean isDrained = lane.awaitTermination(timeout, unit);
+    if (ownScheduler != null) {
+      ownScheduler.shutdown();
+    }
+    return isDrained;
+  }
+
+  /** @return the file of the stream */
+  public File getFile() {
+    return file;
+  }
+
+  /** @return the number of records encoded */
+  public long getWrittenRecords() {
+    return writtenRecords.get();
+  }
+
+  /** @return the number of records dropped because no block was free */
+  public long getDroppedRecords() {
+    return droppedRecords.get();
+  }
+
+  /** Queue a task for the writer lane */
+  private Future<Void> submit(Callable<Void> task) {
+    FutureTask<Void> future = new FutureTask<>(task);
+    lane.execute(future);
+    return future;
+  }
+
+  /** A block of encoded records, written by the I/O thread then put back in the free blocks */
+  private class Block implements Runnable {
+    private final ByteBuffer buffer = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+
+    @Override
+    public void run() {
+      try {
+        outputStream.write(buffer.array(), 0, buffer.position());
+      } catch (IOException e) {
+        Log.e(TAG, "Could not write " + file.getName() + ".", e);
+      }
+      buffer.clear();
+      freeBlocks.offer(this);
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package com.google.sharedlibrary.gpxfile;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encoder of the columnar session format for long captures. Track points are collected in blocks
+ * of {@link #BLOCK_SIZE} points, and each block is written as one column per field. Successive 1 Hz
+ * fixes barely differ, so each column stores the differences between points as zig-zag varints,
+ * most of them a single byte.
+ *
+ * <p>The file starts with the header of {@link BinaryTrackEncoder}, with the magic "WTRC" and the
+ * block size instead of the record size. Each block then starts with a little-endian header:
+ *
+ * <pre>
+ *   u8 type | u16 points | i64 min time | i64 max time | i32 min latitude | i32 max latitude
+ *   | i32 min longitude | i32 max longitude | i32 length of the columns
+ * </pre>
+ *
+ * so a reader can skip the blocks outside of a time range or bounding box without decoding them.
+ * The columns follow, time, latitude and longitude as delta-of-delta, the other ones as delta:
+ *
+ * <pre>
+ *   time millis | latitude * 1e7 | longitude * 1e7 | altitude * 100 | speed * 100
+ *   | accuracy * 100 | satellites | flags | provider | signal01 .. signal04 * 1000
+ *   | elapsed realtime nanos | receipt delay nanos | clock offset millis
+ * </pre>
+ *
+ * The elapsed realtime is delta-of-delta. The receipt delay, received minus elapsed realtime, and
+ * the clock offset, wall clock minus received realtime in milliseconds for the points carrying a
+ * clock sample and 0 for the others, are stored as they are. Version 1 blocks end before the
+ * elapsed realtime.
+ *
+ * The footer writes the last partial block and an end record, u8 type and i64 end time. Points of
+ * the block being collected are only written when the block is full, a crash loses at most one
+ * block. Use {@link BinaryTrackConverter} to convert a columnar session to gpx.
+ */
+public class ColumnarTrackEncoder implements TrackEncoder {
+  static final byte[] MAGIC = {'W', 'T', 'R', 'C'};
+  static final int VERSION = 2;
+  static final int BLOCK_SIZE = 128;
+  static final int BLOCK_HEADER_SIZE = 1 + 2 + 8 + 8 + 4 * 4 + 4;
+  static final int END_SIZE = 1 + 8;
+
+  static final int TYPE_BLOCK = 1;
+  static final int TYPE_END = 2;
+
+  static final double METER_SCALE = 100;
+  static final double SIGNAL_SCALE = 1000;
+
+  static final int LATITUDE = 0;
+  static final int LONGITUDE = 1;
+  static final int ALTITUDE = 2;
+  static final int SPEED = 3;
+  static final int ACCURACY = 4;
+  static final int SATELLITES = 5;
+  static final int FLAGS = 6;
+  static final int PROVIDER = 7;
+  static final int FIRST_SIGNAL = 8;
+  static final int INT_COLUMNS = 12;
+
+  static final int LONG_COLUMNS = 4;
+
+  /** Varints take at most 10 bytes for a long and 5 bytes for an int */
+  private static final int MAX_BLOCK_SIZE =
+      BLOCK_HEADER_SIZE + BLOCK_SIZE * (10 * LONG_COLUMNS + 5 * INT_COLUMNS) + END_SIZE;
+
+  private final long[] times = new long[BLOCK_SIZE];
+  private final long[] elapsedRealtimes = new long[BLOCK_SIZE];
+  private final long[] receiptDelays = new long[BLOCK_SIZE];
+  private final long[] clockOffsets = new long[BLOCK_SIZE];
+  private final int[][] columns = new int[INT_COLUMNS][BLOCK_SIZE];
+  private int points;
+  private ByteBuffer buffer = ByteBuffer.allocate(MAX_BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+  @Override
+  public int encodeHeader(long startTimeMillis, DeviceMetadata metadata) {
+    points = 0;
+    buffer =
+        BinaryTrackEncoder.putHeader(buffer, MAGIC, VERSION, BLOCK_SIZE, startTimeMillis, metadata);
+    return buffer.position();
+  }
+
+  /**
+   * Add the track point to the block being collected
+   *
+   * @param trackPoint the track point to encode
+   * @return the number of bytes of the block once it is full, 0 while it is collected
+   */
+  @Override
+  public int encode(TrackPoint trackPoint) {
+    int flags = 0;
+    if (trackPoint.hasAltitude()) {
+      flags |= BinaryTrackEncoder.FLAG_ALTITUDE;
+    }
+    if (trackPoint.hasSpeed()) {
+      flags |= BinaryTrackEncoder.FLAG_SPEED;
+    }
+    if (trackPoint.hasAccuracy()) {
+      flags |= BinaryTrackEncoder.FLAG_ACCURACY;
+    }
+    if (trackPoint.hasSatellites()) {
+      flags |= BinaryTrackEncoder.FLAG_SATELLITES;
+    }
+    if (trackPoint.hasClockSample()) {
+      flags |= BinaryTrackEncoder.FLAG_CLOCK_SAMPLE;
+    }
+
+    times[points] = trackPoint.getTime();
+    columns[LATITUDE][points] =
+        (int) Math.round(trackPoint.getLatitude() * BinaryTrackEncoder.DEGREE_SCALE);
+    columns[LONGITUDE][points] =
+        (int) Math.round(trackPoint.getLongitude() * BinaryTrackEncoder.DEGREE_SCALE);
+    columns[ALTITUDE][points] = (int) Math.round(trackPoint.getAltitude() * METER_SCALE);
+    columns[SPEED][points] = (int) Math.round(trackPoint.getSpeed() * METER_SCALE);
+    columns[ACCURACY][points] = (int) Math.round(trackPoint.getAccuracy() * METER_SCALE);
+    columns[SATELLITES][points] = trackPoint.getSatellites();
+    columns[FLAGS][points] = flags;
+    columns[PROVIDER][points] = BinaryTrackEncoder.getProviderCode(trackPoint.getProvider());
+    columns[FIRST_SIGNAL][points] = (int) Math.round(trackPoint.getFirstSignal() * SIGNAL_SCALE);
+    columns[FIRST_SIGNAL + 1][points] =
+        (int) Math.round(trackPoint.getSecondSignal() * SIGNAL_SCALE);
+    columns[FIRST_SIGNAL + 2][points] =
+        (int) Math.round(trackPoint.getThirdSignal() * SIGNAL_SCALE);
+    columns[FIRST_SIGNAL + 3][points] =
+        (int) Math.round(trackPoint.getForthSignal() * SIGNAL_SCALE);
+    long receivedRealtimeNanos = trackPoint.getReceivedRealtimeNanos();
+    elapsedRealtimes[points] = trackPoint.getElapsedRealtimeNanos();
+    receiptDelays[points] = receivedRealtimeNanos - trackPoint.getElapsedRealtimeNanos();
+    clockOffsets[points] =
+        trackPoint.hasClockSample()
+            ? trackPoint.getWallTimeMillis() - getMillis(receivedRealtimeNanos)
+            : 0;
+    points++;
+
+    buffer.clear();
+    if (points == BLOCK_SIZE) {
+      putBlock();
+    }
+    return buffer.position();
+  }
+
+  @Override
+  public int encodeFooter(long endTimeMillis) {
+    buffer.clear();
+    if (points > 0) {
+      putBlock();
+    }
+    buffer.put((byte) TYPE_END);
+    buffer.putLong(endTimeMillis);
+    return buffer.position();
+  }
+
+  @Override
+  public byte[] getBuffer() {
+    return buffer.array();
+  }
+
+  /** Encode the collected points as a block and start a new one */
+  private void putBlock() {
+    int start = buffer.position();
+    buffer.position(start + BLOCK_HEADER_SIZE);
+
+    putDeltaOfDelta(times);
+    putDeltaOfDelta(columns[LATITUDE]);
+    putDeltaOfDelta(columns[LONGITUDE]);
+    for (int column = ALTITUDE; column < INT_COLUMNS; column++) {
+      putDelta(columns[column]);
+    }
+    putDeltaOfDelta(elapsedRealtimes);
+    putValues(receiptDelays);
+    putValues(clockOffsets);
+
+    long minTime = Long.MAX_VALUE;
+    long maxTime = Long.MIN_VALUE;
+    for (int i = 0; i < points; i++) {
+      minTime = Math.min(minTime, times[i]);
+      maxTime = Math.max(maxTime, times[i]);
+    }
+    int columnsLength = buffer.position() - start - BLOCK_HEADER_SIZE;
+    buffer.put(start, (byte) TYPE_BLOCK);
+    buffer.putShort(start + 1, (short) points);
+    buffer.putLong(start + 3, minTime);
+    buffer.putLong(start + 11, maxTime);
+    buffer.putInt(start + 19, min(columns[LATITUDE]));
+    buffer.putInt(start + 23, max(columns[LATITUDE]));
+    buffer.putInt(start + 27, min(columns[LONGITUDE]));
+    buffer.putInt(start + 31, max(columns[LONGITUDE]));
+    buffer.putInt(start + 35, columnsLength);
+    points = 0;
+  }
+
+  private void putDeltaOfDelta(long[] values) {
+    long previous = 0;
+    long previousDelta = 0;
+    for (int i = 0; i < points; i++) {
+      long delta = values[i] - previous;
+      putVarint(zigZag(delta - previousDelta));
+      previous = values[i];
+      previousDelta = delta;
+    }
+  }
+
+  private void putDeltaOfDelta(int[] values) {
+    long previous = 0;
+    long previousDelta = 0;
+    for (int i = 0; i < points; i++) {
+      long delta = values[i] - previous;
+      putVarint(zigZag(delta - previousDelta));
+      previous = values[i];
+      previousDelta = delta;
+    }
+  }
+
+  private void putDelta(int[] values) {
+    long previous = 0;
+    for (int i = 0; i < points; i++) {
+      putVarint(zigZag(values[i] - previous));
+      previous = values[i];
+    }
+  }
+
+  private void putValues(long[] values) {
+    for (int i = 0; i < points; i++) {
+      putVarint(zigZag(values[i]));
+    }
+  }
+
+  /** Write the value 7 bits per byte, the high bit set on all the bytes but the last one */
+  private void putVarint(long value) {
+    while ((value & ~0x7fL) != 0) {
+      buffer.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  /** Map signed values to unsigned ones so small negative values also take few bytes */
+  static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /** @return the elapsed realtime in whole milliseconds, the clock offsets are relative to it */
+  static long getMillis(long realtimeNanos) {
+    return Math.floorDiv(realtimeNanos, 1000000L);
+  }
+
+  /** Reverse of {@link #zigZag(long)} */
+  static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private int min(int[] values) {
+    int min = Integer.MAX_VALUE;
+    for (int i = 0; i < points; i++) {
+      min = Math.min(min, values[i]);
+    }
+    return min;
+  }
+
+  private int max(int[] values) {
+    int max = Integer.MIN_VALUE;
+    for (int i = 0; i < points; i++) {
+      max = Math.max(max, values[i]);
+    }
+    return max;
+  }
+}
@@ -0,0 +1,54 @@
+package com.google.sharedlibrary.gpxfile;
+
+import android.os.Build;
+
+import com.google.sharedlibrary.BuildConfig;
+
+/** The device and app version a capture session is recorded with, written in the file header. */
+public class DeviceMetadata {
+  private final int versionCode;
+  private final String device;
+  private final String id;
+  private final String manufacturer;
+  private final String model;
+
+  public DeviceMetadata(
+      int versionCode, String device, String id, String manufacturer, String model) {
+    this.versionCode = versionCode;
+    this.device = device;
+    this.id = id;
+    this.manufacturer = manufacturer;
+    this.model = model;
+  }
+
+  /** @return the metadata of the running device */
+  public static DeviceMetadata fromBuild() {
+    return new DeviceMetadata(
+        BuildConfig.VERSION_CODE, Build.DEVICE, Build.ID, Build.MANUFACTURER, Build.MODEL);
+  }
+
+  /** @return the version code of GpsDataCapturer */
+  public int getVersionCode() {
+    return versionCode;
+  }
+
+  /** @return the name of the industrial design */
+  public String getDevice() {
+    return device;
+  }
+
+  /** @return the build id */
+  public String getId() {
+    return id;
+  }
+
+  /** @return the manufacturer of the device */
+  public String getManufacturer() {
+    return manufacturer;
+  }
+
+  /** @return the model of the device */
+  public String getModel() {
+    return model;
+  }
+}
@@ -0,0 +1,62 @@
+package com.google.sharedlibrary.gpxfile;
+
+/**
+ * This class describes when the {@link GpxFileWriter} commits the buffered track points to the
+ * file: after a number of points, after an interval of time, or on an explicit flush, whichever
+ * comes first.
+ */
+public class FlushPolicy {
+  /** Commit every single track point, the behavior before batching was introduced */
+  public static final FlushPolicy EVERY_POINT = new FlushPolicy(1, 0);
+
+  /** Default policy for capture sessions, at most 10 points or 5 seconds are at risk */
+  public static final FlushPolicy DEFAULT = new FlushPolicy(10, 5000);
+
+  private final int maxPoints;
+  private final long maxIntervalMillis;
+
+  /**
+   * Constructor to create a FlushPolicy, with both thresholds disabled points are only flushed on
+   * an explicit flush
+   *
+   * @param maxPoints the number of buffered points that triggers a flush, 0 to disable
+   * @param maxIntervalMillis the time since the last flush that triggers a flush, 0 to disable
+   */
+  public FlushPolicy(int maxPoints, long maxIntervalMillis) {
+    if (maxPoints < 0 || maxIntervalMillis < 0) {
+      throw new IllegalArgumentException("FlushPolicy thresholds must not be negative.");
+    }
+    this.maxPoints = maxPoints;
+    this.maxIntervalMillis = maxIntervalMillis;
+  }
+
+  /** @return the number of buffered points that triggers a flush */
+  public int getMaxPoints() {
+    return maxPoints;
+  }
+
+  /** @return the time since the last flush in milliseconds that triggers a flush */
+  public long getMaxIntervalMillis() {
+    return maxIntervalMillis;
+  }
+
+  /**
+   * Check if the buffered points should be flushed
+   *
+   * @param pendingPoints the number of points buffered since the last flush
+   * @param millisSinceLastFlush the time elapsed since the last flush
+   * @return true if either threshold is reached
+   */
+  public boolean shouldFlush(int pendingPoints, long millisSinceLastFlush) {
+    if (pendingPoints <= 0) {
+      return false;
+    }
+    return (maxPoints > 0 && pendingPoints >= maxPoints)
+        || (maxIntervalMillis > 0 && millisSinceLastFlush >= maxIntervalMillis);
+  }
+
+  @Override
+  public String toString() {
+    return "FlushPolicy maxPoints: " + maxPoints + " maxIntervalMillis: " + maxIntervalMillis;
+  }
+}
@@ -0,0 +1,142 @@
+package com.google.sharedlibrary.gpxfile;
+
+import android.location.GnssClock;
+import android.location.GnssMeasurement;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder of the binary raw gnss measurement format, written by {@link GnssMeasurementWriter}.
+ *
+ * <p>All the numbers are little-endian. The file starts with the versioned header of the binary
+ * track format with the magic "WGNS", followed by fixed-width records of {@link #RECORD_SIZE}
+ * bytes. Each measurements event is a clock record followed by one measurement record per
+ * satellite signal:
+ *
+ * <pre>
+ *   clock:        0 u8 type | 1 u8 flags | 2 u16 measurement count
+ *                 4 i32 hardware clock discontinuity count | 8 i64 time nanos
+ *                16 i64 full bias nanos | 24 f64 bias nanos | 32 f64 drift nanos per second
+ *                40 i64 elapsed realtime nanos when received | 48 i32 leap second | 52 zero
+ *   measurement:  0 u8 type | 1 u8 constellation | 2 u8 svid | 3 u8 flags | 4 i32 state
+ *                 8 i64 received sv time nanos | 16 i64 received sv time uncertainty nanos
+ *                24 f64 time offset nanos | 32 f32 cn0 dB-Hz | 36 f32 pseudorange rate m/s
+ *                40 f32 pseudorange rate uncertainty m/s | 44 u16 accumulated delta range state
+ *                46 u8 multipath indicator | 47 zero | 48 f64 accumulated delta range m
+ *                56 f32 accumulated delta range uncertainty m | 60 f32 carrier frequency Hz
+ * </pre>
+ *
+ * The footer is a record of type {@link #TYPE_END} carrying the end time at offset 8. The
+ * pseudoranges are derived from the received sv times and the clock of the event.
+ */
+public class GnssMeasurementEncoder {
+  static final byte[] MAGIC = {'W', 'G', 'N', 'S'};
+  static final int VERSION = 1;
+  static final int RECORD_SIZE = 64;
+
+  static final int TYPE_CLOCK = 1;
+  static final int TYPE_MEASUREMENT = 2;
+  static final int TYPE_END = 3;
+
+  static final int FLAG_FULL_BIAS = 1;
+  static final int FLAG_BIAS = 1 << 1;
+  static final int FLAG_DRIFT = 1 << 2;
+  static final int FLAG_LEAP_SECOND = 1 << 3;
+  static final int FLAG_CARRIER_FREQUENCY = 1;
+
+  /**
+   * Encode the header from the start of the buffer
+   *
+   * @param buffer the little-endian buffer to encode the header into
+   * @param startTimeMillis time the capture started
+   * @param metadata the device that captured the session
+   * @return the buffer holding the header, a larger one if the header did not fit
+   */
+  static ByteBuffer putHeader(ByteBuffer buffer, long startTimeMillis, DeviceMetadata metadata) {
+    return BinaryTrackEncoder.putHeader(
+        buffer, MAGIC, VERSION, RECORD_SIZE, startTimeMillis, metadata);
+  }
+
+  /**
+   * Encode the clock record of a measurements event at the position of the buffer
+   *
+   * @param buffer the little-endian buffer with at least {@link #RECORD_SIZE} bytes remaining
+   * @param clock the clock of the event
+   * @param measurementCount the number of measurement records following the clock record
+   * @param elapsedRealtimeNanos the elapsed realtime the event was received at
+   */
+  static void putClock(
+      ByteBuffer buffer, GnssClock clock, int measurementCount, long elapsedRealtimeNanos) {
+    int flags = 0;
+    if (clock.hasFullBiasNanos()) {
+      flags |= FLAG_FULL_BIAS;
+    }
+    if (clock.hasBiasNanos()) {
+      flags |= FLAG_BIAS;
+    }
+    if (clock.hasDriftNanosPerSecond()) {
+      flags |= FLAG_DRIFT;
+    }
+    if (clock.hasLeapSecond()) {
+      flags |= FLAG_LEAP_SECOND;
+    }
+
+    buffer.put((byte) TYPE_CLOCK);
+    buffer.put((byte) flags);
+    buffer.putShort((short) measurementCount);
+    buffer.putInt(clock.getHardwareClockDiscontinuityCount());
+    buffer.putLong(clock.getTimeNanos());
+    buffer.putLong(clock.hasFullBiasNanos() ? clock.getFullBiasNanos() : 0);
+    buffer.putDouble(clock.hasBiasNanos() ? clock.getBiasNanos() : 0.0);
+    buffer.putDouble(clock.hasDriftNanosPerSecond() ? clock.getDriftNanosPerSecond() : 0.0);
+    buffer.putLong(elapsedRealtimeNanos);
+    buffer.putInt(clock.hasLeapSecond() ? clock.getLeapSecond() : 0);
+    buffer.putInt(0);
+    buffer.putLong(0);
+  }
+
+  /**
+   * Encode a measurement record at the position of the buffer
+   *
+   * @param buffer the little-endian buffer with at least {@link #RECORD_SIZE} bytes remaining
+   * @param measurement the measurement of a satellite signal
+   */
+  static void putMeasurement(ByteBuffer buffer, GnssMeasurement measurement) {
+    boolean hasCarrierFrequency = measurement.hasCarrierFrequencyHz();
+
+    buffer.put((byte) TYPE_MEASUREMENT);
+    buffer.put((byte) measurement.getConstellationType());
+    buffer.put((byte) measurement.getSvid());
+    buffer.put((byte) (hasCarrierFrequency ? FLAG_CARRIER_FREQUENCY : 0));
+    buffer.putInt(measurement.getState());
+    buffer.putLong(measurement.getReceivedSvTimeNanos());
+    buffer.putLong(measurement.getReceivedSvTimeUncertaintyNanos());
+    buffer.putDouble(measurement.getTimeOffsetNanos());
+    buffer.putFloat((float) measurement.getCn0DbHz());
+    buffer.putFloat((float) measurement.getPseudorangeRateMetersPerSecond());
+    buffer.putFloat((float) measurement.getPseudorangeRateUncertaintyMetersPerSecond());
+    buffer.putShort((short) measurement.getAccumulatedDeltaRangeState());
+    buffer.put((byte) measurement.getMultipathIndicator());
+    buffer.put((byte) 0);
+    buffer.putDouble(measurement.getAccumulatedDeltaRangeMeters());
+    buffer.putFloat((float) measurement.getAccumulatedDeltaRangeUncertaintyMeters());
+    buffer.putFloat(hasCarrierFrequency ? measurement.getCarrierFrequencyHz() : 0.0f);
+  }
+
+  /**
+   * Encode the footer record at the position of the buffer
+   *
+   * @param buffer the little-endian buffer with at least {@link #RECORD_SIZE} bytes remaining
+   * @param endTimeMillis time the capture stopped
+   */
+  static void putFooter(ByteBuffer buffer, long endTimeMillis) {
+    buffer.put((byte) TYPE_END);
+    buffer.put((byte) 0);
+    buffer.putShort((short) 0);
+    buffer.putInt(0);
+    buffer.putLong(endTimeMillis);
+    for (int i = 16; i < RECORD_SIZE; i += 8) {
+      buffer.putLong(0);
+    }
+  }
+}
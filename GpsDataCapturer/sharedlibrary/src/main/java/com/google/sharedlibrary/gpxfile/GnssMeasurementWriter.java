@@ -0,0 +1,91 @@
+package com.google.sharedlibrary.gpxfile;
+
+import android.location.GnssMeasurement;
+import android.location.GnssMeasurementsEvent;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writer of the raw gnss measurements of a capture session in the binary format of {@link
+ * GnssMeasurementEncoder}. The events arrive at several Hz with dozens of signals each, each event
+ * is a record of the stream: its clock and all its measurements are encoded in the same block.
+ */
+public class GnssMeasurementWriter extends CaptureStreamWriter {
+  public static final String FILE_EXTENSION = ".gnss";
+  static final int BLOCK_SIZE = 32 * 1024;
+  private static final int INITIAL_MEASUREMENTS = 64;
+
+  private final AtomicLong writtenMeasurements = new AtomicLong();
+  private GnssMeasurement[] measurements = new GnssMeasurement[INITIAL_MEASUREMENTS];
+
+  /**
+   * Constructor to create a GnssMeasurementWriter
+   *
+   * @param file the file of the raw measurements
+   * @param scheduler the I/O scheduler shared by the capture writers, null to give the writer its
+   *     own thread, which is stopped when the writer is closed
+   */
+  public GnssMeasurementWriter(File file, CaptureScheduler scheduler) {
+    super(file, scheduler, BLOCK_SIZE);
+  }
+
+  @Override
+  protected ByteBuffer encodeHeader(long startTimeMillis) {
+    return GnssMeasurementEncoder.putHeader(
+        ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN),
+        startTimeMillis,
+        DeviceMetadata.fromBuild());
+  }
+
+  @Override
+  protected ByteBuffer encodeFooter(long endTimeMillis) {
+    ByteBuffer footer =
+        ByteBuffer.allocate(GnssMeasurementEncoder.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    GnssMeasurementEncoder.putFooter(footer, endTimeMillis);
+    return footer;
+  }
+
+  /**
+   * Encode a measurements event into the current block. Called on the thread of the measurements
+   * callback, it only waits for a concurrent close.
+   *
+   * @param event the measurements event
+   */
+  public synchronized void writeMeasurements(GnssMeasurementsEvent event) {
+    long now = SystemClock.elapsedRealtime();
+    Collection<GnssMeasurement> eventMeasurements = event.getMeasurements();
+    // a record per measurement after the clock record, the signals beyond a block are left out
+    int count =
+        Math.min(eventMeasurements.size(), BLOCK_SIZE / GnssMeasurementEncoder.RECORD_SIZE - 1);
+    ByteBuffer buffer = beginRecord((count + 1) * GnssMeasurementEncoder.RECORD_SIZE, now);
+    if (buffer == null) {
+      return;
+    }
+
+    if (eventMeasurements.size() > measurements.length) {
+      measurements = new GnssMeasurement[eventMeasurements.size()];
+    }
+    // the measurements are copied out of the array backing the event, no iterator is created
+    eventMeasurements.toArray(measurements);
+    GnssMeasurementEncoder.putClock(
+        buffer, event.getClock(), count, SystemClock.elapsedRealtimeNanos());
+    for (int i = 0; i < count; i++) {
+      GnssMeasurementEncoder.putMeasurement(buffer, measurements[i]);
+    }
+    Arrays.fill(measurements, null);
+
+    writtenMeasurements.addAndGet(count);
+    endRecord(now);
+  }
+
+  /** @return the number of measurements encoded */
+  public long getWrittenMeasurements() {
+    return writtenMeasurements.get();
+  }
+}
@@ -4,12 +4,11 @@ import android.content.Context;
 import android.location.Location;
 import android.util.Log;
 
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
 import com.google.sharedlibrary.utils.Utils;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.TimeZone;
 
 /** Wrapper class for create new GpxFile */
 public class GpxFileHelper {
@@ -23,8 +22,20 @@ public class GpxFileHelper {
    * @return return new created file
    */
   public static File createGpxFile(File gpxDataFolder, String fileName) {
-    Log.i(TAG, "Create a new gpxFile " + fileName);
-    File gpxFile = new File(gpxDataFolder.getPath(), fileName + ".xml");
+    return createGpxFile(gpxDataFolder, fileName, ".xml");
+  }
+
+  /**
+   * Create a new capture file with the extension of its output format
+   *
+   * @param gpxDataFolder the folder to store the new file
+   * @param fileName the name of new file
+   * @param fileExtension the extension of the new file
+   * @return return new created file
+   */
+  public static File createGpxFile(File gpxDataFolder, String fileName, String fileExtension) {
+    Log.i(TAG, "Create a new gpxFile " + fileName + fileExtension);
+    File gpxFile = new File(gpxDataFolder.getPath(), fileName + fileExtension);
     try {
       gpxFile.createNewFile();
     } catch (IOException e) {
@@ -35,8 +46,6 @@ public class GpxFileHelper {
 
   /** Create a new file name */
   public static String createFileName() {
-    SimpleDateFormat dataFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH-mm-ss-SSS'Z'");
-    dataFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-    return dataFormat.format(System.currentTimeMillis());
+    return UtcTimestampEncoder.FILE_NAME.format(System.currentTimeMillis());
   }
 }
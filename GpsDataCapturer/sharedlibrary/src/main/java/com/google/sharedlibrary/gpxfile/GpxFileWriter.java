@@ -1,63 +1,651 @@
 package com.google.sharedlibrary.gpxfile;
 
-import android.content.Context;
 import android.location.Location;
+import android.os.SystemClock;
+import android.util.Log;
 
+import com.google.sharedlibrary.gpxfile.CaptureLatency.Stage;
 import com.google.sharedlibrary.model.SatelliteSignalData;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.text.SimpleDateFormat;
-import java.util.TimeZone;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.RejectedExecutionHandler;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /** This class provides write function helping GpxFile writing captured gps data to the file. */
 public class GpxFileWriter {
   private static final String TAG = "GpxFileWriter";
-  private SimpleDateFormat sdf;
+  private static final int BUFFER_SIZE = 20480;
+  private static final int QUEUE_CAPACITY = 10;
+  private static final int RING_CAPACITY = 64;
+  private static final long BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long MAX_BLOCK_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+  private static final long CLOCK_SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final String SPILL_FILE_EXTENSION = ".spill";
+  public static final String COMPRESSED_FILE_EXTENSION = ".gz";
+  private final UtcTimestampEncoder timestampEncoder;
   protected File gpxFile;
   private boolean append;
-  protected ThreadPoolExecutor EXECUTOR;
+  private FlushPolicy flushPolicy = FlushPolicy.EVERY_POINT;
+  private RollingPolicy rollingPolicy = RollingPolicy.NEVER;
+  private CaptureFileRoller roller;
+  private OutputFormat outputFormat = OutputFormat.GPX;
+  private boolean isCompressed;
+  private JournalMode journalMode = JournalMode.MAPPED;
+  private CaptureLatency latency;
+  private CaptureJournal journal;
+  private TrackEncoder encoder;
+  private BatchedOutputStream outputStream;
+  private volatile boolean isOpen;
+  // guards the hand-off of track points to the ring buffer against the footer and the close
+  private final Object acceptLock = new Object();
+  private boolean isAcceptingPoints;
+  private final TrackPointRingBuffer ringBuffer = new TrackPointRingBuffer(RING_CAPACITY);
+  private final AtomicBoolean isDrainScheduled = new AtomicBoolean();
+  private Runnable drainTask;
+  private Runnable intervalFlushTask;
+  // only used on the writer lane
+  private ScheduledFuture<?> intervalFlush;
+  private final TrackPoint spilledPoint = new TrackPoint();
+  private TrackEncoder spillEncoder;
+  private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+  private OutputStream spillStream;
+  private final AtomicLong droppedPoints = new AtomicLong();
+  private final AtomicLong spilledPoints = new AtomicLong();
+  private long nextClockSampleNanos;
+  private final CaptureScheduler ownScheduler;
+  private final CaptureScheduler.Lane lane;
 
-  public GpxFileWriter(SimpleDateFormat sdf, File gpxFile, boolean append) {
-    this.sdf = sdf;
+  /** The policies applied to a track point when the ring buffer is full */
+  public enum OverflowPolicy {
+    /**
+     * Block the producer until the writer thread frees a slot in the ring buffer, for at most 500
+     * ms. The other producers wait meanwhile, so the track point is then dropped as with {@link
+     * #DROP_NEWEST}.
+     */
+    BLOCK,
+    /** Drop the oldest unwritten track point to make room for the new one */
+    DROP_OLDEST,
+    /** Drop the new track point */
+    DROP_NEWEST,
+    /** Write the new track point to an overflow journal next to the gpx file */
+    SPILL
+  }
+
+  /** The ways the capture journal is written */
+  public enum JournalMode {
+    /**
+     * Durability first: each record is appended to a single journal file with its own write call,
+     * so it is in the file before the track point is queued. This costs a system call per track
+     * point, outside the group commit of the flush policy.
+     */
+    STREAM,
+    /**
+     * Each record is stored into preallocated memory-mapped segment files of the journal, without a
+     * system call. The kernel still writes the records back if the process is killed. The default.
+     */
+    MAPPED
+  }
+
+  /** The formats the capture session can be written in */
+  public enum OutputFormat {
+    /** Gpx xml, readable by the GpsDataAnalyzer and any gpx tool */
+    GPX(".xml"),
+    /** Compact binary records, see {@link BinaryTrackEncoder} */
+    BINARY(".trk"),
+    /** Delta encoded blocks of columns for long captures, see {@link ColumnarTrackEncoder} */
+    COLUMNAR(".trkc");
+
+    private final String fileExtension;
+
+    OutputFormat(String fileExtension) {
+      this.fileExtension = fileExtension;
+    }
+
+    /** @return the extension of the files written in this format */
+    public String getFileExtension() {
+      return fileExtension;
+    }
+
+    /**
+     * Create a new encoder of this format, encoders are not thread-safe
+     *
+     * @param timestampEncoder the encoder of the times written as text
+     * @return the new encoder
+     */
+    public TrackEncoder newEncoder(UtcTimestampEncoder timestampEncoder) {
+      switch (this) {
+        case BINARY:
+          return new BinaryTrackEncoder();
+        case COLUMNAR:
+          return new ColumnarTrackEncoder();
+        default:
+          return new GpxTrackEncoder(timestampEncoder);
+      }
+    }
+  }
+
+  public GpxFileWriter(UtcTimestampEncoder timestampEncoder, File gpxFile, boolean append) {
+    this(timestampEncoder, gpxFile, append, null);
+  }
+
+  /**
+   * @param scheduler the I/O scheduler shared by the capture writers, null to give the writer its
+   *     own thread, which is stopped when the writer is closed
+   */
+  public GpxFileWriter(
+      UtcTimestampEncoder timestampEncoder,
+      File gpxFile,
+      boolean append,
+      CaptureScheduler scheduler) {
+    this.timestampEncoder = timestampEncoder;
     this.gpxFile = gpxFile;
     this.append = append;
-    EXECUTOR =
-        new ThreadPoolExecutor(
-            1,
-            1,
-            60,
-            TimeUnit.SECONDS,
-            new LinkedBlockingDeque<Runnable>(10),
-            new RejectedExecutionHandler() {
-              @Override
-              public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {}
+    this.ownScheduler = scheduler == null ? new CaptureScheduler(1) : null;
+    this.lane = (scheduler == null ? ownScheduler : scheduler).newLane(QUEUE_CAPACITY);
+  }
+
+  /**
+   * Open the output stream of the gpx file. The stream stays open for the whole capture session so
+   * header, track points and footer are all written through the same file handle.
+   *
+   * @throws IOException if the gpx file could not be opened
+   */
+  public void openFile() throws IOException {
+    outputStream =
+        new BatchedOutputStream(
+            CaptureFileRoller.openPart(gpxFile, append, isCompressed, BUFFER_SIZE),
+            BUFFER_SIZE,
+            flushPolicy);
+    outputStream.setCaptureLatency(latency);
+    journal =
+        new CaptureJournal(
+            gpxFile,
+            journalMode == JournalMode.MAPPED ? MappedSegmentOutputStream.DEFAULT_SEGMENT_SIZE : 0);
+    try {
+      journal.open(
+          outputFormat, isCompressed, System.currentTimeMillis(), DeviceMetadata.fromBuild());
+    } catch (IOException e) {
+      // the capture goes on, it just can not be recovered after a crash
+      Log.e(TAG, "Could not create the capture journal.", e);
+      journal = null;
+    }
+    encoder = outputFormat.newEncoder(timestampEncoder);
+    // columnar blocks are only written once full, spilled points are written as binary records
+    spillEncoder =
+        (outputFormat == OutputFormat.COLUMNAR ? OutputFormat.BINARY : outputFormat)
+            .newEncoder(timestampEncoder);
+    roller =
+        rollingPolicy.isEnabled()
+            ? new CaptureFileRoller(
+                gpxFile, rollingPolicy, encoder, outputStream, isCompressed, BUFFER_SIZE)
+            : null;
+    final GpxWriteHandler handler =
+        new GpxWriteHandler(encoder, ringBuffer, outputStream, roller, latency);
+    final BatchedOutputStream stream = outputStream;
+    drainTask =
+        () -> {
+          // clear the flag first so a point published while draining schedules another drain
+          isDrainScheduled.set(false);
+          handler.run();
+          scheduleIntervalFlush(stream);
+        };
+    intervalFlushTask =
+        () -> {
+          intervalFlush = null;
+          try {
+            if (stream.getNanosUntilIntervalFlush() == 0) {
+              stream.flush();
+            }
+          } catch (IOException e) {
+            Log.e(TAG, "Could not flush the gpx file.", e);
+          }
+          scheduleIntervalFlush(stream);
+        };
+    // the first track point of the file carries a clock sample
+    nextClockSampleNanos = 0;
+    Log.i(TAG, "Start writing to file " + gpxFile.getName());
+    synchronized (acceptLock) {
+      isAcceptingPoints = true;
+    }
+    isOpen = true;
+  }
+
+  /**
+   * Set the policy deciding when buffered track points are committed to the file, it takes effect
+   * the next time the file is opened
+   *
+   * @param flushPolicy the flush policy
+   */
+  public void setFlushPolicy(FlushPolicy flushPolicy) {
+    this.flushPolicy = flushPolicy;
+  }
+
+  /**
+   * Set the policy deciding when the session is rolled over to a new part file, it takes effect
+   * the next time the file is opened
+   *
+   * @param rollingPolicy the rolling policy
+   */
+  public void setRollingPolicy(RollingPolicy rollingPolicy) {
+    this.rollingPolicy = rollingPolicy;
+  }
+
+  /**
+   * Set the format the file is written in, it takes effect the next time the file is opened
+   *
+   * @param outputFormat the output format
+   */
+  public void setOutputFormat(OutputFormat outputFormat) {
+    this.outputFormat = outputFormat;
+  }
+
+  /**
+   * Set whether the file is written as a gzip stream, it takes effect the next time the file is
+   * opened. The gzip trailer is written when the file is closed after the footer.
+   *
+   * @param isCompressed true to compress the file
+   */
+  public void setCompressed(boolean isCompressed) {
+    this.isCompressed = isCompressed;
+  }
+
+  /**
+   * Set how the capture journal is written, it takes effect the next time the file is opened
+   *
+   * @param journalMode the journal mode
+   */
+  public void setJournalMode(JournalMode journalMode) {
+    this.journalMode = journalMode;
+  }
+
+  /**
+   * Set the latency the track points are measured into, it takes effect the next time the file is
+   * opened
+   *
+   * @param latency the latency of the capture session, shared by its writers, null to not measure
+   *     it
+   */
+  public void setCaptureLatency(CaptureLatency latency) {
+    this.latency = latency;
+  }
+
+  /**
+   * Set the policy applied to new track points when the ring buffer is full. Header, footer and
+   * flush tasks are never dropped, the producer waits for them instead.
+   *
+   * @param overflowPolicy the overflow policy
+   */
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Commit all the track points queued so far to the file, regardless of the flush policy
+   *
+   * @return completes once the track points are committed
+   */
+  public Future<Void> flush() {
+    final BatchedOutputStream stream = outputStream;
+    if (!isOpen) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    return submit(
+        () -> {
+          try {
+            stream.flush();
+          } catch (IOException e) {
+            Log.e(TAG, "Could not flush the gpx file.", e);
+            throw e;
+          }
+          return null;
+        });
+  }
+
+  /**
+   * Close the output stream of the gpx file once all the previously queued writes, including the
+   * footer, are done. The last part of a rolling session is then added to its manifest. The capture
+   * journal is closed after the last track point and deleted once the file is closed.
+   *
+   * @return completes once the file is closed and synced to the storage device
+   */
+  public Future<Void> closeFile() {
+    final BatchedOutputStream stream = outputStream;
+    final CaptureJournal completedJournal = journal;
+    final CaptureFileRoller completedRoller = roller;
+    if (!isOpen) {
+      return CompletableFuture.completedFuture(null);
+    }
+    isOpen = false;
+    stopAcceptingPoints();
+
+    Future<Void> closed =
+        submit(
+            () -> {
+              if (intervalFlush != null) {
+                intervalFlush.cancel(false);
+                intervalFlush = null;
+              }
+              if (completedJournal != null) {
+                completedJournal.close();
+              }
+              try {
+                stream.close();
+                sync(completedRoller == null ? gpxFile : completedRoller.getCurrentPart());
+                if (completedRoller != null) {
+                  completedRoller.close();
+                }
+                if (completedJournal != null) {
+                  completedJournal.delete();
+                }
+              } catch (IOException e) {
+                // the journal is kept so the file is recovered on the next start
+                Log.e(TAG, "Could not close the gpx file.", e);
+                throw e;
+              }
+              return null;
             });
+    closeSpillFile();
+    return closed;
   }
 
   /**
-   * Write the gpx data into file with header if it's new file
+   * Close the gpx file and shut the writer lane down once all the previously queued writes,
+   * including the footer, are done. Nothing can be written any more.
+   *
+   * @param timeout the maximum time to wait for the writer lane
+   * @param unit the unit of the timeout
+   * @return true if the file is complete, false if the timeout elapsed first
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+    closeFile();
+    lane.shutdown();
+    boolean isDrained = lane.awaitTermination(timeout, unit);
+    if (ownScheduler != null) {
+      ownScheduler.shutdown();
+    }
+    return isDrained;
+  }
+
+  /**
+   * Schedule the flush of the buffered track points once the interval of the flush policy elapsed,
+   * unless one is already scheduled. Runs on the writer lane after the points are written.
+   */
+  private void scheduleIntervalFlush(BatchedOutputStream stream) {
+    if (intervalFlush != null) {
+      return;
+    }
+    long delayNanos = stream.getNanosUntilIntervalFlush();
+    if (delayNanos >= 0) {
+      intervalFlush = lane.schedule(intervalFlushTask, delayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /** Queue a task for the writer lane */
+  private Future<Void> submit(Callable<Void> task) {
+    FutureTask<Void> future = new FutureTask<>(task);
+    lane.execute(future);
+    return future;
+  }
+
+  /** Sync the file written through a closed stream, fsync applies to the file not the handle */
+  private static void sync(File file) throws IOException {
+    try (RandomAccessFile syncFile = new RandomAccessFile(file, "rw")) {
+      syncFile.getFD().sync();
+    }
+  }
+
+  /**
+   * Write the gpx data into file. The fix is copied into a preallocated slot of the ring buffer,
+   * appended to the capture journal and written by the writer thread, no object is allocated per
+   * track point.
    *
    * @param location the updated location
    * @throws Exception
    */
   public void writeGpsData(Location location, SatelliteSignalData signalData) throws Exception {
-    long time = location.getTime();
-    if (time <= 0) {
-      time = System.currentTimeMillis();
+    writeGpsData(location, signalData, SystemClock.elapsedRealtimeNanos());
+  }
+
+  /**
+   * Write the gpx data into file, with the time the fix was received by the capture
+   *
+   * @param location the updated location
+   * @param signalData the signal data of the location
+   * @param receivedRealtimeNanos the elapsed realtime in nanoseconds when the fix was received
+   * @throws Exception
+   */
+  public void writeGpsData(
+      Location location, SatelliteSignalData signalData, long receivedRealtimeNanos)
+      throws Exception {
+    if (!isOpen) {
+      Log.e(TAG, "The gpx file is not open, the track point is discarded.");
+      return;
+    }
+
+    // the footer or the close may be queued since isOpen was read, a point accepted after them
+    // would be written past the end of the file
+    synchronized (acceptLock) {
+      if (!isAcceptingPoints) {
+        Log.w(TAG, "The gpx file is closing, the track point is discarded.");
+        return;
+      }
+
+      TrackPoint slot = ringBuffer.claim();
+      if (slot == null) {
+        slot = handleOverflow(location, signalData, receivedRealtimeNanos);
+        if (slot == null) {
+          return;
+        }
+      }
+      slot.set(location, signalData, receivedRealtimeNanos);
+      sampleClock(slot);
+      // journaled before it is published, a point still queued at a crash is recovered
+      if (journal != null) {
+        slot.journalSequence = journal.append(slot);
+      }
+      if (latency != null) {
+        long enqueuedNanos = CaptureLatency.now();
+        slot.enqueuedRealtimeNanos = enqueuedNanos;
+        if (slot.getElapsedRealtimeNanos() > 0) {
+          latency.record(Stage.DELIVERY, receivedRealtimeNanos - slot.getElapsedRealtimeNanos());
+        }
+        latency.record(Stage.ENQUEUE, enqueuedNanos - receivedRealtimeNanos);
+      }
+      ringBuffer.publish();
+
+      // wake the writer thread up unless a drain is already pending
+      if (isDrainScheduled.compareAndSet(false, true)) {
+        lane.execute(drainTask);
+      }
     }
+  }
 
-    Runnable writeHandler =
-        new GpxWriteHandler(sdf.format(time), gpxFile, location, signalData, append);
-    EXECUTOR.execute(writeHandler);
+  /**
+   * Write the file header or footer in the output format. No track point is accepted once the
+   * footer is queued, so it is written after all the accepted ones.
+   *
+   * @param isHeader true for the header, false for the footer
+   * @return completes once the annotation is written and committed to the file, cancelled if the
+   *     file is not open
+   */
+  public Future<Void> writeFileAnnotation(boolean isHeader) {
+    if (!isOpen) {
+      Log.e(TAG, "The gpx file is not open, the annotation is not written.");
+      CompletableFuture<Void> notWritten = new CompletableFuture<>();
+      notWritten.cancel(false);
+      return notWritten;
+    }
+    if (!isHeader) {
+      stopAcceptingPoints();
+    }
+    return submit(new GpxAnnotationHandler(encoder, outputStream, isHeader));
   }
 
-  /** Write the gpx file footer in xml format */
-  public void writeFileAnnotation(boolean isHeader) {
-    Runnable gpxAnnotationHandler = new GpxAnnotationHandler(sdf, gpxFile, append, isHeader);
-    EXECUTOR.execute(gpxAnnotationHandler);
+  /**
+   * Reject the track points from now on. A producer handing a track point off meanwhile finishes
+   * first, the drain of its point is then queued before any task submitted after this call.
+   */
+  private void stopAcceptingPoints() {
+    synchronized (acceptLock) {
+      isAcceptingPoints = false;
+    }
+  }
+
+  /** @return the number of flushes committed to the gpx file */
+  public long getFlushCount() {
+    return outputStream == null ? 0 : outputStream.getFlushCount();
+  }
+
+  /** @return the average number of track points committed per flush */
+  public double getPointsPerFlush() {
+    return outputStream == null ? 0 : outputStream.getPointsPerFlush();
+  }
+
+  /** @return the average number of bytes committed per flush */
+  public double getBytesPerFlush() {
+    return outputStream == null ? 0 : outputStream.getBytesPerFlush();
+  }
+
+  /** @return the number of part files of the session so far */
+  public int getPartCount() {
+    return roller == null ? 1 : roller.getPartCount();
+  }
+
+  /** @return the number of track points dropped because the ring buffer was full */
+  public long getDroppedPoints() {
+    return droppedPoints.get();
+  }
+
+  /** @return the number of track points written to the overflow journal */
+  public long getSpilledPoints() {
+    return spilledPoints.get();
+  }
+
+  /**
+   * Sample the wall clock into the track point every {@link #CLOCK_SAMPLE_INTERVAL_NANOS} of
+   * elapsed realtime, so the drift of the wall clock can be followed without a sample per point
+   */
+  private void sampleClock(TrackPoint trackPoint) {
+    if (trackPoint.getReceivedRealtimeNanos() >= nextClockSampleNanos) {
+      trackPoint.sampleClock(System.currentTimeMillis());
+      nextClockSampleNanos = trackPoint.getReceivedRealtimeNanos() + CLOCK_SAMPLE_INTERVAL_NANOS;
+    }
+  }
+
+  /**
+   * Apply the overflow policy when the ring buffer is full
+   *
+   * @param location the new location
+   * @param signalData the signal data of the new location
+   * @param receivedRealtimeNanos the elapsed realtime when the new location was received
+   * @return the slot to write the new track point to, or null if it is dropped or spilled
+   */
+  private TrackPoint handleOverflow(
+      Location location, SatelliteSignalData signalData, long receivedRealtimeNanos) {
+    TrackPoint slot = null;
+    switch (overflowPolicy) {
+      case BLOCK:
+        // the wait holds the hand-off lock, so it is bounded for the other producers
+        long deadlineNanos = System.nanoTime() + MAX_BLOCK_NANOS;
+        while ((slot = ringBuffer.claim()) == null) {
+          if (System.nanoTime() - deadlineNanos >= 0) {
+            Log.w(TAG, "The writer did not free a slot in time, the track point is dropped.");
+            dropNewest();
+            break;
+          }
+          LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+        break;
+      case DROP_OLDEST:
+        // the writer may free a slot meanwhile, then nothing has to be dropped
+        boolean isDropped = ringBuffer.dropOldest();
+        slot = ringBuffer.claim();
+        if (isDropped) {
+          droppedPoints.incrementAndGet();
+          // the ring was full, the claimed slot still holds the dropped point
+          if (journal != null) {
+            journal.appendDropped(slot.journalSequence);
+          }
+        }
+        break;
+      case DROP_NEWEST:
+        dropNewest();
+        break;
+      case SPILL:
+        spilledPoint.set(location, signalData, receivedRealtimeNanos);
+        sampleClock(spilledPoint);
+        // spilled points are not part of the capture file, they are only kept in the overflow
+        // journal and are dropped from the capture journal
+        if (spill(spilledPoint)) {
+          spilledPoints.incrementAndGet();
+          if (journal != null) {
+            journal.appendRejected();
+          }
+        } else {
+          dropNewest();
+        }
+        break;
+    }
+    return slot;
+  }
+
+  /** Count the new track point as dropped and record it in the capture journal */
+  private void dropNewest() {
+    droppedPoints.incrementAndGet();
+    if (journal != null) {
+      journal.appendRejected();
+    }
+  }
+
+  /**
+   * Write a track point the ring buffer could not accept to the overflow journal, the journal is
+   * created next to the gpx file on the first spilled point
+   *
+   * @param trackPoint the rejected track point
+   * @return true if the point is spilled, false if it is lost
+   */
+  private synchronized boolean spill(TrackPoint trackPoint) {
+    try {
+      if (spillStream == null) {
+        File spillFile = new File(gpxFile.getPath() + SPILL_FILE_EXTENSION);
+        Log.w(TAG, "Ring buffer is full, spilling track points to " + spillFile.getName());
+        spillStream = new BufferedOutputStream(new FileOutputStream(spillFile, true));
+      }
+      int length = spillEncoder.encode(trackPoint);
+      spillStream.write(spillEncoder.getBuffer(), 0, length);
+      spillStream.flush();
+      return true;
+    } catch (IOException e) {
+      Log.e(TAG, "Could not spill the track point.", e);
+      return false;
+    }
+  }
+
+  /** Close the overflow journal if any track point was spilled */
+  private synchronized void closeSpillFile() {
+    if (spillStream == null) {
+      return;
+    }
+    try {
+      spillStream.close();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not close the overflow journal.", e);
+    }
+    spillStream = null;
   }
 }
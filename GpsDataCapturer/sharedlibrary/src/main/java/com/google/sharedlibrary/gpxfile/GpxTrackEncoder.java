@@ -0,0 +1,364 @@
+package com.google.sharedlibrary.gpxfile;
+
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoder of the gpx xml format. A {@link TrackPoint} is encoded as a {@code <trkpt>} element
+ * straight into a reused UTF-8 byte buffer, without building an intermediate String per track
+ * point.
+ *
+ * <p>The tags and their order are the same as the ones written by the StringBuilder version, so
+ * the GpsDataAnalyzer parser keeps working. Numbers are written with a fixed number of decimals and
+ * trailing zeros trimmed, which gives the same text as {@link Double#toString(double)} for values
+ * like {@code 0.0} or {@code 37.422}, and rounds longer values to the precision of the field.
+ *
+ * <p>Each {@code <trkpt>} ends with the elapsed realtime of the fix and of its receipt in
+ * nanoseconds, and every few seconds with the wall clock time sampled at the receipt, so the
+ * wall clock drift and the delivery delay of the fixes can be measured. Parsers which do not know
+ * these tags skip them.
+ *
+ * <p>An encoder is not thread-safe, each thread has to use its own instance.
+ */
+public class GpxTrackEncoder implements TrackEncoder {
+  /** Decimals of latitude and longitude in degrees, about 0.1 mm */
+  static final int DEGREE_DECIMALS = 9;
+
+  /** Decimals of altitude, speed and accuracy in meters */
+  static final int METER_DECIMALS = 4;
+
+  /** Decimals of the signal to noise ratios in dB-Hz */
+  static final int SIGNAL_DECIMALS = 4;
+
+  private static final int INITIAL_CAPACITY = 512;
+  private static final long[] POWERS_OF_TEN = new long[DEGREE_DECIMALS + 1];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private static final byte[] TRKPT_LAT = ascii("<trkpt lat=\"");
+  private static final byte[] LON = ascii("\" lon=\"");
+  private static final byte[] TRKPT_END = ascii("\">");
+  private static final byte[] ELE = ascii("<ele>");
+  private static final byte[] ELE_END = ascii("</ele>");
+  private static final byte[] TIME = ascii("<time>");
+  private static final byte[] TIME_END = ascii("</time>");
+  private static final byte[] SPEED = ascii("<speed>");
+  private static final byte[] SPEED_END = ascii("</speed>");
+  private static final byte[] ACCURACY = ascii("<accuracy>");
+  private static final byte[] ACCURACY_END = ascii("</accuracy>");
+  private static final byte[] SRC = ascii("<src>");
+  private static final byte[] SRC_END = ascii("</src>");
+  private static final byte[] SAT = ascii("<sat>");
+  private static final byte[] SAT_END = ascii("</sat>");
+  private static final byte[] SIGNAL01 = ascii("<signal01>");
+  private static final byte[] SIGNAL01_END = ascii("</signal01>");
+  private static final byte[] SIGNAL02 = ascii("<signal02>");
+  private static final byte[] SIGNAL02_END = ascii("</signal02>");
+  private static final byte[] SIGNAL03 = ascii("<signal03>");
+  private static final byte[] SIGNAL03_END = ascii("</signal03>");
+  private static final byte[] SIGNAL04 = ascii("<signal04>");
+  private static final byte[] SIGNAL04_END = ascii("</signal04>");
+  private static final byte[] AVERAGE = ascii("<average>");
+  private static final byte[] AVERAGE_END = ascii("</average>");
+  private static final byte[] ELAPSED_REALTIME = ascii("<elapsedRealtimeNanos>");
+  private static final byte[] ELAPSED_REALTIME_END = ascii("</elapsedRealtimeNanos>");
+  private static final byte[] RECEIVED_REALTIME = ascii("<receivedRealtimeNanos>");
+  private static final byte[] RECEIVED_REALTIME_END = ascii("</receivedRealtimeNanos>");
+  private static final byte[] WALL_CLOCK = ascii("<wallClockMillis>");
+  private static final byte[] WALL_CLOCK_END = ascii("</wallClockMillis>");
+  private static final byte[] TRKPT_CLOSE = ascii("</trkpt>\n");
+  private static final byte[] FOOTER = ascii("</trkseg>\n</trk>\n<time>");
+  private static final byte[] FOOTER_END = ascii("</time>\n</gpx>");
+  private static final byte[] NULL = ascii("null");
+  private static final byte[] NAN = ascii("NaN");
+  private static final byte[] INFINITY = ascii("Infinity");
+
+  private final UtcTimestampEncoder timestampEncoder;
+  private byte[] buffer = new byte[INITIAL_CAPACITY];
+  private int length;
+
+  public GpxTrackEncoder(UtcTimestampEncoder timestampEncoder) {
+    this.timestampEncoder = timestampEncoder;
+  }
+
+  /**
+   * Create the xml header with version, creator and metadata
+   *
+   * @param startTimeMillis time the capture started
+   * @param metadata the device that captured the session
+   * @return the number of bytes of the header in the buffer
+   */
+  @Override
+  public int encodeHeader(long startTimeMillis, DeviceMetadata metadata) {
+    StringBuilder header = new StringBuilder();
+
+    header.append("<?xml version='1.0' encoding='UTF-8' ?>");
+    header.append(
+        "<gpx version=\"1.1\" creator=\"GpsDataCapturer " + metadata.getVersionCode() + "\" ");
+    header.append("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" ");
+    header.append("xmlns=\"http://www.topografix.com/GPX/1/1\" ");
+    header.append("xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1 ");
+    header.append("http://www.topografix.com/GPX/1/1/gpx.xsd\">\n");
+    header.append("<metadata><time>");
+    header.append(timestampEncoder.format(startTimeMillis)).append("</time>");
+    header.append("<device>").append(metadata.getDevice()).append("</device>");
+    header.append("<id>").append(metadata.getId()).append("</id>");
+    header.append("<manufacturer>").append(metadata.getManufacturer()).append("</manufacturer>");
+    header.append("<model>").append(metadata.getModel()).append("</model></metadata>\n");
+    header.append("<trk>\n");
+    header.append("<trkseg>\n");
+
+    length = 0;
+    writeChars(header);
+    return length;
+  }
+
+  /**
+   * Create the xml footer
+   *
+   * @param endTimeMillis time the capture stopped
+   * @return the number of bytes of the footer in the buffer
+   */
+  @Override
+  public int encodeFooter(long endTimeMillis) {
+    length = 0;
+    writeBytes(FOOTER);
+    ensureCapacity(UtcTimestampEncoder.LENGTH);
+    length += timestampEncoder.encode(endTimeMillis, buffer, length);
+    writeBytes(FOOTER_END);
+    return length;
+  }
+
+  /**
+   * Encode the track point into the internal buffer, the result is valid until the next call
+   *
+   * @param trackPoint the track point to encode
+   * @return the number of bytes of the encoded track point
+   */
+  @Override
+  public int encode(TrackPoint trackPoint) {
+    length = 0;
+
+    writeBytes(TRKPT_LAT);
+    writeDecimal(trackPoint.getLatitude(), DEGREE_DECIMALS);
+    writeBytes(LON);
+    writeDecimal(trackPoint.getLongitude(), DEGREE_DECIMALS);
+    writeBytes(TRKPT_END);
+
+    if (trackPoint.hasAltitude()) {
+      writeBytes(ELE);
+      writeDecimal(trackPoint.getAltitude(), METER_DECIMALS);
+      writeBytes(ELE_END);
+    }
+
+    writeBytes(TIME);
+    ensureCapacity(UtcTimestampEncoder.LENGTH);
+    length += timestampEncoder.encode(trackPoint.getTime(), buffer, length);
+    writeBytes(TIME_END);
+
+    writeBytes(SPEED);
+    writeDecimal(trackPoint.hasSpeed() ? trackPoint.getSpeed() : 0.0, METER_DECIMALS);
+    writeBytes(SPEED_END);
+
+    writeBytes(ACCURACY);
+    writeDecimal(trackPoint.hasAccuracy() ? trackPoint.getAccuracy() : 0.0, METER_DECIMALS);
+    writeBytes(ACCURACY_END);
+
+    writeBytes(SRC);
+    writeChars(trackPoint.getProvider());
+    writeBytes(SRC_END);
+
+    // satellites used in fix
+    if (trackPoint.hasSatellites()) {
+      writeBytes(SAT);
+      writeInt(trackPoint.getSatellites());
+      writeBytes(SAT_END);
+    }
+
+    // top 4 satellites signal data
+    writeBytes(SIGNAL01);
+    writeDecimal(trackPoint.getFirstSignal(), SIGNAL_DECIMALS);
+    writeBytes(SIGNAL01_END);
+    writeBytes(SIGNAL02);
+    writeDecimal(trackPoint.getSecondSignal(), SIGNAL_DECIMALS);
+    writeBytes(SIGNAL02_END);
+    writeBytes(SIGNAL03);
+    writeDecimal(trackPoint.getThirdSignal(), SIGNAL_DECIMALS);
+    writeBytes(SIGNAL03_END);
+    writeBytes(SIGNAL04);
+    writeDecimal(trackPoint.getForthSignal(), SIGNAL_DECIMALS);
+    writeBytes(SIGNAL04_END);
+    writeBytes(AVERAGE);
+    writeDecimal(trackPoint.getAverageSignal(), SIGNAL_DECIMALS);
+    writeBytes(AVERAGE_END);
+
+    // monotonic timestamps, left out when unknown like in sessions converted from older files
+    if (trackPoint.getElapsedRealtimeNanos() > 0) {
+      writeBytes(ELAPSED_REALTIME);
+      writeLong(trackPoint.getElapsedRealtimeNanos());
+      writeBytes(ELAPSED_REALTIME_END);
+    }
+    if (trackPoint.getReceivedRealtimeNanos() > 0) {
+      writeBytes(RECEIVED_REALTIME);
+      writeLong(trackPoint.getReceivedRealtimeNanos());
+      writeBytes(RECEIVED_REALTIME_END);
+    }
+    if (trackPoint.hasClockSample()) {
+      writeBytes(WALL_CLOCK);
+      writeLong(trackPoint.getWallTimeMillis());
+      writeBytes(WALL_CLOCK_END);
+    }
+
+    writeBytes(TRKPT_CLOSE);
+    return length;
+  }
+
+  /** @return the buffer holding the last encoded bytes from index 0 */
+  @Override
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  /** @return the number of bytes last encoded */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Write a number with a fixed number of decimals, trailing zeros are trimmed but at least one
+   * decimal is kept, like {@link Double#toString(double)} does
+   */
+  private void writeDecimal(double value, int decimals) {
+    if (Double.isNaN(value)) {
+      writeBytes(NAN);
+      return;
+    }
+    if (Double.doubleToRawLongBits(value) < 0) {
+      writeByte('-');
+      value = -value;
+    }
+    if (Double.isInfinite(value)) {
+      writeBytes(INFINITY);
+      return;
+    }
+
+    long scale = POWERS_OF_TEN[decimals];
+    if (value >= Long.MAX_VALUE / scale) {
+      // never the case for gps data, fall back to the slow path
+      writeChars(Double.toString(value));
+      return;
+    }
+
+    long scaled = Math.round(value * scale);
+    long integerPart = scaled / scale;
+    long fraction = scaled % scale;
+
+    writeLong(integerPart);
+    writeByte('.');
+    if (fraction == 0) {
+      writeByte('0');
+      return;
+    }
+
+    // trim the trailing zeros of the fraction
+    int digits = decimals;
+    while (fraction % 10 == 0) {
+      fraction /= 10;
+      digits--;
+    }
+    ensureCapacity(digits);
+    for (int i = length + digits - 1; i >= length; i--) {
+      buffer[i] = (byte) ('0' + fraction % 10);
+      fraction /= 10;
+    }
+    length += digits;
+  }
+
+  /** Write a non negative long in decimal */
+  private void writeLong(long value) {
+    int digits = 1;
+    for (long rest = value / 10; rest != 0; rest /= 10) {
+      digits++;
+    }
+    ensureCapacity(digits);
+    for (int i = length + digits - 1; i >= length; i--) {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    length += digits;
+  }
+
+  /** Write an int in decimal */
+  private void writeInt(int value) {
+    if (value < 0) {
+      writeByte('-');
+      writeLong(-(long) value);
+    } else {
+      writeLong(value);
+    }
+  }
+
+  /** Write the characters encoded in UTF-8, null is written as "null" like a StringBuilder */
+  private void writeChars(CharSequence chars) {
+    if (chars == null) {
+      writeBytes(NULL);
+      return;
+    }
+    int count = chars.length();
+    ensureCapacity(count * 3);
+    for (int i = 0; i < count; i++) {
+      char c = chars.charAt(i);
+      if (c < 0x80) {
+        buffer[length++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[length++] = (byte) (0xc0 | (c >> 6));
+        buffer[length++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < count
+          && Character.isLowSurrogate(chars.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+        buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        // unpaired surrogate, replaced like String.getBytes does
+        buffer[length++] = '?';
+      } else {
+        buffer[length++] = (byte) (0xe0 | (c >> 12));
+        buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[length++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+  }
+
+  private void writeBytes(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, length, bytes.length);
+    length += bytes.length;
+  }
+
+  private void writeByte(char c) {
+    ensureCapacity(1);
+    buffer[length++] = (byte) c;
+  }
+
+  /** Grow the buffer if it can not hold the given number of extra bytes */
+  private void ensureCapacity(int extra) {
+    if (length + extra > buffer.length) {
+      byte[] grown = new byte[Math.max(buffer.length * 2, length + extra)];
+      System.arraycopy(buffer, 0, grown, 0, length);
+      buffer = grown;
+    }
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+}
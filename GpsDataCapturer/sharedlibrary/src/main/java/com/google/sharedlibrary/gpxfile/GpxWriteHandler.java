@@ -1,113 +1,94 @@
 package com.google.sharedlibrary.gpxfile;
 
-import android.content.Context;
-import android.location.Location;
 import android.os.Build;
 import android.util.Log;
 
 import androidx.annotation.RequiresApi;
 
-import com.google.sharedlibrary.BuildConfig;
-import com.google.sharedlibrary.model.SatelliteSignalData;
-import com.google.sharedlibrary.utils.Utils;
+import com.google.sharedlibrary.gpxfile.CaptureLatency.Stage;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-
-/** Helper class that handle data writing for the GpxFileWriter. */
+/**
+ * Helper class that handle data writing for the GpxFileWriter. Each run drains the track points
+ * published to the {@link TrackPointRingBuffer} and writes them to the gpx file on the writer
+ * thread, encoded by the {@link TrackEncoder} of the output format.
+ */
 public class GpxWriteHandler implements Runnable {
   private static final String TAG = "GpxWriterHandler";
-  private final String formattedTime;
-  private final Location location;
-  private final SatelliteSignalData signalData;
-  private final File gpxFile;
-  private final boolean append;
-  private static final int SIZE = 20480;
+  private final TrackPointRingBuffer ringBuffer;
+  private final BatchedOutputStream outputStream;
+  private final TrackPoint trackPoint = new TrackPoint();
+  private final TrackEncoder encoder;
+  private final CaptureFileRoller roller;
+  private final CaptureLatency latency;
 
   public GpxWriteHandler(
-      String formattedTime,
-      File gpxFile,
-      Location location,
-      SatelliteSignalData signalData,
-      boolean append) {
-    this.formattedTime = formattedTime;
-    this.gpxFile = gpxFile;
-    this.location = location;
-    this.signalData = signalData;
-    this.append = append;
+      TrackEncoder encoder, TrackPointRingBuffer ringBuffer, BatchedOutputStream outputStream) {
+    this(encoder, ringBuffer, outputStream, null);
+  }
+
+  /**
+   * @param roller rolls the session over to a new part between two track points, null to write a
+   *     single file
+   */
+  public GpxWriteHandler(
+      TrackEncoder encoder,
+      TrackPointRingBuffer ringBuffer,
+      BatchedOutputStream outputStream,
+      CaptureFileRoller roller) {
+    this(encoder, ringBuffer, outputStream, roller, null);
+  }
+
+  /**
+   * @param roller rolls the session over to a new part between two track points, null to write a
+   *     single file
+   * @param latency records the time each track point spends in the stages of the writer, null to
+   *     not measure it
+   */
+  public GpxWriteHandler(
+      TrackEncoder encoder,
+      TrackPointRingBuffer ringBuffer,
+      BatchedOutputStream outputStream,
+      CaptureFileRoller roller,
+      CaptureLatency latency) {
+    this.encoder = encoder;
+    this.ringBuffer = ringBuffer;
+    this.outputStream = outputStream;
+    this.roller = roller;
+    this.latency = latency;
   }
 
   @RequiresApi(api = Build.VERSION_CODES.O)
   @Override
   public void run() {
-    Log.i(TAG, "Start writing to file");
-    try (FileWriter fileWriter = new FileWriter(gpxFile, true)) {
-      BufferedWriter bufferedWriter = new BufferedWriter(fileWriter, SIZE);
-
+    try {
       // write the captured gps data to file
-      String trackPointXml = getTrackPointXml(location, formattedTime, signalData);
-      bufferedWriter.write(trackPointXml);
-      bufferedWriter.flush();
-      bufferedWriter.close();
-      fileWriter.close();
-      Log.d(TAG, trackPointXml);
+      while (ringBuffer.poll(trackPoint)) {
+        if (latency != null) {
+          writeMeasured();
+        } else {
+          int length = encoder.encode(trackPoint);
+          outputStream.write(encoder.getBuffer(), 0, length);
+          outputStream.endRecord();
+        }
+        if (roller != null) {
+          roller.onTrackPointWritten();
+        }
+      }
     } catch (Exception e) {
       Log.e(TAG, "GpxFileWriter.writeGpsData", e);
     }
   }
 
-  /**
-   * Generate the xml track point of the location
-   *
-   * @param location the location captured by GPS
-   * @param formattedTime time of on location changed in format
-   * @return a string of xml track point
-   */
-  private String getTrackPointXml(
-      Location location, String formattedTime, SatelliteSignalData signalData) {
-    StringBuilder trackPoint = new StringBuilder();
-
-    trackPoint
-        .append("<trkpt lat=\"")
-        .append(location.getLatitude())
-        .append("\" lon=\"")
-        .append(location.getLongitude())
-        .append("\">");
-
-    if (location.hasAltitude()) {
-      trackPoint.append("<ele>").append(location.getAltitude()).append("</ele>");
-    }
-
-    trackPoint.append("<time>").append(formattedTime).append("</time>");
-
-    trackPoint
-        .append("<speed>")
-        .append(location.hasSpeed() ? location.getSpeed() : "0.0")
-        .append("</speed>");
-
-    trackPoint
-        .append("<accuracy>")
-        .append(location.hasAccuracy() ? location.getAccuracy() : "0.0")
-        .append("</accuracy>");
-
-    trackPoint.append("<src>").append(location.getProvider()).append("</src>");
-
-    // append satellites used in fix
-    if (location.getExtras() != null) {
-      int sat = location.getExtras().getInt("satellites", 0);
-      trackPoint.append("<sat>").append(sat).append("</sat>");
-    }
-
-    // append top 4 satellites signal data
-    trackPoint.append("<signal01>").append(signalData.getFirstSignal()).append("</signal01>");
-    trackPoint.append("<signal02>").append(signalData.getSecondSignal()).append("</signal02>");
-    trackPoint.append("<signal03>").append(signalData.getThirdSignal()).append("</signal03>");
-    trackPoint.append("<signal04>").append(signalData.getForthSignal()).append("</signal04>");
-    trackPoint.append("<average>").append(signalData.getAverageSignal()).append("</average>");
-
-    trackPoint.append("</trkpt>\n");
-
-    return trackPoint.toString();
+  /** Write the track point and record the time spent in each stage of the writer */
+  private void writeMeasured() throws Exception {
+    long dequeuedNanos = CaptureLatency.now();
+    latency.record(Stage.QUEUE, dequeuedNanos - trackPoint.enqueuedRealtimeNanos);
+    int length = encoder.encode(trackPoint);
+    long encodedNanos = CaptureLatency.now();
+    latency.record(Stage.SERIALIZATION, encodedNanos - dequeuedNanos);
+    outputStream.write(encoder.getBuffer(), 0, length);
+    long writtenNanos = CaptureLatency.now();
+    latency.record(Stage.WRITE, writtenNanos - encodedNanos);
+    outputStream.endRecord(trackPoint.getElapsedRealtimeNanos(), writtenNanos);
   }
 }
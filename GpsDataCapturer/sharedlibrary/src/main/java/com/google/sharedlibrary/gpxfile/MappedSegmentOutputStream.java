@@ -0,0 +1,122 @@
+package com.google.sharedlibrary.gpxfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * Output stream writing records to fixed-size segment files through a {@link MappedByteBuffer}.
+ * Each segment is preallocated and mapped once, a record is then published by a store into the
+ * mapped memory instead of a write system call. The kernel writes the mapped pages back to the file
+ * even if the process is killed.
+ *
+ * <p>Each write call is one record and never spans two segments: when a record does not fit in the
+ * rest of the segment, the segment is left zero padded and the record starts the next one. The last
+ * segment is trimmed to its written length when the stream is closed.
+ */
+public class MappedSegmentOutputStream extends OutputStream {
+  public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+  private final File baseFile;
+  private final int segmentSize;
+  private int segmentCount;
+  private RandomAccessFile segmentFile;
+  private MappedByteBuffer buffer;
+  private boolean isClosed;
+
+  /**
+   * @param baseFile the file the segments are named after, segment i is the base file suffixed by
+   *     {@link #getSegmentFile(File, int)}
+   * @param segmentSize the size the segment files are preallocated to
+   */
+  public MappedSegmentOutputStream(File baseFile, int segmentSize) {
+    this.baseFile = baseFile;
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * @param baseFile the file the segments are named after
+   * @param index the index of the segment
+   * @return the segment file of the index
+   */
+  public static File getSegmentFile(File baseFile, int index) {
+    return new File(baseFile.getPath() + String.format(Locale.US, ".%04d", index));
+  }
+
+  /** @return the number of segment files created so far */
+  public int getSegmentCount() {
+    return segmentCount;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (isClosed) {
+      throw new IOException("The mapped segment stream is closed.");
+    }
+    if (len > segmentSize) {
+      throw new IOException("A record of " + len + " bytes does not fit in a segment.");
+    }
+    if (buffer == null || buffer.remaining() < len) {
+      rollOver();
+    }
+    buffer.put(b, off, len);
+  }
+
+  /** Close the current segment, keeping its full size, and map the next one */
+  private void rollOver() throws IOException {
+    closeSegment(false);
+    segmentFile = new RandomAccessFile(getSegmentFile(baseFile, segmentCount), "rw");
+    segmentFile.setLength(segmentSize);
+    buffer = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    segmentCount++;
+  }
+
+  private void closeSegment(boolean trim) throws IOException {
+    if (segmentFile == null) {
+      return;
+    }
+    try {
+      if (trim) {
+        // nothing is stored past the position any more, the mapping is released by the gc
+        segmentFile.getChannel().truncate(buffer.position());
+      }
+    } finally {
+      segmentFile.close();
+      segmentFile = null;
+      buffer = null;
+    }
+  }
+
+  /**
+   * Stores are visible to the kernel as soon as they are done, nothing to flush for a process
+   * crash. Use {@link #force()} to also survive a power loss.
+   */
+  @Override
+  public void flush() {}
+
+  /** Write the mapped pages of the current segment back to the storage device */
+  public void force() {
+    if (buffer != null) {
+      buffer.force();
+    }
+  }
+
+  /** Trim the last segment to the records written to it and close it */
+  @Override
+  public void close() throws IOException {
+    if (isClosed) {
+      return;
+    }
+    isClosed = true;
+    closeSegment(true);
+  }
+}
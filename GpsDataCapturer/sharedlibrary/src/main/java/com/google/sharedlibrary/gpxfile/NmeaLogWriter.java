@@ -0,0 +1,102 @@
+package com.google.sharedlibrary.gpxfile;
+
+import android.os.SystemClock;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writer of the NMEA sentences of a capture session, a text log with one sentence per line:
+ *
+ * <pre>
+ *   elapsed realtime nanos when received,timestamp millis of the listener,sentence
+ * </pre>
+ *
+ * The chipset sends 5 to 20 sentences per fix, each one is a record of the stream: the line is
+ * encoded as ASCII straight into the current block, without creating a String or a byte array.
+ */
+public class NmeaLogWriter extends CaptureStreamWriter {
+  public static final String FILE_EXTENSION = ".nmea";
+  static final int BLOCK_SIZE = 16 * 1024;
+  static final String HEADER = "# elapsedRealtimeNanos,timestampMillis,sentence\n";
+  // the longest decimal of a long, with its sign
+  private static final int MAX_DECIMAL_LENGTH = 20;
+
+  /**
+   * Constructor to create a NmeaLogWriter
+   *
+   * @param file the file of the NMEA log
+   * @param scheduler the I/O scheduler shared by the capture writers, null to give the writer its
+   *     own thread, which is stopped when the writer is closed
+   */
+  public NmeaLogWriter(File file, CaptureScheduler scheduler) {
+    super(file, scheduler, BLOCK_SIZE);
+  }
+
+  @Override
+  protected ByteBuffer encodeHeader(long startTimeMillis) {
+    ByteBuffer header = ByteBuffer.wrap(HEADER.getBytes(StandardCharsets.US_ASCII));
+    header.position(header.limit());
+    return header;
+  }
+
+  @Override
+  protected ByteBuffer encodeFooter(long endTimeMillis) {
+    return null;
+  }
+
+  /**
+   * Append a sentence to the current block. Called on the thread of the NMEA listener, it only
+   * waits for a concurrent close.
+   *
+   * @param message the NMEA sentence, its line terminator is left out
+   * @param timestamp the timestamp passed with the sentence
+   */
+  public synchronized void writeSentence(String message, long timestamp) {
+    long elapsedRealtimeNanos = SystemClock.elapsedRealtimeNanos();
+    long now = SystemClock.elapsedRealtime();
+    int length = message.length();
+    while (length > 0 && isLineTerminator(message.charAt(length - 1))) {
+      length--;
+    }
+    ByteBuffer buffer = beginRecord(2 * MAX_DECIMAL_LENGTH + length + 3, now);
+    if (buffer == null) {
+      return;
+    }
+
+    putDecimal(buffer, elapsedRealtimeNanos);
+    buffer.put((byte) ',');
+    putDecimal(buffer, timestamp);
+    buffer.put((byte) ',');
+    for (int i = 0; i < length; i++) {
+      char c = message.charAt(i);
+      // NMEA is ASCII, a line break would split the record
+      buffer.put(c < 0x80 && !isLineTerminator(c) ? (byte) c : (byte) '?');
+    }
+    buffer.put((byte) '\n');
+    endRecord(now);
+  }
+
+  private static boolean isLineTerminator(char c) {
+    return c == '\r' || c == '\n';
+  }
+
+  /** Put the ASCII decimal of the value at the position of the buffer */
+  static void putDecimal(ByteBuffer buffer, long value) {
+    if (value < 0) {
+      buffer.put((byte) '-');
+    }
+    int digits = 1;
+    for (long rest = value / 10; rest != 0; rest /= 10) {
+      digits++;
+    }
+    int end = buffer.position() + digits;
+    // the digits of a negative value are negated one by one, so Long.MIN_VALUE does not overflow
+    for (int i = end - 1; i >= end - digits; i--) {
+      buffer.put(i, (byte) ('0' + Math.abs(value % 10)));
+      value /= 10;
+    }
+    buffer.position(end);
+  }
+}
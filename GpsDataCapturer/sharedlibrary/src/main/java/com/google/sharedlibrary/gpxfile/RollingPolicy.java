@@ -0,0 +1,67 @@
+package com.google.sharedlibrary.gpxfile;
+
+/**
+ * This class describes when the {@link GpxFileWriter} rolls a capture session over to a new part
+ * file: after a number of bytes or after a duration, whichever comes first. Each part is a complete
+ * file with its own header and footer.
+ */
+public class RollingPolicy {
+  /** Write the whole session to a single file */
+  public static final RollingPolicy NEVER = new RollingPolicy(0, 0);
+
+  /**
+   * Default thresholds of a rolling session, parts of at most 32 MB or one hour. Sessions are only
+   * rolled over when a policy is set, by default they are written to a single file.
+   */
+  public static final RollingPolicy DEFAULT = new RollingPolicy(32L * 1024 * 1024, 3600000);
+
+  private final long maxBytes;
+  private final long maxDurationMillis;
+
+  /**
+   * Constructor to create a RollingPolicy, with both thresholds disabled the session is never
+   * rolled
+   *
+   * @param maxBytes the number of bytes encoded in a part that triggers a roll, 0 to disable
+   * @param maxDurationMillis the time since the part started that triggers a roll, 0 to disable
+   */
+  public RollingPolicy(long maxBytes, long maxDurationMillis) {
+    if (maxBytes < 0 || maxDurationMillis < 0) {
+      throw new IllegalArgumentException("RollingPolicy thresholds must not be negative.");
+    }
+    this.maxBytes = maxBytes;
+    this.maxDurationMillis = maxDurationMillis;
+  }
+
+  /** @return the number of bytes encoded in a part that triggers a roll */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /** @return the time since the part started in milliseconds that triggers a roll */
+  public long getMaxDurationMillis() {
+    return maxDurationMillis;
+  }
+
+  /** @return true if the session may be rolled over */
+  public boolean isEnabled() {
+    return maxBytes > 0 || maxDurationMillis > 0;
+  }
+
+  /**
+   * Check if the session should be rolled over to a new part
+   *
+   * @param partBytes the number of bytes encoded in the part, before compression
+   * @param millisSincePartStart the time elapsed since the part started
+   * @return true if either threshold is reached
+   */
+  public boolean shouldRoll(long partBytes, long millisSincePartStart) {
+    return (maxBytes > 0 && partBytes >= maxBytes)
+        || (maxDurationMillis > 0 && millisSincePartStart >= maxDurationMillis);
+  }
+
+  @Override
+  public String toString() {
+    return "RollingPolicy maxBytes: " + maxBytes + " maxDurationMillis: " + maxDurationMillis;
+  }
+}
@@ -0,0 +1,37 @@
+package com.google.sharedlibrary.gpxfile;
+
+/**
+ * Encoder of the capture session file format. The header, the track points and the footer are
+ * encoded into a buffer reused by the encoder, the result of a call is valid until the next one.
+ *
+ * <p>An encoder is not thread-safe, it is used by the writer thread only.
+ */
+public interface TrackEncoder {
+  /**
+   * Encode the file header
+   *
+   * @param startTimeMillis time the capture started
+   * @param metadata the device that captured the session
+   * @return the number of bytes of the header in the buffer
+   */
+  int encodeHeader(long startTimeMillis, DeviceMetadata metadata);
+
+  /**
+   * Encode a track point
+   *
+   * @param trackPoint the track point to encode
+   * @return the number of bytes of the track point in the buffer
+   */
+  int encode(TrackPoint trackPoint);
+
+  /**
+   * Encode the file footer
+   *
+   * @param endTimeMillis time the capture stopped
+   * @return the number of bytes of the footer in the buffer
+   */
+  int encodeFooter(long endTimeMillis);
+
+  /** @return the buffer holding the last encoded bytes from index 0 */
+  byte[] getBuffer();
+}
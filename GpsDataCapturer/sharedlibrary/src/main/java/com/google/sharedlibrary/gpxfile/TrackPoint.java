@@ -0,0 +1,236 @@
+package com.google.sharedlibrary.gpxfile;
+
+import android.location.Location;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.google.sharedlibrary.model.SatelliteSignalData;
+
+/**
+ * Mutable track point holding the primitive fields of a {@link Location} and its {@link
+ * SatelliteSignalData}. Instances are preallocated as slots of the {@link TrackPointRingBuffer} and
+ * reused for every fix, so no object is created per track point.
+ */
+public class TrackPoint {
+  long time;
+  double latitude;
+  double longitude;
+  double altitude;
+  boolean hasAltitude;
+  float speed;
+  boolean hasSpeed;
+  float accuracy;
+  boolean hasAccuracy;
+  String provider;
+  int satellites;
+  boolean hasSatellites;
+  float firstSignal;
+  float secondSignal;
+  float thirdSignal;
+  float forthSignal;
+  float averageSignal;
+  long elapsedRealtimeNanos;
+  long receivedRealtimeNanos;
+  long wallTimeMillis;
+  boolean hasClockSample;
+  // only used to measure the latency of the capture, not written to the files
+  long enqueuedRealtimeNanos;
+  // sequence of the journal record of the track point, not written to the files
+  long journalSequence;
+
+  /**
+   * Copy the fields of the location and the signal data into this track point, received now
+   *
+   * @param location the location captured by GPS
+   * @param signalData the top 4 strongest satellites' signal of the fix
+   */
+  public void set(Location location, SatelliteSignalData signalData) {
+    set(location, signalData, SystemClock.elapsedRealtimeNanos());
+  }
+
+  /**
+   * Copy the fields of the location and the signal data into this track point
+   *
+   * @param location the location captured by GPS
+   * @param signalData the top 4 strongest satellites' signal of the fix
+   * @param receivedRealtimeNanos the elapsed realtime in nanoseconds when the fix was received
+   */
+  public void set(Location location, SatelliteSignalData signalData, long receivedRealtimeNanos) {
+    time = location.getTime();
+    if (time <= 0) {
+      time = System.currentTimeMillis();
+    }
+    latitude = location.getLatitude();
+    longitude = location.getLongitude();
+    hasAltitude = location.hasAltitude();
+    altitude = hasAltitude ? location.getAltitude() : 0.0;
+    hasSpeed = location.hasSpeed();
+    speed = hasSpeed ? location.getSpeed() : 0.0f;
+    hasAccuracy = location.hasAccuracy();
+    accuracy = hasAccuracy ? location.getAccuracy() : 0.0f;
+    provider = location.getProvider();
+
+    Bundle extras = location.getExtras();
+    hasSatellites = extras != null;
+    satellites = hasSatellites ? extras.getInt("satellites", 0) : 0;
+
+    firstSignal = signalData.getFirstSignal();
+    secondSignal = signalData.getSecondSignal();
+    thirdSignal = signalData.getThirdSignal();
+    forthSignal = signalData.getForthSignal();
+    averageSignal = signalData.getAverageSignal();
+
+    elapsedRealtimeNanos = location.getElapsedRealtimeNanos();
+    this.receivedRealtimeNanos = receivedRealtimeNanos;
+    wallTimeMillis = 0;
+    hasClockSample = false;
+    enqueuedRealtimeNanos = 0;
+  }
+
+  /**
+   * Attach a sample of the wall clock taken with the receipt time of the track point, the drift
+   * between the two clocks over a session is computed from these samples
+   *
+   * @param wallTimeMillis the wall clock time in milliseconds
+   */
+  public void sampleClock(long wallTimeMillis) {
+    this.wallTimeMillis = wallTimeMillis;
+    hasClockSample = true;
+  }
+
+  /**
+   * Copy all the fields of another track point into this track point
+   *
+   * @param other the track point to copy
+   */
+  public void set(TrackPoint other) {
+    time = other.time;
+    latitude = other.latitude;
+    longitude = other.longitude;
+    altitude = other.altitude;
+    hasAltitude = other.hasAltitude;
+    speed = other.speed;
+    hasSpeed = other.hasSpeed;
+    accuracy = other.accuracy;
+    hasAccuracy = other.hasAccuracy;
+    provider = other.provider;
+    satellites = other.satellites;
+    hasSatellites = other.hasSatellites;
+    firstSignal = other.firstSignal;
+    secondSignal = other.secondSignal;
+    thirdSignal = other.thirdSignal;
+    forthSignal = other.forthSignal;
+    averageSignal = other.averageSignal;
+    elapsedRealtimeNanos = other.elapsedRealtimeNanos;
+    receivedRealtimeNanos = other.receivedRealtimeNanos;
+    wallTimeMillis = other.wallTimeMillis;
+    hasClockSample = other.hasClockSample;
+    enqueuedRealtimeNanos = other.enqueuedRealtimeNanos;
+    journalSequence = other.journalSequence;
+  }
+
+  /** @return the UTC time of the fix in milliseconds */
+  public long getTime() {
+    return time;
+  }
+
+  /** @return the latitude in degrees */
+  public double getLatitude() {
+    return latitude;
+  }
+
+  /** @return the longitude in degrees */
+  public double getLongitude() {
+    return longitude;
+  }
+
+  /** @return the altitude in meters, 0.0 if the fix has no altitude */
+  public double getAltitude() {
+    return altitude;
+  }
+
+  /** @return true if the fix has an altitude */
+  public boolean hasAltitude() {
+    return hasAltitude;
+  }
+
+  /** @return the speed in meters per second, 0.0 if the fix has no speed */
+  public float getSpeed() {
+    return speed;
+  }
+
+  /** @return true if the fix has a speed */
+  public boolean hasSpeed() {
+    return hasSpeed;
+  }
+
+  /** @return the horizontal accuracy in meters, 0.0 if the fix has no accuracy */
+  public float getAccuracy() {
+    return accuracy;
+  }
+
+  /** @return true if the fix has an accuracy */
+  public boolean hasAccuracy() {
+    return hasAccuracy;
+  }
+
+  /** @return the name of the provider of the fix */
+  public String getProvider() {
+    return provider;
+  }
+
+  /** @return the number of satellites used in fix, 0 if unknown */
+  public int getSatellites() {
+    return satellites;
+  }
+
+  /** @return true if the fix carries the extras with the number of satellites */
+  public boolean hasSatellites() {
+    return hasSatellites;
+  }
+
+  /** @return the first strongest signal */
+  public float getFirstSignal() {
+    return firstSignal;
+  }
+
+  /** @return the second strongest signal */
+  public float getSecondSignal() {
+    return secondSignal;
+  }
+
+  /** @return the third strongest signal */
+  public float getThirdSignal() {
+    return thirdSignal;
+  }
+
+  /** @return the forth strongest signal */
+  public float getForthSignal() {
+    return forthSignal;
+  }
+
+  /** @return the average of the top 4 strongest signal */
+  public float getAverageSignal() {
+    return averageSignal;
+  }
+
+  /** @return the elapsed realtime of the fix in nanoseconds, 0 if unknown */
+  public long getElapsedRealtimeNanos() {
+    return elapsedRealtimeNanos;
+  }
+
+  /** @return the elapsed realtime in nanoseconds when the fix was received by the capture */
+  public long getReceivedRealtimeNanos() {
+    return receivedRealtimeNanos;
+  }
+
+  /** @return the wall clock time in milliseconds sampled with the receipt time, 0 if none */
+  public long getWallTimeMillis() {
+    return wallTimeMillis;
+  }
+
+  /** @return true if the track point carries a sample of the wall clock */
+  public boolean hasClockSample() {
+    return hasClockSample;
+  }
+}
@@ -0,0 +1,102 @@
+package com.google.sharedlibrary.gpxfile;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring buffer of preallocated {@link TrackPoint} slots.
+ * The producer is the thread delivering the location callbacks, it claims a slot, copies the fix
+ * into it and publishes it. The consumer is the writer thread, it copies the oldest slot out and
+ * releases it. Neither side takes a lock or allocates an object per track point.
+ *
+ * <p>The producer may also drop the oldest track point when the ring is full. Since the consumer
+ * only releases a slot with a compare-and-set on the head after copying it, a copy racing with the
+ * drop is detected and discarded.
+ */
+public class TrackPointRingBuffer {
+  private final TrackPoint[] slots;
+  private final int mask;
+
+  /** Index of the oldest unconsumed slot, advanced by the consumer or by a drop of the producer */
+  private final AtomicLong head = new AtomicLong();
+
+  /** Index of the next slot to publish, only advanced by the producer */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Constructor to create a TrackPointRingBuffer
+   *
+   * @param capacity the number of slots, must be a power of two
+   */
+  public TrackPointRingBuffer(int capacity) {
+    if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+    }
+    slots = new TrackPoint[capacity];
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = new TrackPoint();
+    }
+    mask = capacity - 1;
+  }
+
+  /** @return the number of slots of the ring */
+  public int getCapacity() {
+    return slots.length;
+  }
+
+  /** @return the number of published track points not consumed yet */
+  public int size() {
+    return (int) (tail.get() - head.get());
+  }
+
+  /**
+   * Claim the next free slot, only called by the producer. The slot is visible to the consumer
+   * once {@link #publish()} is called.
+   *
+   * @return the slot to fill or null if the ring is full
+   */
+  public TrackPoint claim() {
+    long currentTail = tail.get();
+    if (currentTail - head.get() >= slots.length) {
+      return null;
+    }
+    return slots[(int) (currentTail & mask)];
+  }
+
+  /** Publish the slot returned by the last {@link #claim()}, only called by the producer */
+  public void publish() {
+    tail.lazySet(tail.get() + 1);
+  }
+
+  /**
+   * Drop the oldest unconsumed track point to free a slot, only called by the producer
+   *
+   * @return true if a track point was dropped, false if the consumer freed a slot meanwhile
+   */
+  public boolean dropOldest() {
+    long currentHead = head.get();
+    if (tail.get() - currentHead < slots.length) {
+      return false;
+    }
+    return head.compareAndSet(currentHead, currentHead + 1);
+  }
+
+  /**
+   * Copy the oldest published track point and release its slot, only called by the consumer
+   *
+   * @param trackPoint the track point the oldest slot is copied into
+   * @return true if a track point was copied, false if the ring is empty
+   */
+  public boolean poll(TrackPoint trackPoint) {
+    while (true) {
+      long currentHead = head.get();
+      if (currentHead >= tail.get()) {
+        return false;
+      }
+      trackPoint.set(slots[(int) (currentHead & mask)]);
+      if (head.compareAndSet(currentHead, currentHead + 1)) {
+        return true;
+      }
+      // the producer dropped this track point while it was copied, retry with the next one
+    }
+  }
+}
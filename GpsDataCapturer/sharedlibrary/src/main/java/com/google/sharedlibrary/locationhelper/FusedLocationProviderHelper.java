@@ -22,14 +22,29 @@ public class FusedLocationProviderHelper {
   private static final int FASTEST_INTERVAL = 1000;
   private static LocationRequest locationRequest;
 
-  /** Start fusedLocationProviderClient */
-  @SuppressLint("MissingPermission")
+  /** Start fusedLocationProviderClient, the callbacks run on the main looper */
   public static void startFusedLocationProviderClient(
       FusedLocationProviderClient fusedLocationProviderClient, LocationCallback locationCallback) {
+    startFusedLocationProviderClient(
+        fusedLocationProviderClient, locationCallback, Looper.getMainLooper());
+  }
+
+  /**
+   * Start fusedLocationProviderClient
+   *
+   * @param fusedLocationProviderClient the fused location provider client
+   * @param locationCallback the callback of the location updates
+   * @param looper the looper the callbacks run on
+   */
+  @SuppressLint("MissingPermission")
+  public static void startFusedLocationProviderClient(
+      FusedLocationProviderClient fusedLocationProviderClient,
+      LocationCallback locationCallback,
+      Looper looper) {
     createLocationRequest();
 
     fusedLocationProviderClient
-        .requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper())
+        .requestLocationUpdates(locationRequest, locationCallback, looper)
         .addOnFailureListener(
             (e) -> {
               Log.e(TAG, "FusedLocationProviderClient could not be started.", e);
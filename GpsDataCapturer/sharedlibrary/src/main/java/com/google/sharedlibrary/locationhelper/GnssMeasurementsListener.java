@@ -0,0 +1,40 @@
+package com.google.sharedlibrary.locationhelper;
+
+import android.location.GnssMeasurementsEvent;
+import android.util.Log;
+
+import com.google.sharedlibrary.service.GpsDataCaptureService;
+
+/**
+ * This class extends GnssMeasurementsEvent.Callback and passes the raw gnss measurements received
+ * via Location Manager API to the GpsDataCaptureService.
+ */
+public class GnssMeasurementsListener extends GnssMeasurementsEvent.Callback {
+  private static final String TAG = "GnssMeasurementsListener";
+  private GpsDataCaptureService gpsDataCaptureService;
+
+  public GnssMeasurementsListener(GpsDataCaptureService service) {
+    Log.d(TAG, "Create GnssMeasurementsListener!");
+    this.gpsDataCaptureService = service;
+  }
+
+  @Override
+  public void onGnssMeasurementsReceived(GnssMeasurementsEvent event) {
+    gpsDataCaptureService.onGnssMeasurementsReceived(event);
+  }
+
+  @Override
+  public void onStatusChanged(int status) {
+    switch (status) {
+      case STATUS_READY:
+        Log.d(TAG, "Gnss measurements are ready.");
+        break;
+      case STATUS_LOCATION_DISABLED:
+        Log.e(TAG, "Gnss measurements need the location to be enabled.");
+        break;
+      default:
+        Log.e(TAG, "Gnss measurements are not supported, status: " + status);
+        break;
+    }
+  }
+}
@@ -2,6 +2,8 @@ package com.google.sharedlibrary.locationhelper;
 
 import android.annotation.SuppressLint;
 import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 /** Helper class that help the GpsDataCaptureService to start/stop the LocationManager. */
@@ -10,16 +12,64 @@ public class LocationManagerHelper {
   private static final int INTERVAL = 1000;
   private static final float DISTANCE = 0.0f;
 
-  /** Start Location Manager */
-  @SuppressLint("MissingPermission")
+  /** Start Location Manager, the callbacks run on the main looper */
   public static void startLocationManager(
       LocationManager locationManager, LocationManagerListener locationManagerListener) {
-    Log.d(TAG, "Add GpsStatusListener");
-    locationManager.addGpsStatusListener(locationManagerListener);
+    startLocationManager(locationManager, locationManagerListener, Looper.getMainLooper());
+  }
+
+  /**
+   * Start Location Manager
+   *
+   * @param locationManager the location manager
+   * @param locationManagerListener the listener of the location and gnss status updates
+   * @param looper the looper the callbacks run on
+   */
+  @SuppressLint("MissingPermission")
+  public static void startLocationManager(
+      LocationManager locationManager,
+      LocationManagerListener locationManagerListener,
+      Looper looper) {
+    Log.d(TAG, "Register GnssStatusCallback");
+    locationManager.registerGnssStatusCallback(
+        locationManagerListener.getGnssStatusCallback(), new Handler(looper));
+
+    startLocationUpdates(
+        locationManager, LocationManager.GPS_PROVIDER, locationManagerListener, looper);
+  }
 
-    Log.d(TAG, "RequestLocationUpdates");
+  /**
+   * Request the location updates of a provider, without the gnss status
+   *
+   * @param locationManager the location manager
+   * @param provider the location provider
+   * @param locationManagerListener the listener of the location updates, one per provider
+   * @param looper the looper the callbacks run on
+   */
+  @SuppressLint("MissingPermission")
+  public static void startLocationUpdates(
+      LocationManager locationManager,
+      String provider,
+      LocationManagerListener locationManagerListener,
+      Looper looper) {
+    Log.d(TAG, "RequestLocationUpdates " + provider);
     locationManager.requestLocationUpdates(
-        LocationManager.GPS_PROVIDER, INTERVAL, DISTANCE, locationManagerListener);
+        provider, INTERVAL, DISTANCE, locationManagerListener, looper);
+  }
+
+  /**
+   * Remove the location updates of a listener started with {@link #startLocationUpdates}, it has
+   * no gnss status callback to unregister
+   *
+   * @param locationManager the location manager
+   * @param locationManagerListener the listener of the location updates
+   */
+  public static void stopLocationUpdates(
+      LocationManager locationManager, LocationManagerListener locationManagerListener) {
+    if (locationManagerListener != null) {
+      Log.d(TAG, "LocationManager is removing location updates.");
+      locationManager.removeUpdates(locationManagerListener);
+    }
   }
 
   /** Stop Location Manager */
@@ -28,7 +78,57 @@ public class LocationManagerHelper {
     if (locationListener != null) {
       Log.d(TAG, "LocationManager is removing location updates.");
       locationManager.removeUpdates(locationListener);
-      locationManager.removeGpsStatusListener(locationListener);
+      locationManager.unregisterGnssStatusCallback(locationListener.getGnssStatusCallback());
+    }
+  }
+
+  /**
+   * Start receiving the raw gnss measurements
+   *
+   * @param locationManager the location manager
+   * @param measurementsListener the listener of the raw gnss measurements
+   * @param looper the looper the callbacks run on
+   * @return true if the measurements callback was registered
+   */
+  @SuppressLint("MissingPermission")
+  public static boolean startGnssMeasurements(
+      LocationManager locationManager,
+      GnssMeasurementsListener measurementsListener,
+      Looper looper) {
+    Log.d(TAG, "Register GnssMeasurementsCallback");
+    return locationManager.registerGnssMeasurementsCallback(
+        measurementsListener, new Handler(looper));
+  }
+
+  /** Stop receiving the raw gnss measurements */
+  public static void stopGnssMeasurements(
+      LocationManager locationManager, GnssMeasurementsListener measurementsListener) {
+    if (measurementsListener != null) {
+      Log.d(TAG, "Unregister GnssMeasurementsCallback");
+      locationManager.unregisterGnssMeasurementsCallback(measurementsListener);
+    }
+  }
+
+  /**
+   * Start receiving the NMEA sentences of the gnss chipset
+   *
+   * @param locationManager the location manager
+   * @param nmeaListener the listener of the NMEA sentences
+   * @param looper the looper the callbacks run on
+   * @return true if the NMEA listener was added
+   */
+  @SuppressLint("MissingPermission")
+  public static boolean startNmea(
+      LocationManager locationManager, NmeaMessageListener nmeaListener, Looper looper) {
+    Log.d(TAG, "Add NmeaListener");
+    return locationManager.addNmeaListener(nmeaListener, new Handler(looper));
+  }
+
+  /** Stop receiving the NMEA sentences */
+  public static void stopNmea(LocationManager locationManager, NmeaMessageListener nmeaListener) {
+    if (nmeaListener != null) {
+      Log.d(TAG, "Remove NmeaListener");
+      locationManager.removeNmeaListener(nmeaListener);
     }
   }
 }
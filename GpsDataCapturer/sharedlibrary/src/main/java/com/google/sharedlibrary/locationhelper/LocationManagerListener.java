@@ -1,5 +1,6 @@
 package com.google.sharedlibrary.locationhelper;
 
+import android.location.GnssStatus;
 import android.location.GpsStatus;
 import android.location.Location;
 import android.location.LocationListener;
@@ -10,17 +11,45 @@ import com.google.sharedlibrary.service.GpsDataCaptureService;
 
 /**
  * This class implements LocationListener and GpsStatus.Listener callback functions and handle
- * location updates and Gps status via Location Manager API
+ * location updates and Gps status via Location Manager API. The satellites are received through
+ * its {@link GnssStatus.Callback}, which passes the whole status to the service without polling.
  */
 public class LocationManagerListener implements LocationListener, GpsStatus.Listener {
   private final String TAG = "GeneralLocationListener";
   private GpsDataCaptureService gpsDataCaptureservice;
+  private final GnssStatus.Callback gnssStatusCallback =
+      new GnssStatus.Callback() {
+        @Override
+        public void onStarted() {
+          onGpsStatusChanged(GpsStatus.GPS_EVENT_STARTED);
+        }
+
+        @Override
+        public void onStopped() {
+          onGpsStatusChanged(GpsStatus.GPS_EVENT_STOPPED);
+        }
+
+        @Override
+        public void onFirstFix(int ttffMillis) {
+          onGpsStatusChanged(GpsStatus.GPS_EVENT_FIRST_FIX);
+        }
+
+        @Override
+        public void onSatelliteStatusChanged(GnssStatus status) {
+          gpsDataCaptureservice.onGnssStatusChanged(status);
+        }
+      };
 
   public LocationManagerListener(GpsDataCaptureService service) {
     Log.d(TAG, "Create LocationManagerListener!");
     this.gpsDataCaptureservice = service;
   }
 
+  /** @return the callback of the gnss status updates */
+  public GnssStatus.Callback getGnssStatusCallback() {
+    return gnssStatusCallback;
+  }
+
   @Override
   public void onGpsStatusChanged(int event) {
     Log.d(TAG, "onGpsStatusChanged");
@@ -0,0 +1,23 @@
+package com.google.sharedlibrary.locationhelper;
+
+import android.location.OnNmeaMessageListener;
+
+import com.google.sharedlibrary.service.GpsDataCaptureService;
+
+/**
+ * This class implements OnNmeaMessageListener and passes the NMEA sentences of the gnss chipset
+ * received via Location Manager API to the GpsDataCaptureService.
+ */
+public class NmeaMessageListener implements OnNmeaMessageListener {
+  private GpsDataCaptureService gpsDataCaptureService;
+
+  public NmeaMessageListener(GpsDataCaptureService service) {
+    this.gpsDataCaptureService = service;
+  }
+
+  @Override
+  public void onNmeaMessage(String message, long timestamp) {
+    // no logging here, the sentences come many times per fix
+    gpsDataCaptureService.onNmeaMessage(message, timestamp);
+  }
+}
@@ -0,0 +1,194 @@
+package com.google.sharedlibrary.model;
+
+import android.location.GnssStatus;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Reusable snapshot of the latest {@link GnssStatus}: the satellite counts and the C/N0 statistics,
+ * overall and per constellation, and the strongest signals used in fix. The satellites of a status
+ * are read by index in a single pass into primitive fields and arrays, so an update creates no
+ * object. The snapshot is not thread safe, it is meant to be owned by the thread receiving the
+ * status callbacks.
+ */
+public class GnssStatusSnapshot {
+  /** One more than the highest constellation type, CONSTELLATION_IRNSS */
+  public static final int CONSTELLATION_COUNT = 8;
+
+  private static final String[] CONSTELLATION_NAMES = {
+    "UNKNOWN", "GPS", "SBAS", "GLONASS", "QZSS", "BEIDOU", "GALILEO", "IRNSS"
+  };
+
+  private final TopKSignalSelector signalSelector;
+  private final int[] visibleByConstellation = new int[CONSTELLATION_COUNT];
+  private final int[] usedByConstellation = new int[CONSTELLATION_COUNT];
+  private final float[] usedCn0SumByConstellation = new float[CONSTELLATION_COUNT];
+  private int satellitesVisible;
+  private int satellitesUsedInFix;
+  private float visibleCn0Sum;
+  private float usedCn0Sum;
+  private float usedCn0Min;
+  private float usedCn0Max;
+
+  /**
+   * Constructor to create a GnssStatusSnapshot
+   *
+   * @param topSignals the number of strongest signals used in fix to keep
+   */
+  public GnssStatusSnapshot(int topSignals) {
+    signalSelector = new TopKSignalSelector(topSignals);
+  }
+
+  /**
+   * Replace the snapshot with the satellites of the status
+   *
+   * @param status the status passed from the gnss status callback
+   */
+  public void update(GnssStatus status) {
+    reset();
+    int satelliteCount = status.getSatelliteCount();
+    for (int i = 0; i < satelliteCount; i++) {
+      addSatellite(status.getConstellationType(i), status.getCn0DbHz(i), status.usedInFix(i));
+    }
+  }
+
+  /** Clear the snapshot before the satellites of a new status are added */
+  public void reset() {
+    signalSelector.reset();
+    for (int i = 0; i < CONSTELLATION_COUNT; i++) {
+      visibleByConstellation[i] = 0;
+      usedByConstellation[i] = 0;
+      usedCn0SumByConstellation[i] = 0;
+    }
+    satellitesVisible = 0;
+    satellitesUsedInFix = 0;
+    visibleCn0Sum = 0;
+    usedCn0Sum = 0;
+    usedCn0Min = 0;
+    usedCn0Max = 0;
+  }
+
+  /**
+   * Add a satellite of the status to the snapshot
+   *
+   * @param constellationType the constellation type of the satellite
+   * @param cn0DbHz the carrier to noise density of the satellite in dB-Hz
+   * @param usedInFix whether the satellite was used in the latest fix
+   */
+  public void addSatellite(int constellationType, float cn0DbHz, boolean usedInFix) {
+    int constellation =
+        constellationType > 0 && constellationType < CONSTELLATION_COUNT
+            ? constellationType
+            : GnssStatus.CONSTELLATION_UNKNOWN;
+    satellitesVisible++;
+    visibleByConstellation[constellation]++;
+    visibleCn0Sum += cn0DbHz;
+    if (!usedInFix) {
+      return;
+    }
+    if (satellitesUsedInFix == 0 || cn0DbHz < usedCn0Min) {
+      usedCn0Min = cn0DbHz;
+    }
+    if (satellitesUsedInFix == 0 || cn0DbHz > usedCn0Max) {
+      usedCn0Max = cn0DbHz;
+    }
+    satellitesUsedInFix++;
+    usedByConstellation[constellation]++;
+    usedCn0SumByConstellation[constellation] += cn0DbHz;
+    usedCn0Sum += cn0DbHz;
+    signalSelector.add(cn0DbHz);
+  }
+
+  /** @return the number of satellites visible */
+  public int getSatellitesVisible() {
+    return satellitesVisible;
+  }
+
+  /** @return the number of satellites used in fix */
+  public int getSatellitesUsedInFix() {
+    return satellitesUsedInFix;
+  }
+
+  /**
+   * @param constellationType the constellation type, as in {@link GnssStatus}
+   * @return the number of satellites visible of the constellation
+   */
+  public int getSatellitesVisible(int constellationType) {
+    return isKnown(constellationType) ? visibleByConstellation[constellationType] : 0;
+  }
+
+  /**
+   * @param constellationType the constellation type, as in {@link GnssStatus}
+   * @return the number of satellites of the constellation used in fix
+   */
+  public int getSatellitesUsedInFix(int constellationType) {
+    return isKnown(constellationType) ? usedByConstellation[constellationType] : 0;
+  }
+
+  /**
+   * @param constellationType the constellation type, as in {@link GnssStatus}
+   * @return the mean C/N0 of the satellites of the constellation used in fix, 0 if there is none
+   */
+  public float getAverageUsedCn0DbHz(int constellationType) {
+    int used = getSatellitesUsedInFix(constellationType);
+    return used == 0 ? 0.0f : usedCn0SumByConstellation[constellationType] / used;
+  }
+
+  /** @return the mean C/N0 of the satellites visible, 0 if there is none */
+  public float getAverageVisibleCn0DbHz() {
+    return satellitesVisible == 0 ? 0.0f : visibleCn0Sum / satellitesVisible;
+  }
+
+  /** @return the mean C/N0 of the satellites used in fix, 0 if there is none */
+  public float getAverageUsedCn0DbHz() {
+    return satellitesUsedInFix == 0 ? 0.0f : usedCn0Sum / satellitesUsedInFix;
+  }
+
+  /** @return the lowest C/N0 of the satellites used in fix, 0 if there is none */
+  public float getMinUsedCn0DbHz() {
+    return usedCn0Min;
+  }
+
+  /** @return the highest C/N0 of the satellites used in fix, 0 if there is none */
+  public float getMaxUsedCn0DbHz() {
+    return usedCn0Max;
+  }
+
+  /** @return the signal data of the strongest satellites used in fix */
+  public SatelliteSignalData toSignalData() {
+    return signalSelector.toSignalData();
+  }
+
+  private static boolean isKnown(int constellationType) {
+    return constellationType >= 0 && constellationType < CONSTELLATION_COUNT;
+  }
+
+  @NonNull
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder
+        .append("Satellites visible: ")
+        .append(satellitesVisible)
+        .append(" used in fix: ")
+        .append(satellitesUsedInFix)
+        .append(" C/N0 used mean: ")
+        .append(getAverageUsedCn0DbHz())
+        .append(" min: ")
+        .append(usedCn0Min)
+        .append(" max: ")
+        .append(usedCn0Max);
+    for (int i = 0; i < CONSTELLATION_COUNT; i++) {
+      if (visibleByConstellation[i] > 0) {
+        builder
+            .append(' ')
+            .append(CONSTELLATION_NAMES[i])
+            .append(": ")
+            .append(usedByConstellation[i])
+            .append('/')
+            .append(visibleByConstellation[i]);
+      }
+    }
+    return builder.toString();
+  }
+}
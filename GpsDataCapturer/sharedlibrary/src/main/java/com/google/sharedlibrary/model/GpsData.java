@@ -6,15 +6,28 @@ import androidx.annotation.NonNull;
 
 import java.text.DecimalFormat;
 
-/** The data class for GPS data, which will be passed to UI via {@link GpsInfoViewModel} */
+/**
+ * The data class for GPS data, which will be passed to UI via {@link GpsInfoViewModel}. It holds
+ * the raw values of the location, each one is formatted on the first call of its getter and the
+ * text is kept for the next calls. Two GpsData with the same values are equal.
+ */
 public class GpsData {
-  private final String latitude;
-  private final String longitude;
-  private final String speed;
-  private final String defaultLocFormat = "0.000000";
-  private final String defaultSpeedFormat = "0.0000";
-  private final DecimalFormat locationDF = new DecimalFormat(defaultLocFormat);
-  private final DecimalFormat speedDF = new DecimalFormat(defaultSpeedFormat);
+  private static final String DEFAULT_LOC_FORMAT = "0.000000";
+  private static final String DEFAULT_SPEED_FORMAT = "0.0000";
+  // DecimalFormat is not thread safe, each thread formatting gps data gets its own
+  private static final ThreadLocal<DecimalFormat> LOCATION_DF =
+      ThreadLocal.withInitial(() -> new DecimalFormat(DEFAULT_LOC_FORMAT));
+  private static final ThreadLocal<DecimalFormat> SPEED_DF =
+      ThreadLocal.withInitial(() -> new DecimalFormat(DEFAULT_SPEED_FORMAT));
+
+  private final double latitude;
+  private final double longitude;
+  private final boolean hasSpeed;
+  private final float speed;
+  // Strings are immutable, a racy first access at worst formats a value twice
+  private String latitudeText;
+  private String longitudeText;
+  private String speedText;
 
   /**
    * Constructor to create a GpsData object
@@ -22,11 +35,22 @@ public class GpsData {
    * @param location the location passed from gpsInfoViewModel
    */
   public GpsData(Location location) {
-    latitude = String.valueOf(locationDF.format(location.getLatitude()));
-    longitude = String.valueOf(locationDF.format(location.getLongitude()));
-    speed =
-        String.valueOf(
-            location.hasSpeed() ? speedDF.format(location.getSpeed()) : defaultSpeedFormat);
+    this(location.getLatitude(), location.getLongitude(), location.hasSpeed(), location.getSpeed());
+  }
+
+  /**
+   * Constructor to create a GpsData object from the raw values of a location
+   *
+   * @param latitude the latitude in degrees
+   * @param longitude the longitude in degrees
+   * @param hasSpeed whether the location has a speed
+   * @param speed the speed in meters per second
+   */
+  public GpsData(double latitude, double longitude, boolean hasSpeed, float speed) {
+    this.latitude = latitude;
+    this.longitude = longitude;
+    this.hasSpeed = hasSpeed;
+    this.speed = speed;
   }
 
   /**
@@ -36,7 +60,12 @@ public class GpsData {
    */
   @NonNull
   public String getLatitude() {
-    return this.latitude;
+    String text = latitudeText;
+    if (text == null) {
+      text = LOCATION_DF.get().format(latitude);
+      latitudeText = text;
+    }
+    return text;
   }
 
   /**
@@ -46,7 +75,12 @@ public class GpsData {
    */
   @NonNull
   public String getLongitude() {
-    return this.longitude;
+    String text = longitudeText;
+    if (text == null) {
+      text = LOCATION_DF.get().format(longitude);
+      longitudeText = text;
+    }
+    return text;
   }
 
   /**
@@ -56,7 +90,32 @@ public class GpsData {
    */
   @NonNull
   public String getSpeed() {
-    return this.speed;
+    String text = speedText;
+    if (text == null) {
+      text = hasSpeed ? SPEED_DF.get().format(speed) : DEFAULT_SPEED_FORMAT;
+      speedText = text;
+    }
+    return text;
+  }
+
+  /** @return the latitude in degrees */
+  public double getLatitudeDegrees() {
+    return latitude;
+  }
+
+  /** @return the longitude in degrees */
+  public double getLongitudeDegrees() {
+    return longitude;
+  }
+
+  /** @return whether the location has a speed */
+  public boolean hasSpeed() {
+    return hasSpeed;
+  }
+
+  /** @return the speed in meters per second */
+  public float getSpeedMetersPerSecond() {
+    return speed;
   }
 
   /**
@@ -71,11 +130,11 @@ public class GpsData {
     gpsDataBuilder
         .append("GPS DATA")
         .append(" Lat: ")
-        .append(latitude)
+        .append(getLatitude())
         .append(" Lon: ")
-        .append(longitude)
+        .append(getLongitude())
         .append(" Speed: ")
-        .append(speed);
+        .append(getSpeed());
     return gpsDataBuilder.toString();
   }
 
@@ -91,13 +150,17 @@ public class GpsData {
 
     GpsData gpsData = (GpsData) o;
 
-    return this.latitude.equals(gpsData.latitude)
-        && this.longitude.equals(gpsData.longitude)
-        && this.speed.equals(gpsData.speed);
+    return Double.compare(this.latitude, gpsData.latitude) == 0
+        && Double.compare(this.longitude, gpsData.longitude) == 0
+        && this.hasSpeed == gpsData.hasSpeed
+        && Float.compare(this.speed, gpsData.speed) == 0;
   }
 
   @Override
   public int hashCode() {
-    return super.hashCode();
+    int result = Double.hashCode(latitude);
+    result = 31 * result + Double.hashCode(longitude);
+    result = 31 * result + Boolean.hashCode(hasSpeed);
+    return 31 * result + Float.hashCode(speed);
   }
 }
@@ -2,6 +2,9 @@ package com.google.sharedlibrary.model;
 
 import android.location.GpsStatus;
 import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -10,34 +13,126 @@ import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * The GpsInfoViewModel class will fetch Gps data and status from the GpsDataCaptureService and pass
- * them to the UI
+ * them to the UI. The setters are called on the capture thread of the service, or on the thread of
+ * the gps source of a multi-source session, the values are posted to the main thread.
+ *
+ * <p>The location fixes are conflated: the raw values of each fix are copied in place over the
+ * latest ones, and the latest fix is published on the main thread at most {@link
+ * #setMaxUiRate(float)} times per second, so the capture rate does not drive the UI rate. No object
+ * is allocated per fix, the {@link GpsData} is only created when a fix is published. The gps
+ * status and the satellites used in fix are published as soon as they change. A value equal to the
+ * one published last is skipped.
  */
 public class GpsInfoViewModel extends ViewModel {
   private static final String TAG = "GpsInfoViewModel";
+  public static final float DEFAULT_MAX_UI_RATE = 1.0f;
+
   private MutableLiveData<GpsData> gpsDataMutableLiveData;
   private MutableLiveData<String> gpsStatusMutableLiveData;
   private MutableLiveData<String> satellitesUsedInFix;
   private MutableLiveData<Boolean> isGpsDataAvailable;
 
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final Runnable publishFix = this::publishFix;
+  // the raw values of the latest fix, guarded by fixLock
+  private final Object fixLock = new Object();
+  private boolean hasFix;
+  private double fixLatitude;
+  private double fixLongitude;
+  private boolean fixHasSpeed;
+  private float fixSpeed;
+  private final AtomicBoolean isPublishScheduled = new AtomicBoolean();
+  private final AtomicReference<String> latestGpsStatus = new AtomicReference<>();
+  private final AtomicReference<String> latestSatellitesUsedInFix = new AtomicReference<>();
+  private volatile long minPublishIntervalMillis;
+  private volatile long lastPublishMillis;
+  // only used on the main thread
+  private GpsData publishedFix;
+
   public GpsInfoViewModel() {
     Log.i("ViewModel", "Create GpsInfoViewModel");
     gpsDataMutableLiveData = new MutableLiveData<>();
     gpsStatusMutableLiveData = new MutableLiveData<>();
     satellitesUsedInFix = new MutableLiveData<>();
     isGpsDataAvailable = new MutableLiveData<>();
+    setMaxUiRate(DEFAULT_MAX_UI_RATE);
+  }
+
+  /**
+   * Set the maximum rate the location fixes are published to the UI at
+   *
+   * @param updatesPerSecond the maximum number of updates per second, 0 or less publishes every fix
+   */
+  public void setMaxUiRate(float updatesPerSecond) {
+    minPublishIntervalMillis = updatesPerSecond > 0 ? Math.round(1000 / updatesPerSecond) : 0;
   }
 
   /**
-   * Set the GpsDataMutableLiveData value with the updated location
+   * Set the GpsDataMutableLiveData value with the updated location. The first fix after a quiet
+   * period is published right away, the fixes coming faster than the maximum UI rate are conflated
+   * into the latest one, published once the interval has elapsed.
    *
    * @param location location passed from location listener
    */
   public void setGpsDataMutableLiveData(Location location) {
+    synchronized (fixLock) {
+      fixLatitude = location.getLatitude();
+      fixLongitude = location.getLongitude();
+      fixHasSpeed = location.hasSpeed();
+      fixSpeed = location.getSpeed();
+      hasFix = true;
+    }
+    if (!isPublishScheduled.compareAndSet(false, true)) {
+      // the pending publish takes the latest fix
+      return;
+    }
+    long delayMillis = lastPublishMillis + minPublishIntervalMillis - SystemClock.uptimeMillis();
+    if (lastPublishMillis == 0 || delayMillis <= 0) {
+      mainHandler.post(publishFix);
+    } else {
+      mainHandler.postDelayed(publishFix, delayMillis);
+    }
+  }
+
+  /**
+   * Publish the latest fix on the main thread, unless it has the values published last. The values
+   * are only formatted when the UI reads them.
+   */
+  private void publishFix() {
+    isPublishScheduled.set(false);
+    lastPublishMillis = SystemClock.uptimeMillis();
+    double latitude;
+    double longitude;
+    boolean hasSpeed;
+    float speed;
+    synchronized (fixLock) {
+      if (!hasFix) {
+        return;
+      }
+      latitude = fixLatitude;
+      longitude = fixLongitude;
+      hasSpeed = fixHasSpeed;
+      speed = fixSpeed;
+    }
+    if (publishedFix != null
+        && Double.compare(latitude, publishedFix.getLatitudeDegrees()) == 0
+        && Double.compare(longitude, publishedFix.getLongitudeDegrees()) == 0
+        && hasSpeed == publishedFix.hasSpeed()
+        && Float.compare(speed, publishedFix.getSpeedMetersPerSecond()) == 0) {
+      return;
+    }
     Log.d(TAG, "setGpsDataMutableLiveData");
-    gpsDataMutableLiveData.setValue(new GpsData(location));
-    isGpsDataAvailable.setValue(true);
+    GpsData fix = new GpsData(latitude, longitude, hasSpeed, speed);
+    gpsDataMutableLiveData.setValue(fix);
+    if (publishedFix == null) {
+      isGpsDataAvailable.setValue(true);
+    }
+    publishedFix = fix;
   }
 
   /**
@@ -46,16 +141,15 @@ public class GpsInfoViewModel extends ViewModel {
    * @param event event passed from gps status listener
    */
   public void setGpsStatusMutableLiveData(int event) {
-    Log.d(TAG, "setGpsStatusMutableLiveData");
     switch (event) {
       case GpsStatus.GPS_EVENT_FIRST_FIX:
-        gpsStatusMutableLiveData.setValue("GPS_EVENT_FIRST_FIX");
+        postIfChanged(gpsStatusMutableLiveData, latestGpsStatus, "GPS_EVENT_FIRST_FIX");
         break;
       case GpsStatus.GPS_EVENT_STARTED:
-        gpsStatusMutableLiveData.setValue("GPS_EVENT_STARTED");
+        postIfChanged(gpsStatusMutableLiveData, latestGpsStatus, "GPS_EVENT_STARTED");
         break;
       case GpsStatus.GPS_EVENT_STOPPED:
-        gpsStatusMutableLiveData.setValue("GPS_EVENT_STOPPED");
+        postIfChanged(gpsStatusMutableLiveData, latestGpsStatus, "GPS_EVENT_STOPPED");
         break;
     }
   }
@@ -66,12 +160,18 @@ public class GpsInfoViewModel extends ViewModel {
    * @param satellites the number of satellites used in fix passed from gps status listener
    */
   public void setSatellitesUsedInFix(int satellites) {
-    if (satellites == -1) {
-      Log.d(TAG, "setSatellitesUsedInFix: UNKNOWN");
-      satellitesUsedInFix.setValue("UNKNOWN");
+    String value = satellites == -1 ? "UNKNOWN" : String.valueOf(satellites);
+    postIfChanged(satellitesUsedInFix, latestSatellitesUsedInFix, value);
+  }
+
+  /** Post the value unless it is the one posted last */
+  private static void postIfChanged(
+      MutableLiveData<String> liveData, AtomicReference<String> latest, String value) {
+    String previous = latest.getAndSet(value);
+    if (!value.equals(previous)) {
+      Log.d(TAG, "Post " + value);
+      liveData.postValue(value);
     }
-    Log.d(TAG, "setSatellitesUsedInFix");
-    satellitesUsedInFix.setValue(String.valueOf(satellites));
   }
 
   /** @return gpsDataMutableLiveData */
@@ -101,6 +201,7 @@ public class GpsInfoViewModel extends ViewModel {
 
   @Override
   protected void onCleared() {
+    mainHandler.removeCallbacks(publishFix);
     super.onCleared();
   }
 }
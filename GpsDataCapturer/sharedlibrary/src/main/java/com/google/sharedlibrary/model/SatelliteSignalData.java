@@ -1,38 +1,89 @@
 package com.google.sharedlibrary.model;
 
-import java.util.Objects;
-import java.util.PriorityQueue;
+import java.util.Arrays;
 
 /**
- * This class create value object of SatelliteSignalData containing the top 4 strongest satellites'
- * signal
+ * This class create value object of SatelliteSignalData containing the K strongest satellites'
+ * signal, with their count, mean and median. The gpx file keeps the top {@link #TOP_SIGNALS}
+ * signals of each fix.
  */
 public class SatelliteSignalData {
   private final String TAG = "SatelliteSignalData";
-  private final float firstSignal;
-  private final float secondSignal;
-  private final float thirdSignal;
-  private final float forthSignal;
+  public static final int TOP_SIGNALS = 4;
+  private static final float[] NO_SIGNALS = new float[0];
+
+  private final float[] signals;
+  private final float averageSignal;
+  private final float medianSignal;
 
   /** Constructor without parameter, create a single SatelliteSignalData with default value */
   public SatelliteSignalData() {
-    this.forthSignal = 0.0f;
-    this.thirdSignal = 0.0f;
-    this.secondSignal = 0.0f;
-    this.firstSignal = 0.0f;
+    this(NO_SIGNALS, 0);
   }
 
   /**
-   * Constructor with a PriorityQueue parameter, create a single SatelliteSignalData with passing
-   * values
+   * Constructor with the strongest signals, create a single SatelliteSignalData with passing values
    *
-   * @param pq
+   * @param signals the array holding the signals, in any order
+   * @param count the number of signals in the array, from its start
    */
-  public SatelliteSignalData(PriorityQueue<Float> pq) {
-    this.forthSignal = pq.poll();
-    this.thirdSignal = pq.poll();
-    this.secondSignal = pq.poll();
-    this.firstSignal = pq.poll();
+  public SatelliteSignalData(float[] signals, int count) {
+    this(sortStrongestFirst(Arrays.copyOf(signals, count)));
+  }
+
+  /**
+   * Create a SatelliteSignalData from signals already sorted from the strongest, like the ones of a
+   * {@link TopKSignalSelector}, without sorting them again
+   *
+   * @param signals the array holding the signals, the strongest first
+   * @param count the number of signals in the array, from its start
+   * @return the signal data
+   */
+  static SatelliteSignalData fromStrongestFirst(float[] signals, int count) {
+    return new SatelliteSignalData(Arrays.copyOf(signals, count));
+  }
+
+  private SatelliteSignalData(float[] strongestFirst) {
+    this.signals = strongestFirst;
+    int count = signals.length;
+    float sum = 0;
+    for (float signal : this.signals) {
+      sum += signal;
+    }
+    this.averageSignal = count == 0 ? 0.0f : sum / count;
+    if (count == 0) {
+      this.medianSignal = 0.0f;
+    } else if (count % 2 == 1) {
+      this.medianSignal = this.signals[count / 2];
+    } else {
+      this.medianSignal = (this.signals[count / 2 - 1] + this.signals[count / 2]) / 2;
+    }
+  }
+
+  /** Sort the signals from the strongest, in place */
+  private static float[] sortStrongestFirst(float[] signals) {
+    Arrays.sort(signals);
+    for (int i = 0, j = signals.length - 1; i < j; i++, j--) {
+      float signal = signals[i];
+      signals[i] = signals[j];
+      signals[j] = signal;
+    }
+    return signals;
+  }
+
+  /** @return the number of signals */
+  public int getSignalCount() {
+    return signals.length;
+  }
+
+  /**
+   * Get the signal of a rank
+   *
+   * @param rank the rank of the signal, 0 for the strongest
+   * @return the signal of the rank, 0 if there are fewer signals
+   */
+  public float getSignal(int rank) {
+    return rank < signals.length ? signals[rank] : 0.0f;
   }
 
   /**
@@ -41,7 +92,7 @@ public class SatelliteSignalData {
    * @return the first strongest signal
    */
   public float getFirstSignal() {
-    return this.firstSignal;
+    return getSignal(0);
   }
 
   /**
@@ -50,7 +101,7 @@ public class SatelliteSignalData {
    * @return the second strongest signal
    */
   public float getSecondSignal() {
-    return this.secondSignal;
+    return getSignal(1);
   }
 
   /**
@@ -59,7 +110,7 @@ public class SatelliteSignalData {
    * @return the third strongest signal
    */
   public float getThirdSignal() {
-    return this.thirdSignal;
+    return getSignal(2);
   }
 
   /**
@@ -68,16 +119,25 @@ public class SatelliteSignalData {
    * @return the forth strongest signal
    */
   public float getForthSignal() {
-    return this.forthSignal;
+    return getSignal(3);
   }
 
   /**
-   * Get the average of the top 4 strongest signal
+   * Get the average of the strongest signals
    *
-   * @return the average of the top 4 strongest signal or top 3 strongest signal if no forth signal
+   * @return the mean of the signals, 0 if there is none
    */
   public float getAverageSignal() {
-    return (this.firstSignal + this.secondSignal + this.thirdSignal + this.forthSignal) / 4;
+    return averageSignal;
+  }
+
+  /**
+   * Get the median of the strongest signals
+   *
+   * @return the median of the signals, 0 if there is none
+   */
+  public float getMedianSignal() {
+    return medianSignal;
   }
 
   @Override
@@ -92,14 +152,11 @@ public class SatelliteSignalData {
 
     SatelliteSignalData satelliteSignalData = (SatelliteSignalData) o;
 
-    return Float.compare(this.firstSignal, satelliteSignalData.firstSignal) == 0
-        && Float.compare(this.secondSignal, satelliteSignalData.secondSignal) == 0
-        && Float.compare(this.thirdSignal, satelliteSignalData.thirdSignal) == 0
-        && Float.compare(this.forthSignal, satelliteSignalData.forthSignal) == 0;
+    return Arrays.equals(this.signals, satelliteSignalData.signals);
   }
 
   @Override
   public int hashCode() {
-    return super.hashCode();
+    return Arrays.hashCode(signals);
   }
 }
@@ -0,0 +1,78 @@
+package com.google.sharedlibrary.model;
+
+/**
+ * Reusable selector of the K strongest satellite signals. The signals are kept in a fixed float
+ * array sorted from the strongest, each new signal is inserted in place and the weakest one falls
+ * off, so selecting from a satellite status allocates and boxes nothing. The selector is not thread
+ * safe, it is meant to be owned by the thread receiving the status callbacks.
+ */
+public class TopKSignalSelector {
+  private final float[] signals;
+  private int size;
+
+  /**
+   * Constructor to create a TopKSignalSelector
+   *
+   * @param k the number of strongest signals to keep
+   */
+  public TopKSignalSelector(int k) {
+    if (k <= 0) {
+      throw new IllegalArgumentException("K must be positive: " + k);
+    }
+    signals = new float[k];
+  }
+
+  /** Forget the signals added so far, to select from the next satellite status */
+  public void reset() {
+    size = 0;
+  }
+
+  /**
+   * Offer the signal of a satellite
+   *
+   * @param signal the signal to noise ratio of the satellite
+   */
+  public void add(float signal) {
+    if (Float.isNaN(signal)) {
+      return;
+    }
+    int k = signals.length;
+    if (size == k && signal <= signals[k - 1]) {
+      return;
+    }
+    // the weakest signal is dropped when the selector is full
+    int i = size < k ? size++ : k - 1;
+    while (i > 0 && signals[i - 1] < signal) {
+      signals[i] = signals[i - 1];
+      i--;
+    }
+    signals[i] = signal;
+  }
+
+  /** @return the number of signals to keep */
+  public int getK() {
+    return signals.length;
+  }
+
+  /** @return the number of signals kept so far, at most K */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param rank the rank of the signal, 0 for the strongest
+   * @return the signal of the rank
+   */
+  public float get(int rank) {
+    if (rank < 0 || rank >= size) {
+      throw new IndexOutOfBoundsException("Rank " + rank + " of " + size + " signals");
+    }
+    return signals[rank];
+  }
+
+  /** @return the signal data of the signals kept so far */
+  public SatelliteSignalData toSignalData() {
+    // the signals are already sorted from the strongest
+    return SatelliteSignalData.fromStrongestFirst(signals, size);
+  }
+}
@@ -0,0 +1,289 @@
+package com.google.sharedlibrary.pipeline;
+
+import android.location.Location;
+import android.util.Log;
+
+import com.google.sharedlibrary.model.SatelliteSignalData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Staged processing of the location fixes between the sources and the outputs of a capture. The
+ * sources, the location listeners or a replay, publish each fix to an ordered chain of {@link
+ * LocationStage}s, and the samples coming out of the last stage fan out to every {@link
+ * LocationSink}.
+ *
+ * <p>Each stage and sink runs on the executor it is added with. With {@link #DIRECT} it runs on the
+ * thread of the previous step, otherwise the samples are queued and the executor drains all the
+ * pending ones as a batch. The executor should run its tasks one at a time, like a {@link
+ * com.google.sharedlibrary.gpxfile.CaptureScheduler.Lane}, so the samples keep their order. The
+ * samples, batches and time spent are measured per stage, excluding the stages after it.
+ *
+ * <p>A published fix goes through the pipeline in a sample reused for the next fix published on
+ * the same thread, so no object is allocated per fix. A stage or sink running {@link #DIRECT} must
+ * not keep the sample once it returns, the ones with another executor are queued a copy of it.
+ */
+public class LocationPipeline {
+  private static final String TAG = "LocationPipeline";
+
+  /** Runs the stage on the thread that hands the sample over */
+  public static final Executor DIRECT = Runnable::run;
+
+  // the sample of the fixes published on each thread, reused so that publishing allocates nothing
+  private final ThreadLocal<LocationSample> publishedSample =
+      ThreadLocal.withInitial(LocationSample::newReusable);
+
+  private final List<Node> stages = new CopyOnWriteArrayList<>();
+  private final List<Node> sinks = new CopyOnWriteArrayList<>();
+
+  /** Add a stage at the end of the chain, running on the thread of the previous step */
+  public void addStage(String name, LocationStage stage) {
+    addStage(name, stage, DIRECT);
+  }
+
+  /**
+   * Add a stage at the end of the chain
+   *
+   * @param name the name of the stage in the statistics
+   * @param stage the stage
+   * @param executor the executor the stage runs on
+   */
+  public void addStage(String name, LocationStage stage, Executor executor) {
+    stages.add(new Node(name, executor, stage, null, stages.size()));
+  }
+
+  /** Add a sink, running on the thread of the last stage */
+  public void addSink(String name, LocationSink sink) {
+    addSink(name, sink, DIRECT);
+  }
+
+  /**
+   * Add a sink receiving every sample that goes through the stages
+   *
+   * @param name the name of the sink in the statistics
+   * @param sink the sink
+   * @param executor the executor the sink runs on
+   */
+  public void addSink(String name, LocationSink sink, Executor executor) {
+    sinks.add(new Node(name, executor, null, sink, -1));
+  }
+
+  /**
+   * Remove a sink, the samples already queued for it are still delivered
+   *
+   * @param name the name of the sink
+   */
+  public void removeSink(String name) {
+    for (Node sink : sinks) {
+      if (sink.name.equals(name)) {
+        sinks.remove(sink);
+      }
+    }
+  }
+
+  /**
+   * Feed a fix from a source into the pipeline
+   *
+   * @param location the location fix
+   * @param signalData the signal data of the satellites used in the fix
+   */
+  public void publish(Location location, SatelliteSignalData signalData) {
+    publish(location, signalData, 0);
+  }
+
+  /**
+   * Feed a fix from a source into the pipeline with the time the source received it, so the
+   * latency of the fix can be measured along the capture
+   *
+   * @param location the location fix
+   * @param signalData the signal data of the satellites used in the fix
+   * @param receivedRealtimeNanos the elapsed realtime in nanoseconds when the fix was received
+   */
+  public void publish(
+      Location location, SatelliteSignalData signalData, long receivedRealtimeNanos) {
+    LocationSample sample = publishedSample.get();
+    if (sample.getLocation() != null) {
+      // published from a stage or sink while the sample of the thread is going through
+      dispatch(0, new LocationSample(location, signalData, receivedRealtimeNanos));
+      return;
+    }
+    sample.set(location, signalData, receivedRealtimeNanos);
+    try {
+      dispatch(0, sample);
+    } finally {
+      sample.set(null, null, 0);
+    }
+  }
+
+  /** @return the statistics of the stages in order, then of the sinks */
+  public List<StageStats> getStats() {
+    List<StageStats> stats = new ArrayList<>();
+    for (Node stage : stages) {
+      stats.add(stage.getStats());
+    }
+    for (Node sink : sinks) {
+      stats.add(sink.getStats());
+    }
+    return stats;
+  }
+
+  /** Hand the sample over to the stage of the index, or to the sinks after the last stage */
+  private void dispatch(int index, LocationSample sample) {
+    if (index < stages.size()) {
+      stages.get(index).offer(sample);
+      return;
+    }
+    for (Node sink : sinks) {
+      sink.offer(sample);
+    }
+  }
+
+  /** Statistics of a stage or sink */
+  public static class StageStats {
+    private final String name;
+    private final long samples;
+    private final long droppedSamples;
+    private final long batches;
+    private final long totalNanos;
+
+    StageStats(String name, long samples, long droppedSamples, long batches, long totalNanos) {
+      this.name = name;
+      this.samples = samples;
+      this.droppedSamples = droppedSamples;
+      this.batches = batches;
+      this.totalNanos = totalNanos;
+    }
+
+    /** @return the name of the stage */
+    public String getName() {
+      return name;
+    }
+
+    /** @return the number of samples processed */
+    public long getSamples() {
+      return samples;
+    }
+
+    /** @return the number of samples dropped by the stage or failed in it */
+    public long getDroppedSamples() {
+      return droppedSamples;
+    }
+
+    /** @return the number of batches the samples were processed in */
+    public long getBatches() {
+      return batches;
+    }
+
+    /** @return the time spent in the stage in nanoseconds */
+    public long getTotalNanos() {
+      return totalNanos;
+    }
+
+    /** @return the average time spent per sample in nanoseconds */
+    public double getAverageNanos() {
+      return samples == 0 ? 0 : (double) totalNanos / samples;
+    }
+
+    @Override
+    public String toString() {
+      return "Stage "
+          + name
+          + " samples: "
+          + samples
+          + " dropped: "
+          + droppedSamples
+          + " batches: "
+          + batches
+          + " average ns: "
+          + (long) getAverageNanos();
+    }
+  }
+
+  /** A stage or a sink with the queue of the samples waiting for its executor */
+  private class Node {
+    private final String name;
+    private final Executor executor;
+    private final LocationStage stage;
+    private final LocationSink sink;
+    private final int index;
+    private final ConcurrentLinkedQueue<LocationSample> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean isDrainScheduled = new AtomicBoolean();
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong droppedSamples = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    Node(String name, Executor executor, LocationStage stage, LocationSink sink, int index) {
+      this.name = name;
+      this.executor = executor;
+      this.stage = stage;
+      this.sink = sink;
+      this.index = index;
+    }
+
+    void offer(LocationSample sample) {
+      if (executor == DIRECT) {
+        batches.incrementAndGet();
+        handle(sample);
+        return;
+      }
+      // the reused sample of the publishing thread is overwritten by its next fix
+      inbox.add(
+          sample.isReused()
+              ? new LocationSample(
+                  sample.getLocation(), sample.getSignalData(), sample.getReceivedRealtimeNanos())
+              : sample);
+      // schedule a drain unless one is already pending, it takes every queued sample
+      if (isDrainScheduled.compareAndSet(false, true)) {
+        executor.execute(this::drain);
+      }
+    }
+
+    private void drain() {
+      // clear the flag first so a sample queued while draining schedules another drain
+      isDrainScheduled.set(false);
+      if (inbox.isEmpty()) {
+        return;
+      }
+      batches.incrementAndGet();
+      LocationSample sample;
+      while ((sample = inbox.poll()) != null) {
+        handle(sample);
+      }
+    }
+
+    private void handle(LocationSample sample) {
+      long startNanos = System.nanoTime();
+      LocationSample output = sample;
+      try {
+        if (stage != null) {
+          output = stage.process(sample);
+        } else {
+          sink.accept(sample);
+        }
+      } catch (Exception e) {
+        Log.e(TAG, "Stage " + name + " could not process the sample.", e);
+        output = null;
+      }
+      totalNanos.addAndGet(System.nanoTime() - startNanos);
+      samples.incrementAndGet();
+
+      if (output == null) {
+        droppedSamples.incrementAndGet();
+      } else if (stage != null) {
+        dispatch(index + 1, output);
+      }
+    }
+
+    StageStats getStats() {
+      return new StageStats(
+          name, samples.get(), droppedSamples.get(), batches.get(), totalNanos.get());
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package com.google.sharedlibrary.pipeline;
+
+import android.location.Location;
+
+import com.google.sharedlibrary.model.SatelliteSignalData;
+
+/**
+ * A location fix flowing through the {@link LocationPipeline} with its satellite signal data. The
+ * samples the pipeline creates for the published fixes are reused, see {@link LocationPipeline}.
+ */
+public class LocationSample {
+  private Location location;
+  private SatelliteSignalData signalData;
+  private long receivedRealtimeNanos;
+  private final boolean isReused;
+
+  public LocationSample(Location location, SatelliteSignalData signalData) {
+    this(location, signalData, 0);
+  }
+
+  /**
+   * @param receivedRealtimeNanos the elapsed realtime in nanoseconds when the source received the
+   *     fix, 0 if it is not known
+   */
+  public LocationSample(
+      Location location, SatelliteSignalData signalData, long receivedRealtimeNanos) {
+    this(location, signalData, receivedRealtimeNanos, false);
+  }
+
+  private LocationSample(
+      Location location,
+      SatelliteSignalData signalData,
+      long receivedRealtimeNanos,
+      boolean isReused) {
+    this.location = location;
+    this.signalData = signalData;
+    this.receivedRealtimeNanos = receivedRealtimeNanos;
+    this.isReused = isReused;
+  }
+
+  /** @return an empty sample the pipeline reuses for the fixes published on a thread */
+  static LocationSample newReusable() {
+    return new LocationSample(null, null, 0, true);
+  }
+
+  /** Set the fix of a reused sample, null to release the sample */
+  void set(Location location, SatelliteSignalData signalData, long receivedRealtimeNanos) {
+    this.location = location;
+    this.signalData = signalData;
+    this.receivedRealtimeNanos = receivedRealtimeNanos;
+  }
+
+  /** @return true if the sample is reused for the next fix */
+  boolean isReused() {
+    return isReused;
+  }
+
+  /** @return the location fix */
+  public Location getLocation() {
+    return location;
+  }
+
+  /** @return the signal data of the satellites used in the fix */
+  public SatelliteSignalData getSignalData() {
+    return signalData;
+  }
+
+  /** @return the elapsed realtime in nanoseconds when the source received the fix, 0 if unknown */
+  public long getReceivedRealtimeNanos() {
+    return receivedRealtimeNanos;
+  }
+}
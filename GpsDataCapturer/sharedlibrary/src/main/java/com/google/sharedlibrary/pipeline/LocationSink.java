@@ -0,0 +1,13 @@
+package com.google.sharedlibrary.pipeline;
+
+/** An output of the {@link LocationPipeline}, such as a file writer, statistics or the UI */
+public interface LocationSink {
+  /**
+   * Consume a sample that went through all the stages
+   *
+   * @param sample the processed sample, not to be kept once the sink returns if it runs {@link
+   *     LocationPipeline#DIRECT}
+   * @throws Exception if the sample could not be consumed, it is logged by the pipeline
+   */
+  void accept(LocationSample sample) throws Exception;
+}
@@ -0,0 +1,13 @@
+package com.google.sharedlibrary.pipeline;
+
+/** A processing stage of the {@link LocationPipeline}, such as a filter, transform or enrichment */
+public interface LocationStage {
+  /**
+   * Process a sample coming from the previous stage or from a source
+   *
+   * @param sample the sample to process, not to be kept once the stage returns if it runs {@link
+   *     LocationPipeline#DIRECT}
+   * @return the sample passed to the next stage, the same or a new one, or null to drop it
+   */
+  LocationSample process(LocationSample sample);
+}
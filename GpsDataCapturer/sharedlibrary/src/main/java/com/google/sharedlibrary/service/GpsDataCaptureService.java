@@ -4,8 +4,14 @@ import static com.google.sharedlibrary.gpxfile.GpxFileHelper.createFileName;
 import static com.google.sharedlibrary.locationhelper.FusedLocationProviderHelper.startFusedLocationProviderClient;
 import static com.google.sharedlibrary.locationhelper.FusedLocationProviderHelper.stopFusedLocationProviderClient;
 import static com.google.sharedlibrary.gpxfile.GpxFileHelper.createGpxFile;
+import static com.google.sharedlibrary.locationhelper.LocationManagerHelper.startGnssMeasurements;
 import static com.google.sharedlibrary.locationhelper.LocationManagerHelper.startLocationManager;
+import static com.google.sharedlibrary.locationhelper.LocationManagerHelper.startLocationUpdates;
+import static com.google.sharedlibrary.locationhelper.LocationManagerHelper.startNmea;
+import static com.google.sharedlibrary.locationhelper.LocationManagerHelper.stopGnssMeasurements;
 import static com.google.sharedlibrary.locationhelper.LocationManagerHelper.stopLocationManager;
+import static com.google.sharedlibrary.locationhelper.LocationManagerHelper.stopLocationUpdates;
+import static com.google.sharedlibrary.locationhelper.LocationManagerHelper.stopNmea;
 import static com.google.sharedlibrary.storage.GpxFileFolder.createGpsDataFolder;
 import static com.google.sharedlibrary.utils.Utils.LocationApiType;
 
@@ -13,28 +19,62 @@ import android.annotation.SuppressLint;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.location.GpsSatellite;
+import android.location.GnssMeasurementsEvent;
+import android.location.GnssStatus;
 import android.location.GpsStatus;
 import android.location.Location;
 import android.location.LocationManager;
 import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
+import com.google.sharedlibrary.gpxfile.CaptureJournal;
+import com.google.sharedlibrary.gpxfile.CaptureLatency;
+import com.google.sharedlibrary.gpxfile.CaptureLatency.Stage;
+import com.google.sharedlibrary.gpxfile.CaptureScheduler;
+import com.google.sharedlibrary.gpxfile.FlushPolicy;
+import com.google.sharedlibrary.gpxfile.GnssMeasurementWriter;
 import com.google.sharedlibrary.gpxfile.GpxFileWriter;
+import com.google.sharedlibrary.gpxfile.GpxFileWriter.JournalMode;
+import com.google.sharedlibrary.gpxfile.GpxFileWriter.OutputFormat;
+import com.google.sharedlibrary.gpxfile.GpxFileWriter.OverflowPolicy;
+import com.google.sharedlibrary.gpxfile.NmeaLogWriter;
+import com.google.sharedlibrary.gpxfile.RollingPolicy;
 import com.google.sharedlibrary.locationhelper.FusedLocationProviderListener;
+import com.google.sharedlibrary.locationhelper.GnssMeasurementsListener;
 import com.google.sharedlibrary.locationhelper.LocationManagerListener;
+import com.google.sharedlibrary.locationhelper.NmeaMessageListener;
+import com.google.sharedlibrary.model.GnssStatusSnapshot;
 import com.google.sharedlibrary.model.GpsInfoViewModel;
 import com.google.sharedlibrary.model.SatelliteSignalData;
+import com.google.sharedlibrary.pipeline.LocationPipeline;
+import com.google.sharedlibrary.pipeline.LocationPipeline.StageStats;
+import com.google.sharedlibrary.service.MultiSourceCapture.Source;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
 
 import java.io.File;
-import java.text.SimpleDateFormat;
-import java.util.PriorityQueue;
-import java.util.TimeZone;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * This class provides service for capturing gps data from devices and phones, writing collected gps
@@ -46,23 +86,52 @@ import java.util.TimeZone;
  */
 public class GpsDataCaptureService extends Service {
   private static final String TAG = "GpsDataCaptureService";
+  private static final long CLOSE_TIMEOUT_MILLIS = 2000;
+  private static final String CAPTURE_THREAD_NAME = "capture-looper";
+  // the signal data of the fixes without satellites, the fused and network ones
+  private static final SatelliteSignalData NO_SIGNAL_DATA = new SatelliteSignalData();
   private final IBinder binder = new GpsDataCaptureBinder();
 
   private FusedLocationProviderClient fusedLocationProviderClient;
   private LocationManager locationManager;
   private LocationManagerListener locationManagerListener;
+  // a listener only gets the updates of one provider, the network one has its own
+  private LocationManagerListener networkLocationListener;
+  private GnssMeasurementsListener gnssMeasurementsListener;
+  private NmeaMessageListener nmeaMessageListener;
   private FusedLocationProviderListener fusedLocationProviderListener;
   private LocationApiType locationApiType = LocationApiType.LOCATIONMANAGER;
+  private HandlerThread captureThread;
+  private volatile MultiSourceCapture multiSourceCapture;
 
+  private CaptureScheduler captureScheduler;
   private File gpxFileFolder;
+  // the capture files opened by this service, the recovery of the crashed sessions skips them
+  private final Set<File> openCaptureFiles = ConcurrentHashMap.newKeySet();
   protected File gpxFile;
-  private GpxFileWriter gpxFileWriter;
-
-  private GpsInfoViewModel gpsInfoViewModel;
-
-  private SimpleDateFormat sdf;
+  private volatile GpxFileWriter gpxFileWriter;
+  private FlushPolicy flushPolicy = FlushPolicy.DEFAULT;
+  private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+  // a session is a single file unless rolling is asked for, the tools reading the files expect it
+  private RollingPolicy rollingPolicy = RollingPolicy.NEVER;
+  private OutputFormat outputFormat = OutputFormat.GPX;
+  private boolean isCompressed;
+  private JournalMode journalMode = JournalMode.MAPPED;
+  private boolean isRawMeasurementCaptureEnabled;
+  private volatile GnssMeasurementWriter gnssMeasurementWriter;
+  private boolean isNmeaCaptureEnabled;
+  private volatile NmeaLogWriter nmeaLogWriter;
+  private String sessionId;
+  private volatile CaptureLatency captureLatency;
+
+  private volatile GpsInfoViewModel gpsInfoViewModel;
+  private LocationPipeline locationPipeline;
 
   private SatelliteSignalData signalData = new SatelliteSignalData();
+  // reused for every gnss status, only touched by the looper of the gnss status callbacks: the
+  // capture looper, or the looper of the gps source in a multi-source session
+  private final GnssStatusSnapshot gnssStatusSnapshot =
+      new GnssStatusSnapshot(SatelliteSignalData.TOP_SIGNALS);
 
   @Nullable
   @Override
@@ -86,14 +155,38 @@ public class GpsDataCaptureService extends Service {
     if (locationManagerListener == null) {
       locationManagerListener = new LocationManagerListener(this);
     }
+    if (networkLocationListener == null) {
+      networkLocationListener = new LocationManagerListener(this);
+    }
+    if (gnssMeasurementsListener == null) {
+      gnssMeasurementsListener = new GnssMeasurementsListener(this);
+    }
+    if (nmeaMessageListener == null) {
+      nmeaMessageListener = new NmeaMessageListener(this);
+    }
     if (gpxFileFolder == null) {
       gpxFileFolder = createGpsDataFolder(this);
     }
+    if (locationPipeline == null) {
+      locationPipeline = createLocationPipeline();
+    }
+    if (captureThread == null) {
+      // the location and gps status callbacks run on this thread instead of the main one, so the
+      // work per fix does not wait for the UI to render
+      captureThread = new HandlerThread(CAPTURE_THREAD_NAME, Process.THREAD_PRIORITY_FOREGROUND);
+      captureThread.start();
+    }
+    if (captureScheduler == null) {
+      // the capture writers of all the sessions share these I/O threads
+      captureScheduler = new CaptureScheduler(CaptureScheduler.DEFAULT_THREADS);
+    }
 
-    sdf =
-        new SimpleDateFormat(
-            "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", this.getResources().getConfiguration().locale);
-    sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+    // finalize the capture files of the sessions interrupted by a crash on an I/O thread, a
+    // session started meanwhile is skipped since its journal is live
+    if (gpxFileFolder != null) {
+      final File folder = gpxFileFolder;
+      captureScheduler.newLane(1).execute(() -> CaptureJournal.recover(folder, openCaptureFiles));
+    }
   }
 
   @Override
@@ -103,6 +196,18 @@ public class GpsDataCaptureService extends Service {
 
   @Override
   public void onDestroy() {
+    if (multiSourceCapture != null) {
+      multiSourceCapture.quit();
+    }
+    if (captureThread != null) {
+      // the callbacks already queued are still delivered
+      captureThread.quitSafely();
+      captureThread = null;
+    }
+    if (captureScheduler != null) {
+      captureScheduler.shutdown();
+      captureScheduler = null;
+    }
     super.onDestroy();
   }
 
@@ -125,45 +230,352 @@ public class GpsDataCaptureService extends Service {
   /** Start capturing data from GPS via the chosen location api */
   public void startCapture() {
     // create a new file
-    gpxFile = createGpxFile(gpxFileFolder, createFileName());
+    String fileExtension = outputFormat.getFileExtension();
+    if (isCompressed) {
+      fileExtension += GpxFileWriter.COMPRESSED_FILE_EXTENSION;
+    }
+    String fileName = createFileName();
+    // the latency of the track points is measured per session, over all its writers
+    sessionId = fileName;
+    captureLatency = new CaptureLatency();
+
+    if (locationApiType == LocationApiType.MULTISOURCE) {
+      // the file name is the id of the session
+      startMultiSourceCapture(fileName, fileExtension);
+    } else {
+      gpxFile = createGpxFile(gpxFileFolder, fileName, fileExtension);
+
+      // instantiate the gpxFileWriter and open the gpx file if it's null
+      if (gpxFileWriter == null) {
+        gpxFileWriter = openGpxFileWriter(gpxFile);
+      }
+
+      // write the file header
+      gpxFileWriter.writeFileAnnotation(true);
 
-    // instantiate the gpxFileWriter if it's null
-    if (gpxFileWriter == null) {
-      gpxFileWriter = new GpxFileWriter(sdf, gpxFile, true);
+      if (locationApiType == LocationApiType.FUSEDLOCATIONPROVIDERCLIENT) {
+        startFusedLocationProviderClient(
+            fusedLocationProviderClient, fusedLocationProviderListener, getCaptureLooper());
+      } else {
+        startLocationManager(locationManager, locationManagerListener, getCaptureLooper());
+      }
     }
 
-    // write the file header
-    gpxFileWriter.writeFileAnnotation(true);
+    // record the raw gnss measurements next to the capture file
+    if (isRawMeasurementCaptureEnabled) {
+      startRawMeasurementCapture(fileName);
+    }
+    // log the NMEA sentences of the chipset next to the capture file
+    if (isNmeaCaptureEnabled) {
+      startNmeaCapture(fileName);
+    }
+  }
 
-    if (locationApiType == LocationApiType.FUSEDLOCATIONPROVIDERCLIENT) {
-      startFusedLocationProviderClient(fusedLocationProviderClient, fusedLocationProviderListener);
-    } else {
-      startLocationManager(locationManager, locationManagerListener);
+  /**
+   * Create the writer of a capture file with the policies of the service and open the file
+   *
+   * @param file the capture file
+   * @return the writer of the file
+   */
+  private GpxFileWriter openGpxFileWriter(File file) {
+    GpxFileWriter writer =
+        new GpxFileWriter(UtcTimestampEncoder.ISO_8601, file, true, captureScheduler);
+    writer.setFlushPolicy(flushPolicy);
+    writer.setOverflowPolicy(overflowPolicy);
+    writer.setRollingPolicy(rollingPolicy);
+    writer.setOutputFormat(outputFormat);
+    writer.setCompressed(isCompressed);
+    writer.setJournalMode(journalMode);
+    writer.setCaptureLatency(captureLatency);
+    openCaptureFiles.add(file);
+    try {
+      writer.openFile();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not open the gpx file.", e);
+    }
+    return writer;
+  }
+
+  /**
+   * Close the capture file once its footer is written, the last segment of a mapped journal is
+   * trimmed as soon as the file is closed. The file is complete once the writer has drained.
+   *
+   * @param writer the writer of the capture file, its footer already queued
+   * @param deadlineMillis the uptime by which all the writers of the capture must have drained
+   * @return true if the writer drained before the deadline
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private static boolean closeGpxFileWriter(GpxFileWriter writer, long deadlineMillis)
+      throws InterruptedException {
+    boolean isDrained = writer.close(getRemainingMillis(deadlineMillis), TimeUnit.MILLISECONDS);
+    if (!isDrained) {
+      Log.e(TAG, "The gpx file writer did not drain in " + CLOSE_TIMEOUT_MILLIS + " ms.");
+    }
+    Log.d(
+        TAG,
+        "Gpx file flushes: "
+            + writer.getFlushCount()
+            + " points per flush: "
+            + writer.getPointsPerFlush()
+            + " bytes per flush: "
+            + writer.getBytesPerFlush());
+    Log.d(
+        TAG,
+        "Gpx file dropped points: "
+            + writer.getDroppedPoints()
+            + " spilled points: "
+            + writer.getSpilledPoints());
+    Log.d(TAG, "Gpx file parts: " + writer.getPartCount());
+    return isDrained;
+  }
+
+  /**
+   * Start the gps, network and fused providers together, each one on its own looper and writing
+   * its own capture file
+   *
+   * @param sessionId the id shared by the files of the session
+   * @param fileExtension the extension of the capture files
+   */
+  private void startMultiSourceCapture(String sessionId, String fileExtension) {
+    MultiSourceCapture capture = new MultiSourceCapture(sessionId);
+    for (Source source : Source.values()) {
+      File file =
+          createGpxFile(
+              gpxFileFolder, MultiSourceCapture.createFileName(sessionId, source), fileExtension);
+      GpxFileWriter writer = openGpxFileWriter(file);
+      writer.writeFileAnnotation(true);
+      capture.addSource(source, file, writer);
+    }
+    try {
+      capture.writeManifest(gpxFileFolder);
+    } catch (IOException e) {
+      Log.e(TAG, "Could not write the session manifest.", e);
+    }
+    // the sources are all set before the first fix comes in
+    multiSourceCapture = capture;
+
+    startLocationManager(locationManager, locationManagerListener, capture.getLooper(Source.GPS));
+    startLocationUpdates(
+        locationManager,
+        Source.NETWORK.getProvider(),
+        networkLocationListener,
+        capture.getLooper(Source.NETWORK));
+    startFusedLocationProviderClient(
+        fusedLocationProviderClient,
+        fusedLocationProviderListener,
+        capture.getLooper(Source.FUSED));
+  }
+
+  /**
+   * Stop the providers of the multi-source session, their capture files are closed by the caller
+   *
+   * @param gpxWriters the list the writers of the capture files are added to
+   */
+  private void stopMultiSourceCapture(List<GpxFileWriter> gpxWriters) {
+    MultiSourceCapture capture = multiSourceCapture;
+    if (capture == null) {
+      return;
     }
+    stopLocationManager(locationManager, locationManagerListener);
+    // the network listener only gets location updates, the gnss status is the gps one's
+    stopLocationUpdates(locationManager, networkLocationListener);
+    stopFusedLocationProviderClient(fusedLocationProviderClient, fusedLocationProviderListener);
+    gpxWriters.addAll(capture.getWriters());
+    // the fixes already queued on the loopers of the sources are still delivered
+    capture.quit();
+    multiSourceCapture = null;
+  }
+
+  /**
+   * Open the raw gnss measurement file of the capture and register the measurements callback on
+   * the capture looper
+   *
+   * @param fileName the name of the capture file, without extension
+   */
+  private void startRawMeasurementCapture(String fileName) {
+    GnssMeasurementWriter writer =
+        new GnssMeasurementWriter(
+            createGpxFile(gpxFileFolder, fileName, GnssMeasurementWriter.FILE_EXTENSION),
+            captureScheduler);
+    try {
+      writer.openFile();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not open the gnss measurement file.", e);
+      return;
+    }
+    gnssMeasurementWriter = writer;
+    if (!startGnssMeasurements(locationManager, gnssMeasurementsListener, getCaptureLooper())) {
+      Log.e(TAG, "Could not register the gnss measurements callback.");
+    }
+  }
+
+  /**
+   * Unregister the measurements callback, the raw gnss measurement file is closed by the caller
+   *
+   * @return the writer of the raw gnss measurement file, null if none is open
+   */
+  private GnssMeasurementWriter stopRawMeasurementCapture() {
+    GnssMeasurementWriter writer = gnssMeasurementWriter;
+    if (writer == null) {
+      return null;
+    }
+    stopGnssMeasurements(locationManager, gnssMeasurementsListener);
+    gnssMeasurementWriter = null;
+    return writer;
+  }
+
+  /**
+   * Close the raw gnss measurement file once its queued events are written
+   *
+   * @param writer the writer of the raw gnss measurement file
+   * @param deadlineMillis the uptime by which all the writers of the capture must have drained
+   * @return true if the writer drained before the deadline
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private static boolean closeGnssMeasurementWriter(
+      GnssMeasurementWriter writer, long deadlineMillis) throws InterruptedException {
+    boolean isDrained = writer.close(getRemainingMillis(deadlineMillis), TimeUnit.MILLISECONDS);
+    if (!isDrained) {
+      Log.e(TAG, "The gnss measurement writer did not drain in " + CLOSE_TIMEOUT_MILLIS + " ms.");
+    }
+    Log.d(
+        TAG,
+        "Gnss measurement events: "
+            + writer.getWrittenRecords()
+            + " measurements: "
+            + writer.getWrittenMeasurements()
+            + " dropped events: "
+            + writer.getDroppedRecords());
+    return isDrained;
+  }
+
+  /**
+   * Open the NMEA log of the capture and add the NMEA listener on the capture looper
+   *
+   * @param fileName the name of the capture file, without extension
+   */
+  private void startNmeaCapture(String fileName) {
+    NmeaLogWriter writer =
+        new NmeaLogWriter(
+            createGpxFile(gpxFileFolder, fileName, NmeaLogWriter.FILE_EXTENSION), captureScheduler);
+    try {
+      writer.openFile();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not open the nmea log.", e);
+      return;
+    }
+    nmeaLogWriter = writer;
+    if (!startNmea(locationManager, nmeaMessageListener, getCaptureLooper())) {
+      Log.e(TAG, "Could not add the nmea listener.");
+    }
+  }
+
+  /**
+   * Remove the NMEA listener, the NMEA log is closed by the caller
+   *
+   * @return the writer of the NMEA log, null if none is open
+   */
+  private NmeaLogWriter stopNmeaCapture() {
+    NmeaLogWriter writer = nmeaLogWriter;
+    if (writer == null) {
+      return null;
+    }
+    stopNmea(locationManager, nmeaMessageListener);
+    nmeaLogWriter = null;
+    return writer;
+  }
+
+  /**
+   * Close the NMEA log once its queued sentences are written
+   *
+   * @param writer the writer of the NMEA log
+   * @param deadlineMillis the uptime by which all the writers of the capture must have drained
+   * @return true if the writer drained before the deadline
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private static boolean closeNmeaLogWriter(NmeaLogWriter writer, long deadlineMillis)
+      throws InterruptedException {
+    boolean isDrained = writer.close(getRemainingMillis(deadlineMillis), TimeUnit.MILLISECONDS);
+    if (!isDrained) {
+      Log.e(TAG, "The nmea log writer did not drain in " + CLOSE_TIMEOUT_MILLIS + " ms.");
+    }
+    Log.d(
+        TAG,
+        "Nmea sentences: "
+            + writer.getWrittenRecords()
+            + " dropped sentences: "
+            + writer.getDroppedRecords());
+    return isDrained;
+  }
+
+  /** @return the time left until the deadline in milliseconds, 0 once it passed */
+  private static long getRemainingMillis(long deadlineMillis) {
+    return Math.max(0, deadlineMillis - SystemClock.uptimeMillis());
+  }
+
+  /**
+   * Create the location pipeline with its default sinks: the view model, then the gpx file of the
+   * running capture. Other stages and sinks are added through {@link #getLocationPipeline()}.
+   */
+  private LocationPipeline createLocationPipeline() {
+    LocationPipeline pipeline = new LocationPipeline();
+    // set gps data in the view model
+    pipeline.addSink(
+        "ui",
+        sample -> {
+          // the gps fixes only, when the providers are captured together
+          MultiSourceCapture capture = multiSourceCapture;
+          if (gpsInfoViewModel != null
+              && (capture == null
+                  || Source.GPS.getProvider().equals(sample.getLocation().getProvider()))) {
+            gpsInfoViewModel.setGpsDataMutableLiveData(sample.getLocation());
+          }
+        });
+    // write gps data to file
+    pipeline.addSink(
+        "gpxfile",
+        sample -> {
+          // each provider of a multi-source session has its own file
+          MultiSourceCapture capture = multiSourceCapture;
+          GpxFileWriter writer =
+              capture != null
+                  ? capture.getWriter(sample.getLocation().getProvider())
+                  : gpxFileWriter;
+          if (writer == null) {
+            return;
+          }
+          // fixes published without their receipt time are stamped when they get to the writer
+          long receivedRealtimeNanos = sample.getReceivedRealtimeNanos();
+          if (receivedRealtimeNanos > 0) {
+            writer.writeGpsData(
+                sample.getLocation(), sample.getSignalData(), receivedRealtimeNanos);
+          } else {
+            writer.writeGpsData(sample.getLocation(), sample.getSignalData());
+          }
+        });
+    return pipeline;
   }
 
   /**
-   * On location changed, update gps data on gpsDataTextView, draw gps data point on Map and write
-   * gps data to file
+   * On location changed, feed the location with the current signal data to the location pipeline,
+   * which updates the view model and writes the gps data to file
    *
    * @param location the locationed returned by LocationListener's callback function
    */
   @SuppressLint("MissingPermission")
   public void onLocationChanged(Location location) {
-    // set gps data in the view model
-    if (gpsInfoViewModel != null) {
-      gpsInfoViewModel.setGpsDataMutableLiveData(location);
+    // the start of the capture stages of the fix
+    long receivedRealtimeNanos = SystemClock.elapsedRealtimeNanos();
+    if (locationApiType == LocationApiType.FUSEDLOCATIONPROVIDERCLIENT) {
+      signalData = NO_SIGNAL_DATA;
     }
-
-    // write gps data to file
-    try {
-      if (locationApiType == LocationApiType.FUSEDLOCATIONPROVIDERCLIENT) {
-        signalData = new SatelliteSignalData();
-      }
-      gpxFileWriter.writeGpsData(location, signalData);
-    } catch (Exception e) {
-      Log.e(TAG, "GpxFileWriter could not write data.", e);
+    if (locationApiType == LocationApiType.MULTISOURCE
+        && !Source.GPS.getProvider().equals(location.getProvider())) {
+      // the satellites of the gnss status are only the ones of the gps fixes
+      locationPipeline.publish(location, NO_SIGNAL_DATA, receivedRealtimeNanos);
+      return;
     }
+    locationPipeline.publish(location, signalData, receivedRealtimeNanos);
   }
 
   /**
@@ -172,78 +584,186 @@ public class GpsDataCaptureService extends Service {
    * @param event the event returned by GpsStatus Listener's callback function
    */
   public void onGpsStatusChanged(int event) {
-    int satellitesUsedInFix = 0;
-    if (event == GpsStatus.GPS_EVENT_SATELLITE_STATUS) {
-      // Get Gps Status
-      @SuppressLint("MissingPermission")
-      GpsStatus status = locationManager.getGpsStatus(null);
-
-      if (status != null) {
-        Iterable<GpsSatellite> satellites = status.getSatellites();
-        PriorityQueue<Float> signalPriorityQueue = new PriorityQueue<>();
-
-        int satellitesVisible = 0;
-        float averageSignalStrength = 0;
-
-        // Get the satellites visible, satellites used in fix and the top 4 strongest signal
-        // to noise ratio from the satellite.
-        for (GpsSatellite sat : satellites) {
-          if (sat.usedInFix()) {
-            satellitesUsedInFix++;
-            float signalStrength = sat.getSnr();
-            averageSignalStrength += signalStrength;
-
-            if (signalPriorityQueue.size() == 4) {
-              signalPriorityQueue.poll();
-            }
-            signalPriorityQueue.add(signalStrength);
-          }
-          satellitesVisible++;
-        }
-
-        // Calculate the average of signal strength
-        if (satellitesUsedInFix != 0) {
-          averageSignalStrength /= satellitesUsedInFix;
-        }
-
-        // Set the signalData
-        if (signalPriorityQueue.size() == 4) {
-          Log.d(TAG, "signalPriorityQueue size is: " + 4);
-          signalData = new SatelliteSignalData(signalPriorityQueue);
-        }
-
-        Log.d(TAG, "Satellites visible: " + satellitesVisible);
-        Log.d(TAG, "Satellites used in fix: " + satellitesUsedInFix);
-        Log.d(TAG, "Average of satellites used in fix signal strength: " + averageSignalStrength);
-        Log.d(TAG, "Average of top 4 strongest signal strength: " + signalData.getAverageSignal());
+    // set gps status in the view model, the satellites come with the gnss status
+    if (gpsInfoViewModel != null) {
+      gpsInfoViewModel.setGpsStatusMutableLiveData(event);
+      if (event == GpsStatus.GPS_EVENT_STOPPED) {
+        gpsInfoViewModel.setSatellitesUsedInFix(0);
       }
     }
+  }
+
+  /**
+   * On gnss status changed, keep the strongest signals used in fix for the next location fixes and
+   * update the satellites used in fix on text view
+   *
+   * @param status the status returned by GnssStatus Callback's callback function
+   */
+  public void onGnssStatusChanged(GnssStatus status) {
+    gnssStatusSnapshot.update(status);
+    // with fewer signals than K if fewer satellites are used in fix
+    signalData = gnssStatusSnapshot.toSignalData();
+    if (Log.isLoggable(TAG, Log.DEBUG)) {
+      Log.d(TAG, gnssStatusSnapshot.toString());
+    }
 
-    // set gps status and satellites in the view model
+    // set satellites in the view model
     if (gpsInfoViewModel != null) {
-      gpsInfoViewModel.setGpsStatusMutableLiveData(event);
-      gpsInfoViewModel.setSatellitesUsedInFix(satellitesUsedInFix);
+      gpsInfoViewModel.setSatellitesUsedInFix(gnssStatusSnapshot.getSatellitesUsedInFix());
+    }
+  }
+
+  /**
+   * On gnss measurements received, encode them into the raw gnss measurement file of the capture
+   *
+   * @param event the event returned by GnssMeasurementsEvent Callback's callback function
+   */
+  public void onGnssMeasurementsReceived(GnssMeasurementsEvent event) {
+    GnssMeasurementWriter writer = gnssMeasurementWriter;
+    if (writer != null) {
+      writer.writeMeasurements(event);
+    }
+  }
+
+  /**
+   * On NMEA message, append the sentence to the NMEA log of the capture
+   *
+   * @param message the sentence returned by OnNmeaMessageListener's callback function
+   * @param timestamp the timestamp of the sentence
+   */
+  public void onNmeaMessage(String message, long timestamp) {
+    NmeaLogWriter writer = nmeaLogWriter;
+    if (writer != null) {
+      writer.writeSentence(message, timestamp);
     }
   }
 
-  /** Stop capturing data from GPS via the chosen location api */
-  public void stopCapture() {
+  /**
+   * Stop capturing data from GPS via the chosen location api. The providers are stopped right away
+   * and a new capture can be started, the files of the capture are closed on the capture thread so
+   * the caller, usually the main thread, does not wait for the writers to drain.
+   *
+   * @return completes once all the files of the capture are closed, exceptionally with a {@link
+   *     TimeoutException} if the writers did not drain in time
+   */
+  public Future<Void> stopCapture() {
+    List<GpxFileWriter> gpxWriters = new ArrayList<>();
     if (locationApiType == LocationApiType.FUSEDLOCATIONPROVIDERCLIENT) {
       stopFusedLocationProviderClient(fusedLocationProviderClient, fusedLocationProviderListener);
       Log.d(TAG, "Stopped fused location provider successfully!");
+    } else if (locationApiType == LocationApiType.MULTISOURCE) {
+      stopMultiSourceCapture(gpxWriters);
     } else {
       stopLocationManager(locationManager, locationManagerListener);
     }
-
-    // write the file footer
+    GnssMeasurementWriter gnssWriter = stopRawMeasurementCapture();
+    NmeaLogWriter nmeaWriter = stopNmeaCapture();
     if (gpxFileWriter != null) {
-      gpxFileWriter.writeFileAnnotation(false);
+      gpxWriters.add(gpxFileWriter);
     }
+    for (StageStats stats : locationPipeline.getStats()) {
+      Log.d(TAG, stats.toString());
+    }
+    Future<Void> closed =
+        closeWriters(gpxWriters, gnssWriter, nmeaWriter, captureLatency, sessionId);
 
     // reset gpxFileWriter and gpxFile
     gpxFileWriter = null;
     gpxFile = null;
+    sessionId = null;
     locationApiType = LocationApiType.LOCATIONMANAGER;
+    return closed;
+  }
+
+  /**
+   * Close the files of a stopped capture on the capture thread, after the fixes already queued on
+   * its looper. The footers are all queued first, then the writers drain together within one
+   * deadline of {@link #CLOSE_TIMEOUT_MILLIS} and the latency of the session is written.
+   *
+   * @param gpxWriters the writers of the capture files
+   * @param gnssWriter the writer of the raw gnss measurement file, null if none
+   * @param nmeaWriter the writer of the NMEA log, null if none
+   * @param latency the latency of the session
+   * @param sessionId the id of the session
+   * @return completes once all the files are closed
+   */
+  private Future<Void> closeWriters(
+      List<GpxFileWriter> gpxWriters,
+      GnssMeasurementWriter gnssWriter,
+      NmeaLogWriter nmeaWriter,
+      CaptureLatency latency,
+      String sessionId) {
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    Runnable closeTask =
+        () -> {
+          for (GpxFileWriter writer : gpxWriters) {
+            writer.writeFileAnnotation(false);
+          }
+          long deadlineMillis = SystemClock.uptimeMillis() + CLOSE_TIMEOUT_MILLIS;
+          boolean isDrained = true;
+          try {
+            for (GpxFileWriter writer : gpxWriters) {
+              isDrained &= closeGpxFileWriter(writer, deadlineMillis);
+            }
+            if (gnssWriter != null) {
+              isDrained &= closeGnssMeasurementWriter(gnssWriter, deadlineMillis);
+            }
+            if (nmeaWriter != null) {
+              isDrained &= closeNmeaLogWriter(nmeaWriter, deadlineMillis);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.e(TAG, "Interrupted while closing the capture files.", e);
+            closed.completeExceptionally(e);
+            return;
+          }
+          writeSessionLatency(latency, sessionId);
+          if (isDrained) {
+            closed.complete(null);
+          } else {
+            closed.completeExceptionally(
+                new TimeoutException(
+                    "The capture files were not closed in " + CLOSE_TIMEOUT_MILLIS + " ms."));
+          }
+        };
+    if (!new Handler(getCaptureLooper()).post(closeTask)) {
+      // the capture looper is quitting, the files are still closed
+      closeTask.run();
+    }
+    return closed;
+  }
+
+  /**
+   * Log the latency of the track points of the capture and write it into the session file. The
+   * latency is appended to the manifest of a multi-source session. A single-source session has no
+   * manifest, its journal is deleted and a rolling manifest only exists once it rolled over, so a
+   * session file holding the session id and the latency is created next to its capture file. Called
+   * once the writers are closed, so every track point went through all the stages.
+   *
+   * @param latency the latency of the session
+   * @param sessionId the id of the session
+   */
+  private void writeSessionLatency(CaptureLatency latency, String sessionId) {
+    if (latency == null || sessionId == null) {
+      return;
+    }
+    for (Stage stage : Stage.values()) {
+      Log.d(TAG, "Latency " + stage.getKey() + " " + latency.getHistogram(stage));
+    }
+    if (gpxFileFolder == null) {
+      return;
+    }
+    File sessionFile = new File(gpxFileFolder, sessionId + MultiSourceCapture.MANIFEST_EXTENSION);
+    boolean isNewFile = !sessionFile.exists();
+    try (Writer writer =
+        new OutputStreamWriter(new FileOutputStream(sessionFile, true), StandardCharsets.UTF_8)) {
+      if (isNewFile) {
+        writer.write("session=" + sessionId + "\n");
+      }
+      latency.writeTo(writer);
+    } catch (IOException e) {
+      Log.e(TAG, "Could not write the latency into the session file.", e);
+    }
   }
 
   /** Set the locationApiType */
@@ -251,6 +771,80 @@ public class GpsDataCaptureService extends Service {
     this.locationApiType = locationApiType;
   }
 
+  /** Set the flushPolicy used by the gpx file of the next capture */
+  public void setFlushPolicy(FlushPolicy flushPolicy) {
+    this.flushPolicy = flushPolicy;
+  }
+
+  /** Set the overflowPolicy used by the gpx file of the next capture */
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /** Set the rollingPolicy used by the gpx file of the next capture */
+  public void setRollingPolicy(RollingPolicy rollingPolicy) {
+    this.rollingPolicy = rollingPolicy;
+  }
+
+  /** Set the outputFormat of the file of the next capture */
+  public void setOutputFormat(OutputFormat outputFormat) {
+    this.outputFormat = outputFormat;
+  }
+
+  /** Set whether the file of the next capture is compressed with gzip */
+  public void setCompressed(boolean isCompressed) {
+    this.isCompressed = isCompressed;
+  }
+
+  /** Set how the capture journal of the next capture is written */
+  public void setJournalMode(JournalMode journalMode) {
+    this.journalMode = journalMode;
+  }
+
+  /** Set whether the next capture also records the raw gnss measurements */
+  public void setRawMeasurementCapture(boolean isRawMeasurementCaptureEnabled) {
+    this.isRawMeasurementCaptureEnabled = isRawMeasurementCaptureEnabled;
+  }
+
+  /** Set whether the next capture also logs the NMEA sentences */
+  public void setNmeaCapture(boolean isNmeaCaptureEnabled) {
+    this.isNmeaCaptureEnabled = isNmeaCaptureEnabled;
+  }
+
+  /** @return the pipeline the location fixes go through, to plug stages and sinks in */
+  public LocationPipeline getLocationPipeline() {
+    return locationPipeline;
+  }
+
+  /**
+   * The snapshot of the latest gnss status, only to be read on the looper of the gps callbacks
+   *
+   * @return the gnss status snapshot
+   */
+  public GnssStatusSnapshot getGnssStatusSnapshot() {
+    return gnssStatusSnapshot;
+  }
+
+  /** @return the running multi-source session, null if the providers are not captured together */
+  public MultiSourceCapture getMultiSourceCapture() {
+    return multiSourceCapture;
+  }
+
+  /**
+   * The latency of the track points from the fix to the capture file, per stage, may be read while
+   * the capture runs
+   *
+   * @return the latency of the running or last capture, null before the first capture
+   */
+  public CaptureLatency getCaptureLatency() {
+    return captureLatency;
+  }
+
+  /** @return the looper the location and gps status callbacks run on */
+  public Looper getCaptureLooper() {
+    return captureThread != null ? captureThread.getLooper() : Looper.getMainLooper();
+  }
+
   /** Set the gpsInfoViewModel */
   public void setGpsInfoViewModel(GpsInfoViewModel gpsInfoViewModel) {
     this.gpsInfoViewModel = gpsInfoViewModel;
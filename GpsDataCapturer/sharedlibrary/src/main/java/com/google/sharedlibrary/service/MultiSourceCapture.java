@@ -0,0 +1,175 @@
+package com.google.sharedlibrary.service;
+
+import android.location.LocationManager;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.sharedlibrary.gpxfile.GpxFileWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A capture session recording several location providers at once. Each {@link Source} has its own
+ * looper thread and its own capture file, so a slow provider or file does not hold the other ones
+ * back, and the files of the session are named after the shared session id.
+ *
+ * <p>The session manifest ties the files together: it lists the file of each source with the
+ * start of the session in wall clock time and in elapsed realtime, the monotonic clock every
+ * provider stamps its fixes with.
+ */
+public class MultiSourceCapture {
+  private static final String TAG = "MultiSourceCapture";
+  public static final String MANIFEST_EXTENSION = ".session";
+
+  /** The location providers captured together */
+  public enum Source {
+    GPS(LocationManager.GPS_PROVIDER),
+    NETWORK(LocationManager.NETWORK_PROVIDER),
+    FUSED("fused");
+
+    // values() copies the array on each call
+    private static final Source[] SOURCES = values();
+    private final String provider;
+
+    Source(String provider) {
+      this.provider = provider;
+    }
+
+    /** @return the provider name of the fixes of the source */
+    public String getProvider() {
+      return provider;
+    }
+
+    /**
+     * @param provider the provider of a location fix
+     * @return the source of the provider, null if it is not captured
+     */
+    public static Source fromProvider(String provider) {
+      for (Source source : SOURCES) {
+        if (source.provider.equals(provider)) {
+          return source;
+        }
+      }
+      return null;
+    }
+  }
+
+  private final String sessionId;
+  private final long startTimeMillis;
+  private final long startElapsedRealtimeNanos;
+  private final Map<Source, File> files = new EnumMap<>(Source.class);
+  private final Map<Source, GpxFileWriter> writers = new EnumMap<>(Source.class);
+  private final Map<Source, HandlerThread> threads = new EnumMap<>(Source.class);
+
+  /**
+   * Constructor to create a MultiSourceCapture, the session starts now
+   *
+   * @param sessionId the id shared by the files of the session
+   */
+  public MultiSourceCapture(String sessionId) {
+    this.sessionId = sessionId;
+    this.startTimeMillis = System.currentTimeMillis();
+    this.startElapsedRealtimeNanos = SystemClock.elapsedRealtimeNanos();
+  }
+
+  /**
+   * Create the file name of a source
+   *
+   * @param sessionId the id of the session
+   * @param source the source
+   * @return the file name, without extension
+   */
+  public static String createFileName(String sessionId, Source source) {
+    return sessionId + "_" + source.getProvider();
+  }
+
+  /**
+   * Add a source to the session and start its looper thread. The sources are all added before the
+   * location updates are requested.
+   *
+   * @param source the source
+   * @param file the capture file of the source
+   * @param writer the writer of the capture file, already open
+   */
+  public void addSource(Source source, File file, GpxFileWriter writer) {
+    HandlerThread thread =
+        new HandlerThread("capture-" + source.getProvider(), Process.THREAD_PRIORITY_FOREGROUND);
+    thread.start();
+    files.put(source, file);
+    writers.put(source, writer);
+    threads.put(source, thread);
+  }
+
+  /**
+   * @param source the source
+   * @return the looper the location callbacks of the source run on
+   */
+  public Looper getLooper(Source source) {
+    HandlerThread thread = threads.get(source);
+    return thread != null ? thread.getLooper() : Looper.getMainLooper();
+  }
+
+  /**
+   * Get the writer of the fixes of a provider, called on the looper of the source
+   *
+   * @param provider the provider of the location fix
+   * @return the writer of the source of the provider, null if it is not captured
+   */
+  public GpxFileWriter getWriter(String provider) {
+    Source source = Source.fromProvider(provider);
+    return source != null ? writers.get(source) : null;
+  }
+
+  /** @return the writers of all the sources */
+  public List<GpxFileWriter> getWriters() {
+    return new ArrayList<>(writers.values());
+  }
+
+  /** @return the id shared by the files of the session */
+  public String getSessionId() {
+    return sessionId;
+  }
+
+  /**
+   * Write the manifest of the session into the folder, with one line per key
+   *
+   * @param folder the folder of the capture files
+   * @return the manifest file
+   * @throws IOException if the manifest could not be written
+   */
+  public File writeManifest(File folder) throws IOException {
+    File manifest = new File(folder, sessionId + MANIFEST_EXTENSION);
+    try (Writer writer =
+        new OutputStreamWriter(new FileOutputStream(manifest), StandardCharsets.UTF_8)) {
+      writer.write("session=" + sessionId + "\n");
+      writer.write("start_time_millis=" + startTimeMillis + "\n");
+      writer.write("start_elapsed_realtime_nanos=" + startElapsedRealtimeNanos + "\n");
+      for (Map.Entry<Source, File> entry : files.entrySet()) {
+        writer.write(
+            "source." + entry.getKey().getProvider() + "=" + entry.getValue().getName() + "\n");
+      }
+    }
+    return manifest;
+  }
+
+  /** Stop the looper threads of the sources, the callbacks already queued are still delivered */
+  public void quit() {
+    for (HandlerThread thread : threads.values()) {
+      thread.quitSafely();
+    }
+    threads.clear();
+    Log.d(TAG, "Stopped the sources of session " + sessionId);
+  }
+}
@@ -0,0 +1,120 @@
+package com.google.sharedlibrary.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with fixed power of two buckets in microseconds: bucket 0 counts the
+ * latencies under 1 us, bucket i the ones from 2^(i-1) us up to 2^i us, and the last bucket all the
+ * longer ones, over 17 minutes.
+ *
+ * <p>Recording a latency only increments counters, nothing is allocated, so it can be done for
+ * every fix on the capture threads. Latencies may be recorded and read from any thread, the
+ * percentiles are approximated by the upper bound of their bucket.
+ */
+public class LatencyHistogram {
+  public static final int BUCKETS = 32;
+  private static final long NANOS_PER_MICRO = 1000;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Record a latency, a negative one is counted as 0
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    buckets.incrementAndGet(getBucket(nanos));
+    count.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    long max;
+    while (nanos > (max = maxNanos.get())) {
+      if (maxNanos.compareAndSet(max, nanos)) {
+        break;
+      }
+    }
+  }
+
+  /** @return the bucket of the latency in nanoseconds */
+  static int getBucket(long nanos) {
+    long micros = nanos / NANOS_PER_MICRO;
+    return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+  }
+
+  /**
+   * @param bucket the index of the bucket
+   * @return the latency in nanoseconds the bucket counts up to, Long.MAX_VALUE for the last one
+   */
+  public static long getUpperBoundNanos(int bucket) {
+    return bucket < BUCKETS - 1 ? (1L << bucket) * NANOS_PER_MICRO : Long.MAX_VALUE;
+  }
+
+  /**
+   * @param bucket the index of the bucket
+   * @return the number of latencies counted in the bucket
+   */
+  public long getBucketCount(int bucket) {
+    return buckets.get(bucket);
+  }
+
+  /** @return the number of latencies recorded */
+  public long getCount() {
+    return count.get();
+  }
+
+  /** @return the average latency in nanoseconds, 0 if none is recorded */
+  public double getMeanNanos() {
+    long samples = count.get();
+    return samples == 0 ? 0 : (double) totalNanos.get() / samples;
+  }
+
+  /** @return the longest latency in nanoseconds */
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  /**
+   * Approximate a percentile of the latencies by the upper bound of the bucket it falls in, never
+   * more than the longest latency
+   *
+   * @param percentile the percentile, from 0 to 100
+   * @return the latency in nanoseconds, 0 if none is recorded
+   */
+  public long getPercentileNanos(double percentile) {
+    long samples = count.get();
+    if (samples == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * samples));
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += buckets.get(bucket);
+      if (seen >= rank) {
+        return Math.min(getUpperBoundNanos(bucket), getMaxNanos());
+      }
+    }
+    return getMaxNanos();
+  }
+
+  @Override
+  public String toString() {
+    return "count: "
+        + getCount()
+        + " mean us: "
+        + (long) getMeanNanos() / NANOS_PER_MICRO
+        + " p50 us: "
+        + getPercentileNanos(50) / NANOS_PER_MICRO
+        + " p90 us: "
+        + getPercentileNanos(90) / NANOS_PER_MICRO
+        + " p99 us: "
+        + getPercentileNanos(99) / NANOS_PER_MICRO
+        + " max us: "
+        + getMaxNanos() / NANOS_PER_MICRO;
+  }
+}
@@ -0,0 +1,136 @@
+package com.google.sharedlibrary.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Thread-safe encoder of UTC timestamps with millisecond precision, like {@code
+ * 2020-07-12T00:02:36.000Z}. It replaces a shared SimpleDateFormat, which is not thread-safe.
+ *
+ * <p>The {@code yyyy-MM-ddTHH:mm:} prefix is rendered once per minute and cached in an immutable
+ * object, so encoding a timestamp of the same minute only writes the seconds and millis into the
+ * buffer. Any thread can use the same encoder.
+ */
+public class UtcTimestampEncoder {
+  /** Number of bytes of an encoded timestamp */
+  public static final int LENGTH = 24;
+
+  /** Encoder of the gpx time, yyyy-MM-dd'T'HH:mm:ss.SSS'Z' */
+  public static final UtcTimestampEncoder ISO_8601 = new UtcTimestampEncoder(':', '.');
+
+  /** Encoder of the gpx file names, yyyy-MM-dd'T'HH-mm-ss-SSS'Z' */
+  public static final UtcTimestampEncoder FILE_NAME = new UtcTimestampEncoder('-', '-');
+
+  private static final int PREFIX_LENGTH = 17;
+  private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+  private static final long MINUTES_PER_DAY = 24 * 60L;
+
+  private final byte timeSeparator;
+  private final byte millisSeparator;
+  private volatile Minute cachedMinute = new Minute(Long.MIN_VALUE, null);
+
+  /**
+   * @param timeSeparator separator between hours, minutes and seconds
+   * @param millisSeparator separator between seconds and millis
+   */
+  public UtcTimestampEncoder(char timeSeparator, char millisSeparator) {
+    this.timeSeparator = (byte) timeSeparator;
+    this.millisSeparator = (byte) millisSeparator;
+  }
+
+  /**
+   * Encode the timestamp as ASCII into the buffer
+   *
+   * @param timeMillis milliseconds since epoch, of a year between 0 and 9999
+   * @param buffer the buffer to write to, with at least {@link #LENGTH} bytes from offset
+   * @param offset index of the buffer to write the first byte to
+   * @return the number of bytes written, always {@link #LENGTH}
+   */
+  public int encode(long timeMillis, byte[] buffer, int offset) {
+    long epochMinute = Math.floorDiv(timeMillis, MILLIS_PER_MINUTE);
+    int millisOfMinute = (int) Math.floorMod(timeMillis, MILLIS_PER_MINUTE);
+
+    Minute minute = cachedMinute;
+    if (minute.epochMinute != epochMinute) {
+      // only allocates once per minute, racing threads render the same prefix
+      minute = new Minute(epochMinute, renderPrefix(epochMinute));
+      cachedMinute = minute;
+    }
+    System.arraycopy(minute.prefix, 0, buffer, offset, PREFIX_LENGTH);
+
+    int position = offset + PREFIX_LENGTH;
+    int seconds = millisOfMinute / 1000;
+    int millis = millisOfMinute % 1000;
+    buffer[position++] = (byte) ('0' + seconds / 10);
+    buffer[position++] = (byte) ('0' + seconds % 10);
+    buffer[position++] = millisSeparator;
+    buffer[position++] = (byte) ('0' + millis / 100);
+    buffer[position++] = (byte) ('0' + millis / 10 % 10);
+    buffer[position++] = (byte) ('0' + millis % 10);
+    buffer[position] = 'Z';
+    return LENGTH;
+  }
+
+  /**
+   * Format the timestamp as a String, for the callers which are not on a hot path
+   *
+   * @param timeMillis milliseconds since epoch
+   * @return the formatted timestamp
+   */
+  public String format(long timeMillis) {
+    byte[] buffer = new byte[LENGTH];
+    encode(timeMillis, buffer, 0);
+    return new String(buffer, StandardCharsets.US_ASCII);
+  }
+
+  /** Render the yyyy-MM-ddTHH:mm: prefix of the minute */
+  private byte[] renderPrefix(long epochMinute) {
+    long epochDay = Math.floorDiv(epochMinute, MINUTES_PER_DAY);
+    int minuteOfDay = (int) Math.floorMod(epochMinute, MINUTES_PER_DAY);
+
+    // civil date from the days since epoch, see http://howardhinnant.github.io/date_algorithms.html
+    long shiftedDay = epochDay + 719468;
+    long era = Math.floorDiv(shiftedDay, 146097);
+    int dayOfEra = (int) (shiftedDay - era * 146097);
+    int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    int shiftedMonth = (5 * dayOfYear + 2) / 153;
+    int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+    int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    if (year < 0 || year > 9999) {
+      throw new IllegalArgumentException("Year " + year + " can not be encoded.");
+    }
+
+    byte[] prefix = new byte[PREFIX_LENGTH];
+    writeDigits(prefix, 0, (int) year, 4);
+    prefix[4] = '-';
+    writeDigits(prefix, 5, month, 2);
+    prefix[7] = '-';
+    writeDigits(prefix, 8, day, 2);
+    prefix[10] = 'T';
+    writeDigits(prefix, 11, minuteOfDay / 60, 2);
+    prefix[13] = timeSeparator;
+    writeDigits(prefix, 14, minuteOfDay % 60, 2);
+    prefix[16] = timeSeparator;
+    return prefix;
+  }
+
+  /** Write the value with the given number of digits, padded with leading zeros */
+  private static void writeDigits(byte[] buffer, int offset, int value, int digits) {
+    for (int i = offset + digits - 1; i >= offset; i--) {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+
+  /** Immutable prefix of a minute, published to other threads through a volatile field */
+  private static class Minute {
+    private final long epochMinute;
+    private final byte[] prefix;
+
+    private Minute(long epochMinute, byte[] prefix) {
+      this.epochMinute = epochMinute;
+      this.prefix = prefix;
+    }
+  }
+}
@@ -11,6 +11,11 @@ import android.widget.Toast;
 
 import androidx.core.app.ActivityCompat;
 
+import com.google.sharedlibrary.gpxfile.FlushPolicy;
+import com.google.sharedlibrary.gpxfile.GpxFileWriter.JournalMode;
+import com.google.sharedlibrary.gpxfile.GpxFileWriter.OutputFormat;
+import com.google.sharedlibrary.gpxfile.GpxFileWriter.OverflowPolicy;
+import com.google.sharedlibrary.gpxfile.RollingPolicy;
 import com.google.sharedlibrary.service.GpsDataCaptureService;
 
 /** This Utils class wraps all the utility functions */
@@ -25,7 +30,8 @@ public class Utils {
 
   public enum LocationApiType {
     FUSEDLOCATIONPROVIDERCLIENT,
-    LOCATIONMANAGER
+    LOCATIONMANAGER,
+    MULTISOURCE
   }
 
   /** Request for all necessary permissions if not granted */
@@ -120,6 +126,101 @@ public class Utils {
         gpsDataCaptureService.setLocationApiType(locationApiType);
       }
 
+      // Extra the multi-source mode, capturing the gps, network and fused providers together
+      if (intent.hasExtra("multi_source")) {
+        boolean isMultiSource = intent.getBooleanExtra("multi_source", false);
+        Log.d(TAG, "multi_source: " + isMultiSource);
+
+        if (isMultiSource) {
+          gpsDataCaptureService.setLocationApiType(LocationApiType.MULTISOURCE);
+        }
+      }
+
+      // Extra the flush policy of the gpx file
+      if (intent.hasExtra("flush_points") || intent.hasExtra("flush_interval_ms")) {
+        FlushPolicy flushPolicy =
+            new FlushPolicy(
+                intent.getIntExtra("flush_points", FlushPolicy.DEFAULT.getMaxPoints()),
+                intent.getLongExtra(
+                    "flush_interval_ms", FlushPolicy.DEFAULT.getMaxIntervalMillis()));
+        Log.d(TAG, flushPolicy.toString());
+
+        gpsDataCaptureService.setFlushPolicy(flushPolicy);
+      }
+
+      // Extra the rolling policy of the capture session, a session is a single file without it
+      if (intent.hasExtra("rolling_bytes") || intent.hasExtra("rolling_duration_ms")) {
+        RollingPolicy rollingPolicy =
+            new RollingPolicy(
+                intent.getLongExtra("rolling_bytes", RollingPolicy.DEFAULT.getMaxBytes()),
+                intent.getLongExtra(
+                    "rolling_duration_ms", RollingPolicy.DEFAULT.getMaxDurationMillis()));
+        Log.d(TAG, rollingPolicy.toString());
+
+        gpsDataCaptureService.setRollingPolicy(rollingPolicy);
+      }
+
+      // Extra the overflow policy of the gpx file
+      if (intent.hasExtra("overflow_policy")) {
+        try {
+          OverflowPolicy overflowPolicy =
+              OverflowPolicy.valueOf(intent.getStringExtra("overflow_policy"));
+          Log.d(TAG, "OverflowPolicy: " + overflowPolicy);
+
+          gpsDataCaptureService.setOverflowPolicy(overflowPolicy);
+        } catch (IllegalArgumentException | NullPointerException e) {
+          Log.e(TAG, "Invalid overflow_policy: " + intent.getStringExtra("overflow_policy"));
+        }
+      }
+
+      // Extra the output format of the capture file
+      if (intent.hasExtra("output_format")) {
+        try {
+          OutputFormat outputFormat = OutputFormat.valueOf(intent.getStringExtra("output_format"));
+          Log.d(TAG, "OutputFormat: " + outputFormat);
+
+          gpsDataCaptureService.setOutputFormat(outputFormat);
+        } catch (IllegalArgumentException | NullPointerException e) {
+          Log.e(TAG, "Invalid output_format: " + intent.getStringExtra("output_format"));
+        }
+      }
+
+      // Extra whether to compress the capture file
+      if (intent.hasExtra("compress")) {
+        boolean isCompressed = intent.getBooleanExtra("compress", false);
+        Log.d(TAG, "compress: " + isCompressed);
+
+        gpsDataCaptureService.setCompressed(isCompressed);
+      }
+
+      // Extra how the capture journal is written
+      if (intent.hasExtra("journal_mode")) {
+        try {
+          JournalMode journalMode = JournalMode.valueOf(intent.getStringExtra("journal_mode"));
+          Log.d(TAG, "JournalMode: " + journalMode);
+
+          gpsDataCaptureService.setJournalMode(journalMode);
+        } catch (IllegalArgumentException | NullPointerException e) {
+          Log.e(TAG, "Invalid journal_mode: " + intent.getStringExtra("journal_mode"));
+        }
+      }
+
+      // Extra whether to record the raw gnss measurements
+      if (intent.hasExtra("raw_measurements")) {
+        boolean isRawMeasurementCaptureEnabled = intent.getBooleanExtra("raw_measurements", false);
+        Log.d(TAG, "raw_measurements: " + isRawMeasurementCaptureEnabled);
+
+        gpsDataCaptureService.setRawMeasurementCapture(isRawMeasurementCaptureEnabled);
+      }
+
+      // Extra whether to log the NMEA sentences
+      if (intent.hasExtra("nmea")) {
+        boolean isNmeaCaptureEnabled = intent.getBooleanExtra("nmea", false);
+        Log.d(TAG, "nmea: " + isNmeaCaptureEnabled);
+
+        gpsDataCaptureService.setNmeaCapture(isNmeaCaptureEnabled);
+      }
+
       // Start capture via intent
       gpsDataCaptureService.startCapture();
 
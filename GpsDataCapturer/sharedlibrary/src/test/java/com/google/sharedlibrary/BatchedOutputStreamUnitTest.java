@@ -0,0 +1,153 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.sharedlibrary.gpxfile.BatchedOutputStream;
+import com.google.sharedlibrary.gpxfile.FlushPolicy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class BatchedOutputStreamUnitTest {
+  private static final byte[] POINT = "<trkpt></trkpt>\n".getBytes(StandardCharsets.UTF_8);
+  private ByteArrayOutputStream out;
+
+  @Before
+  public void setUp() {
+    out = new ByteArrayOutputStream();
+  }
+
+  @Test
+  public void testFlushEveryNPoints() throws IOException {
+    BatchedOutputStream stream = new BatchedOutputStream(out, 1024, new FlushPolicy(3, 0));
+
+    for (int i = 0; i < 2; i++) {
+      stream.write(POINT);
+      stream.endRecord();
+    }
+    assertEquals(0, out.size());
+    assertEquals(0, stream.getFlushCount());
+
+    stream.write(POINT);
+    stream.endRecord();
+    assertEquals(3 * POINT.length, out.size());
+    assertEquals(1, stream.getFlushCount());
+    assertEquals(3.0, stream.getPointsPerFlush(), 0.0);
+    assertEquals(3.0 * POINT.length, stream.getBytesPerFlush(), 0.0);
+  }
+
+  @Test
+  public void testFlushEveryPoint() throws IOException {
+    BatchedOutputStream stream = new BatchedOutputStream(out, 1024, FlushPolicy.EVERY_POINT);
+
+    stream.write(POINT);
+    stream.endRecord();
+    assertEquals(POINT.length, out.size());
+    assertEquals(1, stream.getFlushCount());
+  }
+
+  @Test
+  public void testExplicitFlushBarrier() throws IOException {
+    BatchedOutputStream stream = new BatchedOutputStream(out, 1024, new FlushPolicy(0, 0));
+
+    for (int i = 0; i < 5; i++) {
+      stream.write(POINT);
+      stream.endRecord();
+    }
+    assertEquals(0, out.size());
+
+    stream.flush();
+    assertEquals(5 * POINT.length, out.size());
+    assertEquals(1, stream.getFlushCount());
+    assertEquals(5.0, stream.getPointsPerFlush(), 0.0);
+  }
+
+  @Test
+  public void testEmptyFlushIsNotCounted() throws IOException {
+    BatchedOutputStream stream = new BatchedOutputStream(out, 1024, new FlushPolicy(0, 0));
+
+    stream.flush();
+    assertEquals(0, stream.getFlushCount());
+
+    stream.write(POINT);
+    stream.endRecord();
+    stream.flush();
+    stream.flush();
+    assertEquals(1, stream.getFlushCount());
+    assertEquals(1.0, stream.getPointsPerFlush(), 0.0);
+    assertEquals(POINT.length, stream.getBytesPerFlush(), 0.0);
+  }
+
+  @Test
+  public void testTimeUntilIntervalFlush() throws IOException {
+    BatchedOutputStream stream = new BatchedOutputStream(out, 1024, new FlushPolicy(0, 60000));
+    assertEquals(-1, stream.getNanosUntilIntervalFlush());
+
+    stream.write(POINT);
+    stream.endRecord();
+    long nanosUntilFlush = stream.getNanosUntilIntervalFlush();
+    assertTrue(nanosUntilFlush > 0);
+    assertTrue(nanosUntilFlush <= TimeUnit.MINUTES.toNanos(1));
+
+    stream.flush();
+    assertEquals(-1, stream.getNanosUntilIntervalFlush());
+  }
+
+  @Test
+  public void testNoIntervalFlushWithoutInterval() throws IOException {
+    BatchedOutputStream stream = new BatchedOutputStream(out, 1024, new FlushPolicy(3, 0));
+
+    stream.write(POINT);
+    stream.endRecord();
+    assertEquals(-1, stream.getNanosUntilIntervalFlush());
+  }
+
+  @Test
+  public void testFullBufferIsWrittenThrough() throws IOException {
+    BatchedOutputStream stream =
+        new BatchedOutputStream(out, POINT.length + 1, new FlushPolicy(0, 0));
+
+    stream.write(POINT);
+    stream.endRecord();
+    stream.write(POINT);
+    stream.endRecord();
+    assertEquals(POINT.length, out.size());
+
+    stream.close();
+    assertEquals(2 * POINT.length, out.size());
+    assertEquals(2 * POINT.length, stream.getFlushedBytes());
+  }
+
+  @Test
+  public void testSwitchTo() throws IOException {
+    BatchedOutputStream stream = new BatchedOutputStream(out, 1024, new FlushPolicy(0, 0));
+    ByteArrayOutputStream next = new ByteArrayOutputStream();
+
+    stream.write(POINT);
+    stream.endRecord();
+    stream.switchTo(next);
+    stream.write(POINT);
+    stream.endRecord();
+    stream.close();
+
+    // the buffered point is committed to the first stream before switching
+    assertEquals(POINT.length, out.size());
+    assertEquals(POINT.length, next.size());
+    assertEquals(2, stream.getFlushedPoints());
+  }
+
+  @After
+  public void tearDown() {
+    out = null;
+  }
+}
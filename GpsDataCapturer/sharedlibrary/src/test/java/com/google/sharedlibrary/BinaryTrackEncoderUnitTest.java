@@ -0,0 +1,179 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.google.sharedlibrary.gpxfile.BinaryTrackConverter;
+import com.google.sharedlibrary.gpxfile.BinaryTrackEncoder;
+import com.google.sharedlibrary.gpxfile.DeviceMetadata;
+import com.google.sharedlibrary.gpxfile.GpxTrackEncoder;
+import com.google.sharedlibrary.gpxfile.TrackEncoder;
+import com.google.sharedlibrary.gpxfile.TrackPoint;
+import com.google.sharedlibrary.model.SatelliteSignalData;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class BinaryTrackEncoderUnitTest {
+  private static final long START_TIME = 1594512150000L;
+  private static final long END_TIME = 1594512160000L;
+  private static final int RECORD_SIZE = 72;
+
+  private DeviceMetadata metadata;
+  private TrackPoint trackPoint;
+  private SatelliteSignalData signalData;
+  @Mock private Location location;
+
+  @Before
+  public void setUp() {
+    ShadowLog.stream = System.out;
+    metadata = new DeviceMetadata(3, "watch", "QQ1A", "Google", "Pixel Watch");
+    trackPoint = new TrackPoint();
+    signalData = new SatelliteSignalData(new float[] {20.375f, 36.156f, 33.945f, 29.188f}, 4);
+    mockLocation();
+  }
+
+  /** Mock the location of the first track point */
+  private void mockLocation() {
+    location = mock(Location.class);
+    when(location.getTime()).thenReturn(1594512156000L);
+    when(location.getElapsedRealtimeNanos()).thenReturn(86400000000000L);
+    when(location.getLatitude()).thenReturn(37.422);
+    when(location.getLongitude()).thenReturn(-122.084);
+    when(location.hasAltitude()).thenReturn(true);
+    when(location.getAltitude()).thenReturn(12.5);
+    when(location.hasSpeed()).thenReturn(true);
+    when(location.getSpeed()).thenReturn(1.25f);
+    when(location.hasAccuracy()).thenReturn(true);
+    when(location.getAccuracy()).thenReturn(5.0f);
+    when(location.getProvider()).thenReturn("gps");
+    Bundle extras = mock(Bundle.class);
+    when(extras.getInt("satellites", 0)).thenReturn(8);
+    when(location.getExtras()).thenReturn(extras);
+  }
+
+  /** Write a session of two track points with the encoder, with or without footer */
+  private byte[] writeSession(TrackEncoder encoder, boolean withFooter) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    int length = encoder.encodeHeader(START_TIME, metadata);
+    outputStream.write(encoder.getBuffer(), 0, length);
+
+    mockLocation();
+    trackPoint.set(location, signalData);
+    trackPoint.sampleClock(1594512156020L);
+    length = encoder.encode(trackPoint);
+    outputStream.write(encoder.getBuffer(), 0, length);
+    when(location.getTime()).thenReturn(1594512157000L);
+    when(location.getElapsedRealtimeNanos()).thenReturn(86401000250000L);
+    when(location.hasAltitude()).thenReturn(false);
+    when(location.getExtras()).thenReturn(null);
+    trackPoint.set(location, signalData);
+    length = encoder.encode(trackPoint);
+    outputStream.write(encoder.getBuffer(), 0, length);
+
+    if (withFooter) {
+      length = encoder.encodeFooter(END_TIME);
+      outputStream.write(encoder.getBuffer(), 0, length);
+    }
+    return outputStream.toByteArray();
+  }
+
+  @Test
+  public void testEncodeFixedWidthRecord() {
+    BinaryTrackEncoder encoder = new BinaryTrackEncoder();
+    trackPoint.set(location, signalData);
+    trackPoint.sampleClock(1594512156020L);
+
+    assertEquals(RECORD_SIZE, encoder.encode(trackPoint));
+    ByteBuffer record = ByteBuffer.wrap(encoder.getBuffer()).order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals(1594512156000L, record.getLong(4));
+    assertEquals(374220000, record.getInt(12));
+    assertEquals(-1220840000, record.getInt(16));
+    assertEquals(8, record.get(2));
+    assertEquals(36.156f, record.getFloat(32), 0.0f);
+    assertEquals(86400000000000L, record.getLong(48));
+    assertEquals(trackPoint.getReceivedRealtimeNanos(), record.getLong(56));
+    assertEquals(1594512156020L, record.getLong(64));
+  }
+
+  @Test
+  public void testEncodeHeader() {
+    BinaryTrackEncoder encoder = new BinaryTrackEncoder();
+    int length = encoder.encodeHeader(START_TIME, metadata);
+
+    String header = new String(encoder.getBuffer(), 0, length, StandardCharsets.UTF_8);
+    assertTrue(header.startsWith("WTRK"));
+    assertTrue(header.endsWith("Pixel Watch"));
+  }
+
+  @Test
+  public void testConvertToGpx() throws Exception {
+    byte[] binary = writeSession(new BinaryTrackEncoder(), true);
+    byte[] gpx = writeSession(new GpxTrackEncoder(UtcTimestampEncoder.ISO_8601), true);
+
+    ByteArrayOutputStream converted = new ByteArrayOutputStream();
+    assertEquals(2, BinaryTrackConverter.convertToGpx(new ByteArrayInputStream(binary), converted));
+    assertEquals(
+        new String(gpx, StandardCharsets.UTF_8),
+        new String(converted.toByteArray(), StandardCharsets.UTF_8));
+    assertTrue(new String(gpx, StandardCharsets.UTF_8).startsWith("<?xml version='1.0'"));
+    assertTrue(new String(gpx, StandardCharsets.UTF_8).contains("<wallClockMillis>"));
+    assertTrue(binary.length * 4 < gpx.length);
+  }
+
+  @Test
+  public void testConvertSessionWithoutFooter() throws Exception {
+    byte[] binary = writeSession(new BinaryTrackEncoder(), false);
+    // the last record is cut in the middle, like after a crash
+    byte[] truncated = Arrays.copyOf(binary, binary.length - RECORD_SIZE / 2);
+
+    ByteArrayOutputStream converted = new ByteArrayOutputStream();
+    assertEquals(
+        1, BinaryTrackConverter.convertToGpx(new ByteArrayInputStream(truncated), converted));
+    String gpx = new String(converted.toByteArray(), StandardCharsets.UTF_8);
+    assertTrue(gpx.endsWith("</trkseg>\n</trk>\n<time>2020-07-12T00:02:36.000Z</time>\n</gpx>"));
+  }
+
+  @Test
+  public void testConvertRejectsOtherFiles() {
+    byte[] gpx = writeSession(new GpxTrackEncoder(UtcTimestampEncoder.ISO_8601), true);
+    try {
+      BinaryTrackConverter.convertToGpx(new ByteArrayInputStream(gpx), new ByteArrayOutputStream());
+      fail("A gpx file should not be converted.");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @After
+  public void tearDown() {
+    metadata = null;
+    trackPoint = null;
+    signalData = null;
+    location = null;
+  }
+}
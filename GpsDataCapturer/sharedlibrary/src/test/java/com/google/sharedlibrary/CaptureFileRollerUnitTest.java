@@ -0,0 +1,122 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import android.location.Location;
+import android.os.Build;
+
+import com.google.sharedlibrary.gpxfile.CaptureFileRoller;
+import com.google.sharedlibrary.gpxfile.GpxFileWriter;
+import com.google.sharedlibrary.gpxfile.RollingPolicy;
+import com.google.sharedlibrary.model.SatelliteSignalData;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class CaptureFileRollerUnitTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File gpxFile;
+  private SatelliteSignalData signalData;
+
+  @Before
+  public void setUp() throws Exception {
+    ShadowLog.stream = System.out;
+    gpxFile = temporaryFolder.newFile("gpxfile.xml");
+    signalData = new SatelliteSignalData();
+  }
+
+  private String readFile(File file) throws Exception {
+    return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+  }
+
+  /** Count the track points of the gpx file content */
+  private int countTrackPoints(String content) {
+    return content.split("<trkpt ", -1).length - 1;
+  }
+
+  @Test
+  public void testPartFile() {
+    assertEquals(gpxFile, CaptureFileRoller.getPartFile(gpxFile, 0));
+    assertEquals(
+        new File(gpxFile.getParentFile(), "gpxfile_2.xml"),
+        CaptureFileRoller.getPartFile(gpxFile, 2));
+    assertEquals(
+        "2020-07-12T00-02-30-000Z_1.xml.gz",
+        CaptureFileRoller.getPartFile(new File("2020-07-12T00-02-30-000Z.xml.gz"), 1).getName());
+  }
+
+  @Test
+  public void testEveryPartIsComplete() throws Exception {
+    GpxFileWriter gpxFileWriter = new GpxFileWriter(UtcTimestampEncoder.ISO_8601, gpxFile, true);
+    // roll after every track point
+    gpxFileWriter.setRollingPolicy(new RollingPolicy(1, 0));
+    gpxFileWriter.openFile();
+    gpxFileWriter.writeFileAnnotation(true);
+    for (int i = 0; i < 3; i++) {
+      gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+    }
+    gpxFileWriter.writeFileAnnotation(false);
+    assertTrue(gpxFileWriter.close(5, TimeUnit.SECONDS));
+
+    // the last roll leaves a part without track points
+    assertEquals(4, gpxFileWriter.getPartCount());
+    int trackPoints = 0;
+    for (int i = 0; i < 4; i++) {
+      String content = readFile(CaptureFileRoller.getPartFile(gpxFile, i));
+      assertTrue(content.startsWith("<?xml version='1.0'"));
+      assertTrue(content.endsWith("</gpx>"));
+      trackPoints += countTrackPoints(content);
+    }
+    assertEquals(3, trackPoints);
+
+    List<String> manifest =
+        CaptureFileRoller.readManifest(CaptureFileRoller.getManifestFile(gpxFile));
+    assertEquals(4, manifest.size());
+    assertEquals("gpxfile.xml\t1", manifest.get(0));
+    assertEquals("gpxfile_1.xml\t1", manifest.get(1));
+    assertEquals("gpxfile_2.xml\t1", manifest.get(2));
+    assertEquals("gpxfile_3.xml\t0", manifest.get(3));
+  }
+
+  @Test
+  public void testNeverRoll() throws Exception {
+    GpxFileWriter gpxFileWriter = new GpxFileWriter(UtcTimestampEncoder.ISO_8601, gpxFile, true);
+    gpxFileWriter.openFile();
+    gpxFileWriter.writeFileAnnotation(true);
+    for (int i = 0; i < 3; i++) {
+      gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+    }
+    gpxFileWriter.writeFileAnnotation(false);
+    assertTrue(gpxFileWriter.close(5, TimeUnit.SECONDS));
+
+    assertEquals(1, gpxFileWriter.getPartCount());
+    assertEquals(3, countTrackPoints(readFile(gpxFile)));
+    assertFalse(CaptureFileRoller.getManifestFile(gpxFile).exists());
+  }
+
+  @After
+  public void tearDown() {
+    gpxFile = null;
+    signalData = null;
+  }
+}
@@ -0,0 +1,353 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.location.Location;
+import android.os.Build;
+
+import com.google.sharedlibrary.gpxfile.BinaryTrackConverter;
+import com.google.sharedlibrary.gpxfile.BinaryTrackEncoder;
+import com.google.sharedlibrary.gpxfile.CaptureFileRoller;
+import com.google.sharedlibrary.gpxfile.CaptureJournal;
+import com.google.sharedlibrary.gpxfile.DeviceMetadata;
+import com.google.sharedlibrary.gpxfile.GpxFileWriter;
+import com.google.sharedlibrary.gpxfile.GpxFileWriter.OutputFormat;
+import com.google.sharedlibrary.gpxfile.GpxTrackEncoder;
+import com.google.sharedlibrary.gpxfile.MappedSegmentOutputStream;
+import com.google.sharedlibrary.gpxfile.RollingPolicy;
+import com.google.sharedlibrary.gpxfile.TrackPoint;
+import com.google.sharedlibrary.model.SatelliteSignalData;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class CaptureJournalUnitTest {
+  private static final long START_TIME = 1594512150000L;
+  private static final DeviceMetadata METADATA =
+      new DeviceMetadata(3, "watch", "QQ1A", "Google", "Pixel Watch");
+  private static final int BINARY_RECORD_SIZE = 72;
+  // the frame header, the binary record and the sequence number of a track point
+  private static final int RECORD_SIZE = 8 + BINARY_RECORD_SIZE + 8;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File captureFile;
+  private TrackPoint trackPoint;
+  private SatelliteSignalData signalData;
+  @Mock private Location location;
+
+  @Before
+  public void setUp() throws Exception {
+    ShadowLog.stream = System.out;
+    captureFile = temporaryFolder.newFile("gpxfile.xml");
+    trackPoint = new TrackPoint();
+    signalData = new SatelliteSignalData();
+    location = mock(Location.class);
+    when(location.getProvider()).thenReturn("gps");
+  }
+
+  /** Write a journal of the given number of track points, one second apart */
+  private File writeJournal(int trackPoints) throws Exception {
+    return writeJournal(trackPoints, 0);
+  }
+
+  /** Write a journal of the given number of track points to segments of the given size */
+  private File writeJournal(int trackPoints, int segmentSize) throws Exception {
+    CaptureJournal journal = openJournal(segmentSize);
+    for (int i = 1; i <= trackPoints; i++) {
+      journal.append(setTrackPoint(i));
+    }
+    journal.close();
+    return CaptureJournal.getJournalFile(captureFile);
+  }
+
+  private CaptureJournal openJournal(int segmentSize) throws Exception {
+    CaptureJournal journal = new CaptureJournal(captureFile, segmentSize);
+    journal.open(OutputFormat.GPX, false, START_TIME, METADATA);
+    return journal;
+  }
+
+  /** @return the track point of the given second of the session */
+  private TrackPoint setTrackPoint(int second) {
+    when(location.getTime()).thenReturn(START_TIME + 1000L * second);
+    when(location.getLatitude()).thenReturn(37.4219983123456 + second);
+    trackPoint.set(location, signalData);
+    return trackPoint;
+  }
+
+  private String readCaptureFile() throws Exception {
+    return new String(Files.readAllBytes(captureFile.toPath()), StandardCharsets.UTF_8);
+  }
+
+  /** Count the track points of the gpx file content */
+  private int countTrackPoints(String content) {
+    return content.split("<trkpt ", -1).length - 1;
+  }
+
+  @Test
+  public void testRecover() throws Exception {
+    File journalFile = writeJournal(3);
+
+    assertEquals(1, CaptureJournal.recover(temporaryFolder.getRoot()));
+    String content = readCaptureFile();
+    assertEquals(3, countTrackPoints(content));
+    assertTrue(content.startsWith("<?xml version='1.0'"));
+    assertTrue(content.contains("<model>Pixel Watch</model>"));
+    assertTrue(content.endsWith("<time>2020-07-12T00:02:33.000Z</time>\n</gpx>"));
+    assertFalse(journalFile.exists());
+  }
+
+  @Test
+  public void testRecoverTornRecord() throws Exception {
+    File journalFile = writeJournal(3);
+    // the process died in the middle of the last record
+    try (RandomAccessFile journal = new RandomAccessFile(journalFile, "rw")) {
+      journal.setLength(journal.length() - RECORD_SIZE / 2);
+    }
+
+    assertEquals(1, CaptureJournal.recover(temporaryFolder.getRoot()));
+    String content = readCaptureFile();
+    assertEquals(2, countTrackPoints(content));
+    assertTrue(content.endsWith("<time>2020-07-12T00:02:32.000Z</time>\n</gpx>"));
+  }
+
+  @Test
+  public void testRecoverStopsAtCorruptRecord() throws Exception {
+    File journalFile = writeJournal(3);
+    // corrupt the payload of the second track point
+    try (RandomAccessFile journal = new RandomAccessFile(journalFile, "rw")) {
+      long offset = journal.length() - 2 * RECORD_SIZE + 20;
+      journal.seek(offset);
+      int b = journal.read();
+      journal.seek(offset);
+      journal.write(b ^ 0xff);
+    }
+
+    assertEquals(1, CaptureJournal.recover(temporaryFolder.getRoot()));
+    assertEquals(1, countTrackPoints(readCaptureFile()));
+  }
+
+  @Test
+  public void testRecoverKeepsTheWrittenTrackPoints() throws Exception {
+    File journalFile = writeJournal(4);
+    // the writer wrote the header, two track points and half of the third one before the crash
+    GpxTrackEncoder encoder = new GpxTrackEncoder(UtcTimestampEncoder.ISO_8601);
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    int length = encoder.encodeHeader(START_TIME, METADATA);
+    written.write(encoder.getBuffer(), 0, length);
+    for (int i = 1; i <= 2; i++) {
+      length = encoder.encode(setTrackPoint(i));
+      written.write(encoder.getBuffer(), 0, length);
+    }
+    byte[] complete = written.toByteArray();
+    length = encoder.encode(setTrackPoint(3));
+    written.write(encoder.getBuffer(), 0, length / 2);
+    Files.write(captureFile.toPath(), written.toByteArray());
+
+    assertEquals(1, CaptureJournal.recover(temporaryFolder.getRoot()));
+    String content = readCaptureFile();
+    // the complete track points are kept as written, the others are appended from the journal
+    assertTrue(content.startsWith(new String(complete, StandardCharsets.UTF_8)));
+    assertEquals(4, countTrackPoints(content));
+    assertTrue(content.endsWith("<time>2020-07-12T00:02:34.000Z</time>\n</gpx>"));
+    assertFalse(journalFile.exists());
+  }
+
+  @Test
+  public void testDroppedTrackPointIsNotRecovered() throws Exception {
+    CaptureJournal journal = openJournal(0);
+    journal.append(setTrackPoint(1));
+    long dropped = journal.append(setTrackPoint(2));
+    journal.append(setTrackPoint(3));
+    journal.appendDropped(dropped);
+    journal.appendRejected();
+    journal.close();
+
+    assertEquals(1, CaptureJournal.recover(temporaryFolder.getRoot()));
+    String content = readCaptureFile();
+    assertEquals(2, countTrackPoints(content));
+    assertFalse(content.contains("T00:02:32.000Z"));
+  }
+
+  @Test
+  public void testRecoverCompressedFile() throws Exception {
+    File compressedFile = temporaryFolder.newFile("gpxfile.xml.gz");
+    GpxFileWriter gpxFileWriter =
+        new GpxFileWriter(UtcTimestampEncoder.ISO_8601, compressedFile, true);
+    gpxFileWriter.setCompressed(true);
+    gpxFileWriter.openFile();
+    gpxFileWriter.writeFileAnnotation(true);
+    for (int i = 1; i <= 5; i++) {
+      gpxFileWriter.writeGpsData(location, signalData);
+    }
+    gpxFileWriter.flush().get(5, TimeUnit.SECONDS);
+
+    assertEquals(1, CaptureJournal.recover(temporaryFolder.getRoot()));
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    try (InputStream input = new GZIPInputStream(new FileInputStream(compressedFile))) {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = input.read(buffer)) > 0) {
+        content.write(buffer, 0, read);
+      }
+    }
+    String gpx = new String(content.toByteArray(), StandardCharsets.UTF_8);
+    assertEquals(5, countTrackPoints(gpx));
+    assertTrue(gpx.endsWith("</gpx>"));
+  }
+
+  @Test
+  public void testRecoverMappedSegments() throws Exception {
+    // the first segment holds the header record and 3 track points
+    File journalFile = writeJournal(12, 4 * RECORD_SIZE);
+    File firstSegment = MappedSegmentOutputStream.getSegmentFile(journalFile, 0);
+    File lastSegment = MappedSegmentOutputStream.getSegmentFile(journalFile, 3);
+    assertFalse(journalFile.exists());
+    assertTrue(lastSegment.exists());
+    // full segments keep their size, the last one is trimmed when the journal is closed
+    assertEquals(4 * RECORD_SIZE, firstSegment.length());
+    assertEquals(RECORD_SIZE, lastSegment.length());
+
+    assertEquals(1, CaptureJournal.recover(temporaryFolder.getRoot()));
+    String content = readCaptureFile();
+    assertEquals(12, countTrackPoints(content));
+    assertTrue(content.startsWith("<?xml version='1.0'"));
+    assertTrue(content.endsWith("<time>2020-07-12T00:02:42.000Z</time>\n</gpx>"));
+    assertFalse(firstSegment.exists());
+    assertFalse(lastSegment.exists());
+  }
+
+  @Test
+  public void testRecoverUntrimmedMappedSegment() throws Exception {
+    File journalFile = writeJournal(3, 4 * RECORD_SIZE);
+    // the process died before trimming, the rest of the last segment is zero padding
+    File lastSegment = MappedSegmentOutputStream.getSegmentFile(journalFile, 1);
+    try (RandomAccessFile segment = new RandomAccessFile(lastSegment, "rw")) {
+      segment.setLength(4 * RECORD_SIZE);
+    }
+
+    assertEquals(1, CaptureJournal.recover(temporaryFolder.getRoot()));
+    assertEquals(3, countTrackPoints(readCaptureFile()));
+    assertFalse(lastSegment.exists());
+  }
+
+  @Test
+  public void testRecoverInterruptedWriter() throws Exception {
+    GpxFileWriter gpxFileWriter =
+        new GpxFileWriter(UtcTimestampEncoder.ISO_8601, captureFile, true);
+    gpxFileWriter.openFile();
+    gpxFileWriter.writeFileAnnotation(true);
+    for (int i = 0; i < 5; i++) {
+      gpxFileWriter.writeGpsData(location, signalData);
+    }
+    gpxFileWriter.flush().get(5, TimeUnit.SECONDS);
+    // the session is never stopped, the footer is missing
+    assertFalse(readCaptureFile().endsWith("</gpx>"));
+
+    assertEquals(1, CaptureJournal.recover(temporaryFolder.getRoot()));
+    String content = readCaptureFile();
+    assertEquals(5, countTrackPoints(content));
+    assertTrue(content.endsWith("</gpx>"));
+  }
+
+  @Test
+  public void testRecoverRollingSession() throws Exception {
+    File binaryFile = temporaryFolder.newFile("gpxfile.trk");
+    int headerLength = new BinaryTrackEncoder().encodeHeader(0, DeviceMetadata.fromBuild());
+    GpxFileWriter gpxFileWriter = new GpxFileWriter(UtcTimestampEncoder.ISO_8601, binaryFile, true);
+    gpxFileWriter.setOutputFormat(OutputFormat.BINARY);
+    // roll after every second track point
+    gpxFileWriter.setRollingPolicy(new RollingPolicy(headerLength + 2 * BINARY_RECORD_SIZE, 0));
+    gpxFileWriter.openFile();
+    gpxFileWriter.writeFileAnnotation(true);
+    for (int i = 1; i <= 5; i++) {
+      when(location.getTime()).thenReturn(START_TIME + 1000L * i);
+      gpxFileWriter.writeGpsData(location, signalData);
+    }
+    gpxFileWriter.flush().get(5, TimeUnit.SECONDS);
+    // the session is never stopped, the third part is unfinished
+    assertEquals(3, gpxFileWriter.getPartCount());
+
+    assertEquals(1, CaptureJournal.recover(temporaryFolder.getRoot()));
+    List<String> manifest =
+        CaptureFileRoller.readManifest(CaptureFileRoller.getManifestFile(binaryFile));
+    assertEquals(3, manifest.size());
+    assertEquals("gpxfile_2.trk\t1", manifest.get(2));
+    for (int i = 0; i < 3; i++) {
+      assertEquals(
+          i < 2 ? 2 : 1,
+          BinaryTrackConverter.convertToGpx(
+              CaptureFileRoller.getPartFile(binaryFile, i), temporaryFolder.newFile()));
+    }
+  }
+
+  @Test
+  public void testRecoverColumnarFile() throws Exception {
+    File columnarFile = temporaryFolder.newFile("gpxfile.trc");
+    GpxFileWriter gpxFileWriter =
+        new GpxFileWriter(UtcTimestampEncoder.ISO_8601, columnarFile, true);
+    gpxFileWriter.setOutputFormat(OutputFormat.COLUMNAR);
+    gpxFileWriter.openFile();
+    gpxFileWriter.writeFileAnnotation(true);
+    // a full block of 128 track points is written, the last 2 are still in the encoder
+    for (int i = 1; i <= 130; i++) {
+      when(location.getTime()).thenReturn(START_TIME + 1000L * i);
+      gpxFileWriter.writeGpsData(location, signalData);
+      if (i % 32 == 0) {
+        gpxFileWriter.flush().get(5, TimeUnit.SECONDS);
+      }
+    }
+    gpxFileWriter.flush().get(5, TimeUnit.SECONDS);
+
+    assertEquals(1, CaptureJournal.recover(temporaryFolder.getRoot()));
+    assertEquals(130, BinaryTrackConverter.convertToGpx(columnarFile, temporaryFolder.newFile()));
+  }
+
+  @Test
+  public void testStoppedSessionIsNotRecovered() throws Exception {
+    GpxFileWriter gpxFileWriter =
+        new GpxFileWriter(UtcTimestampEncoder.ISO_8601, captureFile, true);
+    gpxFileWriter.openFile();
+    gpxFileWriter.writeFileAnnotation(true);
+    gpxFileWriter.writeGpsData(location, signalData);
+    gpxFileWriter.writeFileAnnotation(false);
+    assertTrue(gpxFileWriter.close(5, TimeUnit.SECONDS));
+
+    assertFalse(CaptureJournal.getJournalFile(captureFile).exists());
+    assertEquals(0, CaptureJournal.recover(temporaryFolder.getRoot()));
+  }
+
+  @After
+  public void tearDown() {
+    captureFile = null;
+    trackPoint = null;
+    signalData = null;
+    location = null;
+  }
+}
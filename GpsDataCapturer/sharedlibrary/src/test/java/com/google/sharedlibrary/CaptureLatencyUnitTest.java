@@ -0,0 +1,166 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.google.sharedlibrary.gpxfile.BatchedOutputStream;
+import com.google.sharedlibrary.gpxfile.CaptureLatency;
+import com.google.sharedlibrary.gpxfile.CaptureLatency.Stage;
+import com.google.sharedlibrary.gpxfile.FlushPolicy;
+import com.google.sharedlibrary.gpxfile.GpxFileWriter;
+import com.google.sharedlibrary.model.SatelliteSignalData;
+import com.google.sharedlibrary.utils.LatencyHistogram;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class CaptureLatencyUnitTest {
+  private static final byte[] POINT = "<trkpt></trkpt>\n".getBytes(StandardCharsets.UTF_8);
+  private static final long MICROS = 1000;
+  private static final int MAX_MEASURED_POINTS = 256;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private CaptureLatency latency;
+
+  @Before
+  public void setUp() {
+    ShadowLog.stream = System.out;
+    latency = new CaptureLatency();
+  }
+
+  @Test
+  public void testHistogramBuckets() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(0);
+    histogram.record(500);
+    histogram.record(MICROS);
+    histogram.record(3 * MICROS);
+    histogram.record(1000 * MICROS);
+    // a clock going backwards is counted as no latency
+    histogram.record(-MICROS);
+
+    assertEquals(6, histogram.getCount());
+    assertEquals(3, histogram.getBucketCount(0));
+    assertEquals(1, histogram.getBucketCount(1));
+    assertEquals(1, histogram.getBucketCount(2));
+    assertEquals(1, histogram.getBucketCount(10));
+    assertEquals(1000 * MICROS, histogram.getMaxNanos());
+    assertEquals((500 + 1004 * MICROS) / 6.0, histogram.getMeanNanos(), 0.001);
+    // the percentiles are the upper bounds of their buckets
+    assertEquals(MICROS, histogram.getPercentileNanos(50));
+    assertEquals(4 * MICROS, histogram.getPercentileNanos(80));
+    assertEquals(1000 * MICROS, histogram.getPercentileNanos(99));
+    assertEquals(Long.MAX_VALUE, LatencyHistogram.getUpperBoundNanos(LatencyHistogram.BUCKETS - 1));
+  }
+
+  @Test
+  public void testLongLatenciesGoToTheLastBucket() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(TimeUnit.HOURS.toNanos(1));
+
+    assertEquals(1, histogram.getBucketCount(LatencyHistogram.BUCKETS - 1));
+    assertEquals(TimeUnit.HOURS.toNanos(1), histogram.getPercentileNanos(50));
+  }
+
+  @Test
+  public void testFlushRecordsTheCommittedPoints() throws Exception {
+    BatchedOutputStream stream =
+        new BatchedOutputStream(new ByteArrayOutputStream(), 1024, new FlushPolicy(3, 0));
+    stream.setCaptureLatency(latency);
+    long now = CaptureLatency.now();
+
+    stream.write(POINT);
+    stream.endRecord(now - 5000 * MICROS, now);
+    stream.write(POINT);
+    // the fix time is unknown, only its flush is measured
+    stream.endRecord(0, now);
+    assertEquals(0, latency.getHistogram(Stage.FLUSH).getCount());
+
+    stream.write(POINT);
+    stream.endRecord(now - 5000 * MICROS, now);
+    assertEquals(3, latency.getHistogram(Stage.FLUSH).getCount());
+    assertEquals(2, latency.getHistogram(Stage.END_TO_END).getCount());
+    assertTrue(latency.getHistogram(Stage.END_TO_END).getMaxNanos() >= 5000 * MICROS);
+  }
+
+  @Test
+  public void testLargeBatchesAreMeasuredUpToTheLimit() throws Exception {
+    // the points are only committed on an explicit flush
+    BatchedOutputStream stream =
+        new BatchedOutputStream(new ByteArrayOutputStream(), 1024, new FlushPolicy(0, 0));
+    stream.setCaptureLatency(latency);
+    long now = CaptureLatency.now();
+    for (int i = 0; i < MAX_MEASURED_POINTS + 10; i++) {
+      stream.write(POINT);
+      stream.endRecord(now, now);
+    }
+
+    stream.flush();
+    assertEquals(MAX_MEASURED_POINTS, latency.getHistogram(Stage.FLUSH).getCount());
+    assertEquals(MAX_MEASURED_POINTS + 10, stream.getFlushedPoints());
+  }
+
+  @Test
+  public void testEveryStageOfTheWriterIsMeasured() throws Exception {
+    GpxFileWriter writer =
+        new GpxFileWriter(
+            UtcTimestampEncoder.ISO_8601, temporaryFolder.newFile("gpxfile.xml"), true);
+    writer.setCaptureLatency(latency);
+    writer.openFile();
+    writer.writeFileAnnotation(true);
+    for (int i = 0; i < 3; i++) {
+      Location location = mock(Location.class);
+      when(location.getElapsedRealtimeNanos()).thenReturn(SystemClock.elapsedRealtimeNanos());
+      writer.writeGpsData(location, new SatelliteSignalData(), CaptureLatency.now());
+    }
+    writer.writeFileAnnotation(false);
+    assertTrue(writer.close(5, TimeUnit.SECONDS));
+
+    for (Stage stage : Stage.values()) {
+      assertEquals(stage.getKey(), 3, latency.getHistogram(stage).getCount());
+    }
+  }
+
+  @Test
+  public void testWriteTo() throws Exception {
+    latency.record(Stage.QUEUE, 3 * MICROS);
+    StringWriter writer = new StringWriter();
+    latency.writeTo(writer);
+
+    String[] lines = writer.toString().split("\n");
+    assertEquals(7 * Stage.values().length, lines.length);
+    assertEquals("latency.delivery.count=0", lines[0]);
+    assertEquals("latency.queue.count=1", lines[14]);
+    assertEquals("latency.queue.p50_us=3", lines[16]);
+    assertEquals("latency.queue.max_us=3", lines[19]);
+    assertEquals(LatencyHistogram.BUCKETS, lines[20].split(",").length);
+    assertTrue(lines[20].startsWith("latency.queue.buckets=0,0,1,0"));
+  }
+
+  @After
+  public void tearDown() {
+    latency = null;
+  }
+}
@@ -0,0 +1,150 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.sharedlibrary.gpxfile.CaptureScheduler;
+import com.google.sharedlibrary.gpxfile.CaptureScheduler.Lane;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class CaptureSchedulerUnitTest {
+  private CaptureScheduler scheduler;
+  private CountDownLatch releaseThread;
+
+  @Before
+  public void setUp() {
+    scheduler = new CaptureScheduler(1);
+    releaseThread = new CountDownLatch(1);
+  }
+
+  /** Occupy the only I/O thread until it is released */
+  private void blockThread(Lane lane) throws Exception {
+    CountDownLatch threadBlocked = new CountDownLatch(1);
+    lane.execute(
+        () -> {
+          threadBlocked.countDown();
+          try {
+            releaseThread.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    threadBlocked.await();
+  }
+
+  @Test
+  public void testTasksOfLaneRunInOrder() throws Exception {
+    Lane lane = scheduler.newLane(100);
+    List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < 50; i++) {
+      final int task = i;
+      lane.execute(() -> order.add(task));
+    }
+
+    assertTrue(lane.awaitTermination(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 50; i++) {
+      assertEquals(i, (int) order.get(i));
+    }
+  }
+
+  @Test
+  public void testLanesTakeTurns() throws Exception {
+    Lane busyLane = scheduler.newLane(100);
+    Lane otherLane = scheduler.newLane(100);
+    blockThread(busyLane);
+    AtomicInteger busyTasks = new AtomicInteger();
+    for (int i = 0; i < 64; i++) {
+      busyLane.execute(busyTasks::incrementAndGet);
+    }
+    AtomicInteger busyTasksBeforeOther = new AtomicInteger(-1);
+    otherLane.execute(() -> busyTasksBeforeOther.set(busyTasks.get()));
+
+    releaseThread.countDown();
+    assertTrue(busyLane.awaitTermination(5, TimeUnit.SECONDS));
+    assertTrue(otherLane.awaitTermination(5, TimeUnit.SECONDS));
+    // the other lane runs after a batch of the busy lane, not after all of it
+    assertTrue(busyTasksBeforeOther.get() < 64);
+    assertEquals(64, busyTasks.get());
+  }
+
+  @Test
+  public void testThreadCountIsFixed() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      Lane lane = scheduler.newLane(10);
+      lane.execute(() -> {});
+      assertTrue(lane.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    assertEquals(1, scheduler.getThreadCount());
+  }
+
+  @Test
+  public void testAwaitTerminationTimesOut() throws Exception {
+    Lane lane = scheduler.newLane(10);
+    blockThread(lane);
+
+    assertFalse(lane.awaitTermination(50, TimeUnit.MILLISECONDS));
+    releaseThread.countDown();
+    assertTrue(lane.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testTimerDoesNotWaitForAFullLane() throws Exception {
+    CaptureScheduler twoThreadScheduler = new CaptureScheduler(2);
+    try {
+      Lane fullLane = twoThreadScheduler.newLane(1);
+      Lane otherLane = twoThreadScheduler.newLane(1);
+      blockThread(fullLane);
+      fullLane.execute(() -> {});
+      AtomicInteger delayedTasks = new AtomicInteger();
+      Runnable delayedTask = delayedTasks::incrementAndGet;
+      fullLane.schedule(delayedTask, 0, TimeUnit.MILLISECONDS);
+      fullLane.schedule(delayedTask, 0, TimeUnit.MILLISECONDS);
+      CountDownLatch otherTaskRun = new CountDownLatch(1);
+      otherLane.schedule(otherTaskRun::countDown, 10, TimeUnit.MILLISECONDS);
+
+      // the delayed task of the other lane runs while the full lane is still blocked
+      assertTrue(otherTaskRun.await(5, TimeUnit.SECONDS));
+      releaseThread.countDown();
+      assertTrue(fullLane.awaitTermination(5, TimeUnit.SECONDS));
+      // the delayed task queued twice while the lane was full runs once
+      assertEquals(1, delayedTasks.get());
+    } finally {
+      twoThreadScheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void testShutdownLaneCancelsNewTasks() throws Exception {
+    Lane lane = scheduler.newLane(10);
+    lane.shutdown();
+    FutureTask<Void> task = new FutureTask<>(() -> {}, null);
+    lane.execute(task);
+
+    assertTrue(task.isCancelled());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    releaseThread.countDown();
+    scheduler.shutdown();
+    scheduler.awaitTermination(5, TimeUnit.SECONDS);
+    scheduler = null;
+    releaseThread = null;
+  }
+}
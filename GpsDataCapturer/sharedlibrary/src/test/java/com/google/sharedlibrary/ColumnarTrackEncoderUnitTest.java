@@ -0,0 +1,141 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.google.sharedlibrary.gpxfile.BinaryTrackConverter;
+import com.google.sharedlibrary.gpxfile.ColumnarTrackEncoder;
+import com.google.sharedlibrary.gpxfile.DeviceMetadata;
+import com.google.sharedlibrary.gpxfile.GpxTrackEncoder;
+import com.google.sharedlibrary.gpxfile.TrackEncoder;
+import com.google.sharedlibrary.gpxfile.TrackPoint;
+import com.google.sharedlibrary.model.SatelliteSignalData;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class ColumnarTrackEncoderUnitTest {
+  private static final long START_TIME = 1594512150000L;
+  private static final int BLOCK_SIZE = 128;
+  private static final int POINTS = 300;
+
+  private DeviceMetadata metadata;
+  private TrackPoint trackPoint;
+  @Mock private Location location;
+
+  @Before
+  public void setUp() {
+    ShadowLog.stream = System.out;
+    metadata = new DeviceMetadata(3, "watch", "QQ1A", "Google", "Pixel Watch");
+    trackPoint = new TrackPoint();
+    location = mock(Location.class);
+    when(location.hasAltitude()).thenReturn(true);
+    when(location.hasSpeed()).thenReturn(true);
+    when(location.hasAccuracy()).thenReturn(true);
+    when(location.getProvider()).thenReturn("gps");
+  }
+
+  /** Copy the i-th fix of a walk at 1 Hz into the track point */
+  private void setTrackPoint(int i) {
+    when(location.getTime()).thenReturn(START_TIME + 1000L * i);
+    when(location.getLatitude()).thenReturn((374220000 + 130 * i + i % 3) / 1e7);
+    when(location.getLongitude()).thenReturn((-1220840000 - 90 * i) / 1e7);
+    when(location.getAltitude()).thenReturn(12.5 + (i % 7) * 0.25);
+    when(location.getSpeed()).thenReturn(1.25f + (i % 4) * 0.5f);
+    when(location.getAccuracy()).thenReturn(3.0f + i % 2);
+    // the fixes are received a few milliseconds after their elapsed realtime
+    when(location.getElapsedRealtimeNanos())
+        .thenReturn(SystemClock.elapsedRealtimeNanos() - 1000000L * (2 + i % 4));
+    SatelliteSignalData signalData =
+        new SatelliteSignalData(new float[] {20.375f, 36.156f, 33.945f + i % 3, 29.188f}, 4);
+    trackPoint.set(location, signalData);
+    if (i % 10 == 0) {
+      trackPoint.sampleClock(START_TIME + 1000L * i + 20);
+    }
+  }
+
+  /** Write a session of POINTS track points with the encoder, with or without footer */
+  private byte[] writeSession(TrackEncoder encoder, boolean withFooter) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    int length = encoder.encodeHeader(START_TIME, metadata);
+    outputStream.write(encoder.getBuffer(), 0, length);
+    for (int i = 0; i < POINTS; i++) {
+      setTrackPoint(i);
+      length = encoder.encode(trackPoint);
+      outputStream.write(encoder.getBuffer(), 0, length);
+    }
+    if (withFooter) {
+      long endTime = START_TIME + 1000L * POINTS;
+      length = encoder.encodeFooter(endTime);
+      outputStream.write(encoder.getBuffer(), 0, length);
+    }
+    return outputStream.toByteArray();
+  }
+
+  @Test
+  public void testEncodeWritesFullBlocksOnly() {
+    ColumnarTrackEncoder encoder = new ColumnarTrackEncoder();
+    encoder.encodeHeader(START_TIME, metadata);
+
+    for (int i = 0; i < BLOCK_SIZE - 1; i++) {
+      setTrackPoint(i);
+      assertEquals(0, encoder.encode(trackPoint));
+    }
+    setTrackPoint(BLOCK_SIZE - 1);
+    assertTrue(encoder.encode(trackPoint) > 0);
+  }
+
+  @Test
+  public void testConvertToGpx() throws Exception {
+    byte[] columnar = writeSession(new ColumnarTrackEncoder(), true);
+    byte[] gpx = writeSession(new GpxTrackEncoder(UtcTimestampEncoder.ISO_8601), true);
+
+    ByteArrayOutputStream converted = new ByteArrayOutputStream();
+    assertEquals(
+        POINTS, BinaryTrackConverter.convertToGpx(new ByteArrayInputStream(columnar), converted));
+    assertEquals(
+        new String(gpx, StandardCharsets.UTF_8),
+        new String(converted.toByteArray(), StandardCharsets.UTF_8));
+    assertTrue(new String(gpx, StandardCharsets.UTF_8).startsWith("<?xml version='1.0'"));
+    assertTrue(new String(gpx, StandardCharsets.UTF_8).contains("<wallClockMillis>"));
+    assertTrue(columnar.length * 10 < gpx.length);
+  }
+
+  @Test
+  public void testConvertSessionWithoutFooter() throws Exception {
+    byte[] columnar = writeSession(new ColumnarTrackEncoder(), false);
+
+    ByteArrayOutputStream converted = new ByteArrayOutputStream();
+    assertEquals(
+        POINTS / BLOCK_SIZE * BLOCK_SIZE,
+        BinaryTrackConverter.convertToGpx(new ByteArrayInputStream(columnar), converted));
+    String gpx = new String(converted.toByteArray(), StandardCharsets.UTF_8);
+    assertTrue(gpx.endsWith("<time>2020-07-12T00:06:45.000Z</time>\n</gpx>"));
+  }
+
+  @After
+  public void tearDown() {
+    metadata = null;
+    trackPoint = null;
+    location = null;
+  }
+}
@@ -0,0 +1,139 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.location.GnssClock;
+import android.location.GnssMeasurement;
+import android.location.GnssMeasurementsEvent;
+import android.location.GnssStatus;
+import android.os.Build;
+
+import com.google.sharedlibrary.gpxfile.GnssMeasurementWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class GnssMeasurementWriterUnitTest {
+  private static final int RECORD_SIZE = 64;
+  private static final long TIME_NANOS = 123456789L;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File file;
+  private GnssMeasurementWriter writer;
+  private GnssMeasurementsEvent event;
+
+  @Before
+  public void setUp() throws IOException {
+    ShadowLog.stream = System.out;
+    file = temporaryFolder.newFile("capture" + GnssMeasurementWriter.FILE_EXTENSION);
+    writer = new GnssMeasurementWriter(file, null);
+    event = createEvent();
+  }
+
+  /** Create a measurements event of two satellite signals, the api has no public constructor */
+  private static GnssMeasurementsEvent createEvent() {
+    GnssClock clock = ReflectionHelpers.callConstructor(GnssClock.class);
+    ReflectionHelpers.callInstanceMethod(
+        clock, "setTimeNanos", ClassParameter.from(long.class, TIME_NANOS));
+    GnssMeasurement[] measurements = {
+      createMeasurement(GnssStatus.CONSTELLATION_GPS, 12, 35.5),
+      createMeasurement(GnssStatus.CONSTELLATION_GALILEO, 7, 28.25)
+    };
+    return ReflectionHelpers.callConstructor(
+        GnssMeasurementsEvent.class,
+        ClassParameter.from(GnssClock.class, clock),
+        ClassParameter.from(GnssMeasurement[].class, measurements));
+  }
+
+  private static GnssMeasurement createMeasurement(int constellationType, int svid, double cn0) {
+    GnssMeasurement measurement = ReflectionHelpers.callConstructor(GnssMeasurement.class);
+    ReflectionHelpers.callInstanceMethod(
+        measurement, "setConstellationType", ClassParameter.from(int.class, constellationType));
+    ReflectionHelpers.callInstanceMethod(
+        measurement, "setSvid", ClassParameter.from(int.class, svid));
+    ReflectionHelpers.callInstanceMethod(
+        measurement, "setCn0DbHz", ClassParameter.from(double.class, cn0));
+    return measurement;
+  }
+
+  @Test
+  public void testWriteMeasurements() throws Exception {
+    writer.openFile();
+    writer.writeMeasurements(event);
+    writer.writeMeasurements(event);
+    assertTrue(writer.close(5, TimeUnit.SECONDS));
+
+    assertEquals(2, writer.getWrittenRecords());
+    assertEquals(4, writer.getWrittenMeasurements());
+    assertEquals(0, writer.getDroppedRecords());
+
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    assertEquals("WGNS", new String(bytes, 0, 4, StandardCharsets.US_ASCII));
+
+    // the records follow the header: two events of a clock and two measurements, then the footer
+    ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    int records = 2 * 3 + 1;
+    int offset = bytes.length - records * RECORD_SIZE;
+    assertTrue(offset > 0);
+    for (int i = 0; i < 2; i++) {
+      int clock = offset + i * 3 * RECORD_SIZE;
+      assertEquals(1, buffer.get(clock));
+      assertEquals(2, buffer.getShort(clock + 2));
+      assertEquals(TIME_NANOS, buffer.getLong(clock + 8));
+
+      int gps = clock + RECORD_SIZE;
+      assertEquals(2, buffer.get(gps));
+      assertEquals(GnssStatus.CONSTELLATION_GPS, buffer.get(gps + 1));
+      assertEquals(12, buffer.get(gps + 2));
+      assertEquals(35.5f, buffer.getFloat(gps + 32), 0.0f);
+
+      int galileo = gps + RECORD_SIZE;
+      assertEquals(GnssStatus.CONSTELLATION_GALILEO, buffer.get(galileo + 1));
+      assertEquals(7, buffer.get(galileo + 2));
+      assertEquals(28.25f, buffer.getFloat(galileo + 32), 0.0f);
+    }
+    assertEquals(3, buffer.get(bytes.length - RECORD_SIZE));
+    assertTrue(buffer.getLong(bytes.length - RECORD_SIZE + 8) > 0);
+  }
+
+  @Test
+  public void testNoMeasurementIsWrittenAfterClose() throws Exception {
+    writer.openFile();
+    assertTrue(writer.close(5, TimeUnit.SECONDS));
+    writer.writeMeasurements(event);
+
+    assertEquals(0, writer.getWrittenRecords());
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    // only the header and the footer
+    assertTrue(bytes.length > RECORD_SIZE);
+    assertEquals(3, bytes[bytes.length - RECORD_SIZE]);
+  }
+
+  @After
+  public void tearDown() {
+    file = null;
+    writer = null;
+    event = null;
+  }
+}
@@ -0,0 +1,83 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+
+import android.location.GnssStatus;
+
+import com.google.sharedlibrary.model.GnssStatusSnapshot;
+import com.google.sharedlibrary.model.SatelliteSignalData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GnssStatusSnapshotUnitTest {
+  private GnssStatusSnapshot snapshot;
+
+  @Before
+  public void setUp() {
+    snapshot = new GnssStatusSnapshot(SatelliteSignalData.TOP_SIGNALS);
+  }
+
+  /** Add the satellites of a status with 3 gps, 2 galileo and 1 glonass satellites */
+  private void addSatellites() {
+    snapshot.reset();
+    snapshot.addSatellite(GnssStatus.CONSTELLATION_GPS, 40f, true);
+    snapshot.addSatellite(GnssStatus.CONSTELLATION_GPS, 30f, true);
+    snapshot.addSatellite(GnssStatus.CONSTELLATION_GPS, 12f, false);
+    snapshot.addSatellite(GnssStatus.CONSTELLATION_GALILEO, 35f, true);
+    snapshot.addSatellite(GnssStatus.CONSTELLATION_GALILEO, 25f, true);
+    snapshot.addSatellite(GnssStatus.CONSTELLATION_GLONASS, 20f, true);
+  }
+
+  @Test
+  public void testCountsAndStatistics() {
+    addSatellites();
+
+    assertEquals(6, snapshot.getSatellitesVisible());
+    assertEquals(5, snapshot.getSatellitesUsedInFix());
+    assertEquals(3, snapshot.getSatellitesVisible(GnssStatus.CONSTELLATION_GPS));
+    assertEquals(2, snapshot.getSatellitesUsedInFix(GnssStatus.CONSTELLATION_GPS));
+    assertEquals(2, snapshot.getSatellitesUsedInFix(GnssStatus.CONSTELLATION_GALILEO));
+    assertEquals(0, snapshot.getSatellitesVisible(GnssStatus.CONSTELLATION_BEIDOU));
+    assertEquals(35f, snapshot.getAverageUsedCn0DbHz(GnssStatus.CONSTELLATION_GPS), 0.0f);
+    assertEquals(30f, snapshot.getAverageUsedCn0DbHz(), 0.0f);
+    assertEquals(27f, snapshot.getAverageVisibleCn0DbHz(), 0.0f);
+    assertEquals(20f, snapshot.getMinUsedCn0DbHz(), 0.0f);
+    assertEquals(40f, snapshot.getMaxUsedCn0DbHz(), 0.0f);
+  }
+
+  @Test
+  public void testSignalDataKeepsTheStrongestUsedSatellites() {
+    addSatellites();
+
+    SatelliteSignalData signalData = snapshot.toSignalData();
+    assertEquals(4, signalData.getSignalCount());
+    assertEquals(40f, signalData.getFirstSignal(), 0.0f);
+    assertEquals(35f, signalData.getSecondSignal(), 0.0f);
+    assertEquals(30f, signalData.getThirdSignal(), 0.0f);
+    assertEquals(25f, signalData.getForthSignal(), 0.0f);
+  }
+
+  @Test
+  public void testResetClearsTheSnapshot() {
+    addSatellites();
+    snapshot.reset();
+    snapshot.addSatellite(GnssStatus.CONSTELLATION_GPS, 18f, false);
+
+    assertEquals(1, snapshot.getSatellitesVisible());
+    assertEquals(0, snapshot.getSatellitesUsedInFix());
+    assertEquals(0, snapshot.getSatellitesUsedInFix(GnssStatus.CONSTELLATION_GALILEO));
+    assertEquals(0f, snapshot.getAverageUsedCn0DbHz(), 0.0f);
+    assertEquals(0f, snapshot.getMaxUsedCn0DbHz(), 0.0f);
+    assertEquals(0, snapshot.toSignalData().getSignalCount());
+  }
+
+  @After
+  public void tearDown() {
+    snapshot = null;
+  }
+}
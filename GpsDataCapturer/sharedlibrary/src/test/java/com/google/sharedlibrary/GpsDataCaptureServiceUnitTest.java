@@ -3,6 +3,7 @@ package com.google.sharedlibrary;
 import static com.google.sharedlibrary.storage.GpxFileFolder.createGpsDataFolder;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -13,6 +14,7 @@ import android.content.Context;
 import android.location.Location;
 import android.location.LocationManager;
 import android.os.Build;
+import android.os.Looper;
 
 import com.google.sharedlibrary.gpxfile.GpxFileWriter;
 import com.google.sharedlibrary.locationhelper.LocationManagerListener;
@@ -37,6 +39,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(sdk = {Build.VERSION_CODES.P})
@@ -73,11 +76,12 @@ public class GpsDataCaptureServiceUnitTest {
     ShadowLog.stream = System.out;
     gpsDataCaptureService.startCapture();
 
+    // the capture journal of the running session is next to its file
     assertNotNull(gpxFileFolder.listFiles());
-    assertEquals(1, gpxFileFolder.listFiles().length);
+    assertEquals(1, listCaptureFiles().length);
     assertEquals(1, shadowLocationManager.getRequestLocationUpdateListeners().size());
 
-    for (File file : gpxFileFolder.listFiles()) {
+    for (File file : listCaptureFiles()) {
       assertNotNull(file);
       assertTrue(file.exists());
       try {
@@ -96,7 +100,20 @@ public class GpsDataCaptureServiceUnitTest {
     }
 
     gpsDataCaptureService.startCapture();
-    assertEquals(2, gpxFileFolder.listFiles().length);
+    assertEquals(2, listCaptureFiles().length);
+  }
+
+  private File[] listCaptureFiles() {
+    return gpxFileFolder.listFiles((dir, name) -> name.endsWith(".xml"));
+  }
+
+  @Test
+  public void testCallbacksRunOnTheCaptureLooper() {
+    assertNotNull(gpsDataCaptureService.getCaptureLooper());
+    assertNotEquals(Looper.getMainLooper(), gpsDataCaptureService.getCaptureLooper());
+
+    gpsDataCaptureService.onDestroy();
+    assertEquals(Looper.getMainLooper(), gpsDataCaptureService.getCaptureLooper());
   }
 
   @Test
@@ -144,10 +161,11 @@ public class GpsDataCaptureServiceUnitTest {
   }
 
   @Test
-  public void testServiceStopCapture() {
+  public void testServiceStopCapture() throws Exception {
     ShadowLog.stream = System.out;
     gpsDataCaptureService.startCapture();
-    gpsDataCaptureService.stopCapture();
+    // the files are closed on the capture thread
+    gpsDataCaptureService.stopCapture().get(5, TimeUnit.SECONDS);
 
     assertNotNull(gpxFileFolder.listFiles());
     assertEquals(1, gpxFileFolder.listFiles().length);
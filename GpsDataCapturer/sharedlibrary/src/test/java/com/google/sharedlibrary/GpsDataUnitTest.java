@@ -5,6 +5,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import android.location.Location;
 
@@ -85,6 +86,27 @@ public class GpsDataUnitTest {
     GpsData gpsData1 = new GpsData(location1);
 
     // Then
+    assertEquals(gpsData.hashCode(), gpsData1.hashCode());
+
+    // When
+    when(location1.getLatitude()).thenReturn(1.0);
+    gpsData1 = new GpsData(location1);
+
+    // Then
+    assertNotEquals(gpsData, gpsData1);
     assertNotEquals(gpsData.hashCode(), gpsData1.hashCode());
   }
+
+  @Test
+  public void testGpsDataFormatting() {
+    // Given
+    gpsData = new GpsData(37.4219983, -122.084, true, 1.25f);
+
+    // Then
+    assertEquals("37.421998", gpsData.getLatitude());
+    assertEquals("-122.084000", gpsData.getLongitude());
+    assertEquals("1.2500", gpsData.getSpeed());
+    assertEquals(37.4219983, gpsData.getLatitudeDegrees(), 0);
+    assertEquals(defaultSpeedFormat, new GpsData(0, 0, false, 1.25f).getSpeed());
+  }
 }
@@ -3,6 +3,7 @@ package com.google.sharedlibrary;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import android.location.Location;
 import android.os.Build;
@@ -17,6 +18,10 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowLog;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(sdk = {Build.VERSION_CODES.P})
@@ -68,6 +73,68 @@ public class GpsInfoViewModelUnitTest {
     assertEquals("8", gpsInfoViewModel.getSatellitesUsedInFix().getValue());
   }
 
+  @Test
+  public void testGpsDataIsConflated() {
+    gpsInfoViewModel.setGpsDataMutableLiveData(mockLocation(1.0));
+    assertEquals("1.000000", gpsInfoViewModel.getGpsDataMutableLiveData().getValue().getLatitude());
+
+    // the fixes within the interval only replace the pending one
+    gpsInfoViewModel.setGpsDataMutableLiveData(mockLocation(2.0));
+    gpsInfoViewModel.setGpsDataMutableLiveData(mockLocation(3.0));
+    assertEquals("1.000000", gpsInfoViewModel.getGpsDataMutableLiveData().getValue().getLatitude());
+
+    ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    assertEquals("3.000000", gpsInfoViewModel.getGpsDataMutableLiveData().getValue().getLatitude());
+  }
+
+  @Test
+  public void testEveryFixIsPublishedWithoutMaxUiRate() {
+    gpsInfoViewModel.setMaxUiRate(0);
+
+    gpsInfoViewModel.setGpsDataMutableLiveData(mockLocation(1.0));
+    gpsInfoViewModel.setGpsDataMutableLiveData(mockLocation(2.0));
+
+    assertEquals("2.000000", gpsInfoViewModel.getGpsDataMutableLiveData().getValue().getLatitude());
+  }
+
+  @Test
+  public void testUnchangedFixIsNotPublishedAgain() {
+    List<GpsData> fixes = new ArrayList<>();
+    gpsInfoViewModel.getGpsDataMutableLiveData().observeForever(fixes::add);
+    gpsInfoViewModel.setMaxUiRate(0);
+
+    gpsInfoViewModel.setGpsDataMutableLiveData(mockLocation(1.0));
+    gpsInfoViewModel.setGpsDataMutableLiveData(mockLocation(1.0));
+    gpsInfoViewModel.setGpsDataMutableLiveData(mockLocation(2.0));
+
+    assertEquals(2, fixes.size());
+    assertEquals("2.000000", fixes.get(1).getLatitude());
+  }
+
+  @Test
+  public void testUnchangedValuesAreSkipped() {
+    List<String> statuses = new ArrayList<>();
+    List<String> satellites = new ArrayList<>();
+    gpsInfoViewModel.getGpsStatusMutableLiveData().observeForever(statuses::add);
+    gpsInfoViewModel.getSatellitesUsedInFix().observeForever(satellites::add);
+
+    gpsInfoViewModel.setGpsStatusMutableLiveData(1);
+    gpsInfoViewModel.setGpsStatusMutableLiveData(1);
+    gpsInfoViewModel.setSatellitesUsedInFix(8);
+    gpsInfoViewModel.setSatellitesUsedInFix(8);
+    gpsInfoViewModel.setSatellitesUsedInFix(-1);
+
+    assertEquals(1, statuses.size());
+    assertEquals(2, satellites.size());
+    assertEquals("UNKNOWN", gpsInfoViewModel.getSatellitesUsedInFix().getValue());
+  }
+
+  private Location mockLocation(double latitude) {
+    Location location = mock(Location.class);
+    when(location.getLatitude()).thenReturn(latitude);
+    return location;
+  }
+
   @After
   public void tearDown() {
     gpsInfoViewModel = null;
@@ -1,26 +1,25 @@
 package com.google.sharedlibrary;
 
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
 import android.os.Build;
 
 import com.google.sharedlibrary.gpxfile.GpxAnnotationHandler;
+import com.google.sharedlibrary.gpxfile.GpxTrackEncoder;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.Mock;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowLog;
 
-import java.io.File;
-import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Locale;
-import java.util.TimeZone;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ThreadPoolExecutor;
 
 @RunWith(RobolectricTestRunner.class)
@@ -28,19 +27,17 @@ import java.util.concurrent.ThreadPoolExecutor;
 public class GpxAnnotationHandlerUnitTest {
   private GpxAnnotationHandler gpxAnnotationHandler;
 
-  @Mock private File gpxFile;
+  private ByteArrayOutputStream outputStream;
+  private GpxTrackEncoder encoder;
 
-  private boolean append = true;
   private boolean isHeader = true;
 
   @Before
   public void setUp() {
     ShadowLog.stream = System.out;
-    Locale locale = new Locale("en", "US");
-    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", locale);
-    sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-    gpxFile = mock(File.class);
-    gpxAnnotationHandler = new GpxAnnotationHandler(sdf, gpxFile, append, isHeader);
+    outputStream = new ByteArrayOutputStream();
+    encoder = new GpxTrackEncoder(UtcTimestampEncoder.ISO_8601);
+    gpxAnnotationHandler = new GpxAnnotationHandler(encoder, outputStream, isHeader);
   }
 
   @Test
@@ -50,9 +47,21 @@ public class GpxAnnotationHandlerUnitTest {
     verify(executor).execute(gpxAnnotationHandler);
   }
 
+  @Test
+  public void testRunWritesHeaderAndFooterToSameStream() {
+    gpxAnnotationHandler.run();
+    new GpxAnnotationHandler(encoder, outputStream, false).run();
+
+    String content = new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    assertTrue(content.startsWith("<?xml version='1.0' encoding='UTF-8' ?>"));
+    assertTrue(content.contains("<trk>\n<trkseg>\n</trkseg>\n</trk>\n<time>"));
+    assertTrue(content.endsWith("</time>\n</gpx>"));
+  }
+
   @After
   public void tearDown() {
-    gpxFile = null;
+    outputStream = null;
+    encoder = null;
     gpxAnnotationHandler = null;
   }
 }
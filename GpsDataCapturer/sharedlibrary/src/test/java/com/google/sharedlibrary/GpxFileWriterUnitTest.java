@@ -0,0 +1,385 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.google.sharedlibrary.gpxfile.CaptureJournal;
+import com.google.sharedlibrary.gpxfile.FlushPolicy;
+import com.google.sharedlibrary.gpxfile.GpxFileWriter;
+import com.google.sharedlibrary.gpxfile.GpxFileWriter.OverflowPolicy;
+import com.google.sharedlibrary.model.SatelliteSignalData;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class GpxFileWriterUnitTest {
+  private static final int RING_CAPACITY = 64;
+  private static final int OVERFLOW = 5;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File gpxFile;
+  private GpxFileWriter gpxFileWriter;
+  private CountDownLatch writerBlocked;
+  private CountDownLatch releaseWriter;
+  private SatelliteSignalData signalData;
+
+  @Before
+  public void setUp() throws Exception {
+    ShadowLog.stream = System.out;
+    writerBlocked = new CountDownLatch(1);
+    releaseWriter = new CountDownLatch(1);
+
+    // the encoder blocks the writer thread on the header until the writer is released
+    AtomicBoolean isFirstEncode = new AtomicBoolean(true);
+    UtcTimestampEncoder timestampEncoder =
+        new UtcTimestampEncoder(':', '.') {
+          @Override
+          public int encode(long timeMillis, byte[] buffer, int offset) {
+            if (isFirstEncode.getAndSet(false)) {
+              writerBlocked.countDown();
+              try {
+                releaseWriter.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            }
+            return super.encode(timeMillis, buffer, offset);
+          }
+        };
+    gpxFile = temporaryFolder.newFile("gpxfile.xml");
+    gpxFileWriter = new GpxFileWriter(timestampEncoder, gpxFile, true);
+    gpxFileWriter.openFile();
+    signalData = new SatelliteSignalData();
+  }
+
+  /** Occupy the writer thread with the header until the writer is released */
+  private void blockWriter() throws Exception {
+    gpxFileWriter.writeFileAnnotation(true);
+    writerBlocked.await();
+  }
+
+  /** Fill the ring buffer and write OVERFLOW more track points than it can hold */
+  private void overflowWriter() throws Exception {
+    blockWriter();
+    for (int i = 0; i < RING_CAPACITY + OVERFLOW; i++) {
+      gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+    }
+  }
+
+  /** Release the writer, close the gpx file and read it back */
+  private String closeAndReadGpxFile() throws Exception {
+    releaseWriter.countDown();
+    gpxFileWriter.writeFileAnnotation(false);
+    assertTrue(gpxFileWriter.close(5, TimeUnit.SECONDS));
+    return new String(Files.readAllBytes(gpxFile.toPath()), StandardCharsets.UTF_8);
+  }
+
+  /** Count the track points of the gpx file content */
+  private int countTrackPoints(String content) {
+    return content.split("<trkpt ", -1).length - 1;
+  }
+
+  @Test
+  public void testDropNewest() throws Exception {
+    gpxFileWriter.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+
+    overflowWriter();
+
+    assertEquals(OVERFLOW, gpxFileWriter.getDroppedPoints());
+    assertEquals(0, gpxFileWriter.getSpilledPoints());
+    assertEquals(RING_CAPACITY, countTrackPoints(closeAndReadGpxFile()));
+  }
+
+  @Test
+  public void testDropOldest() throws Exception {
+    gpxFileWriter.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+
+    overflowWriter();
+
+    assertEquals(OVERFLOW, gpxFileWriter.getDroppedPoints());
+    assertEquals(0, gpxFileWriter.getSpilledPoints());
+    assertEquals(RING_CAPACITY, countTrackPoints(closeAndReadGpxFile()));
+  }
+
+  @Test
+  public void testDroppedPointsAreNotRecovered() throws Exception {
+    gpxFileWriter.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+
+    overflowWriter();
+
+    // the process dies before the writer wrote anything, the queued points are recovered from the
+    // journal without the dropped ones
+    assertEquals(1, CaptureJournal.recover(temporaryFolder.getRoot()));
+    String content = new String(Files.readAllBytes(gpxFile.toPath()), StandardCharsets.UTF_8);
+    assertEquals(RING_CAPACITY, countTrackPoints(content));
+  }
+
+  @Test
+  public void testQueuedPointsAreRecovered() throws Exception {
+    blockWriter();
+    for (int i = 0; i < 3; i++) {
+      gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+    }
+
+    // the points are journaled as soon as they are accepted, before the writer takes them
+    assertEquals(1, CaptureJournal.recover(temporaryFolder.getRoot()));
+    String content = new String(Files.readAllBytes(gpxFile.toPath()), StandardCharsets.UTF_8);
+    assertEquals(3, countTrackPoints(content));
+    assertTrue(content.endsWith("</gpx>"));
+  }
+
+  @Test
+  public void testBlock() throws Exception {
+    gpxFileWriter.setOverflowPolicy(OverflowPolicy.BLOCK);
+    blockWriter();
+
+    // the producer waits until the writer frees a slot instead of dropping the point
+    Thread producer =
+        new Thread(
+            () -> {
+              try {
+                for (int i = 0; i < RING_CAPACITY + OVERFLOW; i++) {
+                  gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+                }
+              } catch (Exception e) {
+                throw new RuntimeException(e);
+              }
+            });
+    producer.start();
+    producer.join(200);
+    assertTrue(producer.isAlive());
+
+    releaseWriter.countDown();
+    producer.join();
+    assertEquals(0, gpxFileWriter.getDroppedPoints());
+    assertEquals(RING_CAPACITY + OVERFLOW, countTrackPoints(closeAndReadGpxFile()));
+  }
+
+  @Test
+  public void testBlockDropsThePointOnceTheWaitTimesOut() throws Exception {
+    gpxFileWriter.setOverflowPolicy(OverflowPolicy.BLOCK);
+    blockWriter();
+    for (int i = 0; i < RING_CAPACITY; i++) {
+      gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+    }
+
+    // the writer stays blocked, the producer gives up instead of waiting forever
+    long startNanos = System.nanoTime();
+    gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+    assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(500));
+    assertEquals(1, gpxFileWriter.getDroppedPoints());
+    assertEquals(RING_CAPACITY, countTrackPoints(closeAndReadGpxFile()));
+  }
+
+  @Test
+  public void testSpill() throws Exception {
+    gpxFileWriter.setOverflowPolicy(OverflowPolicy.SPILL);
+
+    overflowWriter();
+
+    assertEquals(0, gpxFileWriter.getDroppedPoints());
+    assertEquals(OVERFLOW, gpxFileWriter.getSpilledPoints());
+    assertTrue(new File(gpxFile.getPath() + ".spill").exists());
+  }
+
+  @Test
+  public void testFooterIsWrittenAfterAllTrackPoints() throws Exception {
+    blockWriter();
+    for (int i = 0; i < RING_CAPACITY; i++) {
+      gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+    }
+
+    String content = closeAndReadGpxFile();
+    assertEquals(RING_CAPACITY, countTrackPoints(content));
+    assertTrue(content.lastIndexOf("</trkpt>") < content.indexOf("</trkseg>"));
+    assertTrue(content.endsWith("</gpx>"));
+    assertEquals(0, gpxFileWriter.getDroppedPoints());
+  }
+
+  @Test
+  public void testTrackPointsAfterTheFooterAreDiscarded() throws Exception {
+    blockWriter();
+    gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+    gpxFileWriter.writeFileAnnotation(false);
+    // the file is still open, but the footer is queued
+    gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+
+    releaseWriter.countDown();
+    assertTrue(gpxFileWriter.close(5, TimeUnit.SECONDS));
+    String content = new String(Files.readAllBytes(gpxFile.toPath()), StandardCharsets.UTF_8);
+    assertEquals(1, countTrackPoints(content));
+    assertTrue(content.endsWith("</gpx>"));
+  }
+
+  @Test
+  public void testClockIsSampledEveryTenSeconds() throws Exception {
+    blockWriter();
+    for (int i = 0; i < 3; i++) {
+      gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+    }
+    // the paused clock of the test advances without waiting
+    SystemClock.sleep(10000);
+    gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+
+    String content = closeAndReadGpxFile();
+    String[] trackPoints = content.split("<trkpt ");
+    assertEquals(5, trackPoints.length);
+    assertTrue(trackPoints[1].contains("<wallClockMillis>"));
+    assertFalse(trackPoints[2].contains("<wallClockMillis>"));
+    assertFalse(trackPoints[3].contains("<wallClockMillis>"));
+    assertTrue(trackPoints[4].contains("<wallClockMillis>"));
+    assertTrue(trackPoints[4].contains("<receivedRealtimeNanos>"));
+  }
+
+  @Test
+  public void testFooterFutureCompletesOnceWritten() throws Exception {
+    blockWriter();
+    gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+    Future<Void> footer = gpxFileWriter.writeFileAnnotation(false);
+    assertFalse(footer.isDone());
+
+    releaseWriter.countDown();
+    footer.get(5, TimeUnit.SECONDS);
+    String content = new String(Files.readAllBytes(gpxFile.toPath()), StandardCharsets.UTF_8);
+    assertEquals(1, countTrackPoints(content));
+    assertTrue(content.endsWith("</gpx>"));
+  }
+
+  @Test
+  public void testCloseShutsTheWriterDown() throws Exception {
+    blockWriter();
+    gpxFileWriter.writeGpsData(mock(Location.class), signalData);
+    gpxFileWriter.writeFileAnnotation(false);
+    // the writer can not drain while it is blocked
+    assertFalse(gpxFileWriter.close(100, TimeUnit.MILLISECONDS));
+
+    releaseWriter.countDown();
+    assertTrue(gpxFileWriter.close(5, TimeUnit.SECONDS));
+    assertTrue(
+        new String(Files.readAllBytes(gpxFile.toPath()), StandardCharsets.UTF_8)
+            .endsWith("</gpx>"));
+    // nothing is written once the writer is shut down
+    assertTrue(gpxFileWriter.writeFileAnnotation(false).isCancelled());
+  }
+
+  @Test
+  public void testBufferedPointsAreFlushedOnceTheIntervalElapsed() throws Exception {
+    File batchedFile = temporaryFolder.newFile("batched.xml");
+    GpxFileWriter batchedWriter =
+        new GpxFileWriter(UtcTimestampEncoder.ISO_8601, batchedFile, true);
+    batchedWriter.setFlushPolicy(new FlushPolicy(100, 50));
+    batchedWriter.openFile();
+    batchedWriter.writeFileAnnotation(true).get(5, TimeUnit.SECONDS);
+    batchedWriter.writeGpsData(mock(Location.class), signalData);
+
+    // no other fix comes, the timer commits the point
+    long deadlineMillis = System.currentTimeMillis() + 5000;
+    while (batchedWriter.getFlushCount() < 2 && System.currentTimeMillis() < deadlineMillis) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, batchedWriter.getFlushCount());
+    String content = new String(Files.readAllBytes(batchedFile.toPath()), StandardCharsets.UTF_8);
+    assertEquals(1, countTrackPoints(content));
+    batchedWriter.writeFileAnnotation(false);
+    assertTrue(batchedWriter.close(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testAnnotationOfAFileNotOpenIsNotWritten() throws Exception {
+    GpxFileWriter unopenedWriter =
+        new GpxFileWriter(UtcTimestampEncoder.ISO_8601, temporaryFolder.newFile("unopened"), true);
+
+    assertTrue(unopenedWriter.writeFileAnnotation(true).isCancelled());
+    assertTrue(unopenedWriter.writeFileAnnotation(false).isCancelled());
+    assertTrue(unopenedWriter.close(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testCompressedFile() throws Exception {
+    File compressedFile = temporaryFolder.newFile("gpxfile.xml.gz");
+    GpxFileWriter compressedWriter =
+        new GpxFileWriter(UtcTimestampEncoder.ISO_8601, compressedFile, true);
+    compressedWriter.setFlushPolicy(new FlushPolicy(2, 0));
+    compressedWriter.setCompressed(true);
+    compressedWriter.openFile();
+    compressedWriter.writeFileAnnotation(true);
+    for (int i = 0; i < 2; i++) {
+      compressedWriter.writeGpsData(mock(Location.class), signalData);
+    }
+    compressedWriter.flush().get(5, TimeUnit.SECONDS);
+
+    // the points committed so far can be decompressed before the session is finished
+    String partialContent = readUntilEndOfCompressedData(compressedFile);
+    assertEquals(2, countTrackPoints(partialContent));
+    assertTrue(partialContent.endsWith("</trkpt>\n"));
+
+    compressedWriter.writeFileAnnotation(false);
+    assertTrue(compressedWriter.close(5, TimeUnit.SECONDS));
+    try (InputStream inputStream = new GZIPInputStream(new FileInputStream(compressedFile))) {
+      String content = new String(readAllBytes(inputStream), StandardCharsets.UTF_8);
+      assertEquals(2, countTrackPoints(content));
+      assertTrue(content.endsWith("</gpx>"));
+    }
+  }
+
+  /** Decompress the gzip file up to where its unfinished deflate stream ends */
+  private String readUntilEndOfCompressedData(File compressedFile) throws Exception {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    try (InputStream inputStream = new GZIPInputStream(new FileInputStream(compressedFile))) {
+      int b;
+      while ((b = inputStream.read()) != -1) {
+        content.write(b);
+      }
+    } catch (EOFException e) {
+      // the gzip trailer is only written when the file is closed
+    }
+    return new String(content.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static byte[] readAllBytes(InputStream inputStream) throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int length;
+    while ((length = inputStream.read(buffer)) != -1) {
+      outputStream.write(buffer, 0, length);
+    }
+    return outputStream.toByteArray();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    releaseWriter.countDown();
+    gpxFileWriter.close(5, TimeUnit.SECONDS);
+    gpxFileWriter = null;
+  }
+}
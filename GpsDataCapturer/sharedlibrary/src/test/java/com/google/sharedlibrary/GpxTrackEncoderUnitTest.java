@@ -0,0 +1,286 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.google.sharedlibrary.gpxfile.DeviceMetadata;
+import com.google.sharedlibrary.gpxfile.TrackPoint;
+import com.google.sharedlibrary.gpxfile.GpxTrackEncoder;
+import com.google.sharedlibrary.model.SatelliteSignalData;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class GpxTrackEncoderUnitTest {
+  private static final String TIME = "2020-07-12T00:02:36.000Z";
+  private static final long RECEIVED_REALTIME_NANOS = 86400000000000L;
+  // the track the GpsDataAnalyzer file parser reads back in test_fileparser.py
+  private static final File ANALYZER_TRACK =
+      new File("../../GpsDataAnalyzer/test/testfile_encoder.xml");
+
+  private GpxTrackEncoder encoder;
+  private TrackPoint trackPoint;
+  private SatelliteSignalData signalData;
+  @Mock private Location location;
+
+  @Before
+  public void setUp() {
+    ShadowLog.stream = System.out;
+    encoder = new GpxTrackEncoder(UtcTimestampEncoder.ISO_8601);
+    trackPoint = new TrackPoint();
+    signalData = new SatelliteSignalData(new float[] {20.375f, 36.156f, 33.945f, 29.188f}, 4);
+
+    location = mock(Location.class);
+    when(location.getTime()).thenReturn(1594512156000L);
+    when(location.getLatitude()).thenReturn(37.422);
+    when(location.getLongitude()).thenReturn(-122.084);
+    when(location.hasAltitude()).thenReturn(true);
+    when(location.getAltitude()).thenReturn(12.5);
+    when(location.hasSpeed()).thenReturn(true);
+    when(location.getSpeed()).thenReturn(1.25f);
+    when(location.hasAccuracy()).thenReturn(true);
+    when(location.getAccuracy()).thenReturn(5.0f);
+    when(location.getProvider()).thenReturn("gps");
+    Bundle extras = mock(Bundle.class);
+    when(extras.getInt("satellites", 0)).thenReturn(8);
+    when(location.getExtras()).thenReturn(extras);
+  }
+
+  /** @return the last encoded track point as a string */
+  private String encode() {
+    trackPoint.set(location, signalData);
+    int length = encoder.encode(trackPoint);
+    return new String(encoder.getBuffer(), 0, length, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testEncodeMatchesStringBuilderXml() {
+    trackPoint.set(location, signalData);
+    String expected = getTrackPointXml(trackPoint, TIME);
+
+    assertEquals(expected, encode());
+    assertEquals(expected.length(), encoder.getLength());
+  }
+
+  @Test
+  public void testEncodeWithoutOptionalFields() {
+    when(location.hasAltitude()).thenReturn(false);
+    when(location.hasSpeed()).thenReturn(false);
+    when(location.hasAccuracy()).thenReturn(false);
+    when(location.getExtras()).thenReturn(null);
+
+    String xml = encode();
+    assertEquals(getTrackPointXml(trackPoint, TIME), xml);
+    assertTrue(xml.contains("<speed>0.0</speed><accuracy>0.0</accuracy>"));
+    assertTrue(!xml.contains("<ele>") && !xml.contains("<sat>"));
+  }
+
+  @Test
+  public void testEncodeRoundsToFixedPrecision() {
+    when(location.getLatitude()).thenReturn(37.42199833333333);
+    when(location.getLongitude()).thenReturn(-0.0000000004);
+    when(location.getAltitude()).thenReturn(0.00001);
+    when(location.getSpeed()).thenReturn(Float.NaN);
+
+    String xml = encode();
+    assertTrue(xml.startsWith("<trkpt lat=\"37.421998333\" lon=\"-0.0\">"));
+    assertTrue(xml.contains("<ele>0.0</ele>"));
+    assertTrue(xml.contains("<speed>NaN</speed>"));
+  }
+
+  @Test
+  public void testEncodeDiffersFromDoubleToStringOnlyByRounding() {
+    // long fractions and values Double.toString writes in E notation
+    when(location.getLatitude()).thenReturn(37.42199833333333);
+    when(location.getLongitude()).thenReturn(-1.0E-10);
+    when(location.getAltitude()).thenReturn(12345678.9);
+    when(location.getSpeed()).thenReturn(1.0E-4f);
+    when(location.getAccuracy()).thenReturn(0.123456f);
+
+    String xml = encode();
+    String stringBuilderXml = getTrackPointXml(trackPoint, TIME);
+    assertTrue(stringBuilderXml.contains("lon=\"-1.0E-10\""));
+    assertTrue(stringBuilderXml.contains("<ele>1.23456789E7</ele>"));
+    assertTrue(stringBuilderXml.contains("<speed>1.0E-4</speed>"));
+    // the encoder rounds to the precision of the field and never writes E notation
+    assertEquals(
+        stringBuilderXml
+            .replace("lat=\"37.42199833333333\"", "lat=\"37.421998333\"")
+            .replace("lon=\"-1.0E-10\"", "lon=\"-0.0\"")
+            .replace("<ele>1.23456789E7</ele>", "<ele>12345678.9</ele>")
+            .replace("<speed>1.0E-4</speed>", "<speed>0.0001</speed>")
+            .replace("<accuracy>0.123456</accuracy>", "<accuracy>0.1235</accuracy>"),
+        xml);
+  }
+
+  @Test
+  public void testEncodeEncodesProviderInUtf8() {
+    when(location.getProvider()).thenReturn("gps\u00e9\u4e2d\ud83d\udccd");
+
+    String xml = encode();
+    assertTrue(xml.contains("<src>gps\u00e9\u4e2d\ud83d\udccd</src>"));
+    assertEquals(xml.getBytes(StandardCharsets.UTF_8).length, encoder.getLength());
+  }
+
+  @Test
+  public void testEncodeMonotonicTimestamps() {
+    when(location.getElapsedRealtimeNanos()).thenReturn(86400000000000L);
+    trackPoint.set(location, signalData);
+    trackPoint.sampleClock(1594512156020L);
+    int length = encoder.encode(trackPoint);
+
+    String xml = new String(encoder.getBuffer(), 0, length, StandardCharsets.UTF_8);
+    assertEquals(getTrackPointXml(trackPoint, TIME), xml);
+    assertTrue(
+        xml.contains(
+            "</average><elapsedRealtimeNanos>86400000000000</elapsedRealtimeNanos>"
+                + "<receivedRealtimeNanos>"
+                + trackPoint.getReceivedRealtimeNanos()
+                + "</receivedRealtimeNanos><wallClockMillis>1594512156020</wallClockMillis></trkpt>"));
+  }
+
+  @Test
+  public void testEncodeReusesBuffer() {
+    encode();
+    byte[] buffer = encoder.getBuffer();
+    encode();
+    assertTrue(buffer == encoder.getBuffer());
+  }
+
+  @Test
+  public void testEncodedTrackMatchesTheAnalyzerTrack() throws Exception {
+    ByteArrayOutputStream track = new ByteArrayOutputStream();
+    int length =
+        encoder.encodeHeader(
+            1594512155000L,
+            new DeviceMetadata(1, "sampleDevice", "sampleId", "sampleManufacturer", "sampleModel"));
+    track.write(encoder.getBuffer(), 0, length);
+    // long fractions and values Double.toString writes in E notation
+    when(location.getLatitude()).thenReturn(37.42199833333333);
+    when(location.getLongitude()).thenReturn(-122.08405750000001);
+    when(location.getAltitude()).thenReturn(12345678.9);
+    when(location.getSpeed()).thenReturn(1.0E-4f);
+    when(location.getAccuracy()).thenReturn(0.123456f);
+    writeTrackPoint(track);
+    // values rounded to zero or up to the next degree, without the optional fields
+    when(location.getTime()).thenReturn(1594512157000L);
+    when(location.getLatitude()).thenReturn(-1.0E-10);
+    when(location.getLongitude()).thenReturn(179.9999999999);
+    when(location.hasAltitude()).thenReturn(false);
+    when(location.hasSpeed()).thenReturn(false);
+    when(location.hasAccuracy()).thenReturn(false);
+    when(location.getExtras()).thenReturn(null);
+    writeTrackPoint(track);
+    // a speed that is not a number
+    when(location.getTime()).thenReturn(1594512158000L);
+    when(location.getLatitude()).thenReturn(-89.123456789);
+    when(location.getLongitude()).thenReturn(0.5);
+    when(location.hasSpeed()).thenReturn(true);
+    when(location.getSpeed()).thenReturn(Float.NaN);
+    writeTrackPoint(track);
+    length = encoder.encodeFooter(1594512159000L);
+    track.write(encoder.getBuffer(), 0, length);
+
+    // the parser test checks the values it reads back from the same bytes
+    assertEquals(
+        new String(Files.readAllBytes(ANALYZER_TRACK.toPath()), StandardCharsets.UTF_8),
+        new String(track.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  private void writeTrackPoint(ByteArrayOutputStream track) {
+    trackPoint.set(location, signalData, RECEIVED_REALTIME_NANOS);
+    int length = encoder.encode(trackPoint);
+    track.write(encoder.getBuffer(), 0, length);
+  }
+
+  /** The StringBuilder serialization GpxWriteHandler used before GpxTrackEncoder */
+  private static String getTrackPointXml(TrackPoint trackPoint, String formattedTime) {
+    StringBuilder trackPointXml = new StringBuilder();
+
+    trackPointXml
+        .append("<trkpt lat=\"")
+        .append(trackPoint.getLatitude())
+        .append("\" lon=\"")
+        .append(trackPoint.getLongitude())
+        .append("\">");
+
+    if (trackPoint.hasAltitude()) {
+      trackPointXml.append("<ele>").append(trackPoint.getAltitude()).append("</ele>");
+    }
+
+    trackPointXml.append("<time>").append(formattedTime).append("</time>");
+
+    trackPointXml
+        .append("<speed>")
+        .append(trackPoint.hasSpeed() ? trackPoint.getSpeed() : "0.0")
+        .append("</speed>");
+
+    trackPointXml
+        .append("<accuracy>")
+        .append(trackPoint.hasAccuracy() ? trackPoint.getAccuracy() : "0.0")
+        .append("</accuracy>");
+
+    trackPointXml.append("<src>").append(trackPoint.getProvider()).append("</src>");
+
+    if (trackPoint.hasSatellites()) {
+      trackPointXml.append("<sat>").append(trackPoint.getSatellites()).append("</sat>");
+    }
+
+    trackPointXml.append("<signal01>").append(trackPoint.getFirstSignal()).append("</signal01>");
+    trackPointXml.append("<signal02>").append(trackPoint.getSecondSignal()).append("</signal02>");
+    trackPointXml.append("<signal03>").append(trackPoint.getThirdSignal()).append("</signal03>");
+    trackPointXml.append("<signal04>").append(trackPoint.getForthSignal()).append("</signal04>");
+    trackPointXml.append("<average>").append(trackPoint.getAverageSignal()).append("</average>");
+
+    if (trackPoint.getElapsedRealtimeNanos() > 0) {
+      trackPointXml
+          .append("<elapsedRealtimeNanos>")
+          .append(trackPoint.getElapsedRealtimeNanos())
+          .append("</elapsedRealtimeNanos>");
+    }
+    if (trackPoint.getReceivedRealtimeNanos() > 0) {
+      trackPointXml
+          .append("<receivedRealtimeNanos>")
+          .append(trackPoint.getReceivedRealtimeNanos())
+          .append("</receivedRealtimeNanos>");
+    }
+    if (trackPoint.hasClockSample()) {
+      trackPointXml
+          .append("<wallClockMillis>")
+          .append(trackPoint.getWallTimeMillis())
+          .append("</wallClockMillis>");
+    }
+
+    trackPointXml.append("</trkpt>\n");
+
+    return trackPointXml.toString();
+  }
+
+  @After
+  public void tearDown() {
+    encoder = null;
+    trackPoint = null;
+    signalData = null;
+    location = null;
+  }
+}
@@ -1,13 +1,21 @@
 package com.google.sharedlibrary;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import android.location.Location;
 import android.os.Build;
 
+import com.google.sharedlibrary.gpxfile.BatchedOutputStream;
+import com.google.sharedlibrary.gpxfile.FlushPolicy;
+import com.google.sharedlibrary.gpxfile.GpxTrackEncoder;
 import com.google.sharedlibrary.gpxfile.GpxWriteHandler;
+import com.google.sharedlibrary.gpxfile.TrackPointRingBuffer;
 import com.google.sharedlibrary.model.SatelliteSignalData;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
 
 import org.junit.After;
 import org.junit.Before;
@@ -18,7 +26,8 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowLog;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ThreadPoolExecutor;
 
 @RunWith(RobolectricTestRunner.class)
@@ -26,18 +35,31 @@ import java.util.concurrent.ThreadPoolExecutor;
 public class GpxWriteHandlerUnitTest {
   private GpxWriteHandler gpxWriteHandler;
 
-  @Mock private File gpxFile;
+  private ByteArrayOutputStream outputStream;
+  private TrackPointRingBuffer ringBuffer;
+  private SatelliteSignalData signalData;
   @Mock private Location location;
 
   @Before
   public void setUp() {
     ShadowLog.stream = System.out;
-    gpxFile = mock(File.class);
+    outputStream = new ByteArrayOutputStream();
+    ringBuffer = new TrackPointRingBuffer(4);
     location = mock(Location.class);
-    SatelliteSignalData signalData = new SatelliteSignalData();
-    String formattedTime = "2020-07-12T00:02:36.000Z";
-    boolean append = true;
-    gpxWriteHandler = new GpxWriteHandler(formattedTime, gpxFile, location, signalData, append);
+    // 2020-07-12T00:02:36.000Z
+    when(location.getTime()).thenReturn(1594512156000L);
+    signalData = new SatelliteSignalData();
+    gpxWriteHandler =
+        new GpxWriteHandler(
+            new GpxTrackEncoder(UtcTimestampEncoder.ISO_8601),
+            ringBuffer,
+            new BatchedOutputStream(outputStream, 20480, FlushPolicy.EVERY_POINT));
+  }
+
+  /** Copy the location into the next slot of the ring buffer */
+  private void publishLocation() {
+    ringBuffer.claim().set(location, signalData);
+    ringBuffer.publish();
   }
 
   @Test
@@ -47,9 +69,24 @@ public class GpxWriteHandlerUnitTest {
     verify(executor).execute(gpxWriteHandler);
   }
 
+  @Test
+  public void testRunWritesToOutputStream() {
+    publishLocation();
+    publishLocation();
+    gpxWriteHandler.run();
+    assertEquals(0, ringBuffer.size());
+
+    String content = new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    assertTrue(content.startsWith("<trkpt lat=\"0.0\" lon=\"0.0\">"));
+    assertTrue(content.contains("<time>2020-07-12T00:02:36.000Z</time>"));
+    assertTrue(content.endsWith("</trkpt>\n"));
+    assertTrue(content.indexOf("<trkpt") != content.lastIndexOf("<trkpt"));
+  }
+
   @After
   public void tearDown() {
-    gpxFile = null;
+    outputStream = null;
+    ringBuffer = null;
     location = null;
     gpxWriteHandler = null;
   }
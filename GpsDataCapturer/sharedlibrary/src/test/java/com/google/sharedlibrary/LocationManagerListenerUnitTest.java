@@ -2,12 +2,17 @@ package com.google.sharedlibrary;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import android.location.GnssStatus;
+import android.location.GpsStatus;
 import android.location.Location;
+import android.location.LocationManager;
 import android.os.Build;
 
+import com.google.sharedlibrary.locationhelper.LocationManagerHelper;
 import com.google.sharedlibrary.locationhelper.LocationManagerListener;
 import com.google.sharedlibrary.service.GpsDataCaptureService;
 
@@ -63,6 +68,31 @@ public class LocationManagerListenerUnitTest {
     verify(service, times(2)).onGpsStatusChanged((1));
   }
 
+  @Test
+  public void testGnssStatusCallback() {
+    GnssStatus.Callback callback = lmListener.getGnssStatusCallback();
+
+    callback.onStarted();
+    callback.onFirstFix(1200);
+    callback.onSatelliteStatusChanged(null);
+    callback.onStopped();
+
+    verify(service).onGpsStatusChanged(GpsStatus.GPS_EVENT_STARTED);
+    verify(service).onGpsStatusChanged(GpsStatus.GPS_EVENT_FIRST_FIX);
+    verify(service).onGnssStatusChanged(null);
+    verify(service).onGpsStatusChanged(GpsStatus.GPS_EVENT_STOPPED);
+  }
+
+  @Test
+  public void testStopLocationUpdatesKeepsTheGnssStatusCallback() {
+    LocationManager locationManager = mock(LocationManager.class);
+
+    LocationManagerHelper.stopLocationUpdates(locationManager, lmListener);
+
+    verify(locationManager).removeUpdates(lmListener);
+    verify(locationManager, never()).unregisterGnssStatusCallback(any(GnssStatus.Callback.class));
+  }
+
   @After
   public void tearDown() {
     service.onDestroy();
@@ -0,0 +1,171 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.location.Location;
+
+import com.google.sharedlibrary.model.SatelliteSignalData;
+import com.google.sharedlibrary.pipeline.LocationPipeline;
+import com.google.sharedlibrary.pipeline.LocationPipeline.StageStats;
+import com.google.sharedlibrary.pipeline.LocationSample;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class LocationPipelineUnitTest {
+  private LocationPipeline pipeline;
+  private SatelliteSignalData signalData;
+  private List<String> events;
+
+  @Before
+  public void setUp() {
+    pipeline = new LocationPipeline();
+    signalData = new SatelliteSignalData();
+    events = new ArrayList<>();
+  }
+
+  private Location location(float accuracy) {
+    Location location = mock(Location.class);
+    when(location.getAccuracy()).thenReturn(accuracy);
+    return location;
+  }
+
+  @Test
+  public void testStagesRunInOrderThenFanOut() {
+    pipeline.addStage(
+        "first",
+        sample -> {
+          events.add("first");
+          return sample;
+        });
+    pipeline.addStage(
+        "second",
+        sample -> {
+          events.add("second");
+          return sample;
+        });
+    pipeline.addSink("file", sample -> events.add("file"));
+    pipeline.addSink("ui", sample -> events.add("ui"));
+
+    pipeline.publish(location(5), signalData);
+
+    assertEquals(4, events.size());
+    assertEquals("first", events.get(0));
+    assertEquals("second", events.get(1));
+    assertEquals("file", events.get(2));
+    assertEquals("ui", events.get(3));
+  }
+
+  @Test
+  public void testFilterDropsSamples() {
+    pipeline.addStage(
+        "accuracy", sample -> sample.getLocation().getAccuracy() < 10 ? sample : null);
+    List<Location> received = new ArrayList<>();
+    pipeline.addSink(
+        "file",
+        sample -> {
+          assertSame(signalData, sample.getSignalData());
+          received.add(sample.getLocation());
+        });
+
+    Location accurateLocation = location(5);
+    pipeline.publish(accurateLocation, signalData);
+    pipeline.publish(location(50), signalData);
+
+    assertEquals(1, received.size());
+    assertSame(accurateLocation, received.get(0));
+    StageStats stats = pipeline.getStats().get(0);
+    assertEquals("accuracy", stats.getName());
+    assertEquals(2, stats.getSamples());
+    assertEquals(1, stats.getDroppedSamples());
+  }
+
+  @Test
+  public void testExecutorDrainsSamplesAsBatch() {
+    List<Runnable> pendingDrains = new ArrayList<>();
+    List<LocationSample> received = new ArrayList<>();
+    pipeline.addSink("file", received::add, pendingDrains::add);
+
+    for (int i = 0; i < 3; i++) {
+      pipeline.publish(location(5), signalData);
+    }
+    // one drain is scheduled for all the queued samples
+    assertEquals(1, pendingDrains.size());
+    assertTrue(received.isEmpty());
+
+    pendingDrains.get(0).run();
+    assertEquals(3, received.size());
+    StageStats stats = pipeline.getStats().get(0);
+    assertEquals(3, stats.getSamples());
+    assertEquals(1, stats.getBatches());
+  }
+
+  @Test
+  public void testPublishedSampleIsReused() {
+    List<LocationSample> directSamples = new ArrayList<>();
+    pipeline.addSink("ui", directSamples::add);
+    List<Runnable> pendingDrains = new ArrayList<>();
+    List<LocationSample> queuedSamples = new ArrayList<>();
+    pipeline.addSink("file", queuedSamples::add, pendingDrains::add);
+
+    Location firstLocation = location(5);
+    Location secondLocation = location(10);
+    pipeline.publish(firstLocation, signalData, 42);
+    pipeline.publish(secondLocation, signalData, 43);
+
+    // the direct sink got the same sample for both fixes, released once they went through
+    assertSame(directSamples.get(0), directSamples.get(1));
+    assertNull(directSamples.get(0).getLocation());
+    // the queued sink got a copy of each one
+    pendingDrains.get(0).run();
+    assertEquals(2, queuedSamples.size());
+    assertSame(firstLocation, queuedSamples.get(0).getLocation());
+    assertEquals(42, queuedSamples.get(0).getReceivedRealtimeNanos());
+    assertSame(secondLocation, queuedSamples.get(1).getLocation());
+  }
+
+  @Test
+  public void testFailingSinkDoesNotStopOtherSinks() {
+    pipeline.addSink(
+        "broken",
+        sample -> {
+          throw new IllegalStateException("broken sink");
+        });
+    pipeline.addSink("ui", sample -> events.add("ui"));
+
+    pipeline.publish(location(5), signalData);
+
+    assertEquals(1, events.size());
+    assertEquals(1, pipeline.getStats().get(0).getDroppedSamples());
+  }
+
+  @Test
+  public void testRemoveSink() {
+    pipeline.addSink("ui", sample -> events.add("ui"));
+    pipeline.removeSink("ui");
+
+    pipeline.publish(location(5), signalData);
+
+    assertTrue(events.isEmpty());
+    assertTrue(pipeline.getStats().isEmpty());
+  }
+
+  @After
+  public void tearDown() {
+    pipeline = null;
+    signalData = null;
+    events = null;
+  }
+}
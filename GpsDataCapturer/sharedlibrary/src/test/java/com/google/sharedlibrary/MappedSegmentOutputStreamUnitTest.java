@@ -0,0 +1,90 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.sharedlibrary.gpxfile.MappedSegmentOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class MappedSegmentOutputStreamUnitTest {
+  private static final int SEGMENT_SIZE = 100;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File baseFile;
+  private MappedSegmentOutputStream outputStream;
+
+  @Before
+  public void setUp() {
+    baseFile = new File(temporaryFolder.getRoot(), "gpxfile.xml.journal");
+    outputStream = new MappedSegmentOutputStream(baseFile, SEGMENT_SIZE);
+  }
+
+  private byte[] record(int value, int length) {
+    byte[] record = new byte[length];
+    Arrays.fill(record, (byte) value);
+    return record;
+  }
+
+  @Test
+  public void testSegmentIsPreallocated() throws Exception {
+    outputStream.write(record(1, 10), 0, 10);
+
+    assertEquals(1, outputStream.getSegmentCount());
+    assertEquals(SEGMENT_SIZE, MappedSegmentOutputStream.getSegmentFile(baseFile, 0).length());
+    assertFalse(baseFile.exists());
+  }
+
+  @Test
+  public void testRecordsDoNotSpanSegments() throws Exception {
+    outputStream.write(record(1, 60), 0, 60);
+    outputStream.write(record(2, 60), 0, 60);
+    outputStream.write(record(3, 30), 0, 30);
+    outputStream.close();
+
+    assertEquals(2, outputStream.getSegmentCount());
+    byte[] firstSegment =
+        Files.readAllBytes(MappedSegmentOutputStream.getSegmentFile(baseFile, 0).toPath());
+    byte[] lastSegment =
+        Files.readAllBytes(MappedSegmentOutputStream.getSegmentFile(baseFile, 1).toPath());
+    // the full segment is zero padded, the last one is trimmed on close
+    byte[] expectedFirstSegment = new byte[SEGMENT_SIZE];
+    System.arraycopy(record(1, 60), 0, expectedFirstSegment, 0, 60);
+    assertArrayEquals(expectedFirstSegment, firstSegment);
+    assertEquals(90, lastSegment.length);
+    assertEquals(2, lastSegment[59]);
+    assertEquals(3, lastSegment[60]);
+  }
+
+  @Test
+  public void testCloseTrimsLastSegment() throws Exception {
+    outputStream.write(record(1, 10), 0, 10);
+    outputStream.close();
+    outputStream.close();
+
+    assertEquals(10, MappedSegmentOutputStream.getSegmentFile(baseFile, 0).length());
+  }
+
+  @Test(expected = IOException.class)
+  public void testRecordLargerThanSegment() throws Exception {
+    outputStream.write(record(1, SEGMENT_SIZE + 1), 0, SEGMENT_SIZE + 1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    outputStream.close();
+    outputStream = null;
+    baseFile = null;
+  }
+}
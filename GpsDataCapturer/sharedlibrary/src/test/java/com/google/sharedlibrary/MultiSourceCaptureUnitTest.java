@@ -0,0 +1,105 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.location.LocationManager;
+import android.os.Build;
+import android.os.Looper;
+
+import com.google.sharedlibrary.gpxfile.GpxFileWriter;
+import com.google.sharedlibrary.service.MultiSourceCapture;
+import com.google.sharedlibrary.service.MultiSourceCapture.Source;
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class MultiSourceCaptureUnitTest {
+  private static final String SESSION_ID = "2020_07_12_00_02_30";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private MultiSourceCapture multiSourceCapture;
+  private Map<Source, GpxFileWriter> writers;
+
+  @Before
+  public void setUp() throws IOException {
+    ShadowLog.stream = System.out;
+    multiSourceCapture = new MultiSourceCapture(SESSION_ID);
+    writers = new EnumMap<>(Source.class);
+    for (Source source : Source.values()) {
+      File file =
+          temporaryFolder.newFile(MultiSourceCapture.createFileName(SESSION_ID, source) + ".xml");
+      GpxFileWriter writer = new GpxFileWriter(UtcTimestampEncoder.ISO_8601, file, true);
+      writers.put(source, writer);
+      multiSourceCapture.addSource(source, file, writer);
+    }
+  }
+
+  @Test
+  public void testFixesAreRoutedToTheWriterOfTheirProvider() {
+    assertSame(writers.get(Source.GPS), multiSourceCapture.getWriter(LocationManager.GPS_PROVIDER));
+    assertSame(
+        writers.get(Source.NETWORK),
+        multiSourceCapture.getWriter(LocationManager.NETWORK_PROVIDER));
+    assertSame(writers.get(Source.FUSED), multiSourceCapture.getWriter("fused"));
+    assertNull(multiSourceCapture.getWriter(LocationManager.PASSIVE_PROVIDER));
+    assertNull(multiSourceCapture.getWriter(null));
+    assertEquals(3, multiSourceCapture.getWriters().size());
+  }
+
+  @Test
+  public void testEachSourceHasItsOwnLooper() {
+    Looper gpsLooper = multiSourceCapture.getLooper(Source.GPS);
+    Looper networkLooper = multiSourceCapture.getLooper(Source.NETWORK);
+    Looper fusedLooper = multiSourceCapture.getLooper(Source.FUSED);
+
+    assertNotEquals(Looper.getMainLooper(), gpsLooper);
+    assertNotEquals(gpsLooper, networkLooper);
+    assertNotEquals(gpsLooper, fusedLooper);
+    assertNotEquals(networkLooper, fusedLooper);
+  }
+
+  @Test
+  public void testWriteManifest() throws IOException {
+    File manifest = multiSourceCapture.writeManifest(temporaryFolder.getRoot());
+
+    assertEquals(SESSION_ID + MultiSourceCapture.MANIFEST_EXTENSION, manifest.getName());
+    List<String> lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+    assertEquals(6, lines.size());
+    assertEquals("session=" + SESSION_ID, lines.get(0));
+    assertTrue(lines.get(1).startsWith("start_time_millis="));
+    assertTrue(lines.get(2).startsWith("start_elapsed_realtime_nanos="));
+    assertEquals("source.gps=" + SESSION_ID + "_gps.xml", lines.get(3));
+    assertEquals("source.network=" + SESSION_ID + "_network.xml", lines.get(4));
+    assertEquals("source.fused=" + SESSION_ID + "_fused.xml", lines.get(5));
+  }
+
+  @After
+  public void tearDown() {
+    multiSourceCapture.quit();
+    multiSourceCapture = null;
+    writers = null;
+  }
+}
@@ -0,0 +1,125 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Build;
+
+import com.google.sharedlibrary.gpxfile.FlushPolicy;
+import com.google.sharedlibrary.gpxfile.NmeaLogWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class NmeaLogWriterUnitTest {
+  private static final String GGA =
+      "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47";
+  private static final String RMC =
+      "$GPRMC,123519,A,4807.038,N,01131.000,E,022.4,084.4,230394,003.1,W*6A";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File file;
+  private NmeaLogWriter writer;
+
+  @Before
+  public void setUp() throws IOException {
+    ShadowLog.stream = System.out;
+    file = temporaryFolder.newFile("capture" + NmeaLogWriter.FILE_EXTENSION);
+    writer = new NmeaLogWriter(file, null);
+  }
+
+  @Test
+  public void testWriteSentences() throws Exception {
+    // every sentence is its own block
+    writer.setFlushPolicy(FlushPolicy.EVERY_POINT);
+    writer.openFile();
+    writer.writeSentence(GGA + "\r\n", 1594512156000L);
+    writer.writeSentence(RMC, 0L);
+    writer.writeSentence("$GPGSA,A,3\n", -42L);
+    assertTrue(writer.close(5, TimeUnit.SECONDS));
+
+    assertEquals(3, writer.getWrittenRecords());
+    assertEquals(0, writer.getDroppedRecords());
+
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+    assertEquals(4, lines.size());
+    assertTrue(lines.get(0).startsWith("#"));
+    assertSentence(lines.get(1), 1594512156000L, GGA);
+    assertSentence(lines.get(2), 0L, RMC);
+    assertSentence(lines.get(3), -42L, "$GPGSA,A,3");
+  }
+
+  @Test
+  public void testSentencesAreBatched() throws Exception {
+    writer.openFile();
+    for (int i = 0; i < 20; i++) {
+      writer.writeSentence(GGA, i);
+    }
+    assertTrue(writer.close(5, TimeUnit.SECONDS));
+
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+    assertEquals(21, lines.size());
+    for (int i = 0; i < 20; i++) {
+      assertSentence(lines.get(i + 1), i, GGA);
+    }
+  }
+
+  @Test
+  public void testBlockIsWrittenOnceTheIntervalElapsed() throws Exception {
+    writer.setFlushPolicy(new FlushPolicy(0, 50));
+    writer.openFile();
+    writer.writeSentence(GGA, 0L);
+
+    // no other sentence comes, the timer hands the block over
+    long deadlineMillis = System.currentTimeMillis() + 5000;
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+    while (lines.size() < 2 && System.currentTimeMillis() < deadlineMillis) {
+      Thread.sleep(10);
+      lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+    }
+    assertEquals(2, lines.size());
+    assertSentence(lines.get(1), 0L, GGA);
+    assertTrue(writer.close(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testNoSentenceIsWrittenBeforeOpen() throws Exception {
+    writer.writeSentence(GGA, 0L);
+    writer.openFile();
+    assertTrue(writer.close(5, TimeUnit.SECONDS));
+
+    assertEquals(0, writer.getWrittenRecords());
+    assertEquals(1, Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII).size());
+  }
+
+  /** Check a line of the log holds the elapsed realtime, the timestamp and the sentence */
+  private static void assertSentence(String line, long timestamp, String sentence) {
+    String[] fields = line.split(",", 3);
+    assertTrue(Long.parseLong(fields[0]) >= 0);
+    assertEquals(timestamp, Long.parseLong(fields[1]));
+    assertEquals(sentence, fields[2]);
+  }
+
+  @After
+  public void tearDown() {
+    file = null;
+    writer = null;
+  }
+}
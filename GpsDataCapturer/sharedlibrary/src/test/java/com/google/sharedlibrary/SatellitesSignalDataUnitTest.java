@@ -3,10 +3,10 @@ package com.google.sharedlibrary;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
-import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import com.google.sharedlibrary.model.SatelliteSignalData;
+import com.google.sharedlibrary.model.TopKSignalSelector;
 
 import org.junit.After;
 import org.junit.Before;
@@ -14,73 +14,71 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
-import java.util.Arrays;
-import java.util.PriorityQueue;
-
 @RunWith(JUnit4.class)
 public class SatellitesSignalDataUnitTest {
   private SatelliteSignalData signalData;
-  private PriorityQueue<Float> pq;
+  private TopKSignalSelector selector;
 
   @Before
   public void setUp() {
-    pq = new PriorityQueue<>();
+    selector = new TopKSignalSelector(SatelliteSignalData.TOP_SIGNALS);
   }
 
   @Test
-  public void testSatelliteSignalDataSuccessWithPQ() {
-    Float[] signals = new Float[] {20.375f, 36.156f, 33.945f, 29.188f};
-    float average = (20.375f + 36.156f + 33.945f + 29.188f) / 4;
-    pq.addAll(Arrays.asList(signals));
+  public void testSatelliteSignalDataSuccessWithSelector() {
+    float[] signals = new float[] {20.375f, 36.156f, 33.945f, 29.188f};
+    float average = (36.156f + 33.945f + 29.188f + 20.375f) / 4;
+    addAll(signals);
 
-    signalData = new SatelliteSignalData(pq);
-    assertTrue(pq.isEmpty());
+    signalData = selector.toSignalData();
+    assertEquals(4, signalData.getSignalCount());
     assertEquals(36.156f, signalData.getFirstSignal(), 0.0f);
     assertEquals(33.945f, signalData.getSecondSignal(), 0.0f);
     assertEquals(29.188f, signalData.getThirdSignal(), 0.0f);
     assertEquals(20.375f, signalData.getForthSignal(), 0.0f);
     assertEquals(average, signalData.getAverageSignal(), 0.0f);
+    assertEquals((33.945f + 29.188f) / 2, signalData.getMedianSignal(), 0.0f);
   }
 
   @Test
   public void testSatelliteSignalDataSuccess() {
     signalData = new SatelliteSignalData();
+    assertEquals(0, signalData.getSignalCount());
     assertEquals(0.0f, signalData.getFirstSignal(), 0.0f);
     assertEquals(0.0f, signalData.getSecondSignal(), 0.0f);
     assertEquals(0.0f, signalData.getThirdSignal(), 0.0f);
     assertEquals(0.0f, signalData.getForthSignal(), 0.0f);
     assertEquals(0.0f, signalData.getAverageSignal(), 0.0f);
+    assertEquals(0.0f, signalData.getMedianSignal(), 0.0f);
   }
 
   @Test
-  public void testSatelliteSignalDataFailure() {
-    Float[] signals = new Float[] {20.375f, 36.156f, 33.945f};
-    pq.addAll(Arrays.asList(signals));
-
-    try {
-      signalData = new SatelliteSignalData(pq);
-      assertEquals(0.0f, signalData.getFirstSignal(), 0.0f);
-      assertEquals(0.0f, signalData.getSecondSignal(), 0.0f);
-      assertEquals(0.0f, signalData.getThirdSignal(), 0.0f);
-      assertEquals(0.0f, signalData.getForthSignal(), 0.0f);
-      assertEquals(0.0f, signalData.getAverageSignal(), 0.0f);
-    } catch (Exception e) {
-      assertNotNull(e);
-    }
+  public void testSatelliteSignalDataWithFewerSignals() {
+    addAll(new float[] {20.375f, 36.156f, 33.945f});
+
+    signalData = selector.toSignalData();
+    assertEquals(3, signalData.getSignalCount());
+    assertEquals(36.156f, signalData.getFirstSignal(), 0.0f);
+    assertEquals(33.945f, signalData.getSecondSignal(), 0.0f);
+    assertEquals(20.375f, signalData.getThirdSignal(), 0.0f);
+    assertEquals(0.0f, signalData.getForthSignal(), 0.0f);
+    assertEquals((36.156f + 33.945f + 20.375f) / 3, signalData.getAverageSignal(), 0.0f);
+    assertEquals(33.945f, signalData.getMedianSignal(), 0.0f);
   }
 
   @Test
   public void testSatelliteSignalDataEqual() {
-    Float[] signals = new Float[] {20.375f, 36.156f, 33.945f, 29.188f};
-    pq.addAll(Arrays.asList(signals));
-    SatelliteSignalData signalData1 = new SatelliteSignalData(pq);
+    float[] signals = new float[] {20.375f, 36.156f, 33.945f, 29.188f};
+    addAll(signals);
+    SatelliteSignalData signalData1 = selector.toSignalData();
 
-    pq.addAll(Arrays.asList(signals));
-    SatelliteSignalData signalData2 = new SatelliteSignalData(pq);
+    selector.reset();
+    addAll(signals);
+    SatelliteSignalData signalData2 = selector.toSignalData();
 
-    signals = new Float[] {20.375f, 36.156f, 33.945f, 35.123f};
-    pq.addAll(Arrays.asList(signals));
-    SatelliteSignalData signalData3 = new SatelliteSignalData(pq);
+    selector.reset();
+    addAll(new float[] {20.375f, 36.156f, 33.945f, 35.123f});
+    SatelliteSignalData signalData3 = selector.toSignalData();
 
     assertTrue(signalData1.equals(signalData2));
     assertFalse(signalData1.equals(signalData3));
@@ -89,20 +87,28 @@ public class SatellitesSignalDataUnitTest {
 
   @Test
   public void testSatelliteSignalDataHashcode() {
-    Float[] signals = new Float[] {20.375f, 36.156f, 33.945f, 29.188f};
-    pq.addAll(Arrays.asList(signals));
-    SatelliteSignalData signalData1 = new SatelliteSignalData(pq);
+    addAll(new float[] {20.375f, 36.156f, 33.945f, 29.188f});
+    SatelliteSignalData signalData1 = selector.toSignalData();
 
-    signals = new Float[] {20.375f, 36.156f, 33.945f, 35.123f};
-    pq.addAll(Arrays.asList(signals));
-    SatelliteSignalData signalData2 = new SatelliteSignalData(pq);
+    selector.reset();
+    addAll(new float[] {20.375f, 36.156f, 33.945f, 35.123f});
+    SatelliteSignalData signalData2 = selector.toSignalData();
 
     assertNotEquals(signalData1.hashCode(), signalData2.hashCode());
+    assertEquals(
+        signalData1.hashCode(),
+        new SatelliteSignalData(new float[] {29.188f, 36.156f, 20.375f, 33.945f}, 4).hashCode());
+  }
+
+  private void addAll(float[] signals) {
+    for (float signal : signals) {
+      selector.add(signal);
+    }
   }
 
   @After
   public void tearDown() {
     signalData = null;
-    pq = null;
+    selector = null;
   }
 }
@@ -0,0 +1,59 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.sharedlibrary.model.TopKSignalSelector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TopKSignalSelectorUnitTest {
+  private TopKSignalSelector selector;
+
+  @Before
+  public void setUp() {
+    selector = new TopKSignalSelector(3);
+  }
+
+  @Test
+  public void testKeepsTheStrongestSignalsInOrder() {
+    for (float signal : new float[] {12f, 40f, 25f, 8f, 33f, 40f, 19f}) {
+      selector.add(signal);
+    }
+
+    assertEquals(3, selector.size());
+    assertEquals(40f, selector.get(0), 0.0f);
+    assertEquals(40f, selector.get(1), 0.0f);
+    assertEquals(33f, selector.get(2), 0.0f);
+  }
+
+  @Test
+  public void testResetAndFewerSignalsThanK() {
+    selector.add(10f);
+    selector.add(Float.NaN);
+    selector.reset();
+    selector.add(5f);
+    selector.add(7f);
+
+    assertEquals(2, selector.size());
+    assertEquals(7f, selector.get(0), 0.0f);
+    assertEquals(5f, selector.get(1), 0.0f);
+    assertEquals(2, selector.toSignalData().getSignalCount());
+    assertEquals(6f, selector.toSignalData().getMedianSignal(), 0.0f);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testRankOutOfRange() {
+    selector.add(10f);
+    selector.get(1);
+  }
+
+  @After
+  public void tearDown() {
+    selector = null;
+  }
+}
@@ -0,0 +1,106 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.location.Location;
+
+import com.google.sharedlibrary.gpxfile.TrackPoint;
+import com.google.sharedlibrary.gpxfile.TrackPointRingBuffer;
+import com.google.sharedlibrary.model.SatelliteSignalData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TrackPointRingBufferUnitTest {
+  private static final int CAPACITY = 4;
+  private TrackPointRingBuffer ringBuffer;
+  private TrackPoint trackPoint;
+  private SatelliteSignalData signalData;
+
+  @Before
+  public void setUp() {
+    ringBuffer = new TrackPointRingBuffer(CAPACITY);
+    trackPoint = new TrackPoint();
+    signalData = new SatelliteSignalData();
+  }
+
+  /** Publish a track point carrying the given index as its time */
+  private boolean publish(long index) {
+    TrackPoint slot = ringBuffer.claim();
+    if (slot == null) {
+      return false;
+    }
+    Location location = mock(Location.class);
+    when(location.getTime()).thenReturn(index);
+    slot.set(location, signalData);
+    ringBuffer.publish();
+    return true;
+  }
+
+  @Test
+  public void testPollInPublishOrder() {
+    for (int i = 1; i <= CAPACITY; i++) {
+      assertTrue(publish(i));
+    }
+    assertEquals(CAPACITY, ringBuffer.size());
+
+    for (int i = 1; i <= CAPACITY; i++) {
+      assertTrue(ringBuffer.poll(trackPoint));
+      assertEquals(i, trackPoint.getTime());
+    }
+    assertFalse(ringBuffer.poll(trackPoint));
+    assertEquals(0, ringBuffer.size());
+  }
+
+  @Test
+  public void testClaimReturnsNullWhenFull() {
+    for (int i = 1; i <= CAPACITY; i++) {
+      assertTrue(publish(i));
+    }
+    assertNull(ringBuffer.claim());
+
+    assertTrue(ringBuffer.poll(trackPoint));
+    assertNotNull(ringBuffer.claim());
+  }
+
+  @Test
+  public void testDropOldest() {
+    for (int i = 1; i <= CAPACITY; i++) {
+      assertTrue(publish(i));
+    }
+
+    assertTrue(ringBuffer.dropOldest());
+    assertTrue(publish(CAPACITY + 1));
+
+    assertTrue(ringBuffer.poll(trackPoint));
+    assertEquals(2, trackPoint.getTime());
+  }
+
+  @Test
+  public void testDropOldestWhenNotFull() {
+    assertTrue(publish(1));
+    assertFalse(ringBuffer.dropOldest());
+    assertEquals(1, ringBuffer.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCapacityMustBePowerOfTwo() {
+    new TrackPointRingBuffer(3);
+  }
+
+  @After
+  public void tearDown() {
+    ringBuffer = null;
+    trackPoint = null;
+  }
+}
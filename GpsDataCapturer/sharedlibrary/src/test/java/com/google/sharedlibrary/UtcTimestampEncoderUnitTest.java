@@ -0,0 +1,125 @@
+package com.google.sharedlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.sharedlibrary.utils.UtcTimestampEncoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@RunWith(JUnit4.class)
+public class UtcTimestampEncoderUnitTest {
+  private static final int THREADS = 4;
+  private static final int SAMPLES = 10000;
+
+  private SimpleDateFormat sdf;
+  private Random random;
+
+  @Before
+  public void setUp() {
+    sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+    sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+    random = new Random(42);
+  }
+
+  @Test
+  public void testFormat() {
+    assertEquals("2020-07-12T00:02:36.000Z", UtcTimestampEncoder.ISO_8601.format(1594512156000L));
+    assertEquals("1970-01-01T00:00:00.000Z", UtcTimestampEncoder.ISO_8601.format(0L));
+    assertEquals("2020-02-29T23:59:59.999Z", UtcTimestampEncoder.ISO_8601.format(1583020799999L));
+  }
+
+  @Test
+  public void testFormatFileName() {
+    assertEquals("2020-07-12T00-02-36-000Z", UtcTimestampEncoder.FILE_NAME.format(1594512156000L));
+  }
+
+  @Test
+  public void testFormatMatchesSimpleDateFormat() {
+    for (int i = 0; i < SAMPLES; i++) {
+      // any time between 1970 and 2100
+      long timeMillis = (long) (random.nextDouble() * 4102444800000L);
+      assertEquals(sdf.format(timeMillis), UtcTimestampEncoder.ISO_8601.format(timeMillis));
+    }
+  }
+
+  @Test
+  public void testEncodeAtOffset() {
+    byte[] buffer = new byte[UtcTimestampEncoder.LENGTH + 2];
+    buffer[0] = '<';
+    buffer[buffer.length - 1] = '>';
+
+    assertEquals(
+        UtcTimestampEncoder.LENGTH, UtcTimestampEncoder.ISO_8601.encode(1594512156123L, buffer, 1));
+    assertEquals("<2020-07-12T00:02:36.123Z>", new String(buffer, StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testEncodeOutOfRangeYear() {
+    try {
+      UtcTimestampEncoder.ISO_8601.format(253402300800000L);
+      fail("Year 10000 should not be encoded.");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testEncodeFromSeveralThreads() throws Exception {
+    UtcTimestampEncoder encoder = new UtcTimestampEncoder(':', '.');
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    List<Future<Integer>> results = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      final long seed = t;
+      Callable<Integer> task =
+          () -> {
+            // each thread has its own formatter as SimpleDateFormat is not thread-safe
+            SimpleDateFormat expected =
+                new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+            expected.setTimeZone(TimeZone.getTimeZone("UTC"));
+            Random threadRandom = new Random(seed);
+            byte[] buffer = new byte[UtcTimestampEncoder.LENGTH];
+            int mismatches = 0;
+            for (int i = 0; i < SAMPLES; i++) {
+              // times spread over a few minutes so the cached minute keeps changing
+              long timeMillis = 1594512156000L + threadRandom.nextInt(5 * 60 * 1000);
+              encoder.encode(timeMillis, buffer, 0);
+              if (!expected
+                  .format(timeMillis)
+                  .equals(new String(buffer, StandardCharsets.US_ASCII))) {
+                mismatches++;
+              }
+            }
+            return mismatches;
+          };
+      results.add(executor.submit(task));
+    }
+
+    for (Future<Integer> result : results) {
+      assertEquals(0, (int) result.get());
+    }
+    executor.shutdown();
+  }
+
+  @After
+  public void tearDown() {
+    sdf = null;
+    random = null;
+  }
+}